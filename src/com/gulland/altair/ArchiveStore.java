@@ -0,0 +1,736 @@
+/**
+ * ArchiveStore.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Checksum;
+
+/**
+ * <p>
+ * Stores the files of a task in a few large archive volumes in the destination
+ * rather than as a file each. Files are appended one after another to the
+ * current volume, so a tree of many small files is written as one sequential
+ * stream without creating, closing and setting the time stamp of a
+ * destination file for each.
+ * </p>
+ *
+ * <p>
+ * The archive index, kept in the destination with the volumes, records the
+ * volume, offset, length, time stamp and checksum of every file. Rules are
+ * applied to the index so no destination file is read, and a restore reads
+ * any one file directly from its volume.
+ * </p>
+ *
+ * <p>
+ * A file copied again is appended and its previous copy becomes dead space.
+ * When a volume is less than half live its files are moved to the current
+ * volume and it is deleted. The index is written to a temporary file that
+ * replaces it once the volumes are on disk, so a run that dies leaves the
+ * archive as it was after the previous save, and anything written since is
+ * dropped when the archive is next opened.
+ * </p>
+ *
+ * @author agulland
+ */
+public class ArchiveStore
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** name of the archive index in the destination */
+	public static final String INDEX_NAME = "archive.idx";
+
+	/** names of the archive volumes */
+	private static final Pattern VOLUME_PATTERN = Pattern
+			.compile("archive-(\\d+)\\.dat");
+
+	/** size a volume is filled to before the next volume is started */
+	public static final long VOLUME_SIZE = 1024L * 1024 * 1024;
+
+	/** size of the chunks files are copied in */
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	/** version of the archive index format */
+	private static final int VERSION = 1;
+
+	/** character set of the archive index */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** the task destination, holding the volumes and index */
+	private final Path folder;
+
+	/** the archived files keyed by relative path */
+	private final ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<String, Entry>();
+
+	/** the volumes and the length of each recorded in the index */
+	private final TreeMap<Integer, Long> volumes = new TreeMap<Integer, Long>();
+
+	/** false if the checksums were taken with another algorithm */
+	private boolean checksumsKnown = true;
+
+	/** the volume files are appended to and its channel, null until written */
+	private int current;
+	private FileChannel out;
+
+	/** serialises appends to the current volume and saving */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** buffer files are appended through */
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+
+	/** files appended and restored in this run and their total size */
+	private final AtomicLong filesWritten = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong filesRestored = new AtomicLong();
+	private final AtomicLong bytesRestored = new AtomicLong();
+
+	/**
+	 * Creates an empty archive
+	 */
+	private ArchiveStore(Path folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * Opens the archive of a task. Volumes the index doesn't know of, and
+	 * anything beyond the recorded end of a volume, are left by a run that died
+	 * and are deleted before the archive is written to.
+	 *
+	 * @param folder
+	 *          the task destination
+	 * @param write
+	 *          true to back up to the archive, false to restore from it
+	 * @return the archive
+	 * @throws IOException
+	 *           if the index can't be read, or is missing while there are
+	 *           volumes
+	 */
+	public static ArchiveStore open(Path folder, boolean write)
+			throws IOException {
+		ArchiveStore archive = new ArchiveStore(folder);
+		Path index = folder.resolve(INDEX_NAME);
+		List<Integer> found = archive.listVolumes();
+		if (Files.exists(index)) archive.read(index);
+		else if (!found.isEmpty()) throw new IOException("Archive index missing in "
+				+ folder);
+
+		if (write) {
+			for (Integer volume : found) {
+				if (!archive.volumes.containsKey(volume)) {
+					logger.detail("Deleting volume " + volume
+							+ " not in the archive index");
+					Files.deleteIfExists(archive.getVolume(volume));
+				}
+			}
+		}
+		if (!archive.volumes.isEmpty()) archive.current = archive.volumes.lastKey();
+		logger.info("Opened archive with " + archive.entries.size() + " files in "
+				+ archive.volumes.size() + " volumes");
+		return archive;
+	}
+
+	/**
+	 * Returns the archived file at a path
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @return the entry or null if the file isn't archived
+	 */
+	public Entry get(String relative) {
+		return entries.get(relative);
+	}
+
+	/**
+	 * Returns the checksum of an archived file, taken with the algorithm of
+	 * <code>HashCache</code>
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @return the checksum, or null if the file isn't archived or the checksum
+	 *         was taken with another algorithm
+	 */
+	public Long getChecksum(String relative) {
+		Entry entry = entries.get(relative);
+		if ((entry == null) || (!checksumsKnown)) return null;
+		return Long.valueOf(entry.checksum);
+	}
+
+	/**
+	 * Returns the paths of the archived files in the order they are stored, so
+	 * a restore of every file reads each volume from start to end
+	 *
+	 * @return the relative paths
+	 */
+	public List<String> list() {
+		List<Map.Entry<String, Entry>> stored = new ArrayList<Map.Entry<String, Entry>>(
+				entries.entrySet());
+		Collections.sort(stored, new Comparator<Map.Entry<String, Entry>>() {
+			public int compare(Map.Entry<String, Entry> a, Map.Entry<String, Entry> b) {
+				Entry x = a.getValue();
+				Entry y = b.getValue();
+				if (x.volume != y.volume) return (x.volume < y.volume) ? -1 : 1;
+				return (x.offset < y.offset) ? -1 : ((x.offset == y.offset) ? 0 : 1);
+			}
+		});
+		List<String> paths = new ArrayList<String>(stored.size());
+		for (Map.Entry<String, Entry> e : stored) {
+			paths.add(e.getKey());
+		}
+		return paths;
+	}
+
+	/**
+	 * Appends a file to the archive, replacing any previous copy
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @param source
+	 *          the source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param monitor
+	 *          checked between chunks, may be null
+	 * @return true if the file was archived, false if it failed or was stopped
+	 */
+	public boolean add(String relative, Path source,
+			BasicFileAttributes sourceAttrs, CopyMonitor monitor) {
+		lock.lock();
+		try {
+			// names that can't be written to the index are never archived
+			if ((relative.indexOf('\t') >= 0) || (relative.indexOf('\n') >= 0)
+					|| (relative.indexOf('\r') >= 0)) {
+				logger.warn("Could not archive '" + relative
+						+ "', name can't be held in the archive index");
+				return false;
+			}
+
+			logger.detail("Archiving file " + source.toAbsolutePath());
+			long start = 0;
+			try {
+				FileChannel output = output();
+				start = volumes.get(current).longValue();
+				output.position(start);
+
+				Checksum checksum = HashCache.newChecksum();
+				ByteBuffer buffer = ByteBuffer.wrap(chunk);
+				long length = 0;
+				FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				try {
+					int n;
+					while ((n = in.read(buffer)) >= 0) {
+						if (n > 0) {
+							checksum.update(chunk, 0, n);
+							buffer.flip();
+							while (buffer.hasRemaining()) {
+								output.write(buffer);
+							}
+							length += n;
+						}
+						buffer.clear();
+
+						if (monitor != null) {
+							monitor.waitIfPaused();
+							if (monitor.isCancelled()) {
+								logger.warn("Archiving of " + source + " stopped");
+								return false;
+							}
+						}
+					}
+				} finally {
+					in.close();
+				}
+
+				entries.put(relative, new Entry(current, start, length, sourceAttrs
+						.lastModifiedTime().toMillis(), checksum.getValue()));
+				volumes.put(Integer.valueOf(current), Long.valueOf(start + length));
+				filesWritten.incrementAndGet();
+				bytesWritten.addAndGet(length);
+				return true;
+			} catch (AccessDeniedException e) {
+				logger.warn("Could not read source file: '" + source
+						+ "' or write archive in '" + folder
+						+ "'. Check permissions or that it is not locked by another process.");
+				return false;
+			} catch (NoSuchFileException e) {
+				logger.warn("Could not access file " + e.getMessage());
+				return false;
+			} catch (IOException e) {
+				logger.warn("Could not backup file " + e.getMessage());
+				return false;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the archived files of a folder that are no longer in its source,
+	 * with everything below removed subfolders
+	 *
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 * @param names
+	 *          names of the entries of the source folder
+	 * @return number of files removed
+	 */
+	public int retain(String relative, Set<String> names) {
+		String prefix = (relative.length() == 0) ? "" : relative + "/";
+		int removed = 0;
+		Iterator<String> keys = entries.subMap(prefix, prefix + '\uffff').keySet()
+				.iterator();
+		while (keys.hasNext()) {
+			String key = keys.next();
+			String name = key.substring(prefix.length());
+			int slash = name.indexOf('/');
+			if (slash >= 0) name = name.substring(0, slash);
+			if (!names.contains(name)) {
+				keys.remove();
+				logger.detail("'" + key + "' deleted from archive");
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes an archived file, or a folder and everything below it
+	 *
+	 * @param relative
+	 *          path of the file or folder relative to the task folder
+	 * @return number of files removed
+	 */
+	public int remove(String relative) {
+		if (entries.remove(relative) != null) return 1;
+		int removed = 0;
+		String prefix = relative + "/";
+		Iterator<String> keys = entries.subMap(prefix, prefix + '\uffff').keySet()
+				.iterator();
+		while (keys.hasNext()) {
+			keys.next();
+			keys.remove();
+			removed++;
+		}
+		return removed;
+	}
+
+	/**
+	 * Restores an archived file, reading it directly from its volume
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @param destination
+	 *          the file restored
+	 * @param monitor
+	 *          checked between chunks, may be null
+	 * @return true if the file was restored, false if it failed or was stopped
+	 */
+	public boolean extract(String relative, Path destination, CopyMonitor monitor) {
+		Entry entry = entries.get(relative);
+		if (entry == null) return false;
+
+		logger.detail("Restoring file " + relative + " from archive");
+		Path temp = destination.resolveSibling(destination.getFileName()
+				+ BackupUtil.PARTIAL_SUFFIX);
+		try {
+			try {
+				Checksum checksum = HashCache.newChecksum();
+				byte[] data = new byte[(int) Math.min(CHUNK_SIZE, Math.max(1,
+						entry.length))];
+				FileChannel in = FileChannel.open(getVolume(entry.volume),
+						StandardOpenOption.READ);
+				try {
+					FileChannel output = FileChannel.open(temp,
+							StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING);
+					try {
+						long position = 0;
+						while (position < entry.length) {
+							if (monitor != null) {
+								monitor.waitIfPaused();
+								if (monitor.isCancelled()) {
+									logger.warn("Restore of " + relative + " stopped");
+									return false;
+								}
+							}
+
+							ByteBuffer buffer = ByteBuffer.wrap(data, 0, (int) Math.min(
+									data.length, entry.length - position));
+							while (buffer.hasRemaining()) {
+								if (in.read(buffer, entry.offset + position + buffer.position()) < 0) {
+									throw new IOException("Archive volume " + entry.volume
+											+ " ends before '" + relative + "'");
+								}
+							}
+							checksum.update(data, 0, buffer.position());
+							buffer.flip();
+							while (buffer.hasRemaining()) {
+								output.write(buffer);
+							}
+							position += buffer.limit();
+						}
+					} finally {
+						output.close();
+					}
+				} finally {
+					in.close();
+				}
+
+				if ((checksumsKnown) && (checksum.getValue() != entry.checksum)) {
+					throw new IOException("Checksum of '" + relative
+							+ "' doesn't match the archive index");
+				}
+				Files.setLastModifiedTime(temp, FileTime.fromMillis(entry.lastModified));
+				try {
+					Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} catch (IOException e) {
+					// some file systems can't replace atomically
+					Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+				}
+				filesRestored.incrementAndGet();
+				bytesRestored.addAndGet(entry.length);
+				return true;
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (AccessDeniedException e) {
+			logger.warn("Could not read archive in '" + folder
+					+ "' or write file '" + destination
+					+ "'. Check permissions or that it is not locked by another process.");
+			return false;
+		} catch (NoSuchFileException e) {
+			logger.warn("Could not access file " + e.getMessage());
+			return false;
+		} catch (IOException e) {
+			logger.warn("Could not restore file " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Saves the archive. The current volume is flushed to disk before the index
+	 * that refers to it is written, then volumes with no live files left are
+	 * deleted.
+	 *
+	 * @param compact
+	 *          true to first move the files of volumes less than half live to
+	 *          the current volume
+	 * @throws IOException
+	 *           if the archive could not be written
+	 */
+	public void save(boolean compact) throws IOException {
+		lock.lock();
+		try {
+			if (compact) compact();
+
+			if (out != null) {
+				out.truncate(volumes.get(current).longValue());
+				out.force(false);
+				out.close();
+				out = null;
+			}
+
+			// the volumes still holding files
+			Map<Integer, Long> live = getLiveBytes();
+			List<Integer> dead = new ArrayList<Integer>();
+			for (Integer volume : volumes.keySet()) {
+				if (!live.containsKey(volume)) dead.add(volume);
+			}
+			for (Integer volume : dead) {
+				volumes.remove(volume);
+			}
+			writeIndex();
+
+			for (Integer volume : dead) {
+				logger.detail("Deleting archive volume " + volume);
+				Files.deleteIfExists(getVolume(volume.intValue()));
+			}
+			if ((current > 0) && (!volumes.containsKey(Integer.valueOf(current)))) {
+				current = volumes.isEmpty() ? 0 : volumes.lastKey().intValue();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the files of volumes less than half live to the current volume
+	 */
+	private void compact() throws IOException {
+		Map<Integer, Long> live = getLiveBytes();
+		for (Map.Entry<Integer, Long> volume : new TreeMap<Integer, Long>(volumes)
+				.entrySet()) {
+			int number = volume.getKey().intValue();
+			Long liveBytes = live.get(volume.getKey());
+			if ((number == current) || (liveBytes == null)
+					|| (liveBytes.longValue() * 2 >= volume.getValue().longValue())) {
+				continue;
+			}
+
+			logger.detail("Compacting archive volume " + number + ", "
+					+ liveBytes + " of " + volume.getValue() + " bytes live");
+			FileChannel in = FileChannel.open(getVolume(number),
+					StandardOpenOption.READ);
+			try {
+				for (Map.Entry<String, Entry> e : entries.entrySet()) {
+					Entry entry = e.getValue();
+					if (entry.volume != number) continue;
+
+					FileChannel output = output();
+					long start = volumes.get(current).longValue();
+					output.position(start);
+					long position = 0;
+					while (position < entry.length) {
+						position += in.transferTo(entry.offset + position, entry.length
+								- position, output);
+					}
+					entries.put(e.getKey(), new Entry(current, start, entry.length,
+							entry.lastModified, entry.checksum));
+					volumes.put(Integer.valueOf(current), Long.valueOf(start
+							+ entry.length));
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the bytes of live files in each volume holding any
+	 */
+	private Map<Integer, Long> getLiveBytes() {
+		Map<Integer, Long> live = new TreeMap<Integer, Long>();
+		for (Entry entry : entries.values()) {
+			Long bytes = live.get(Integer.valueOf(entry.volume));
+			live.put(Integer.valueOf(entry.volume), Long.valueOf(((bytes == null) ? 0
+					: bytes.longValue()) + entry.length));
+		}
+		return live;
+	}
+
+	/**
+	 * Returns the channel of the volume files are appended to, starting a new
+	 * volume once the current one is full
+	 */
+	private FileChannel output() throws IOException {
+		if ((out != null) && (volumes.get(current).longValue() >= VOLUME_SIZE)) {
+			out.truncate(volumes.get(current).longValue());
+			out.force(false);
+			out.close();
+			out = null;
+		}
+		if (out == null) {
+			if ((current == 0)
+					|| (volumes.get(Integer.valueOf(current)).longValue() >= VOLUME_SIZE)) {
+				current = volumes.isEmpty() ? 1 : volumes.lastKey().intValue() + 1;
+				volumes.put(Integer.valueOf(current), Long.valueOf(0));
+				logger.detail("Starting archive volume " + current);
+			}
+			Files.createDirectories(folder);
+			out = FileChannel.open(getVolume(current), StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE);
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the file of a volume
+	 */
+	private Path getVolume(int volume) {
+		return folder.resolve(String.format("archive-%05d.dat", volume));
+	}
+
+	/**
+	 * Returns the numbers of the volumes in the destination
+	 */
+	private List<Integer> listVolumes() {
+		List<Integer> found = new ArrayList<Integer>();
+		File[] contents = folder.toFile().listFiles();
+		for (int i = 0; (contents != null) && (i < contents.length); i++) {
+			Matcher m = VOLUME_PATTERN.matcher(contents[i].getName());
+			if (m.matches()) found.add(Integer.valueOf(m.group(1)));
+		}
+		return found;
+	}
+
+	/**
+	 * Writes the index to a temporary file that then replaces the index
+	 */
+	private void writeIndex() throws IOException {
+		Files.createDirectories(folder);
+		Path index = folder.resolve(INDEX_NAME);
+		Path temp = folder.resolve(INDEX_NAME + ".tmp");
+		BufferedWriter bw = Files.newBufferedWriter(temp, UTF8);
+		try {
+			bw.write("version=" + VERSION);
+			bw.newLine();
+			bw.write("algorithm=" + (checksumsKnown ? HashCache.ALGORITHM : "-"));
+			bw.newLine();
+			for (Map.Entry<Integer, Long> volume : volumes.entrySet()) {
+				bw.write("volume=" + volume.getKey() + "\t" + volume.getValue());
+				bw.newLine();
+			}
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				Entry entry = e.getValue();
+				bw.write(entry.volume + "\t" + entry.offset + "\t" + entry.length
+						+ "\t" + entry.lastModified + "\t"
+						+ Long.toHexString(entry.checksum) + "\t" + e.getKey());
+				bw.newLine();
+			}
+		} finally {
+			bw.close();
+		}
+
+		try {
+			Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// some file systems can't replace atomically
+			Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads the index
+	 */
+	private void read(Path index) throws IOException {
+		BufferedReader br = Files.newBufferedReader(index, UTF8);
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("version=")) {
+					int version = Integer.parseInt(line.substring(8));
+					if (version != VERSION) throw new IOException(
+							"Unsupported archive index version " + version);
+				} else if (line.startsWith("algorithm=")) {
+					checksumsKnown = line.substring(10).equals(HashCache.ALGORITHM);
+				} else if (line.startsWith("volume=")) {
+					String[] fields = line.substring(7).split("\t");
+					volumes.put(Integer.valueOf(fields[0]), Long.valueOf(fields[1]));
+				} else if (line.length() > 0) {
+					String[] fields = line.split("\t", 6);
+					if (fields.length != 6) throw new IOException(
+							"Invalid archive index line '" + line + "'");
+					entries.put(fields[5], new Entry(Integer.parseInt(fields[0]), Long
+							.parseLong(fields[1]), Long.parseLong(fields[2]), Long
+							.parseLong(fields[3]), Long.parseLong(fields[4], 16)));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid archive index: " + e.getMessage());
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Invalid archive index: " + e.getMessage());
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * Returns the number of files appended to the archive in this run
+	 *
+	 * @return number of files
+	 */
+	public long getFilesWritten() {
+		return filesWritten.get();
+	}
+
+	/**
+	 * Returns the number of files restored from the archive in this run
+	 *
+	 * @return number of files
+	 */
+	public long getFilesRestored() {
+		return filesRestored.get();
+	}
+
+	/**
+	 * Returns the archive and the work done on it in this run in a nicely
+	 * formatted string
+	 */
+	public String toString() {
+		String s = "Archive: " + entries.size() + " files in " + volumes.size()
+				+ " volumes";
+		if (filesWritten.get() > 0) s += ", " + filesWritten.get()
+				+ " files appended (" + bytesWritten.get() + " bytes)";
+		if (filesRestored.get() > 0) s += ", " + filesRestored.get()
+				+ " files restored (" + bytesRestored.get() + " bytes)";
+		return s;
+	}
+
+	/**
+	 * The location and state of a single archived file
+	 */
+	public static class Entry
+	{
+		/** volume holding the file, the offset of the file and its length */
+		private final int volume;
+		private final long offset;
+		private final long length;
+
+		/** time stamp of the source file in milliseconds */
+		private final long lastModified;
+
+		/** checksum of the file content */
+		private final long checksum;
+
+		Entry(int volume, long offset, long length, long lastModified,
+				long checksum) {
+			this.volume = volume;
+			this.offset = offset;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+		}
+
+		/**
+		 * Returns the size of the archived file
+		 *
+		 * @return size in bytes
+		 */
+		public long getSize() {
+			return length;
+		}
+
+		/**
+		 * Returns the time stamp of the source file when archived
+		 *
+		 * @return time stamp in milliseconds
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+}
@@ -4,11 +4,100 @@
  * Who      When        What
  * -------- ----------  --------------------------------------------------------
  * agulland  1 Aug 2004 Class created
+ * agulland 16 Oct 2026 Added fork/join traversal engine so that subfolders can
+ *                      be backed up in parallel
+ * agulland 16 Oct 2026 Added pipeline engine that scans, compares and copies on
+ *                      separate threads
+ * agulland 16 Oct 2026 Traversal rebuilt on java.nio.file so each entry is only
+ *                      read once, its attributes are passed on to the rules
+ * agulland 16 Oct 2026 Mirror delete reuses the source listing and finds orphans
+ *                      with a hash lookup
+ * agulland 16 Oct 2026 Added destination index so incremental runs can skip
+ *                      reading the destination. Folders are now processed with
+ *                      a TaskContext rather than a BackupTask per folder
+ * agulland 16 Oct 2026 Added incremental scan that skips listing source folders
+ *                      whose time stamp hasn't changed since the previous run
+ * agulland 16 Oct 2026 Added watch mode that keeps destinations up to date as
+ *                      the sources change once the tasks are backed up
+ * agulland 16 Oct 2026 Added asynchronous copies, each file is backed up on its
+ *                      own thread with a cap on the number in flight
+ * agulland 16 Oct 2026 Added scheduling by device, tasks then run at once and
+ *                      copies are limited per device
+ * agulland 16 Oct 2026 Tasks can run at once up to a limit, tasks with
+ *                      overlapping folders are run one after another. Metrics
+ *                      of every task and their total are logged at the end
+ * agulland 16 Oct 2026 Added submit which returns a BackupJob to wait for the
+ *                      report of the run, follow its progress or cancel it
+ * agulland 16 Oct 2026 A large file being copied stops between chunks, mirror
+ *                      delete keeps the temporary files of copies to resume
+ * agulland 16 Oct 2026 Added run journal so a run that died or was stopped can
+ *                      be resumed without redoing the work it recorded
+ * agulland 16 Oct 2026 Large changed files of tasks with a delta size are
+ *                      updated with a delta copy
+ * agulland 16 Oct 2026 Added checksum rule which compares size then a content
+ *                      hash, hashes are cached in the state folder
+ * agulland 16 Oct 2026 Tasks with the dedup flag set back up files through a
+ *                      content addressed store in the destination
+ * agulland 16 Oct 2026 Tasks with snapshots write each run to a new dated
+ *                      folder, linking files unchanged since the previous one
+ * agulland 16 Oct 2026 Tasks with the compress flag set compress files in
+ *                      parallel blocks, restores decompress them
+ * agulland 16 Oct 2026 Tasks with the archive flag set append files to archive
+ *                      volumes, restores read them back through its index
+ * agulland 16 Oct 2026 Files are copied with the copy strategies calibrated for
+ *                      the task, added calibrate mode
+ * agulland 16 Oct 2026 Tasks with the durable flag set commit their copies in
+ *                      synced batches
+ * agulland 16 Oct 2026 Added the size from which files are copied in parallel
+ *                      ranges
+ * agulland 16 Oct 2026 Copies and scans are throttled for the run and for each
+ *                      task, the limits can be changed while running
+ * agulland 16 Oct 2026 Copies are checksummed for tasks that verify them or keep
+ *                      a manifest, added audit mode
+ * agulland 16 Oct 2026 Mirror delete is again limited to the task folder
+ * agulland 16 Oct 2026 Incremental tasks make a full scan every 10 runs unless
+ *                      set otherwise
+ * agulland 16 Oct 2026 Durable copies are recorded in the index, manifest and
+ *                      hash cache once committed
+ * agulland 16 Oct 2026 Paused threads wait on a lock rather than a monitor so
+ *                      a paused virtual thread isn't pinned
+ * agulland 17 Oct 2026 Files are only copied in parallel ranges once a parallel
+ *                      size is set
  */
 
 package com.gulland.altair;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Checksum;
 
 /**
  * <p>
@@ -28,6 +117,14 @@ import java.io.File;
  * </pre>
  * 
  * <p>
+ * or, to wait for the run and get its report,
+ * </p>
+ * 
+ * <pre>
+ * BackupReport report = new Backup(t).submit(false).get();
+ * </pre>
+ * 
+ * <p>
  * This class can also perform restore operations by setting the boolean to true
  * in the above <code>start</code> method.
  * </p>
@@ -38,6 +135,108 @@ import java.io.File;
  * </p>
  * 
  * <p>
+ * By default folders are processed one at a time on the internal thread. Using
+ * <code>setEngine(Backup.FORK_JOIN)</code> the subfolders of a task are split
+ * into sub tasks that are executed, and stolen, by a pool of worker threads.
+ * The number of threads is set with <code>setThreads</code>.
+ * </p>
+ * 
+ * <p>
+ * <code>Backup.PIPELINE</code> splits each task into a scanner, a comparator and
+ * a pool of copy workers connected by bounded queues, see
+ * <code>BackupPipeline</code>. Here the number of threads sets the number of
+ * copy workers.
+ * </p>
+ * 
+ * <p>
+ * Tasks with the index flag set keep a <code>DestinationIndex</code> in the
+ * state folder, set with <code>setStateFolder</code>, and evaluate their rule
+ * against it instead of reading each destination file.
+ * </p>
+ * 
+ * <p>
+ * Tasks with the incremental flag set keep a <code>FolderState</code> in the
+ * state folder and don't list source folders whose time stamp is unchanged
+ * since the previous run. A full scan is made every
+ * <code>setFullScanInterval</code> runs, 10 unless set, as files written in
+ * place are only found by a full scan.
+ * </p>
+ * 
+ * <p>
+ * With <code>setWatch</code> the backup doesn't end once the tasks are backed
+ * up but watches the task sources and backs up changes as they happen, see
+ * <code>BackupWatcher</code>, until stopped.
+ * </p>
+ * 
+ * <p>
+ * With <code>setAsyncCopies</code> the sequential and fork/join engines hand
+ * each file to a <code>CopyExecutor</code> rather than backing it up on the
+ * thread walking the folders, which suits destinations with a high latency per
+ * file.
+ * </p>
+ * 
+ * <p>
+ * With <code>setDeviceScheduler</code> the tasks are run at the same time and
+ * every copy holds a permit on its source and destination devices, see
+ * <code>DeviceScheduler</code>.
+ * </p>
+ * 
+ * <p>
+ * <code>setConcurrentTasks</code> sets how many tasks run at once. A task whose
+ * destination is the same as, above or below a folder of an earlier task waits
+ * for that task to complete.
+ * </p>
+ * 
+ * <p>
+ * When a state folder is set each task keeps a <code>RunJournal</code> of the
+ * files and folders backed up while it runs. If the run dies or is stopped,
+ * a run with <code>setResume</code> skips the work the journal records.
+ * </p>
+ * 
+ * <p>
+ * Tasks with the dedup flag set store each distinct file content once in a
+ * <code>DedupStore</code> in the destination, destination files being hard
+ * links to it.
+ * </p>
+ * 
+ * <p>
+ * Tasks with snapshots write each run to a new <code>Snapshot</code> folder in
+ * the destination. Files unchanged since the previous snapshot are hard linked
+ * to it rather than copied. A restore restores the latest snapshot.
+ * </p>
+ * 
+ * <p>
+ * Tasks with the compress flag set write files through a
+ * <code>BlockCompressor</code>, and decompress them when restored.
+ * </p>
+ * 
+ * <p>
+ * Tasks with the archive flag set append their files to the volumes of an
+ * <code>ArchiveStore</code> in the destination instead of writing a file for
+ * each, and are restored from it.
+ * </p>
+ * 
+ * <p>
+ * Tasks with the durable flag set write each file to a temporary file, which a
+ * <code>GroupCommit</code> syncs and moves into place in batches.
+ * </p>
+ * 
+ * <p>
+ * <code>getThrottle</code> returns the <code>Throttle</code> limiting the bytes
+ * copied and files scanned per second, and files open at once, of the whole
+ * run, and <code>getThrottle(BackupTask)</code> that of a single task. Their
+ * limits can be changed while the backup runs.
+ * </p>
+ * 
+ * <p>
+ * Tasks with the manifest or verify-copy flag set checksum each file as it is
+ * copied. The checksums are kept in the <code>Manifest</code> of the
+ * destination, or each copy is read back and compared, or both. In audit mode,
+ * set with <code>setAudit</code>, the destination of each task is checked
+ * against its manifest instead of being backed up.
+ * </p>
+ * 
+ * <p>
  * Logging notes:
  * <ul>
  * <li>Trace - writes out info on every file found</li>
@@ -46,7 +245,7 @@ import java.io.File;
  * <li>Warn - missing folders etc</li>
  * </p>
  */
-public class Backup implements Runnable
+public class Backup implements Runnable, CopyMonitor
 {
 	/** define logging object */
 	private static final BackupLogger logger = BackupLogger.getLogger();
@@ -63,6 +262,92 @@ public class Backup implements Runnable
 	/** controls the pause of the thread */
 	private volatile boolean threadSuspended = false;
 
+	/** lock paused threads wait on, signalled when resumed or stopped */
+	private final ReentrantLock pauseLock = new ReentrantLock();
+	private final Condition pauseChanged = pauseLock.newCondition();
+
+	/** the thread executing the run method, used by worker threads to test for stop */
+	private volatile Thread runThread;
+
+	/** traversal engine used to process the tasks */
+	private int engine = Backup.SEQUENTIAL;
+
+	/** number of worker threads used by the parallel engines */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/** Value for engine. Folders are processed one at a time on a single thread */
+	public static final int SEQUENTIAL = 0;
+
+	/**
+	 * Value for engine. Subfolders are processed in parallel by a fork/join pool
+	 * of worker threads
+	 */
+	public static final int FORK_JOIN = 1;
+
+	/**
+	 * Value for engine. Scanning, rule evaluation and copying are run as separate
+	 * stages connected by bounded queues
+	 */
+	public static final int PIPELINE = 2;
+
+	/** Array of engine names */
+	private static String[] engineNames = new String[] { "sequential",
+			"fork-join", "pipeline" };
+
+	/** pipeline of the task currently being processed by the pipeline engine */
+	private volatile BackupPipeline currentPipeline;
+
+	/** folder where task state such as destination indexes is kept */
+	private File stateFolder;
+
+	/** number of runs between verifying the destination index, 0 for never */
+	private int verifyInterval = 0;
+
+	/** if true every destination index is rebuilt in this run */
+	private boolean forceVerify = false;
+
+	/** if true the work recorded by the run journal of each task is skipped */
+	private boolean resume = false;
+
+	/** if true the copy strategies of each task are calibrated in this run */
+	private boolean calibrate = false;
+
+	/** if true the destinations are audited against their manifests */
+	private boolean audit = false;
+
+	/** number of runs between full scans of incremental tasks, 0 for never */
+	private int fullScanInterval = FolderState.DEFAULT_FULL_SCAN_INTERVAL;
+
+	/** if true the task sources are watched for changes once backed up */
+	private boolean watch = false;
+
+	/** time in milliseconds a watched path must be quiet before it is backed up */
+	private long watchDebounce = BackupWatcher.DEFAULT_DEBOUNCE;
+
+	/** maximum number of files backed up asynchronously, 0 for none */
+	private int asyncCopies = 0;
+
+	/** limits copies per device, null if not scheduled by device */
+	private DeviceScheduler deviceScheduler;
+
+	/** maximum number of tasks run at once, 0 if not set */
+	private int concurrentTasks = 0;
+
+	/** files of this size or more are copied in parallel ranges, 0 for none */
+	private long parallelSize = 0;
+
+	/** progress of the run, updated from every worker thread */
+	private volatile BackupProgress progress = new BackupProgress();
+
+	/** handle on the run, completed with its report */
+	private volatile BackupJob job;
+
+	/** throttle of the whole run */
+	private final Throttle throttle = new Throttle(null);
+
+	/** throttle of each task, within the throttle of the run */
+	private final Map<BackupTask, Throttle> taskThrottles = new HashMap<BackupTask, Throttle>();
+
 	/**
 	 * Creates a new instance of BackupUtility
 	 * 
@@ -71,6 +356,275 @@ public class Backup implements Runnable
 	 */
 	public Backup(BackupTask[] tasks) {
 		this.tasks = tasks;
+		for (int i = 0; i < tasks.length; i++) {
+			Throttle taskThrottle = new Throttle(this.throttle);
+			taskThrottle.setBytesPerSecond(tasks[i].getBytesPerSecond());
+			taskThrottle.setFilesPerSecond(tasks[i].getFilesPerSecond());
+			taskThrottle.setMaxOpen(tasks[i].getMaxOpen());
+			taskThrottles.put(tasks[i], taskThrottle);
+		}
+	}
+
+	/**
+	 * Returns the throttle of the whole run. Its limits may be changed at any
+	 * time, including while the backup runs.
+	 * 
+	 * @return the throttle
+	 */
+	public Throttle getThrottle() {
+		return this.throttle;
+	}
+
+	/**
+	 * Returns the throttle of a task, set from the limits of the task. Its limits
+	 * may be changed at any time, including while the backup runs.
+	 * 
+	 * @param task
+	 *          one of the tasks of the backup
+	 * @return the throttle or null if the task isn't one of the backup
+	 */
+	public Throttle getThrottle(BackupTask task) {
+		return taskThrottles.get(task);
+	}
+
+	/**
+	 * Sets the engine used to traverse the task folders. Must be set before the
+	 * backup is started.
+	 * 
+	 * @param engine
+	 *          one of Backup.SEQUENTIAL, Backup.FORK_JOIN or Backup.PIPELINE
+	 */
+	public void setEngine(int engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Returns the engine used to traverse the task folders
+	 * 
+	 * @return the engine value
+	 */
+	public int getEngine() {
+		return this.engine;
+	}
+
+	/**
+	 * Sets the number of worker threads used by the parallel engines. Values less
+	 * than 1 are ignored.
+	 * 
+	 * @param threads
+	 *          the number of worker threads
+	 */
+	public void setThreads(int threads) {
+		if (threads > 0) this.threads = threads;
+	}
+
+	/**
+	 * Returns the number of worker threads used by the parallel engines
+	 * 
+	 * @return number of worker threads
+	 */
+	public int getThreads() {
+		return this.threads;
+	}
+
+	/**
+	 * Sets the folder where task state such as destination indexes is kept.
+	 * Tasks that need state are processed without it if this isn't set.
+	 * 
+	 * @param stateFolder
+	 *          the state folder
+	 */
+	public void setStateFolder(File stateFolder) {
+		this.stateFolder = stateFolder;
+	}
+
+	/**
+	 * Returns the folder where task state is kept
+	 * 
+	 * @return the state folder or null if not set
+	 */
+	public File getStateFolder() {
+		return this.stateFolder;
+	}
+
+	/**
+	 * Sets the number of runs after which a destination index is ignored and
+	 * rebuilt by reading the destination
+	 * 
+	 * @param verifyInterval
+	 *          number of runs, 0 to only verify when forced
+	 */
+	public void setVerifyInterval(int verifyInterval) {
+		this.verifyInterval = verifyInterval;
+	}
+
+	/**
+	 * Sets the number of runs after which an incremental task lists every source
+	 * folder whether its time stamp changed or not
+	 * 
+	 * @param fullScanInterval
+	 *          number of runs, 0 to only do a full scan when forced in which
+	 *          case files written in place are not backed up
+	 */
+	public void setFullScanInterval(int fullScanInterval) {
+		this.fullScanInterval = fullScanInterval;
+	}
+
+	/**
+	 * Forces every destination index to be rebuilt by reading the destination,
+	 * and every incremental task to make a full scan, in this run
+	 * 
+	 * @param forceVerify
+	 *          true to verify the destination
+	 */
+	public void setForceVerify(boolean forceVerify) {
+		this.forceVerify = forceVerify;
+	}
+
+	/**
+	 * Sets resume mode. Files and folders recorded in the run journal of a task
+	 * left by a previous run that died or was stopped are not backed up again,
+	 * unless changed since. Needs a state folder.
+	 * 
+	 * @param resume
+	 *          true to continue from where the previous run stopped
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	/**
+	 * Sets calibrate mode. Every copy strategy is timed on the source and
+	 * destination of each task before it is backed up, and the fastest for each
+	 * size of file is kept in the state folder for later runs.
+	 * 
+	 * @param calibrate
+	 *          true to calibrate the copy strategies of each task
+	 */
+	public void setCalibrate(boolean calibrate) {
+		this.calibrate = calibrate;
+	}
+
+	/**
+	 * Sets audit mode. Rather than being backed up, the destination of each task
+	 * is read and checked against the checksums of its manifest. The sources
+	 * aren't read.
+	 * 
+	 * @param audit
+	 *          true to audit the destinations
+	 */
+	public void setAudit(boolean audit) {
+		this.audit = audit;
+	}
+
+	/**
+	 * Sets watch mode. Once the tasks are backed up their sources are watched and
+	 * changes backed up as they happen until the backup is stopped. Not used by a
+	 * restore.
+	 * 
+	 * @param watch
+	 *          true to watch the task sources
+	 */
+	public void setWatch(boolean watch) {
+		this.watch = watch;
+	}
+
+	/**
+	 * Sets the time a watched path must have no further changes before it is
+	 * backed up, so that a file being written is only copied once
+	 * 
+	 * @param watchDebounce
+	 *          time in milliseconds
+	 */
+	public void setWatchDebounce(long watchDebounce) {
+		if (watchDebounce >= 0) this.watchDebounce = watchDebounce;
+	}
+
+	/**
+	 * Sets the maximum number of files of a task backed up asynchronously at once
+	 * by the sequential and fork/join engines. With 0 each file is backed up by the
+	 * thread walking its folder. The pipeline engine has its own copy workers so
+	 * doesn't use this.
+	 * 
+	 * @param asyncCopies
+	 *          maximum number of files in flight, 0 for none
+	 */
+	public void setAsyncCopies(int asyncCopies) {
+		if (asyncCopies >= 0) this.asyncCopies = asyncCopies;
+	}
+
+	/**
+	 * Sets the maximum number of tasks run at once. Tasks whose folders overlap
+	 * are still run one after another, in script order.
+	 * 
+	 * @param concurrentTasks
+	 *          maximum number of tasks, 0 or 1 to run the tasks one after another
+	 */
+	public void setConcurrentTasks(int concurrentTasks) {
+		if (concurrentTasks >= 0) this.concurrentTasks = concurrentTasks;
+	}
+
+	/**
+	 * Sets the size from which files are copied as several ranges at once. It
+	 * is off by default as the ranges of a file share the one copy its device
+	 * limit allows, so only set it for a device that takes several streams.
+	 * 
+	 * @param parallelSize
+	 *          size in bytes, 0 to copy every file as one stream
+	 */
+	public void setParallelSize(long parallelSize) {
+		if (parallelSize >= 0) this.parallelSize = parallelSize;
+	}
+
+	/**
+	 * Sets the scheduler limiting the copies made at once on each device. When
+	 * set, and the number of tasks run at once is not, every task may run at the
+	 * same time rather than one after another.
+	 * 
+	 * @param deviceScheduler
+	 *          the scheduler, null to run the tasks one after another
+	 */
+	public void setDeviceScheduler(DeviceScheduler deviceScheduler) {
+		this.deviceScheduler = deviceScheduler;
+	}
+
+	/**
+	 * Returns the stages of the pipeline currently running so that their queue
+	 * depth and throughput can be monitored. Only available when using the
+	 * pipeline engine.
+	 * 
+	 * @return the pipeline stages or null if no pipeline is running
+	 */
+	public BackupPipeline.Stage[] getPipelineStages() {
+		BackupPipeline pipeline = this.currentPipeline;
+		if (pipeline != null) return pipeline.getStages();
+		else return null;
+	}
+
+	/**
+	 * Utility method to return a text description of a given engine
+	 * 
+	 * @param engine
+	 *          an engine value
+	 * @return the name of the engine
+	 */
+	public static String getEngineName(int engine) {
+		if ((engine >= 0) && (engine < engineNames.length)) return engineNames[engine];
+		else return "unknown value";
+	}
+
+	/**
+	 * Returns the engine value for a given engine name
+	 * 
+	 * @param name
+	 *          the name of an engine, as used in the script file
+	 * @return the engine value or -1 if the name is not recognised
+	 */
+	public static int getEngineValue(String name) {
+		for (int i = 0; i < engineNames.length; i++) {
+			if (engineNames[i].equals(name)) return i;
+		}
+		return -1;
 	}
 
 	/**
@@ -79,9 +633,25 @@ public class Backup implements Runnable
 	 * appropriate methods.
 	 */
 	public void start(boolean isRestore) {
+		this.submit(isRestore);
+	}
+
+	/**
+	 * Starts the backup routine, as <code>start</code> does, and returns a handle
+	 * to wait for its report, read its progress or cancel it
+	 * 
+	 * @param isRestore
+	 *          if true then the backup task executes in restore mode
+	 * @return the handle on the run
+	 */
+	public BackupJob submit(boolean isRestore) {
 		this.isRestore = isRestore;
+		this.progress = new BackupProgress();
+		BackupJob job = new BackupJob(this, this.progress);
+		this.job = job;
 		this.internalThread = new Thread(this);
 		this.internalThread.start();
+		return job;
 	}
 
 	/**
@@ -89,12 +659,20 @@ public class Backup implements Runnable
 	 * at every point for whether the routine has been stopped so there may be
 	 * some delay before termination. The code checks before processing a source
 	 * file so if the stop method is called while the routine is copying a file
-	 * that file will be copied in it's entirety before the code aborts.
+	 * that file will be copied in it's entirety before the code aborts, unless it
+	 * is a large file. A large file stops at the end of the current chunk and
+	 * resumes from its last checkpoint next run, see
+	 * <code>BackupUtil.copyFile</code>.
 	 */
-	public synchronized void stop() {
+	public void stop() {
 		logger.warn("backup operation cancelled");
-		this.internalThread = null;
-		notify();
+		pauseLock.lock();
+		try {
+			this.internalThread = null;
+			pauseChanged.signalAll();
+		} finally {
+			pauseLock.unlock();
+		}
 	}
 
 	/**
@@ -107,69 +685,828 @@ public class Backup implements Runnable
 	}
 
 	/**
-	 * resumes a paused execution
+	 * resumes a paused execution
+	 * 
+	 */
+	public void resume() {
+		logger.trace("backup operation resumed");
+		pauseLock.lock();
+		try {
+			threadSuspended = false;
+			pauseChanged.signalAll();
+		} finally {
+			pauseLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns true if the thread is still active
+	 * 
+	 * @return true if thread is alive
+	 */
+	public boolean isRunning() {
+		return ((internalThread != null) && internalThread.isAlive());
+	}
+
+	/**
+	 * Executes a backup or a restore job.
+	 * 
+	 * @param isRestore
+	 *          if true then the backup task executes in restore mode
+	 */
+	public void run() {
+		BackupJob job = this.job;
+
+		// contexts of the tasks backed up, for the report and watch mode
+		List<TaskContext> contexts = Collections
+				.synchronizedList(new ArrayList<TaskContext>());
+
+		try {
+			this.runTasks(contexts);
+		} catch (RuntimeException e) {
+			logger.warn("Backup failed, exception thrown: " + e.getMessage());
+			if (job != null) job.fail(e);
+			throw e;
+		} catch (Error e) {
+			if (job != null) job.fail(e);
+			throw e;
+		}
+
+		if (job != null) {
+			BackupReport report = new BackupReport(this.progress.snapshot(),
+					isCancelled());
+			for (TaskContext context : contexts) {
+				if (context.getMetric() != null) report.addTask(context.getTask(),
+						context.getMetric());
+			}
+			job.complete(report);
+		}
+	}
+
+	/**
+	 * Runs the tasks, then watches them if in watch mode
+	 * 
+	 * @param contexts
+	 *          the contexts of the tasks backed up are added to this list
+	 */
+	private void runTasks(List<TaskContext> contexts) {
+		this.runThread = Thread.currentThread();
+
+		// worker pool for the fork/join engine, shared by the tasks
+		ForkJoinPool pool = null;
+		if (this.engine == Backup.FORK_JOIN) {
+			logger.info("Using fork/join engine with " + this.threads + " threads");
+			pool = new ForkJoinPool(this.threads);
+		}
+
+		long start = System.currentTimeMillis();
+
+		// when copies are scheduled by device every task may run at once, the
+		// device limits decide how many copies actually run in parallel
+		int limit = this.concurrentTasks;
+		if ((limit == 0) && (this.deviceScheduler != null)) limit = this.tasks.length;
+
+		if (limit > 1) {
+			this.runConcurrently(pool, contexts, Math.min(limit, this.tasks.length));
+		} else {
+			for (int i = 0; i < this.tasks.length; i++) {
+				// Only do backup if we have not been stopped. Note we could replace
+				// above if statement with a while loop but there probably won't be much
+				// gain in performance
+				if (!isCancelled()) {
+					TaskContext context = this.runTask(this.tasks[i], pool);
+					if (context != null) contexts.add(context);
+
+					// check for being paused
+					waitIfPaused();
+				}
+			}
+		}
+
+		if (pool != null) pool.shutdown();
+
+		long elapsed = System.currentTimeMillis() - start;
+		if (contexts.size() > 1) this.logSummary(contexts, elapsed);
+
+		// keep destinations up to date until stopped
+		if ((this.watch) && (!isRestore) && (!this.audit) && (!isCancelled())
+				&& (!contexts.isEmpty())) {
+			new BackupWatcher(this, contexts, this.watchDebounce).run();
+			for (TaskContext context : contexts) {
+				if (context.getCopyExecutor() != null) context.getCopyExecutor().drain();
+				if (context.getGroupCommit() != null) context.getGroupCommit().flush();
+				this.saveContext(context);
+				if (context.getSnapshot() != null) context.getSnapshot().complete(
+						context.getTask().getSnapshots());
+			}
+		}
+
+		for (TaskContext context : contexts) {
+			if (context.getCopyExecutor() != null) context.getCopyExecutor()
+					.shutdown();
+		}
+	}
+
+	/**
+	 * Runs the tasks on a pool of task threads, at most <code>limit</code> at
+	 * once, and waits for them all to complete. Tasks are started in script
+	 * order, a task whose folders overlap those of an earlier task is only
+	 * started once that task is complete.
+	 * 
+	 * @param pool
+	 *          the fork/join pool or null if not using the fork/join engine
+	 * @param contexts
+	 *          the contexts of the tasks backed up are added to this list
+	 * @param limit
+	 *          maximum number of tasks running at once
+	 */
+	private void runConcurrently(final ForkJoinPool pool,
+			final List<TaskContext> contexts, int limit) {
+		logger.info("Running up to " + limit + " tasks at once");
+		ExecutorService taskPool = Executors.newFixedThreadPool(limit,
+				new ThreadFactory() {
+					private int count = 0;
+
+					public synchronized Thread newThread(Runnable r) {
+						return new Thread(r, "task-" + (++count));
+					}
+				});
+		CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(
+				taskPool);
+
+		// tasks not yet complete, in script order, and those of them running
+		List<Integer> waiting = new ArrayList<Integer>();
+		for (int i = 0; i < this.tasks.length; i++) {
+			waiting.add(Integer.valueOf(i));
+		}
+		Set<Integer> running = new HashSet<Integer>();
+
+		while ((!waiting.isEmpty()) && (!isCancelled())) {
+			// start every task that has no overlap with an earlier incomplete task
+			for (int w = 0; (w < waiting.size()) && (running.size() < limit); w++) {
+				final Integer index = waiting.get(w);
+				if (running.contains(index)) continue;
+
+				boolean blocked = false;
+				for (int e = 0; (e < w) && (!blocked); e++) {
+					blocked = overlaps(this.tasks[waiting.get(e).intValue()],
+							this.tasks[index.intValue()], isRestore);
+				}
+				if (blocked) {
+					logger.trace("Task '" + this.tasks[index.intValue()].getID()
+							+ "' waits for an overlapping task");
+					continue;
+				}
+
+				running.add(index);
+				completion.submit(new Callable<Integer>() {
+					public Integer call() {
+						TaskContext context = runTask(tasks[index.intValue()], pool);
+						if (context != null) contexts.add(context);
+						return index;
+					}
+				});
+			}
+
+			// wait for a task to complete
+			try {
+				Integer done = completion.take().get();
+				running.remove(done);
+				waiting.remove(done);
+			} catch (ExecutionException e) {
+				logger.warn("Task failed, exception thrown: "
+						+ e.getCause().getMessage());
+				break;
+			} catch (InterruptedException e) {
+				logger.warn("Interrupted waiting for tasks");
+				break;
+			}
+
+			// check for being paused
+			waitIfPaused();
+		}
+
+		// let any running task finish, it checks for stop itself
+		taskPool.shutdown();
+		try {
+			taskPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * Returns true if two tasks can't be run at once because one writes to a
+	 * folder the other reads or writes, or to a folder above or below it. Two
+	 * tasks reading the same folder don't overlap.
+	 * 
+	 * @param a
+	 *          a task
+	 * @param b
+	 *          another task
+	 * @param isRestore
+	 *          if true the tasks write to their source folders
+	 * @return true if the tasks overlap
+	 */
+	static boolean overlaps(BackupTask a, BackupTask b, boolean isRestore) {
+		Path aSource = Paths.get(a.getSource()).toAbsolutePath().normalize();
+		Path aDest = Paths.get(a.getDestination()).toAbsolutePath().normalize();
+		Path bSource = Paths.get(b.getSource()).toAbsolutePath().normalize();
+		Path bDest = Paths.get(b.getDestination()).toAbsolutePath().normalize();
+		Path aWritten = isRestore ? aSource : aDest;
+		Path bWritten = isRestore ? bSource : bDest;
+
+		return nested(aWritten, bSource) || nested(aWritten, bDest)
+				|| nested(bWritten, aSource) || nested(bWritten, aDest);
+	}
+
+	/**
+	 * Returns true if two paths are the same or one is below the other
+	 */
+	private static boolean nested(Path a, Path b) {
+		return a.startsWith(b) || b.startsWith(a);
+	}
+
+	/**
+	 * Logs the metrics of each task processed and their total
+	 * 
+	 * @param contexts
+	 *          the contexts of the tasks processed
+	 * @param elapsed
+	 *          time taken by the run in milliseconds
+	 */
+	private void logSummary(List<TaskContext> contexts, long elapsed) {
+		BackupMetric total = new BackupMetric();
+		long taskTime = 0;
+		for (BackupTask task : this.tasks) {
+			for (TaskContext context : contexts) {
+				if ((context.getTask() == task) && (context.getMetric() != null)) {
+					logger.info("Task '" + task.getID() + "': "
+							+ context.getMetric().toString() + " Took "
+							+ context.getElapsed() + "ms");
+					total.addMetric(context.getMetric());
+					taskTime += context.getElapsed();
+				}
+			}
+		}
+		logger.info("All tasks: " + total.toString() + " Took " + elapsed
+				+ "ms, " + taskTime + "ms task time");
+	}
+
+	/**
+	 * Backs up, or restores, a single task
+	 * 
+	 * @param task
+	 *          the task
+	 * @param pool
+	 *          the fork/join pool or null if not using the fork/join engine
+	 * @return the context of the task or null if the task wasn't processed
+	 */
+	private TaskContext runTask(BackupTask task, ForkJoinPool pool) {
+		if (!task.isActive()) {
+			logger.info("Task '" + task.getID() + "' is flagged inactive.");
+			return null;
+		}
+
+		logger.info("Processing task '" + task.getID() + "'");
+		logger.info("Source '" + task.getSource() + "'");
+		logger.info("Destination  '" + task.getDestination() + "'");
+		logger.info("Using Rule '" + task.getRuleText() + "'");
+		logger.info("Mirror Delete '" + task.isMirrorDelete() + "'");
+
+		// an audit reads the destination alone
+		if (this.audit) return this.auditTask(task);
+
+		// check source exist - only backup if it does
+		File f = new File(task.getSource());
+		if (!f.exists()) {
+			logger.info("Source doesn't exist.");
+			return null;
+		}
+
+		TaskContext context = this.openContext(task);
+		if (context == null) return null;
+
+		// Launch backup task
+		long start = System.currentTimeMillis();
+		BackupMetric metric;
+		if ((context.getArchive() != null) && (context.isRestore())) metric = this
+				.restoreArchive(context);
+		else if (pool != null) metric = pool.invoke(new FolderAction(context, context
+				.getSourceRoot(), context.getDestinationRoot(), ""));
+		else if (this.engine == Backup.PIPELINE) metric = this.runPipeline(context);
+		else metric = this.backupFolder(context, context.getSourceRoot(), context
+				.getDestinationRoot(), "");
+
+		// wait for the files still in flight before saving the task state
+		if (context.getCopyExecutor() != null) metric.addFilesCopied(context
+				.getCopyExecutor().drain());
+		GroupCommit groupCommit = context.getGroupCommit();
+		if (groupCommit != null) {
+			groupCommit.flush();
+			if (groupCommit.getBatches() > 0) logger.info(groupCommit.toString());
+		}
+
+		DedupStore dedupStore = context.getDedupStore();
+		if (dedupStore != null) {
+			metric.addDeduplicated((int) dedupStore.getFilesLinked(), dedupStore
+					.getBytesLinked(), dedupStore.getBytesStored());
+			if ((dedupStore.getFilesStored() > 0) || (dedupStore.getFilesLinked() > 0)) {
+				logger.info(dedupStore.toString());
+			}
+		}
+		BlockCompressor compressor = context.getCompressor();
+		if ((compressor != null) && ((compressor.getFilesCompressed() > 0)
+				|| (compressor.getFilesStored() > 0))) {
+			logger.info(compressor.toString());
+		}
+		if (context.getArchive() != null) logger.info(context.getArchive()
+				.toString());
+		if ((context.getThrottle() != null) && (context.getThrottle().isLimited())) {
+			logger.info(context.getThrottle().toString());
+		}
+		Manifest manifest = context.getManifest();
+		if ((manifest != null) && (manifest.getFilesVerified() > 0)) {
+			logger.info(manifest.toString());
+		}
+
+		context.setMetric(metric, System.currentTimeMillis() - start);
+		this.saveContext(context);
+
+		// the journal is only kept if the task has to be resumed
+		RunJournal journal = context.getJournal();
+		if (journal != null) {
+			if (isCancelled()) journal.close();
+			else journal.complete();
+			context.setJournal(null);
+		}
+
+		// a snapshot is complete once its task is, unless watch mode keeps it up to
+		// date. The journal is gone first so it is never applied to a new snapshot
+		if ((context.getSnapshot() != null) && (!isCancelled()) && (!this.watch)) {
+			context.getSnapshot().complete(task.getSnapshots());
+		}
+		logger.info("Task '" + task.getID() + "' complete. " + metric.toString());
+		return context;
+	}
+
+	/**
+	 * Audits the destination of a task against its manifest, the files checked
+	 * are counted as found
+	 * 
+	 * @param task
+	 *          the task
+	 * @return the context of the task or null if it has no manifest
+	 */
+	private TaskContext auditTask(BackupTask task) {
+		Path root = Paths.get(task.getDestination());
+		Path file = root.resolve(Manifest.FILE_NAME);
+		if (!Files.exists(file)) {
+			logger.info("No manifest to audit.");
+			return null;
+		}
+
+		long start = System.currentTimeMillis();
+		Manifest manifest = Manifest.load(file);
+		BackupMetric metric = new BackupMetric();
+		metric.addFilesFound(manifest.size());
+		int reported = manifest.audit(root, this);
+
+		TaskContext context = new TaskContext(task, false);
+		context.setMetric(metric, System.currentTimeMillis() - start);
+		logger.info("Task '" + task.getID() + "' audited. " + reported
+				+ " files missing or changed.");
+		return context;
+	}
+
+	/**
+	 * Returns true if the backup has been stopped. Safe to call from any of the
+	 * worker threads.
+	 * 
+	 * @return true if stop has been called
+	 */
+	public boolean isCancelled() {
+		Thread t = this.runThread;
+		return (t == null) || (internalThread != t);
+	}
+
+	/**
+	 * Blocks the calling thread while the backup is paused. Returns immediately
+	 * if the backup is not paused or has been stopped.
+	 */
+	public void waitIfPaused() {
+		pauseLock.lock();
+		try {
+			while ((threadSuspended) && (!isCancelled()))
+				pauseChanged.await();
+		} catch (InterruptedException e) {
+		} finally {
+			pauseLock.unlock();
+		}
+	}
+
+	/**
+	 * Creates the context for a task and loads any state the task uses
+	 * 
+	 * @param task
+	 *          the task about to be processed
+	 * @return the context, or null if the task has no snapshot to restore or its
+	 *         archive can't be read
+	 */
+	private TaskContext openContext(BackupTask task) {
+		TaskContext context = new TaskContext(task, isRestore);
+		context.setProgress(this.progress);
+		context.setMonitor(this);
+		context.setThrottle(getThrottle(task));
+
+		// an archive task holds its files in the archive, which takes the place of
+		// the destination files and of the state describing them
+		boolean archive = task.isArchive();
+		if (archive) {
+			try {
+				context.setArchive(ArchiveStore.open(Paths.get(task.getDestination()),
+						!isRestore));
+			} catch (IOException e) {
+				logger.warn("Could not open archive, exception thrown: "
+						+ e.getMessage());
+				return null;
+			}
+			if ((task.getSnapshots() > 0) || (task.isDedup()) || (task.isCompress())
+					|| (task.getDeltaSize() > 0) || (task.isIndex())) {
+				logger.warn("Snapshots, dedup, compression, delta copies and"
+						+ " destination index not used with an archive.");
+			}
+		}
+
+		// a task with snapshots backs up to a new snapshot and restores the latest
+		if ((task.getSnapshots() > 0) && (!archive)) {
+			Path folder = Paths.get(task.getDestination());
+			if (isRestore) {
+				Path latest = Snapshot.getLatest(folder);
+				if (latest == null) {
+					logger.info("No snapshot to restore.");
+					return null;
+				}
+				logger.info("Restoring snapshot '" + latest.getFileName() + "'");
+				context.setRestoreRoot(latest);
+			} else {
+				context.setSnapshot(Snapshot.open(folder));
+				logger.info("Writing snapshot '" + context.getSnapshot().getName()
+						+ "'");
+			}
+		}
+
+		// the index and folder state describe the destination of the previous run,
+		// a snapshot is compared with the previous snapshot instead
+		boolean snapshot = (context.getSnapshot() != null);
+		if ((snapshot) && ((task.isIndex()) || (task.isIncremental()))) {
+			logger.warn("Destination index and incremental scan not used with"
+					+ " snapshots.");
+		}
+
+		// the copy strategies are calibrated for copies from source to destination,
+		// a restore copies the other way so uses the defaults. Both copy large
+		// files in parallel ranges from the same size
+		File strategyFile = null;
+		if ((this.stateFolder != null) && (!isRestore)) strategyFile = new File(
+				this.stateFolder, "strategies-" + task.getStateKey() + ".idx");
+		CopyStrategy.Selection strategies;
+		if ((this.calibrate) && (!isRestore)) {
+			strategies = CopyCalibrator.calibrate(Paths.get(task.getSource()), Paths
+					.get(task.getDestination()));
+			if (strategyFile != null) {
+				try {
+					strategies.save(strategyFile);
+				} catch (IOException e) {
+					logger.warn("Could not save copy strategies, exception thrown: "
+							+ e.getMessage());
+				}
+			}
+		} else if (strategyFile != null) {
+			strategies = CopyStrategy.Selection.load(strategyFile);
+		} else {
+			strategies = new CopyStrategy.Selection();
+		}
+		strategies.setParallelSize(this.parallelSize);
+		context.setCopyStrategies(strategies);
+		logger.detail("Copy strategies " + strategies);
+
+		// executor for asynchronous copies, each task has its own
+		if ((this.asyncCopies > 0) && (this.engine != Backup.PIPELINE)) {
+			context.setCopyExecutor(new CopyExecutor(this, this.asyncCopies));
+			logger.detail(context.getCopyExecutor().toString());
+		}
+
+		// devices the task reads from and writes to
+		if (this.deviceScheduler != null) {
+			context.setDevices(this.deviceScheduler.getDevice(context
+					.getSourceRoot()), this.deviceScheduler.getDevice(context
+					.getDestinationRoot()));
+			logger.info("Source device " + context.getSourceDevice()
+					+ ", destination device " + context.getDestinationDevice());
+		}
+
+		// the files of a dedup store share the time stamps of the stored content,
+		// so the time stamps of their sources are kept in the index
+		if ((task.isDedup()) && (!isRestore) && (!archive)) {
+			context.setDedupStore(new DedupStore(Paths.get(task.getDestination())));
+		}
+
+		// compressed files are decompressed by a restore. The content of a dedup
+		// store is shared so is never compressed
+		if ((task.isCompress()) && (task.isDedup()) && (!archive)) {
+			logger.warn("Compression not used with dedup.");
+		} else if ((task.isCompress()) && (!archive)) {
+			context.setCompressor(new BlockCompressor());
+		}
+
+		// the index describes the backup destination so isn't used by a restore
+		if (((task.isIndex()) || (task.isDedup())) && (!isRestore) && (!snapshot)
+				&& (!archive)) {
+			if (this.stateFolder != null) {
+				context.setIndex(DestinationIndex.load(new File(this.stateFolder,
+						"index-" + task.getStateKey() + ".idx"), this.verifyInterval,
+						this.forceVerify));
+			} else {
+				logger.warn("No state folder defined, destination index not used.");
+			}
+		}
+
+		// the folder state describes the backup source so isn't used by a restore
+		if ((task.isIncremental()) && (!isRestore) && (!snapshot)) {
+			if (this.stateFolder != null) {
+				context.setFolderState(FolderState.load(new File(this.stateFolder,
+						"folders-" + task.getStateKey() + ".idx"), this.fullScanInterval,
+						this.forceVerify));
+			} else {
+				logger.warn("No state folder defined, incremental scan not used.");
+			}
+		}
+
+		// the checksum rule hashes files, the cache is only kept between runs for
+		// a backup as it describes the backup destination
+		if (task.getRule() == BackupTask.CHECKSUM) {
+			File cacheFile = null;
+			if ((this.stateFolder != null) && (!isRestore)) cacheFile = new File(
+					this.stateFolder, "hashes-" + task.getStateKey() + ".idx");
+			context.setHashCache(HashCache.load(cacheFile));
+		}
+
+		// the journal records the work done on the backup destination so isn't
+		// used by a restore either. An archive is only saved once a run is over so
+		// a resumed run backs it up in full
+		if ((this.stateFolder != null) && (!isRestore) && (!archive)) {
+			context.setJournal(RunJournal.open(new File(this.stateFolder, "journal-"
+					+ task.getStateKey() + ".log"), this.resume));
+		} else if (this.resume) {
+			logger.warn("No run journal, task '" + task.getID()
+					+ "' backed up in full.");
+		}
+
+		// files copied whole are checksummed as they are copied, to read them back
+		// or to record in the manifest. The manifest describes the backup
+		// destination so isn't kept by a restore, nor by a snapshot or archive
+		if ((task.isManifest()) || (task.isVerifyCopy())) {
+			if ((task.isDedup()) || (task.isCompress()) || (archive)
+					|| (task.getDeltaSize() > 0)) {
+				logger.warn("Copies only checksummed for files copied whole.");
+			}
+			Path manifestFile = null;
+			if ((task.isManifest()) && (!isRestore) && (!snapshot) && (!archive)) {
+				manifestFile = Paths.get(task.getDestination()).resolve(
+						Manifest.FILE_NAME);
+			} else if ((task.isManifest()) && (!isRestore)) {
+				logger.warn("Manifest not kept for snapshots or an archive.");
+			}
+			context.setManifest(Manifest.load(manifestFile));
+		}
+
+		// durable copies are recorded in the journal, index, manifest and hash
+		// cache once committed. Dedup, compressed, delta and archive files are
+		// written their own way
+		if (task.isDurable()) {
+			if ((task.isDedup()) || (task.isCompress()) || (archive)
+					|| (task.getDeltaSize() > 0)) {
+				logger.warn("Durable writes only used for files copied whole.");
+			}
+			context.setGroupCommit(new GroupCommit(context.getJournal(), context
+					.getIndex(), context.getManifest(), context.getHashCache()));
+		}
+		return context;
+	}
+
+	/**
+	 * Saves any state used by a task once it has been processed
+	 * 
+	 * @param context
+	 *          the context of the task
+	 */
+	void saveContext(TaskContext context) {
+		DestinationIndex index = context.getIndex();
+		if (index != null) {
+			try {
+				index.save();
+				logger.detail("Destination index saved with " + index.size()
+						+ " entries");
+			} catch (IOException e) {
+				logger.warn("Could not save destination index, exception thrown: "
+						+ e.getMessage());
+			}
+		}
+
+		// hashes of files not met in this run are only dropped after a run that
+		// met every file
+		HashCache hashCache = context.getHashCache();
+		if (hashCache != null) {
+			boolean prune = (!isCancelled()) && (!this.resume)
+					&& ((context.getFolderState() == null) || (context.getFolderState()
+							.isFullScan()));
+			try {
+				hashCache.save(prune);
+			} catch (IOException e) {
+				logger.warn("Could not save hash cache, exception thrown: "
+						+ e.getMessage());
+			}
+		}
+
+		// the manifest only holds files copied, so is saved even if stopped
+		Manifest manifest = context.getManifest();
+		if (manifest != null) {
+			try {
+				manifest.save();
+			} catch (IOException e) {
+				logger.warn("Could not save manifest, exception thrown: "
+						+ e.getMessage());
+			}
+		}
+
+		// the volumes are on disk before the index that refers to them, and
+		// volumes mostly replaced in a run that wasn't stopped are compacted
+		ArchiveStore archive = context.getArchive();
+		if ((archive != null) && (!context.isRestore())) {
+			try {
+				archive.save(!isCancelled());
+			} catch (IOException e) {
+				logger.warn("Could not save archive, exception thrown: "
+						+ e.getMessage());
+			}
+		}
+
+		// contents replaced or deleted in this run are no longer linked to
+		DedupStore dedupStore = context.getDedupStore();
+		if ((dedupStore != null) && (!isCancelled())) dedupStore.collect();
+
+		// if stopped some files of the folders recorded may not have been copied,
+		// the state of the previous run still holds so is kept
+		FolderState folderState = context.getFolderState();
+		if ((folderState != null) && (!isCancelled())) {
+			try {
+				folderState.save();
+			} catch (IOException e) {
+				logger.warn("Could not save folder state, exception thrown: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Backs up a task using the pipeline engine and logs the statistics of each
+	 * stage once the task is complete
 	 * 
+	 * @param context
+	 *          the context of the task to backup
+	 * @return BackupMetric holds metric data on backup operation
 	 */
-	public synchronized void resume() {
-		logger.trace("backup operation resumed");
-		threadSuspended = false;
-		notify();
+	private BackupMetric runPipeline(TaskContext context) {
+		BackupPipeline pipeline = new BackupPipeline(this, context, this.threads);
+		this.currentPipeline = pipeline;
+		BackupMetric metric = pipeline.run();
+		this.currentPipeline = null;
+
+		BackupPipeline.Stage[] stages = pipeline.getStages();
+		for (int i = 0; i < stages.length; i++) {
+			logger.info(stages[i].toString());
+		}
+		return metric;
 	}
 
 	/**
-	 * Returns true if the thread is still active
+	 * Restores a task from its archive. Files are restored in the order they are
+	 * stored so each volume is read from start to end, and the task rule is
+	 * applied to each against the file it would replace.
 	 * 
-	 * @return true if thread is alive
+	 * @param context
+	 *          the context of the task to restore
+	 * @return BackupMetric holds metric data on restore operation
 	 */
-	public boolean isRunning() {
-		return ((internalThread != null) && internalThread.isAlive());
+	private BackupMetric restoreArchive(TaskContext context) {
+		BackupMetric metric = new BackupMetric();
+		ArchiveStore archive = context.getArchive();
+		Path root = context.getDestinationRoot();
+
+		Throttle throttle = context.getThrottle();
+		for (String relative : archive.list()) {
+			if (isCancelled()) break;
+			waitIfPaused();
+			if (throttle != null) throttle.acquireFile(this);
+
+			ArchiveStore.Entry entry = archive.get(relative);
+			Path destination = root.resolve(relative);
+			metric.addFilesFound(1);
+			context.getProgress().addScanned(entry.getSize());
+
+			if ((!isRestoreRequired(context, entry, destination, relative))
+					|| (!createDestinationFolder(destination.getParent().toFile(),
+							context.getRule()))) continue;
+
+			context.getProgress().setCurrentPath(destination);
+			CopyMonitor monitor = context.getMonitor();
+			Throttle.Meter meter = null;
+			if (throttle != null) monitor = meter = throttle.meter(monitor, entry
+					.getSize());
+			boolean extracted = archive.extract(relative, destination, monitor);
+			if (meter != null) meter.finish();
+			if (extracted) {
+				metric.addFilesCopied(1);
+				context.getProgress().addCopied(entry.getSize());
+			}
+		}
+
+		metric.stop();
+		return metric;
 	}
 
 	/**
-	 * Executes a backup or a restore job.
+	 * Applies the task rule to an archived file and the file it would be
+	 * restored to
 	 * 
-	 * @param isRestore
-	 *          if true then the backup task executes in restore mode
+	 * @param context
+	 *          the context of the task
+	 * @param entry
+	 *          the archived file
+	 * @param destination
+	 *          the file it would be restored to
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * 
+	 * @return true if the rule requires the file to be restored
 	 */
-	public void run() {
-		Thread thisThread = Thread.currentThread();
-		for (int i = 0; i < this.tasks.length; i++) {
-			// Only do backup if we have not been stopped. Note we could replace above
-			// if statement with a while loop but there probably won't be much gain
-			// in performance
-			if (internalThread == thisThread) {
-				BackupTask task = this.tasks[i];
-				if (task.isActive()) {
-					logger.info("Processing task '" + task.getID() + "'");
-					logger.info("Source '" + task.getSource() + "'");
-					logger.info("Destination  '" + task.getDestination() + "'");
-					logger.info("Using Rule '" + task.getRuleText() + "'");
-					logger.info("Mirror Delete '" + task.isMirrorDelete() + "'");
-
-					// check source exist - only backup if it does
-					File f = new File(task.getSource());
-					if (f.exists()) {
-						// Launch backup task
-						BackupMetric metric = this.backupFolder(task);
-						logger.info("Task complete. " + metric.toString());
-					} else {
-						logger.info("Source doesn't exist.");
-					}
-				} else {
-					logger.info("Task '" + task.getID() + "' is flagged inactive.");
-				}
+	static boolean isRestoreRequired(TaskContext context,
+			ArchiveStore.Entry entry, Path destination, String relative) {
+		int rule = context.getRule();
+		if (rule == BackupTask.ALL) return true;
 
-				// check for being paused
-				try {
-					synchronized (this) {
-						while ((threadSuspended) && (internalThread == thisThread))
-							wait();
-					}
-				} catch (InterruptedException e) {
-				}
+		BasicFileAttributes destAttrs = readAttributes(destination);
+		if (destAttrs == null) return (rule != BackupTask.EXISTS_CHANGED);
 
+		long lDestTimestamp = destAttrs.lastModifiedTime().toMillis();
+		boolean changed = (lDestTimestamp != entry.getLastModified())
+				|| (destAttrs.size() != entry.getSize());
+		if ((rule == BackupTask.CHANGED) || (rule == BackupTask.EXISTS_CHANGED)) {
+			return changed;
+		} else if (rule == BackupTask.CHECKSUM) {
+			Long checksum = context.getArchive().getChecksum(relative);
+			if ((destAttrs.size() != entry.getSize()) || (checksum == null)) return true;
+			try {
+				return checksum.longValue() != context.getHashCache().getHash(true,
+						relative, destination, destAttrs.size(), lDestTimestamp, 0);
+			} catch (IOException e) {
+				logger.warn("Could not hash '" + relative + "', exception thrown: "
+						+ e.getMessage());
+				return true;
 			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fork/join action that backs up a single folder. Subfolders found while
+	 * processing the folder are forked as new actions so idle worker threads can
+	 * steal them.
+	 */
+	private class FolderAction extends RecursiveTask<BackupMetric>
+	{
+		private static final long serialVersionUID = 1L;
 
+		/** the context of the task being processed */
+		private final TaskContext context;
+
+		/** the folder to backup and where it is backed up to */
+		private final Path source;
+		private final Path destination;
+
+		/** path of the folder relative to the task folder */
+		private final String relative;
+
+		FolderAction(TaskContext context, Path source, Path destination,
+				String relative) {
+			this.context = context;
+			this.source = source;
+			this.destination = destination;
+			this.relative = relative;
+		}
+
+		protected BackupMetric compute() {
+			return backupFolder(context, source, destination, relative);
 		}
 	}
 
@@ -185,178 +1522,181 @@ public class Backup implements Runnable
 	 * operation such as no of files backed up, deleted and time taken
 	 * </p>
 	 * 
-	 * @param a
-	 *          BackupTask object that defines the backup routine
-	 * @param isRestore
-	 *          if true then the backup executes in restore mode
+	 * @param context
+	 *          the context of the task that defines the backup routine
+	 * @param fileSource
+	 *          the folder, or file, to backup. Already accounts for restore mode
+	 * @param fileDestination
+	 *          the folder it is backed up to
+	 * @param relative
+	 *          path of the folder relative to the task folder, empty for the task
+	 *          folder itself
 	 * 
 	 * @return BackupMetric holds metric data on backup operation
 	 */
-	private BackupMetric backupFolder(BackupTask task) {
+	BackupMetric backupFolder(TaskContext context, Path fileSource,
+			Path fileDestination, String relative) {
 		// holds metric data on backup operation
 		BackupMetric metric = new BackupMetric();
-
-		/*
-		 * Determine source and destination folders depending on restore mode
-		 */
-		int rule = task.getRule();
-		File fileSource;
-		File fileDestination;
-		if (isRestore) {
-			fileDestination = new File(task.getSource());
-			fileSource = new File(task.getDestination());
-		} else {
-			fileSource = new File(task.getSource());
-			fileDestination = new File(task.getDestination());
-		}
+		BackupTask task = context.getTask();
 
 		// if destination folder does not exist then create if rules allow
-		boolean destExist = true;
-		if (!fileDestination.exists()) {
-			if ((rule == BackupTask.ALL) || (rule == BackupTask.NEW)
-					|| (rule == BackupTask.CHANGED)) {
-				logger.detail("Creating target directory '"
-						+ fileDestination.getAbsoluteFile() + "' ");
-				if (fileDestination.mkdirs()) {
-					// fileDestination.setLastModified(fileSource.lastModified()); ???? is
-					// required
-					destExist = true;
-				} else {
-					destExist = false;
-					logger.warn("Couldn't find or create destination directory '"
-							+ fileDestination.getAbsolutePath()
-							+ "'. Check write permission on destination folder.");
-				}
-			}
-		}
+		boolean destExist = createDestinationFolder(context, fileDestination);
+
+		// read source attributes once, these are passed on to the rule
+		BasicFileAttributes sourceAttrs = readAttributes(fileSource);
 
 		// process source as directory or as file
-		if (destExist) {
-			if (fileSource.isDirectory()) {
+		if ((destExist) && (sourceAttrs != null)) {
+			if (sourceAttrs.isDirectory()) {
+				context.getProgress().setCurrentPath(fileSource);
+
+				// an incremental scan skips folders unchanged since the previous run,
+				// only their subfolders are visited
+				FolderState folderState = context.getFolderState();
+				FolderState.Entry unchanged = null;
+				if (folderState != null) unchanged = folderState.getUnchanged(relative,
+						sourceAttrs);
+
 				// Get files in the source folder
-				File[] sourceFiles = fileSource.listFiles();
+				List<Path> sourceFiles;
+				boolean listed;
+				if (unchanged != null) {
+					logger.trace("Folder '" + fileSource.getFileName()
+							+ "' unchanged, not listed");
+					metric.addFilesFound(unchanged.getFiles());
+					sourceFiles = subfolderPaths(fileSource, unchanged);
+					listed = false;
+				} else {
+					sourceFiles = listFolder(fileSource);
+					listed = (sourceFiles != null);
+					if (!listed) sourceFiles = new ArrayList<Path>();
+				}
+
+				// files and subfolders found, recorded for the next incremental scan
+				int files = 0;
+				List<String> subfolders = new ArrayList<String>();
+
+				// subfolders forked to other worker threads when using fork/join
+				List<FolderAction> forked = new ArrayList<FolderAction>();
+
+				// work recorded by the run resumed is skipped
+				RunJournal journal = context.getJournal();
 
 				// Iterate over all source files
 				int iCounter = 0;
-				Thread thisThread = Thread.currentThread();
-				while ((iCounter < sourceFiles.length)
-						&& (internalThread == thisThread)) {
-					// TODO slow down execution so as not to utilise 100% CPU
-					/*
-					 * try { thisThread.sleep(2000); } catch(InterruptedException e) { }
-					 */
+				Throttle throttle = context.getThrottle();
+				while ((iCounter < sourceFiles.size()) && (!isCancelled())) {
+					// keep to the files per second of the task and run
+					if (throttle != null) throttle.acquireFile(this);
 
 					// determine destination file name
-					String sourceName = sourceFiles[iCounter].getName();
+					Path source = sourceFiles.get(iCounter);
+					String sourceName = source.getFileName().toString();
+					String sourceRelative = TaskContext.childPath(relative, sourceName);
 					logger.trace("Processing '" + sourceName + "'");
 
-					// Set destination folder accounting for restore mode
-					File destination;
-					if (isRestore) destination = new File(task.getSource()
-							+ File.separator + sourceName);
-					else destination = new File(task.getDestination() + File.separator
-							+ sourceName);
+					// Set destination folder, already accounts for restore mode
+					Path destination = fileDestination.resolve(sourceName);
+
+					// a single stat of the source entry, null if it has gone
+					BasicFileAttributes attrs = readAttributes(source);
 
 					// if source is a directory and task allows subfolder processing
-					if ((sourceFiles[iCounter].isDirectory()) && (task.isRecurse())) {
-						/*
-						 * create new BackupTask with correct source and destination, in
-						 * restore we still must have the source as defined by script file
-						 * as source in BackupTask object
-						 */
-						BackupTask newTask;
-						if (isRestore) newTask = new BackupTask(destination.getPath(),
-								sourceFiles[iCounter].getPath(), rule);
-						else newTask = new BackupTask(sourceFiles[iCounter].getPath(),
-								destination.getPath(), rule);
-
-						// recurse backup operation
-						BackupMetric subMetric = this.backupFolder(newTask);
-
-						// add submetric's data to this metric to provide summary info
-						metric.addMetric(subMetric);
-					} else if (sourceFiles[iCounter].isFile()) {
+					if ((attrs != null) && (attrs.isDirectory()) && (task.isRecurse())
+							&& (!isReserved(context, sourceName))) {
+						subfolders.add(sourceName);
+
+						// recurse backup operation, or leave it for another worker thread
+						// when running in a fork/join pool
+						int journaled = (journal != null) ? journal
+								.getFolderFiles(sourceRelative) : -1;
+						if (journaled >= 0) {
+							logger.trace("Folder '" + sourceName + "' already backed up");
+							metric.addFilesFound(journaled);
+						} else if (ForkJoinTask.inForkJoinPool()) {
+							FolderAction action = new FolderAction(context, source,
+									destination, sourceRelative);
+							action.fork();
+							forked.add(action);
+						} else {
+							BackupMetric subMetric = this.backupFolder(context, source,
+									destination, sourceRelative);
+
+							// add submetric's data to this metric to provide summary info
+							metric.addMetric(subMetric);
+						}
+					} else if ((attrs != null) && (attrs.isRegularFile())
+							&& (!isReserved(context, sourceName))) {
 						// count file found
 						metric.addFilesFound(1);
+						files++;
 
-						// backup single file
-						if (this.backupFile(sourceFiles[iCounter], destination, rule)) metric
-								.addFilesCopied(1);
+						// backup single file, asynchronously if we have an executor. Files
+						// copied asynchronously are added to the task metric once drained
+						CopyExecutor executor = context.getCopyExecutor();
+						if (isJournaled(context, sourceRelative, attrs)) {
+							logger.trace("File '" + sourceName + "' already backed up");
+						} else {
+							context.getProgress().addScanned(attrs.size());
+							if (executor != null) executor.submit(context, source, attrs,
+									destination, sourceRelative);
+							else if (this.backupFile(context, source, attrs, destination,
+									sourceRelative)) metric.addFilesCopied(1);
+						}
 					}
 					// else do nothing - we won't backup a subfolder if not recurse
 
 					// check for being paused
-					try {
-						synchronized (this) {
-							while ((threadSuspended) && (internalThread == thisThread))
-								wait();
-						}
-					} catch (InterruptedException e) {
-					}
+					waitIfPaused();
 
 					iCounter++;
 				} // end while loop
 
+				// record a folder listed in full for the next incremental scan
+				if ((folderState != null) && (listed)
+						&& (iCounter == sourceFiles.size())) {
+					folderState.record(relative, sourceAttrs, files, subfolders);
+				}
+
+				// wait for forked subfolders and add their metrics to this metric
+				for (FolderAction action : forked) {
+					metric.addMetric(action.join());
+				}
+
 				// check for mirror delete. note, mirror delete never available in
-				// restore mode
-				if ((!isRestore) && (task.isMirrorDelete())) {
-					File destContents[] = fileDestination.listFiles();
-					File sourceContents[] = fileSource.listFiles();
-
-					// iterate through destination folder file list
-					if (destContents != null) {
-						for (int iDestCntr = 0; iDestCntr < destContents.length; iDestCntr++) {
-							// check if file exists in source file list
-							String destFileName = destContents[iDestCntr].getName();
-							boolean bExists = false;
-							for (int iSourceCntr = 0; iSourceCntr < sourceContents.length; iSourceCntr++) {
-								if (sourceContents[iSourceCntr].getName().equals(destFileName)) bExists = true;
-							}
-
-							// delete if not present
-							if (!bExists) {
-								try {
-									if (destContents[iDestCntr].isDirectory()) {
-										BackupUtil.deleteFolder(destContents[iDestCntr]);
-										logger.detail("'" + destFileName
-												+ "' deleted from destination");
-										metric.addFilesDeleted(1);
-									} else if (destContents[iDestCntr].delete()) {
-										logger.detail("'" + destFileName
-												+ "' deleted from destination");
-										metric.addFilesDeleted(1);
-									}
-								} catch (SecurityException e) {
-									logger.warn("Failed to delete file "
-											+ destContents[iDestCntr].getAbsolutePath()
-											+ ", exception thrown: " + e.getMessage());
-								}
-							}
-						}
-					}
-				} // end mirror delete
+				// restore mode. The source listing taken above is reused, if it
+				// couldn't be read nothing is deleted
+				if ((isMirrored(context, relative)) && (listed) && (!isCancelled())) {
+					mirrorDelete(context, sourceFiles, fileDestination, relative, metric);
+				}
+
+				// record a folder backed up in full in the run journal. With
+				// asynchronous copies its files may still be in flight so it isn't
+				if ((journal != null) && (context.getCopyExecutor() == null)
+						&& ((listed) || (unchanged != null))
+						&& (iCounter == sourceFiles.size()) && (!isCancelled())) {
+					journal.folder(relative, subfolders, metric.getFilesFound());
+				}
 
 				// only write out summary info if we have either copied or deleted
 				if ((metric.getFilesCopied() > 0) || (metric.getFilesDeleted() > 0)) {
-					logger.detail("Folder '" + fileSource.getName() + "' backed up. "
+					logger.detail("Folder '" + fileSource.getFileName() + "' backed up. "
 							+ metric.toString());
 				}
 			}
 			// else process single file
 			else {
-				String sourceName = fileSource.getName();
-
 				// determine name of destination file
-				File destination;
-				if (isRestore) destination = new File(task.getSource() + File.separator
-						+ sourceName);
-				else destination = new File(task.getDestination() + File.separator
-						+ sourceName);
+				String sourceName = fileSource.getFileName().toString();
+				Path destination = fileDestination.resolve(sourceName);
+				context.getProgress().addScanned(sourceAttrs.size());
 
 				// backup
-				if (this.backupFile(fileSource, destination, rule)) {
+				if (this.backupFile(context, fileSource, sourceAttrs, destination,
+						TaskContext.childPath(relative, sourceName))) {
 					metric.addFilesCopied(1);
-					logger.detail(fileSource.getPath() + " backed up. ");
+					logger.detail(fileSource + " backed up. ");
 				}
 			}
 		}
@@ -366,42 +1706,576 @@ public class Backup implements Runnable
 	}
 
 	/**
-	 * Backs up a single file to a destination according to a given rule
+	 * Returns the paths of the subfolders recorded for a folder that is unchanged
+	 * since the previous incremental scan
+	 * 
+	 * @param folder
+	 *          the unchanged folder
+	 * @param unchanged
+	 *          the state recorded for the folder
+	 * @return paths of the subfolders
+	 */
+	static List<Path> subfolderPaths(Path folder, FolderState.Entry unchanged) {
+		String[] names = unchanged.getSubfolders();
+		List<Path> paths = new ArrayList<Path>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			paths.add(folder.resolve(names[i]));
+		}
+		return paths;
+	}
+
+	/**
+	 * Returns true if a source file is recorded in the run journal of the task as
+	 * backed up and hasn't changed since. The file is put in the task index as
+	 * the index of the run resumed wasn't saved.
+	 * 
+	 * @param context
+	 *          the context of the task
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @param attrs
+	 *          the attributes of the source file
+	 * @return true if the file is already backed up
+	 */
+	static boolean isJournaled(TaskContext context, String relative,
+			BasicFileAttributes attrs) {
+		RunJournal journal = context.getJournal();
+		if ((journal == null) || (!journal.isDone(relative, attrs))) return false;
+
+		DestinationIndex index = context.getIndex();
+		if ((index != null) && (index.get(relative) == null)) {
+			index.put(relative, attrs.size(), attrs.lastModifiedTime().toMillis());
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if orphans are deleted from a destination folder. Mirror
+	 * delete applies to the task folder only, never to its subfolders, and is
+	 * never available in restore mode.
+	 * 
+	 * @param context
+	 *          the context of the task
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 * @return true if files not in the source are deleted from the folder
+	 */
+	static boolean isMirrored(TaskContext context, String relative) {
+		return (!context.isRestore()) && (context.getTask().isMirrorDelete())
+				&& (relative.length() == 0);
+	}
+
+	/**
+	 * Returns true if a source file is one of the temporary or checkpoint files
+	 * of a large file copy or the manifest, or a source folder is the dedup
+	 * store. These are only found in a source when restoring, and are not
+	 * restored.
+	 * 
+	 * @param context
+	 *          the context of the task
+	 * @param name
+	 *          name of the source file or folder
+	 * @return true if the file is not to be backed up
+	 */
+	static boolean isReserved(TaskContext context, String name) {
+		return (context.isRestore())
+				&& ((BackupUtil.getPartialBaseName(name) != null)
+						|| (name.equals(DedupStore.FOLDER_NAME)) || (name
+						.equals(Manifest.FILE_NAME)));
+	}
+
+	/**
+	 * Lists the entries of a folder. The listing is read in full so the folder
+	 * isn't held open while its subfolders are processed.
+	 * 
+	 * @param folder
+	 *          the folder to list
+	 * @return the folder entries or null if the folder could not be read
+	 */
+	static List<Path> listFolder(Path folder) {
+		List<Path> entries = new ArrayList<Path>();
+		try {
+			DirectoryStream<Path> stream = Files.newDirectoryStream(folder);
+			try {
+				for (Path entry : stream) {
+					entries.add(entry);
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			logger.warn("Could not list folder '" + folder + "', exception thrown: "
+					+ e.getMessage());
+			return null;
+		} catch (DirectoryIteratorException e) {
+			logger.warn("Could not list folder '" + folder + "', exception thrown: "
+					+ e.getCause().getMessage());
+			return null;
+		}
+		return entries;
+	}
+
+	/**
+	 * Reads the basic attributes of a file with a single call to the file
+	 * system. Symbolic links are followed as they are by <code>File</code>.
+	 * 
+	 * @param path
+	 *          the file to read
+	 * @return the attributes or null if the file does not exist or can't be read
+	 */
+	static BasicFileAttributes readAttributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			logger.warn("Could not read attributes of '" + path
+					+ "', exception thrown: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a destination folder of a task if it does not exist and the rule
+	 * allows new files to be written. The files of an archive task are held in
+	 * its archive, so it has no folders to create.
+	 * 
+	 * @param context
+	 *          the context of the task
+	 * @param fileDestination
+	 *          the destination folder
+	 * @return true if the destination folder exists or isn't needed
+	 */
+	static boolean createDestinationFolder(TaskContext context,
+			Path fileDestination) {
+		if ((context.getArchive() != null) && (!context.isRestore())) return true;
+		return createDestinationFolder(fileDestination.toFile(), context.getRule());
+	}
+
+	/**
+	 * Creates a destination folder if it does not exist and the rule allows new
+	 * files to be written
+	 * 
+	 * @param fileDestination
+	 *          the destination folder
+	 * @param rule
+	 *          the controlling rule
+	 * @return true if the destination folder exists
+	 */
+	static boolean createDestinationFolder(File fileDestination, int rule) {
+		boolean destExist = true;
+		if (!fileDestination.exists()) {
+			if ((rule == BackupTask.ALL) || (rule == BackupTask.NEW)
+					|| (rule == BackupTask.CHANGED) || (rule == BackupTask.CHECKSUM)) {
+				logger.detail("Creating target directory '"
+						+ fileDestination.getAbsoluteFile() + "' ");
+				if (fileDestination.mkdirs()) {
+					// fileDestination.setLastModified(fileSource.lastModified()); ???? is
+					// required
+					destExist = true;
+				} else {
+					destExist = false;
+					logger.warn("Couldn't find or create destination directory '"
+							+ fileDestination.getAbsolutePath()
+							+ "'. Check write permission on destination folder.");
+				}
+			}
+		}
+		return destExist;
+	}
+
+	/**
+	 * <p>
+	 * Deletes files and folders from a destination folder that don't exist in
+	 * the source folder. The names of the source listing are put in a hash set
+	 * so each destination entry is checked with a single lookup.
+	 * </p>
+	 * 
+	 * <p>
+	 * Every entry of the source listing is kept, including entries the task
+	 * skipped such as subfolders when not recursing, so only destination entries
+	 * with no source at all are deleted.
+	 * </p>
+	 * 
+	 * @param context
+	 *          the context of the task, deleted entries are removed from its
+	 *          index
+	 * @param sourceFiles
+	 *          the listing of the source folder
+	 * @param fileDestination
+	 *          the destination folder
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 * @param metric
+	 *          metric used to count the deleted files
+	 */
+	static void mirrorDelete(TaskContext context, List<Path> sourceFiles,
+			Path fileDestination, String relative, BackupMetric metric) {
+		Set<String> sourceNames = new HashSet<String>(sourceFiles.size() * 2);
+		for (Path source : sourceFiles) {
+			sourceNames.add(source.getFileName().toString());
+		}
+
+		// files of an archive are removed from its index, not listed
+		ArchiveStore archive = context.getArchive();
+		if (archive != null) {
+			int removed = archive.retain(relative, sourceNames);
+			metric.addFilesDeleted(removed);
+			for (int i = 0; i < removed; i++) {
+				context.getProgress().addDeleted();
+			}
+			return;
+		}
+
+		List<Path> destContents = listFolder(fileDestination);
+		DestinationIndex index = context.getIndex();
+		Manifest manifest = context.getManifest();
+
+		// iterate through destination folder file list
+		if (destContents != null) {
+			for (Path destFile : destContents) {
+				// delete if not present in source file list
+				String destFileName = destFile.getFileName().toString();
+
+				// keep the temporary file and checkpoint of a copy to resume
+				String partialOf = BackupUtil.getPartialBaseName(destFileName);
+				if ((partialOf != null) && (sourceNames.contains(partialOf))) continue;
+
+				// and the dedup store of the task
+				if ((relative.length() == 0) && (context.getDedupStore() != null)
+						&& (destFileName.equals(DedupStore.FOLDER_NAME))) continue;
+
+				// and the manifest, which is never in a source
+				if ((relative.length() == 0)
+						&& (destFileName.equals(Manifest.FILE_NAME))) continue;
+
+				if (!sourceNames.contains(destFileName)) {
+					String destRelative = TaskContext.childPath(relative, destFileName);
+					try {
+						// don't follow links, a link to a folder is deleted as a link
+						if (Files.isDirectory(destFile, LinkOption.NOFOLLOW_LINKS)) {
+							if (index != null) index.removeFolder(destRelative);
+							if (manifest != null) manifest.removeFolder(destRelative);
+							BackupUtil.deleteFolder(destFile.toFile());
+							logger.detail("'" + destFileName + "' deleted from destination");
+							metric.addFilesDeleted(1);
+							context.getProgress().addDeleted();
+						} else if (destFile.toFile().delete()) {
+							logger.detail("'" + destFileName + "' deleted from destination");
+							metric.addFilesDeleted(1);
+							context.getProgress().addDeleted();
+						}
+					} catch (SecurityException e) {
+						logger.warn("Failed to delete file " + destFile.toAbsolutePath()
+								+ ", exception thrown: " + e.getMessage());
+					}
+
+					// forget the deleted entry even if the delete failed, it is then
+					// read again next run
+					if (index != null) index.remove(destRelative);
+					if (manifest != null) manifest.remove(destRelative);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Backs up a single file to a destination according to the task rule
 	 * 
+	 * @param context
+	 *          the context of the task
 	 * @param source
 	 *          the source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
 	 * @param destination
 	 *          the destination file
-	 * @param rule
-	 *          the controlling rule
+	 * @param relative
+	 *          path of the file relative to the task folder
 	 * 
 	 * @return true if file was backed up
 	 */
-	private boolean backupFile(File source, File destination, int rule) {
-		boolean wasCopied = false;
+	private boolean backupFile(TaskContext context, Path source,
+			BasicFileAttributes sourceAttrs, Path destination, String relative) {
+		if (isCopyRequired(context, source, sourceAttrs, destination, relative)) {
+			return copyFile(context, source, sourceAttrs, destination, relative);
+		} else return false;
+	}
+
+	/**
+	 * Copies a file selected by the task rule and records it in the task index
+	 * 
+	 * @param context
+	 *          the context of the task
+	 * @param source
+	 *          the source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destination
+	 *          the destination file
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * 
+	 * @return true if file was copied
+	 */
+	static boolean copyFile(TaskContext context, Path source,
+			BasicFileAttributes sourceAttrs, Path destination, String relative) {
+		DestinationIndex index = context.getIndex();
+
+		// forget the previous state first, if the copy fails part way through the
+		// file is read from the destination next run
+		if (index != null) index.remove(relative);
+		Manifest manifest = context.getManifest();
+		if (manifest != null) manifest.remove(relative);
+		Checksum checksum = null;
+
+		// a copy holds a permit on the devices it reads and writes, and on the
+		// files open of its throttle, which is charged the bytes as they are copied
+		context.getProgress().setCurrentPath(source);
+		boolean copied;
+		boolean durable = false;
+		GroupCommit groupCommit = context.getGroupCommit();
+		Throttle throttle = context.getThrottle();
+		CopyMonitor monitor = context.getMonitor();
+		Throttle.Meter meter = null;
+		if (throttle != null) {
+			monitor = meter = throttle.meter(monitor, sourceAttrs.size());
+			throttle.open();
+		}
+		DeviceScheduler.acquire(context.getSourceDevice(), context
+				.getDestinationDevice());
+		try {
+			// a large file changed in part is updated writing only what differs,
+			// files of a dedup store or snapshot share their content so are never
+			// written to. A file of a snapshot carried on may be a link to the
+			// previous snapshot so is deleted first. Compressed files are written
+			// whole and decompressed when restored. An archive task appends the file
+			// to its archive instead. A durable copy is committed once its permits
+			// are released
+			long deltaSize = context.getTask().getDeltaSize();
+			DedupStore dedupStore = context.getDedupStore();
+			BlockCompressor compressor = context.getCompressor();
+			Snapshot snapshot = context.getSnapshot();
+			ArchiveStore archive = context.getArchive();
+			if (archive != null) {
+				copied = archive.add(relative, source, sourceAttrs, monitor);
+			} else if ((snapshot != null) && (!deleteFile(destination))) {
+				copied = false;
+			} else if (dedupStore != null) {
+				copied = dedupStore.copyFile(source, sourceAttrs, destination, monitor);
+			} else if ((compressor != null) && (context.isRestore())) {
+				copied = compressor.restoreFile(source, sourceAttrs, destination,
+						monitor);
+			} else if (compressor != null) {
+				copied = compressor.copyFile(source, sourceAttrs, destination, monitor);
+			} else if ((deltaSize > 0) && (snapshot == null)
+					&& (sourceAttrs.size() >= deltaSize)) {
+				copied = DeltaCopier.copyFile(source, sourceAttrs, destination, monitor);
+			} else {
+				durable = (groupCommit != null);
+				if (manifest != null) checksum = Manifest.newChecksum();
+				copied = BackupUtil.copyFile(source, sourceAttrs, destination, monitor,
+						context.getCopyStrategies(), durable, checksum);
+
+				// a copy is read back while the devices are held. One that doesn't
+				// match is deleted so it is copied again next run
+				if ((copied) && (checksum != null)
+						&& (context.getTask().isVerifyCopy())) {
+					Path copy = (durable) ? BackupUtil.getPartialFile(destination)
+							: destination;
+					if (!manifest.verify(copy, sourceAttrs.size(), checksum.getValue())) {
+						deleteFile(copy);
+						copied = false;
+					}
+				}
+			}
+		} finally {
+			DeviceScheduler.release(context.getSourceDevice(), context
+					.getDestinationDevice());
+			if (throttle != null) throttle.close();
+		}
+
+		// whatever the copy didn't charge as it went, such as the whole of a
+		// small file, is waited for once the file is closed
+		if (meter != null) meter.finish();
+		if (copied) context.getProgress().addCopied(sourceAttrs.size());
+
+		// the destination now has the content, size and time stamp of the source.
+		// A durable copy is only recorded once committed, until then the
+		// destination may still hold the previous file
+		Long copyChecksum = (checksum != null) ? Long.valueOf(checksum.getValue())
+				: null;
+		if ((copied) && (durable)) {
+			groupCommit.add(BackupUtil.getPartialFile(destination), destination,
+					relative, sourceAttrs, copyChecksum);
+		} else if (copied) {
+			long lastModified = sourceAttrs.lastModifiedTime().toMillis();
+			if (copyChecksum != null) manifest.put(relative, sourceAttrs.size(),
+					lastModified, copyChecksum.longValue());
+			if (index != null) index.put(relative, sourceAttrs.size(), lastModified);
+			HashCache hashCache = context.getHashCache();
+			if (hashCache != null) hashCache.copied(relative, sourceAttrs.size(),
+					lastModified);
+		}
+
+		// make sure the folder is listed again next run so the copy is retried
+		FolderState folderState = context.getFolderState();
+		if ((!copied) && (folderState != null)) {
+			folderState.invalidate(TaskContext.parentPath(relative));
+		}
+
+		// and that a resumed run doesn't skip it, a durable copy is recorded once
+		// committed
+		RunJournal journal = context.getJournal();
+		if (journal != null) {
+			if ((copied) && (!durable)) journal.file(relative, sourceAttrs);
+			else journal.invalidate(TaskContext.parentPath(relative));
+		}
+		return copied;
+	}
+
+	/**
+	 * Deletes a destination file about to be replaced
+	 * 
+	 * @return true if the file was deleted or didn't exist
+	 */
+	private static boolean deleteFile(Path destination) {
+		try {
+			Files.deleteIfExists(destination);
+			return true;
+		} catch (IOException e) {
+			logger.warn("Could not replace " + destination + ", exception thrown: "
+					+ e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Returns true if a source file and its destination have the same content
+	 * hash. Hashes are taken from the task hash cache if the file has the size
+	 * and time stamps it had when hashed, so an unchanged file isn't read.
+	 * 
+	 * @return true if the hashes are the same, false if not or a file could not
+	 *         be read
+	 */
+	private static boolean isSameContent(TaskContext context, Path source,
+			BasicFileAttributes sourceAttrs, Path destination, long destSize,
+			long destTimestamp, String relative) {
+		HashCache cache = context.getHashCache();
+		try {
+			long sourceHash = cache.getHash(false, relative, source, sourceAttrs
+					.size(), sourceAttrs.lastModifiedTime().toMillis(), HashCache
+					.getChangeTime(source));
+			// a compressed destination records the checksum of its content, as does
+			// the index of an archive
+			Long compressed = null;
+			if (context.getArchive() != null) compressed = context.getArchive()
+					.getChecksum(relative);
+			else if (context.getCompressor() != null) compressed = BlockCompressor
+					.getChecksum(destination, Files.size(destination));
+			long destHash = (compressed != null) ? compressed.longValue() : cache
+					.getHash(true, relative, destination, destSize, destTimestamp, 0);
+			return sourceHash == destHash;
+		} catch (IOException e) {
+			logger.warn("Could not hash '" + relative + "', exception thrown: "
+					+ e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Applies the task rule to a source file and its destination. If the task
+	 * has a destination index the destination is looked up in the index,
+	 * otherwise, or if it is not in the index, the destination is only read if
+	 * the rule needs it and is then read with a single call to the file system.
+	 * A task with snapshots applies the rule to the file of the previous
+	 * snapshot, and links a file that isn't to be copied to it.
+	 * 
+	 * @param context
+	 *          the context of the task
+	 * @param source
+	 *          the source file, only read by the checksum rule
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destination
+	 *          the destination file
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * 
+	 * @return true if the rule requires the file to be copied
+	 */
+	static boolean isCopyRequired(TaskContext context, Path source,
+			BasicFileAttributes sourceAttrs, Path destination, String relative) {
+		int rule = context.getRule();
+		boolean copyRequired = false;
 
 		/**
 		 * always copy file if rule all is used
 		 */
 		if (rule == BackupTask.ALL) {
 			// logger.detail("Applying rule ALL");
-			wasCopied = BackupUtil.copyFile(source, destination);
+			return true;
+		}
+
+		// determine whether destination exists and its time stamp, from the index
+		// if we have one. The index also records the size so a change of size is
+		// caught even if the time stamp was kept
+		DestinationIndex index = context.getIndex();
+		DestinationIndex.Entry entry = (index != null) ? index.get(relative) : null;
+		Snapshot snapshot = context.getSnapshot();
+		Path compared = (snapshot != null) ? snapshot.getPrevious(relative)
+				: destination;
+		boolean destExists;
+		long lDestTimestamp = 0;
+		long lDestSize = 0;
+		boolean sizeChanged = false;
+		ArchiveStore archive = context.getArchive();
+		if (archive != null) {
+			// the archive index is the destination of an archive task
+			ArchiveStore.Entry archived = archive.get(relative);
+			destExists = (archived != null);
+			if (destExists) {
+				lDestTimestamp = archived.getLastModified();
+				lDestSize = archived.getSize();
+				sizeChanged = (archived.getSize() != sourceAttrs.size());
+			}
+		} else if (entry != null) {
+			destExists = true;
+			lDestTimestamp = entry.getLastModified();
+			lDestSize = entry.getSize();
+			sizeChanged = (entry.getSize() != sourceAttrs.size());
+		} else {
+			BasicFileAttributes destAttrs = (compared != null) ? readAttributes(compared)
+					: null;
+			destExists = (destAttrs != null);
+			if (destExists) {
+				lDestTimestamp = destAttrs.lastModifiedTime().toMillis();
+				lDestSize = destAttrs.size();
+
+				// a compressed destination is compared by the size of its source
+				if ((context.getCompressor() != null) && (!context.isRestore())
+						&& ((index != null) || (rule == BackupTask.CHECKSUM))) {
+					lDestSize = BlockCompressor.getOriginalSize(compared, lDestSize);
+				}
+
+				// remember the destination so it isn't read next run
+				if (index != null) index.put(relative, lDestSize, lDestTimestamp);
+			}
 		}
+		long lSourceTimeStamp = sourceAttrs.lastModifiedTime().toMillis();
+
 		/**
 		 * if rule is 'changed' then only copy if timestamp is different or file
 		 * does not already exist
 		 */
-		else if (rule == BackupTask.CHANGED) {
+		if (rule == BackupTask.CHANGED) {
 			// logger.detail("Applying rule CHANGED");
-			if (destination.exists()) {
-				long lSourceTimeStamp = source.lastModified();
-				long lDestTimestamp = destination.lastModified();
-
-				if (lSourceTimeStamp != lDestTimestamp) {
-					wasCopied = BackupUtil.copyFile(source, destination);
+			if (destExists) {
+				if ((lSourceTimeStamp != lDestTimestamp) || (sizeChanged)) {
+					copyRequired = true;
 				}
 			} else {
-				wasCopied = BackupUtil.copyFile(source, destination);
+				copyRequired = true;
 			}
 		}
 		/**
@@ -410,7 +2284,7 @@ public class Backup implements Runnable
 		 */
 		else if (rule == BackupTask.EXISTS) {
 			// logger.detail("Applying rule EXISTS");
-			if (destination.exists()) wasCopied = BackupUtil.copyFile(source, destination);
+			if (destExists) copyRequired = true;
 		}
 		/**
 		 * If rule is IF EXISTS CHANGED' then file must exist and must have been
@@ -418,12 +2292,9 @@ public class Backup implements Runnable
 		 */
 		else if (rule == BackupTask.EXISTS_CHANGED) {
 			// logger.detail("Applying rule EXISTS_CHANGED");
-			if (destination.exists()) {
-				long lSourceTimeStamp = source.lastModified();
-				long lDestTimestamp = destination.lastModified();
-
-				if (lSourceTimeStamp != lDestTimestamp) {
-					wasCopied = BackupUtil.copyFile(source, destination);
+			if (destExists) {
+				if ((lSourceTimeStamp != lDestTimestamp) || (sizeChanged)) {
+					copyRequired = true;
 				}
 			}
 		}
@@ -432,12 +2303,32 @@ public class Backup implements Runnable
 		 */
 		else if (rule == BackupTask.NEW) {
 			// logger.detail("Applying rule NEW");
-			//if (!destination.exists()) wasCopied = copyFile(source, destination);
-			if (!destination.exists()) wasCopied = BackupUtil.copyFile(source, destination);
+			if (!destExists) copyRequired = true;
+		}
+		/**
+		 * If rule is 'CHECKSUM' then copy if the size is different or, if the same
+		 * size, the content hash is different. Time stamps are ignored
+		 */
+		else if (rule == BackupTask.CHECKSUM) {
+			if ((!destExists) || (lDestSize != sourceAttrs.size())) {
+				copyRequired = true;
+			} else {
+				copyRequired = !isSameContent(context, source, sourceAttrs, compared,
+						lDestSize, lDestTimestamp, relative);
+			}
 		}
 
-		return wasCopied;
-	}
+		// an unchanged file is linked into the snapshot, or copied if it can't be
+		if ((!copyRequired) && (snapshot != null) && (destExists)) {
+			copyRequired = !snapshot.link(compared, destination, sourceAttrs);
+		}
 
+		// a file found to be up to date is as good as copied for a resumed run
+		RunJournal journal = context.getJournal();
+		if ((!copyRequired) && (journal != null)) journal.file(relative,
+				sourceAttrs);
+
+		return copyRequired;
+	}
 
 }
@@ -0,0 +1,195 @@
+/**
+ * BackupJob.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Gives access to the throttles of the backup
+ */
+package com.gulland.altair;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>
+ * A handle on a backup started with <code>Backup.submit</code>. The caller can
+ * wait for the <code>BackupReport</code> of the run, read a snapshot of its
+ * progress at any time and cancel it.
+ * </p>
+ *
+ * <pre>
+ * BackupJob job = backup.submit(false);
+ * ...
+ * System.out.println(job.getProgress());
+ * ...
+ * BackupReport report = job.get();
+ * </pre>
+ *
+ * <p>
+ * The throttles of the backup can be changed while it runs, to slow it down
+ * during working hours say.
+ * </p>
+ *
+ * <p>
+ * Unlike most futures a cancelled job still completes, once the backup has
+ * stopped, with a report of the work done up to the stop. The report is then
+ * flagged as cancelled.
+ * </p>
+ *
+ * @author agulland
+ */
+public class BackupJob implements Future<BackupReport>
+{
+	/** the backup being run */
+	private final Backup backup;
+
+	/** the live progress of the backup */
+	private final BackupProgress progress;
+
+	/** released once the backup has completed */
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/** the report once completed */
+	private volatile BackupReport report;
+
+	/** the failure if the backup ended with an exception */
+	private volatile Throwable failure;
+
+	/** true if cancel was called before the backup completed */
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates a handle on a backup
+	 *
+	 * @param backup
+	 *          the backup
+	 * @param progress
+	 *          the live progress of the backup
+	 */
+	BackupJob(Backup backup, BackupProgress progress) {
+		this.backup = backup;
+		this.progress = progress;
+	}
+
+	/**
+	 * Completes the job with the report of the run
+	 */
+	void complete(BackupReport report) {
+		this.report = report;
+		done.countDown();
+	}
+
+	/**
+	 * Completes the job with the exception that ended the run
+	 */
+	void fail(Throwable failure) {
+		this.failure = failure;
+		done.countDown();
+	}
+
+	/**
+	 * Returns a snapshot of the progress of the backup. Cheap enough to be called
+	 * as often as wanted.
+	 *
+	 * @return the progress
+	 */
+	public BackupProgress getProgress() {
+		return progress.snapshot();
+	}
+
+	/**
+	 * Returns the throttle of the whole backup, its limits can be changed while
+	 * the backup runs
+	 *
+	 * @return the throttle
+	 */
+	public Throttle getThrottle() {
+		return backup.getThrottle();
+	}
+
+	/**
+	 * Returns the throttle of a task of the backup, its limits can be changed
+	 * while the backup runs
+	 *
+	 * @param task
+	 *          the task
+	 * @return the throttle or null if the task isn't part of the backup
+	 */
+	public Throttle getThrottle(BackupTask task) {
+		return backup.getThrottle(task);
+	}
+
+	/**
+	 * Stops the backup. The job completes once the backup has stopped, see
+	 * <code>Backup.stop</code>.
+	 *
+	 * @param mayInterruptIfRunning
+	 *          ignored, the backup stops at the next file
+	 * @return false if the job had already completed
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (isDone()) return false;
+		cancelled = true;
+		backup.stop();
+		return true;
+	}
+
+	/**
+	 * Returns true if the job was cancelled before it completed
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns true once the backup has completed, stopped or failed
+	 */
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Waits for the backup to complete and returns its report
+	 *
+	 * @return the report
+	 * @throws InterruptedException
+	 *           if the waiting thread is interrupted
+	 * @throws ExecutionException
+	 *           if the backup ended with an exception
+	 */
+	public BackupReport get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+
+	/**
+	 * Waits at most the given time for the backup to complete and returns its
+	 * report
+	 *
+	 * @return the report
+	 * @throws InterruptedException
+	 *           if the waiting thread is interrupted
+	 * @throws ExecutionException
+	 *           if the backup ended with an exception
+	 * @throws TimeoutException
+	 *           if the backup didn't complete in time
+	 */
+	public BackupReport get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) throw new TimeoutException(
+				"Backup still running");
+		return result();
+	}
+
+	/**
+	 * Returns the report or throws the failure of a completed job
+	 */
+	private BackupReport result() throws ExecutionException {
+		if (failure != null) throw new ExecutionException(failure);
+		return report;
+	}
+}
@@ -22,6 +22,15 @@ public class BackupMetric
 
   /**  Records number of files deleted    */
   private int filesDeleted;    
+
+  /** Records number of files linked to content already in a dedup store */
+  private int filesLinked;
+
+  /** Records bytes not written as the content was already in a dedup store */
+  private long bytesSaved;
+
+  /** Records bytes of new content written to a dedup store */
+  private long bytesStored;
   
   /** records start time    */
   private long startTime;
@@ -93,6 +102,61 @@ public class BackupMetric
   }
   
 
+/**
+ * Returns the number of files linked to content already in a dedup store
+ * @return the number of files linked.
+ */
+  public int getFilesLinked()
+  {
+    return this.filesLinked;
+  }
+
+/**
+ * Returns the bytes not written as the content was already in a dedup store
+ * @return the bytes saved.
+ */
+  public long getBytesSaved()
+  {
+    return this.bytesSaved;
+  }
+
+/**
+ * Returns the bytes of new content written to a dedup store
+ * @return the bytes stored.
+ */
+  public long getBytesStored()
+  {
+    return this.bytesStored;
+  }
+
+/**
+ * Records the files backed up through a dedup store
+ * @param filesLinked the number of files linked to content already stored.
+ * @param bytesSaved the size of the files linked.
+ * @param bytesStored the size of the new content stored.
+ */
+  public void addDeduplicated(int filesLinked, long bytesSaved, long bytesStored)
+  {
+    this.filesLinked += filesLinked;
+    this.bytesSaved += bytesSaved;
+    this.bytesStored += bytesStored;
+  }
+
+/**
+ * Returns the size of the files backed up through a dedup store divided by the
+ * size of the content actually written, 1 if nothing was deduplicated
+ * @return the dedup ratio.
+ */
+  public double getDedupRatio()
+  {
+    if(this.bytesStored>0)
+      return (double)(this.bytesStored + this.bytesSaved) / this.bytesStored;
+    else if(this.bytesSaved>0)
+      return Double.POSITIVE_INFINITY;
+    else
+      return 1;
+  }
+
 /**
  * Stops the metric from further recording and therefore the timing
  */  
@@ -125,6 +189,7 @@ public class BackupMetric
     this.addFilesFound(metric.getFilesFound());
     this.addFilesCopied(metric.getFilesCopied());
     this.addFilesDeleted(metric.getFilesDeleted());
+    this.addDeduplicated(metric.getFilesLinked(), metric.getBytesSaved(), metric.getBytesStored());
   }   
 
 /**
@@ -136,6 +201,9 @@ public class BackupMetric
     
     //java.text.DecimalFormat myFormatter = new java.text.DecimalFormat("####0");    
     // myFormatter.format(durationSeconds)
-    return "Found " + this.getFilesFound() + ", " + this.getFilesCopied() + " copied, " + this.getFilesDeleted() + " deleted.";
+    String s = "Found " + this.getFilesFound() + ", " + this.getFilesCopied() + " copied, " + this.getFilesDeleted() + " deleted.";
+    if((this.filesLinked>0) || (this.bytesStored>0))
+      s += " " + this.filesLinked + " deduplicated, " + this.bytesSaved + " bytes saved, ratio " + new java.text.DecimalFormat("0.00").format(this.getDedupRatio()) + ".";
+    return s;
   }
 }
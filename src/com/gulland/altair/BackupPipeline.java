@@ -0,0 +1,513 @@
+/**
+ * BackupPipeline.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Records the files scanned in the progress of the run
+ * agulland 16 Oct 2026 Temporary files of large file copies are not restored
+ * agulland 16 Oct 2026 Skips the files and folders recorded in the run journal
+ *                      of a resumed run
+ * agulland 16 Oct 2026 Passes the source to the rule for the checksum rule
+ * agulland 16 Oct 2026 The dedup store is not restored
+ * agulland 16 Oct 2026 No destination folders are created for an archive
+ * agulland 16 Oct 2026 The scan keeps to the files per second of the throttle
+ * agulland 16 Oct 2026 Mirror delete is again limited to the task folder
+ */
+package com.gulland.altair;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Backs up a single task as a pipeline of three stages connected by bounded
+ * queues,
+ * </p>
+ *
+ * <ul>
+ * <li>scanner - lists the source folders and emits every source file found</li>
+ * <li>comparator - applies the task rule to each source file</li>
+ * <li>copy - a pool of workers that copy the files selected by the comparator</li>
+ * </ul>
+ *
+ * <p>
+ * The scanner runs on the thread calling <code>run</code>, the comparator and
+ * each copy worker have their own thread. When a queue is full the stage
+ * feeding it blocks until there is room, so a slow stage holds back the stages
+ * before it rather than filling memory. Each stage records its queue depth and
+ * throughput so the stage limiting a run can be identified.
+ * </p>
+ *
+ * @author agulland
+ */
+public class BackupPipeline
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** default capacity of the queues between stages */
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	/** the backup that owns this pipeline, used for stop and pause */
+	private final Backup backup;
+
+	/** the context of the task being backed up */
+	private final TaskContext context;
+
+	/** the task being backed up */
+	private final BackupTask task;
+
+	/** number of copy workers */
+	private final int copyThreads;
+
+	/** queue between scanner and comparator */
+	private final BlockingQueue<Candidate> compareQueue;
+
+	/** queue between comparator and copy workers */
+	private final BlockingQueue<Candidate> copyQueue;
+
+	/** statistics for each stage */
+	private final Stage scanStage;
+	private final Stage compareStage;
+	private final Stage copyStage;
+
+	/** files copied by the copy workers */
+	private final AtomicInteger filesCopied = new AtomicInteger();
+
+	/** marks the end of the work in a queue */
+	private static final Candidate END = new Candidate(null, null, null, null);
+
+	/**
+	 * Creates a new pipeline for the given task
+	 *
+	 * @param backup
+	 *          the backup that owns this pipeline
+	 * @param context
+	 *          the context of the task to backup
+	 * @param copyThreads
+	 *          number of copy workers
+	 */
+	BackupPipeline(Backup backup, TaskContext context, int copyThreads) {
+		this.backup = backup;
+		this.context = context;
+		this.task = context.getTask();
+		this.copyThreads = Math.max(1, copyThreads);
+		this.compareQueue = new ArrayBlockingQueue<Candidate>(DEFAULT_QUEUE_SIZE);
+		this.copyQueue = new ArrayBlockingQueue<Candidate>(DEFAULT_QUEUE_SIZE);
+		this.scanStage = new Stage("scan", null);
+		this.compareStage = new Stage("compare", compareQueue);
+		this.copyStage = new Stage("copy", copyQueue);
+	}
+
+	/**
+	 * Returns the statistics of the scanner, comparator and copy stages
+	 *
+	 * @return array of stages in pipeline order
+	 */
+	public Stage[] getStages() {
+		return new Stage[] { scanStage, compareStage, copyStage };
+	}
+
+	/**
+	 * Runs the pipeline. Returns once every stage has finished.
+	 *
+	 * @return BackupMetric holds metric data on backup operation
+	 */
+	BackupMetric run() {
+		BackupMetric metric = new BackupMetric();
+
+		// start comparator and copy workers
+		Thread comparator = new Thread(new Runnable() {
+			public void run() {
+				compare();
+			}
+		}, "backup-compare");
+		comparator.start();
+
+		Thread[] workers = new Thread[copyThreads];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					copy();
+				}
+			}, "backup-copy-" + i);
+			workers[i].start();
+		}
+
+		// scan on this thread, the context accounts for restore mode
+		Path fileSource = context.getSourceRoot();
+		Path fileDestination = context.getDestinationRoot();
+		try {
+			BasicFileAttributes sourceAttrs = Backup.readAttributes(fileSource);
+			if ((sourceAttrs != null)
+					&& (Backup.createDestinationFolder(context, fileDestination))) {
+				if (sourceAttrs.isDirectory()) scan(fileSource, sourceAttrs,
+						fileDestination, "", metric);
+				else {
+					String sourceName = fileSource.getFileName().toString();
+					metric.addFilesFound(1);
+					context.getProgress().addScanned(sourceAttrs.size());
+					emit(new Candidate(fileSource, sourceAttrs, fileDestination
+							.resolve(sourceName), sourceName));
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Pipeline scanner interrupted");
+		} finally {
+			put(compareQueue, END);
+		}
+
+		// wait for the remaining stages to drain
+		join(comparator);
+		for (int i = 0; i < workers.length; i++) {
+			join(workers[i]);
+		}
+
+		metric.addFilesCopied(filesCopied.get());
+		metric.stop();
+		return metric;
+	}
+
+	/**
+	 * Scanner stage. Lists a source folder, emits its files and recurses into
+	 * subfolders.
+	 *
+	 * @param fileSource
+	 *          the source folder
+	 * @param folderAttrs
+	 *          attributes of the source folder
+	 * @param fileDestination
+	 *          the destination folder
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 * @param metric
+	 *          metric used to count files found and deleted
+	 */
+	private void scan(Path fileSource, BasicFileAttributes folderAttrs,
+			Path fileDestination, String relative, BackupMetric metric)
+			throws InterruptedException {
+		long start = System.nanoTime();
+		context.getProgress().setCurrentPath(fileSource);
+
+		// an incremental scan skips folders unchanged since the previous run, only
+		// their subfolders are visited
+		FolderState folderState = context.getFolderState();
+		FolderState.Entry unchanged = null;
+		if (folderState != null) unchanged = folderState.getUnchanged(relative,
+				folderAttrs);
+
+		List<Path> sourceFiles;
+		if (unchanged != null) {
+			metric.addFilesFound(unchanged.getFiles());
+			sourceFiles = Backup.subfolderPaths(fileSource, unchanged);
+		} else {
+			sourceFiles = Backup.listFolder(fileSource);
+			if (sourceFiles == null) return;
+		}
+
+		// files and subfolders found, recorded for the next incremental scan
+		int files = 0;
+		List<String> subfolders = new ArrayList<String>();
+
+		int i = 0;
+		Throttle throttle = context.getThrottle();
+		for (; (i < sourceFiles.size()) && (!backup.isCancelled()); i++) {
+			backup.waitIfPaused();
+			if (throttle != null) throttle.acquireFile(backup);
+			Path source = sourceFiles.get(i);
+			String sourceName = source.getFileName().toString();
+			Path destination = fileDestination.resolve(sourceName);
+			String sourceRelative = TaskContext.childPath(relative, sourceName);
+			logger.trace("Processing '" + sourceName + "'");
+
+			// a single stat of the source entry, passed on to the comparator
+			BasicFileAttributes attrs = Backup.readAttributes(source);
+			if (attrs == null) continue;
+
+			if ((attrs.isDirectory()) && (task.isRecurse())
+					&& (!Backup.isReserved(context, sourceName))) {
+				subfolders.add(sourceName);
+				scanStage.record(System.nanoTime() - start);
+				int journaled = (context.getJournal() != null) ? context.getJournal()
+						.getFolderFiles(sourceRelative) : -1;
+				if (journaled >= 0) {
+					logger.trace("Folder '" + sourceName + "' already backed up");
+					metric.addFilesFound(journaled);
+				} else if (Backup.createDestinationFolder(context, destination)) {
+					scan(source, attrs, destination, sourceRelative, metric);
+				}
+				start = System.nanoTime();
+			} else if ((attrs.isRegularFile())
+					&& (!Backup.isReserved(context, sourceName))) {
+				metric.addFilesFound(1);
+				files++;
+				scanStage.record(System.nanoTime() - start);
+				if (Backup.isJournaled(context, sourceRelative, attrs)) {
+					logger.trace("File '" + sourceName + "' already backed up");
+				} else {
+					context.getProgress().addScanned(attrs.size());
+					emit(new Candidate(source, attrs, destination, sourceRelative));
+				}
+				start = System.nanoTime();
+			}
+		}
+
+		// nothing more to do for an unchanged folder
+		if (unchanged != null) return;
+
+		// record the folder for the next incremental scan, a file that then fails
+		// to copy invalidates it
+		if ((folderState != null) && (i == sourceFiles.size())) {
+			folderState.record(relative, folderAttrs, files, subfolders);
+		}
+
+		// mirror delete of the task folder, never available in restore mode
+		if ((Backup.isMirrored(context, relative)) && (!backup.isCancelled())) {
+			Backup.mirrorDelete(context, sourceFiles, fileDestination, relative,
+					metric);
+		}
+	}
+
+	/**
+	 * Passes a candidate from the scanner to the comparator, blocking while the
+	 * comparator queue is full
+	 *
+	 * @param candidate
+	 *          the source file and its destination
+	 */
+	private void emit(Candidate candidate) throws InterruptedException {
+		compareQueue.put(candidate);
+		compareStage.queued();
+	}
+
+	/**
+	 * Comparator stage. Applies the task rule and passes the files that need
+	 * copying to the copy workers.
+	 */
+	private void compare() {
+		try {
+			Candidate candidate;
+			while ((candidate = compareQueue.take()) != END) {
+				// once stopped just drain the queue so the scanner isn't blocked
+				if (backup.isCancelled()) continue;
+				backup.waitIfPaused();
+
+				long start = System.nanoTime();
+				try {
+					boolean copy = Backup.isCopyRequired(context, candidate.source,
+							candidate.attrs, candidate.destination, candidate.relative);
+					compareStage.record(System.nanoTime() - start);
+					if (copy) {
+						copyQueue.put(candidate);
+						copyStage.queued();
+					}
+				} catch (RuntimeException e) {
+					logger.warn("Failed to compare file " + candidate.source
+							+ ", exception thrown: " + e.getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Pipeline comparator interrupted");
+		} finally {
+			for (int i = 0; i < copyThreads; i++) {
+				put(copyQueue, END);
+			}
+		}
+	}
+
+	/**
+	 * Copy stage. Run by each copy worker until the comparator has finished.
+	 */
+	private void copy() {
+		try {
+			Candidate candidate;
+			while ((candidate = copyQueue.take()) != END) {
+				if (backup.isCancelled()) continue;
+				backup.waitIfPaused();
+
+				long start = System.nanoTime();
+				try {
+					if (Backup.copyFile(context, candidate.source, candidate.attrs,
+							candidate.destination, candidate.relative)) {
+						filesCopied.incrementAndGet();
+					}
+				} catch (RuntimeException e) {
+					logger.warn("Failed to copy file " + candidate.source
+							+ ", exception thrown: " + e.getMessage());
+				}
+				copyStage.record(System.nanoTime() - start);
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Pipeline copy worker interrupted");
+		}
+	}
+
+	/**
+	 * Puts an item on a queue, retrying if interrupted so that the end marker is
+	 * always delivered
+	 */
+	private static void put(BlockingQueue<Candidate> queue, Candidate candidate) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(candidate);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Waits for a stage thread to finish
+	 */
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A source file, its attributes and the destination it is backed up to
+	 */
+	private static class Candidate
+	{
+		final Path source;
+		final BasicFileAttributes attrs;
+		final Path destination;
+		final String relative;
+
+		Candidate(Path source, BasicFileAttributes attrs, Path destination,
+				String relative) {
+			this.source = source;
+			this.attrs = attrs;
+			this.destination = destination;
+			this.relative = relative;
+		}
+	}
+
+	/**
+	 * Statistics for a single pipeline stage. The queue depth is the number of
+	 * items waiting to be processed by the stage. The busy time is the time
+	 * spent processing items, excluding time spent waiting on queues, so a
+	 * stage whose busy time is close to the elapsed time is the one limiting the
+	 * run.
+	 */
+	public static class Stage
+	{
+		/** stage name */
+		private final String name;
+
+		/** the queue feeding this stage, null for the scanner */
+		private final BlockingQueue<?> queue;
+
+		/** number of items processed */
+		private final AtomicLong processed = new AtomicLong();
+
+		/** time spent processing items in nanoseconds */
+		private final AtomicLong busyNanos = new AtomicLong();
+
+		/** largest queue depth seen */
+		private volatile int maxQueueDepth;
+
+		/** time the stage was created */
+		private final long startTime = System.currentTimeMillis();
+
+		Stage(String name, BlockingQueue<?> queue) {
+			this.name = name;
+			this.queue = queue;
+		}
+
+		/** records an item being processed */
+		void record(long nanos) {
+			processed.incrementAndGet();
+			busyNanos.addAndGet(nanos);
+		}
+
+		/** records an item being added to the queue feeding this stage */
+		void queued() {
+			int depth = queue.size();
+			if (depth > maxQueueDepth) maxQueueDepth = depth;
+		}
+
+		/**
+		 * Returns the stage name
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the number of items waiting in the queue feeding this stage
+		 *
+		 * @return current queue depth
+		 */
+		public int getQueueDepth() {
+			return (queue == null) ? 0 : queue.size();
+		}
+
+		/**
+		 * Returns the largest number of items seen waiting in the queue feeding
+		 * this stage
+		 *
+		 * @return maximum queue depth
+		 */
+		public int getMaxQueueDepth() {
+			return maxQueueDepth;
+		}
+
+		/**
+		 * Returns the number of items processed by this stage
+		 *
+		 * @return items processed
+		 */
+		public long getProcessed() {
+			return processed.get();
+		}
+
+		/**
+		 * Returns the total time spent processing items, summed over all threads
+		 * of the stage
+		 *
+		 * @return busy time in milliseconds
+		 */
+		public long getBusyTime() {
+			return busyNanos.get() / 1000000;
+		}
+
+		/**
+		 * Returns the average number of items processed per second since the
+		 * stage started
+		 *
+		 * @return throughput in items per second
+		 */
+		public double getThroughput() {
+			long elapsed = System.currentTimeMillis() - startTime;
+			if (elapsed <= 0) return 0;
+			return processed.get() * 1000.0 / elapsed;
+		}
+
+		/**
+		 * Returns stage statistics in a nicely formatted string
+		 */
+		public String toString() {
+			java.text.DecimalFormat myFormatter = new java.text.DecimalFormat("0.0");
+			return "Stage '" + name + "' processed " + getProcessed() + " ("
+					+ myFormatter.format(getThroughput()) + "/s), busy "
+					+ getBusyTime() + "ms, queue depth " + getQueueDepth() + " (max "
+					+ getMaxQueueDepth() + ").";
+		}
+	}
+}
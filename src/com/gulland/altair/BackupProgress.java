@@ -0,0 +1,185 @@
+/**
+ * BackupProgress.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The progress of a running backup. The backup updates a live instance from
+ * every worker thread using atomic counters, and
+ * <code>BackupJob.getProgress</code> hands out a snapshot so it can be read as
+ * often as wanted without holding up the backup.
+ * </p>
+ *
+ * <p>
+ * Files and bytes scanned count the source files whose rule was evaluated.
+ * Files in a folder skipped by an incremental scan are not scanned.
+ * </p>
+ *
+ * @author agulland
+ */
+public class BackupProgress
+{
+	/** source files whose rule was evaluated and their total size */
+	private final AtomicLong filesScanned = new AtomicLong();
+	private final AtomicLong bytesScanned = new AtomicLong();
+
+	/** files copied and their total size */
+	private final AtomicLong filesCopied = new AtomicLong();
+	private final AtomicLong bytesCopied = new AtomicLong();
+
+	/** files and folders deleted from the destination */
+	private final AtomicLong filesDeleted = new AtomicLong();
+
+	/** folder or file most recently worked on */
+	private volatile Path currentPath;
+
+	/** time the backup started */
+	private final long startTime;
+
+	/** time a snapshot was taken, 0 for the live progress */
+	private final long snapshotTime;
+
+	/**
+	 * Creates the progress of a backup starting now
+	 */
+	BackupProgress() {
+		this.startTime = System.currentTimeMillis();
+		this.snapshotTime = 0;
+	}
+
+	/**
+	 * Creates a snapshot of the given progress
+	 */
+	private BackupProgress(BackupProgress live) {
+		this.startTime = live.startTime;
+		this.snapshotTime = System.currentTimeMillis();
+		this.filesScanned.set(live.filesScanned.get());
+		this.bytesScanned.set(live.bytesScanned.get());
+		this.filesCopied.set(live.filesCopied.get());
+		this.bytesCopied.set(live.bytesCopied.get());
+		this.filesDeleted.set(live.filesDeleted.get());
+		this.currentPath = live.currentPath;
+	}
+
+	/**
+	 * Returns a copy of this progress that no longer changes
+	 *
+	 * @return the snapshot
+	 */
+	BackupProgress snapshot() {
+		return new BackupProgress(this);
+	}
+
+	/**
+	 * Records a source file whose rule was evaluated
+	 */
+	void addScanned(long size) {
+		filesScanned.incrementAndGet();
+		bytesScanned.addAndGet(size);
+	}
+
+	/**
+	 * Records a file copied
+	 */
+	void addCopied(long size) {
+		filesCopied.incrementAndGet();
+		bytesCopied.addAndGet(size);
+	}
+
+	/**
+	 * Records a file or folder deleted from the destination
+	 */
+	void addDeleted() {
+		filesDeleted.incrementAndGet();
+	}
+
+	/**
+	 * Records the folder or file being worked on
+	 */
+	void setCurrentPath(Path path) {
+		this.currentPath = path;
+	}
+
+	/**
+	 * Returns the number of source files whose rule was evaluated
+	 *
+	 * @return number of files
+	 */
+	public long getFilesScanned() {
+		return filesScanned.get();
+	}
+
+	/**
+	 * Returns the total size of the source files whose rule was evaluated
+	 *
+	 * @return size in bytes
+	 */
+	public long getBytesScanned() {
+		return bytesScanned.get();
+	}
+
+	/**
+	 * Returns the number of files copied
+	 *
+	 * @return number of files
+	 */
+	public long getFilesCopied() {
+		return filesCopied.get();
+	}
+
+	/**
+	 * Returns the total size of the files copied
+	 *
+	 * @return size in bytes
+	 */
+	public long getBytesCopied() {
+		return bytesCopied.get();
+	}
+
+	/**
+	 * Returns the number of files and folders deleted from the destination
+	 *
+	 * @return number deleted
+	 */
+	public long getFilesDeleted() {
+		return filesDeleted.get();
+	}
+
+	/**
+	 * Returns the folder or file most recently worked on. With several worker
+	 * threads this is one of the paths in progress.
+	 *
+	 * @return the path or null if the backup hasn't started work
+	 */
+	public Path getCurrentPath() {
+		return currentPath;
+	}
+
+	/**
+	 * Returns the time from the start of the backup to when the snapshot was
+	 * taken
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getElapsed() {
+		long now = (snapshotTime > 0) ? snapshotTime : System.currentTimeMillis();
+		return now - startTime;
+	}
+
+	/**
+	 * Returns the progress in a nicely formatted string
+	 */
+	public String toString() {
+		return "Scanned " + getFilesScanned() + " (" + getBytesScanned()
+				+ " bytes), " + getFilesCopied() + " copied (" + getBytesCopied()
+				+ " bytes), " + getFilesDeleted() + " deleted.";
+	}
+}
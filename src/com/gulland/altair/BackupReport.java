@@ -0,0 +1,118 @@
+/**
+ * BackupReport.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of a backup run, returned by <code>BackupJob</code> once the run
+ * is complete. It holds the metric of every task processed, their total and
+ * the final progress of the run.
+ *
+ * @author agulland
+ */
+public class BackupReport
+{
+	/** tasks processed, in the order they completed */
+	private final List<BackupTask> tasks = new ArrayList<BackupTask>();
+
+	/** metric of each task, at the same index as the task */
+	private final List<BackupMetric> metrics = new ArrayList<BackupMetric>();
+
+	/** total of the task metrics */
+	private final BackupMetric total = new BackupMetric();
+
+	/** final progress of the run */
+	private final BackupProgress progress;
+
+	/** true if the run was stopped before it completed */
+	private final boolean cancelled;
+
+	/**
+	 * Creates a report
+	 *
+	 * @param progress
+	 *          final progress of the run
+	 * @param cancelled
+	 *          true if the run was stopped
+	 */
+	BackupReport(BackupProgress progress, boolean cancelled) {
+		this.progress = progress;
+		this.cancelled = cancelled;
+	}
+
+	/**
+	 * Adds the metric of a task processed
+	 */
+	void addTask(BackupTask task, BackupMetric metric) {
+		tasks.add(task);
+		metrics.add(metric);
+		total.addMetric(metric);
+	}
+
+	/**
+	 * Returns the tasks processed. Tasks that were inactive or whose source
+	 * didn't exist are not included.
+	 *
+	 * @return the tasks
+	 */
+	public BackupTask[] getTasks() {
+		return tasks.toArray(new BackupTask[tasks.size()]);
+	}
+
+	/**
+	 * Returns the metric of a task
+	 *
+	 * @param task
+	 *          one of the tasks processed
+	 * @return the metric or null if the task wasn't processed
+	 */
+	public BackupMetric getMetric(BackupTask task) {
+		for (int i = 0; i < tasks.size(); i++) {
+			if (tasks.get(i) == task) return metrics.get(i);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the total of the metrics of every task processed
+	 *
+	 * @return the total metric
+	 */
+	public BackupMetric getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the final progress of the run, which includes the bytes copied
+	 *
+	 * @return the progress
+	 */
+	public BackupProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Returns the time the run took
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getElapsed() {
+		return progress.getElapsed();
+	}
+
+	/**
+	 * Returns true if the run was stopped before it completed
+	 *
+	 * @return true if stopped
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
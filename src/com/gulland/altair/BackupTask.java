@@ -9,6 +9,8 @@
 package com.gulland.altair;
 
 import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.CRC32;
 
 /**
  * <p>
@@ -25,6 +27,8 @@ import java.io.File;
  * <li>BackupTask.EXISTS_CHANGED - only copy source files whose timestamp is
  * different from destination AND file exists on destination
  * <li>BackupTask.NEW - only copy files that dont already exist on destination
+ * <li>BackupTask.CHECKSUM - only copy source files whose size or content is
+ * different from destination OR if destination does not exist
  * </ul>
  * 
  * @author agulland
@@ -52,6 +56,45 @@ public class BackupTask
 	/** Holds value of property mirrorDelete. */
 	private boolean mirrorDelete;
 
+	/** Holds value of property index. */
+	private boolean index;
+
+	/** Holds value of property incremental. */
+	private boolean incremental;
+
+	/** Holds value of property deltaSize. */
+	private long deltaSize;
+
+	/** Holds value of property dedup. */
+	private boolean dedup;
+
+	/** Holds value of property snapshots. */
+	private int snapshots;
+
+	/** Holds value of property compress. */
+	private boolean compress;
+
+	/** Holds value of property archive. */
+	private boolean archive;
+
+	/** Holds value of property durable. */
+	private boolean durable;
+
+	/** Holds value of property manifest. */
+	private boolean manifest;
+
+	/** Holds value of property verifyCopy. */
+	private boolean verifyCopy;
+
+	/** Holds value of property bytesPerSecond. */
+	private long bytesPerSecond;
+
+	/** Holds value of property filesPerSecond. */
+	private long filesPerSecond;
+
+	/** Holds value of property maxOpen. */
+	private int maxOpen;
+
 	/** summary metric to hold sum metric of all sub folders */
 	private BackupMetric summaryMetric;
 
@@ -85,11 +128,18 @@ public class BackupTask
 	 */
 	public static int NEW = 4;
 
+	/**
+	 * Value for backup event rule. Copies all files whose size is different to
+	 * the same file on destination or, if the same size, whose content hash is
+	 * different. Time stamps are ignored
+	 */
+	public static int CHECKSUM = 5;
+
 	/**
 	 * Array of rule names
 	 */
 	private static String[] ruleNames = new String[] { "all", "changed",
-			"exists", "exists changed", "new" };
+			"exists", "exists changed", "new", "checksum" };
 
 	/** Creates a new BackupTask object */
 	public BackupTask() {
@@ -262,6 +312,284 @@ public class BackupTask
 		this.mirrorDelete = mirrorDelete;
 	}
 
+	/**
+	 * Returns a boolean value indicating whether this event keeps an index of
+	 * the files written to destination, so that destination files don't need to
+	 * be read on every run
+	 * 
+	 * @return Value of property index.
+	 */
+	public boolean isIndex() {
+		return this.index;
+	}
+
+	/**
+	 * Setter for property index.
+	 * 
+	 * @param index
+	 *          New value of property index.
+	 */
+	public void setIndex(boolean index) {
+		this.index = index;
+	}
+
+	/**
+	 * Returns a boolean value indicating whether this event skips listing source
+	 * folders whose time stamp hasn't changed since the previous run
+	 * 
+	 * @return Value of property incremental.
+	 */
+	public boolean isIncremental() {
+		return this.incremental;
+	}
+
+	/**
+	 * Setter for property incremental.
+	 * 
+	 * @param incremental
+	 *          New value of property incremental.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Returns the size from which a changed file is updated with a delta copy,
+	 * writing only the blocks that differ, rather than copied in full
+	 * 
+	 * @return Value of property deltaSize, 0 if delta copies are not used.
+	 */
+	public long getDeltaSize() {
+		return this.deltaSize;
+	}
+
+	/**
+	 * Setter for property deltaSize.
+	 * 
+	 * @param deltaSize
+	 *          New value of property deltaSize, 0 to not use delta copies.
+	 */
+	public void setDeltaSize(long deltaSize) {
+		this.deltaSize = deltaSize;
+	}
+
+	/**
+	 * Returns a boolean value indicating whether this event stores each distinct
+	 * file content once in a store in the destination, destination files being
+	 * hard links to it
+	 * 
+	 * @return Value of property dedup.
+	 */
+	public boolean isDedup() {
+		return this.dedup;
+	}
+
+	/**
+	 * Setter for property dedup.
+	 * 
+	 * @param dedup
+	 *          New value of property dedup.
+	 */
+	public void setDedup(boolean dedup) {
+		this.dedup = dedup;
+	}
+
+	/**
+	 * Returns the number of dated snapshots this event keeps in the destination,
+	 * each run writing a new snapshot
+	 * 
+	 * @return Value of property snapshots, 0 if the destination is a single
+	 *         mirror.
+	 */
+	public int getSnapshots() {
+		return this.snapshots;
+	}
+
+	/**
+	 * Setter for property snapshots.
+	 * 
+	 * @param snapshots
+	 *          New value of property snapshots, 0 for a single mirror.
+	 */
+	public void setSnapshots(int snapshots) {
+		this.snapshots = snapshots;
+	}
+
+	/**
+	 * Returns a boolean value indicating whether this event compresses files
+	 * written to destination, and decompresses them when restored
+	 * 
+	 * @return Value of property compress.
+	 */
+	public boolean isCompress() {
+		return this.compress;
+	}
+
+	/**
+	 * Setter for property compress.
+	 * 
+	 * @param compress
+	 *          New value of property compress.
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * Returns a boolean value indicating whether this event stores its files in
+	 * archive volumes in destination rather than as a file each
+	 * 
+	 * @return Value of property archive.
+	 */
+	public boolean isArchive() {
+		return this.archive;
+	}
+
+	/**
+	 * Setter for property archive.
+	 * 
+	 * @param archive
+	 *          New value of property archive.
+	 */
+	public void setArchive(boolean archive) {
+		this.archive = archive;
+	}
+
+	/**
+	 * Returns a boolean value indicating whether this event syncs the files it
+	 * copies to disk before moving them into place
+	 * 
+	 * @return Value of property durable.
+	 */
+	public boolean isDurable() {
+		return this.durable;
+	}
+
+	/**
+	 * Setter for property durable.
+	 * 
+	 * @param durable
+	 *          New value of property durable.
+	 */
+	public void setDurable(boolean durable) {
+		this.durable = durable;
+	}
+
+	/**
+	 * Returns a boolean value indicating whether this event records the
+	 * checksum of each file it copies in a manifest in destination
+	 * 
+	 * @return Value of property manifest.
+	 */
+	public boolean isManifest() {
+		return this.manifest;
+	}
+
+	/**
+	 * Setter for property manifest.
+	 * 
+	 * @param manifest
+	 *          New value of property manifest.
+	 */
+	public void setManifest(boolean manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Returns a boolean value indicating whether this event reads back each file
+	 * it copies and compares it with the data copied
+	 * 
+	 * @return Value of property verifyCopy.
+	 */
+	public boolean isVerifyCopy() {
+		return this.verifyCopy;
+	}
+
+	/**
+	 * Setter for property verifyCopy.
+	 * 
+	 * @param verifyCopy
+	 *          New value of property verifyCopy.
+	 */
+	public void setVerifyCopy(boolean verifyCopy) {
+		this.verifyCopy = verifyCopy;
+	}
+
+	/**
+	 * Returns the most bytes per second this task copies
+	 * 
+	 * @return Value of property bytesPerSecond, 0 if not limited.
+	 */
+	public long getBytesPerSecond() {
+		return this.bytesPerSecond;
+	}
+
+	/**
+	 * Setter for property bytesPerSecond.
+	 * 
+	 * @param bytesPerSecond
+	 *          New value of property bytesPerSecond.
+	 */
+	public void setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Returns the most files per second this task examines
+	 * 
+	 * @return Value of property filesPerSecond, 0 if not limited.
+	 */
+	public long getFilesPerSecond() {
+		return this.filesPerSecond;
+	}
+
+	/**
+	 * Setter for property filesPerSecond.
+	 * 
+	 * @param filesPerSecond
+	 *          New value of property filesPerSecond.
+	 */
+	public void setFilesPerSecond(long filesPerSecond) {
+		this.filesPerSecond = filesPerSecond;
+	}
+
+	/**
+	 * Returns the most files this task has open for copying at once
+	 * 
+	 * @return Value of property maxOpen, 0 if not limited.
+	 */
+	public int getMaxOpen() {
+		return this.maxOpen;
+	}
+
+	/**
+	 * Setter for property maxOpen.
+	 * 
+	 * @param maxOpen
+	 *          New value of property maxOpen.
+	 */
+	public void setMaxOpen(int maxOpen) {
+		this.maxOpen = maxOpen;
+	}
+
+	/**
+	 * Returns a key identifying this task's source and destination. It is used
+	 * to name files that hold state for the task between runs, so the state
+	 * follows the folders rather than the task id.
+	 * 
+	 * @return the key as a hex string
+	 */
+	public String getStateKey() {
+		String key = this.source + "|" + this.destination;
+		CRC32 crc = new CRC32();
+		try {
+			crc.update(key.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			crc.update(key.getBytes());
+		}
+		return Long.toHexString(crc.getValue());
+	}
+
 	/**
 	 * Checks the source folder if looks like a valid folder and if it exists
 	 * 
@@ -4,15 +4,37 @@
  * Who      When        What
  * -------- ----------  --------------------------------------------------------
  * Alastair 22 Oct 2011 Class created
+ * agulland 16 Oct 2026 copyFile takes source attributes already read by the
+ *                      traversal and opens channels with FileChannel.open
+ * agulland 16 Oct 2026 Large files are copied in chunks that can be paused or
+ *                      stopped, through a temporary file resumed from a
+ *                      checkpoint
+ * agulland 16 Oct 2026 Added parseSize and the temporary file of a delta copy
+ * agulland 16 Oct 2026 Added the temporary link of the dedup store
+ * agulland 16 Oct 2026 Files are copied with the copy strategy of their size
+ *                      class, transfer no longer uses the Windows chunk size
+ *                      on every platform
+ * agulland 16 Oct 2026 The file copied is only logged at detail level, so the
+ *                      message isn't built otherwise
+ * agulland 16 Oct 2026 A durable copy is left in its temporary file for a
+ *                      group commit, added replace
+ * agulland 16 Oct 2026 Very large files are copied in parallel ranges
+ * agulland 16 Oct 2026 A copy can update a checksum with the data copied
  */
 package com.gulland.altair;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.Checksum;
 
 /**
  * Provides utility methods for backup utility
@@ -24,6 +46,30 @@ public class BackupUtil
 	/** define logging object */
 	private static final BackupLogger logger = BackupLogger.getLogger();
 
+	/** files of this size or more are copied through a resumable temporary file */
+	public static final long RESUMABLE_SIZE = 64L * 1024 * 1024;
+
+	/** size of the chunks a large file is copied in */
+	public static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+	/** bytes copied between checkpoints of a large file */
+	public static final long CHECKPOINT_INTERVAL = 64L * 1024 * 1024;
+
+	/** suffix of the temporary file a large file is copied to */
+	public static final String PARTIAL_SUFFIX = ".altair-partial";
+
+	/** suffix of the checkpoint file of a large file being copied */
+	public static final String CHECKPOINT_SUFFIX = ".altair-checkpoint";
+
+	/** suffix of the temporary file a delta copy puts a file together in */
+	public static final String DELTA_SUFFIX = ".altair-delta";
+
+	/** suffix of the link made before it replaces a file in the dedup store */
+	public static final String LINK_SUFFIX = ".altair-link";
+
+	/** copy strategies of files copied without a selection */
+	private static final CopyStrategy.Selection DEFAULT_STRATEGIES = new CopyStrategy.Selection();
+
 	/**
 	 * Copies a file from a specified source to destination. Note, will overwrite
 	 * if destination file already exists)
@@ -36,61 +82,413 @@ public class BackupUtil
 	 * @return true if file was copied
 	 */
 	public static boolean copyFile(File sourceFile, File destinationFile) {
-		logger.detail("Copying file " + sourceFile.getAbsoluteFile());
-
-		// check that we can read source and write destination
-		boolean canDo = true;
-		if (!sourceFile.canRead()) {
-			canDo = false;
-			logger
-					.warn("Could not read source file: '"
-							+ sourceFile.getPath()
-							+ "'. Check permissions or that it is not locked by another process.");
+		BasicFileAttributes sourceAttrs;
+		try {
+			sourceAttrs = Files.readAttributes(sourceFile.toPath(),
+					BasicFileAttributes.class);
+		} catch (IOException e) {
+			logger.warn("Could not access file " + e.getMessage());
+			return false;
 		}
+		return copyFile(sourceFile.toPath(), sourceAttrs, destinationFile.toPath());
+	}
+
+	/**
+	 * Copies a file from a specified source to destination using attributes of
+	 * the source that have already been read, so the source isn't read again
+	 * before it is opened. Note, will overwrite if destination file already
+	 * exists)
+	 * 
+	 * @param sourceFile
+	 *          fully qualified path to a source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destinationFile
+	 *          fully qualified path to a destination file
+	 * 
+	 * @return true if file was copied
+	 */
+	public static boolean copyFile(Path sourceFile, BasicFileAttributes sourceAttrs,
+			Path destinationFile) {
+		return copyFile(sourceFile, sourceAttrs, destinationFile, null);
+	}
+
+	/**
+	 * <p>
+	 * Copies a file from a specified source to destination using attributes of
+	 * the source that have already been read. Note, will overwrite if
+	 * destination file already exists)
+	 * </p>
+	 * 
+	 * <p>
+	 * A file of <code>RESUMABLE_SIZE</code> or more is copied in chunks to a
+	 * temporary file next to the destination, which replaces the destination
+	 * once complete. Between chunks the monitor is checked for pause and stop,
+	 * and every <code>CHECKPOINT_INTERVAL</code> bytes the temporary file is
+	 * flushed to disk and the offset reached recorded in a checkpoint file. A
+	 * copy that is stopped, or fails, resumes from the checkpoint next time if
+	 * the source size and time stamp are unchanged. A file of the parallel size
+	 * of the strategies or more is copied the same way in several ranges at
+	 * once.
+	 * </p>
+	 * 
+	 * @param sourceFile
+	 *          fully qualified path to a source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destinationFile
+	 *          fully qualified path to a destination file
+	 * @param monitor
+	 *          checked between chunks of a large file, may be null
+	 * 
+	 * @return true if file was copied, false if it failed or was stopped
+	 */
+	public static boolean copyFile(Path sourceFile, BasicFileAttributes sourceAttrs,
+			Path destinationFile, CopyMonitor monitor) {
+		return copyFile(sourceFile, sourceAttrs, destinationFile, monitor, null);
+	}
+
+	/**
+	 * Copies a file as <code>copyFile</code> does, with the copy strategy a
+	 * selection gives for its size
+	 * 
+	 * @param sourceFile
+	 *          fully qualified path to a source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destinationFile
+	 *          fully qualified path to a destination file
+	 * @param monitor
+	 *          checked between chunks of a large file, may be null
+	 * @param strategies
+	 *          the copy strategy of each size class, null for the defaults
+	 * 
+	 * @return true if file was copied, false if it failed or was stopped
+	 */
+	public static boolean copyFile(Path sourceFile, BasicFileAttributes sourceAttrs,
+			Path destinationFile, CopyMonitor monitor,
+			CopyStrategy.Selection strategies) {
+		return copyFile(sourceFile, sourceAttrs, destinationFile, monitor,
+				strategies, false);
+	}
+
+	/**
+	 * Copies a file as <code>copyFile</code> does. A durable copy is left in the
+	 * temporary file beside the destination, named by
+	 * <code>getPartialFile</code>, with the time stamp of the source, for a
+	 * <code>GroupCommit</code> to sync and move into place.
+	 * 
+	 * @param sourceFile
+	 *          fully qualified path to a source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destinationFile
+	 *          fully qualified path to a destination file
+	 * @param monitor
+	 *          checked between chunks of a large file, may be null
+	 * @param strategies
+	 *          the copy strategy of each size class, null for the defaults
+	 * @param durable
+	 *          true to leave the copy in its temporary file
+	 * 
+	 * @return true if file was copied, false if it failed or was stopped
+	 */
+	public static boolean copyFile(Path sourceFile, BasicFileAttributes sourceAttrs,
+			Path destinationFile, CopyMonitor monitor,
+			CopyStrategy.Selection strategies, boolean durable) {
+		return copyFile(sourceFile, sourceAttrs, destinationFile, monitor,
+				strategies, durable, null);
+	}
+
+	/**
+	 * Copies a file as <code>copyFile</code> does, updating a checksum with the
+	 * data copied. The file is then copied through a buffer whatever the
+	 * strategy, and as one stream however large, as the checksum has to see the
+	 * data in order. A copy resumed from a checkpoint reads back the part
+	 * already copied first.
+	 * 
+	 * @param sourceFile
+	 *          fully qualified path to a source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destinationFile
+	 *          fully qualified path to a destination file
+	 * @param monitor
+	 *          checked between chunks of a large file, may be null
+	 * @param strategies
+	 *          the copy strategy of each size class, null for the defaults
+	 * @param durable
+	 *          true to leave the copy in its temporary file
+	 * @param checksum
+	 *          the checksum updated with the data copied, may be null
+	 * 
+	 * @return true if file was copied, false if it failed or was stopped
+	 */
+	public static boolean copyFile(Path sourceFile, BasicFileAttributes sourceAttrs,
+			Path destinationFile, CopyMonitor monitor,
+			CopyStrategy.Selection strategies, boolean durable, Checksum checksum) {
+		if (strategies == null) strategies = DEFAULT_STRATEGIES;
+		CopyStrategy strategy = (checksum != null) ? CopyStrategy
+				.checksummed(checksum) : strategies.get(sourceAttrs.size());
+		if (logger.getLogLevel() <= BackupLogger.DETAIL) logger.detail("Copying file "
+				+ sourceFile.toAbsolutePath());
 
 		/**
 		 * TODO check target folder is writable?
 		 * */
 
-		/**
-		 * For large files :
-		 * http://en.allexperts.com/q/Java-1046/2009/3/BufferWriter.htm
-		 */
+		// we don't check that we can read source beforehand, a source that can't
+		// be read fails on opening
+		try {
+			// copy file, a durable copy is written to its temporary file
+			Path target = (durable) ? getPartialFile(destinationFile)
+					: destinationFile;
+			long parallelSize = strategies.getParallelSize();
+			if ((parallelSize > 0) && (sourceAttrs.size() >= parallelSize)
+					&& (checksum == null)) {
+				if (!ParallelCopier.copy(sourceFile, sourceAttrs, destinationFile,
+						monitor, durable)) {
+					return false;
+				}
+			} else if (sourceAttrs.size() >= RESUMABLE_SIZE) {
+				if (!copyResumable(sourceFile, sourceAttrs, destinationFile, monitor,
+						strategy, durable, checksum)) {
+					return false;
+				}
+			} else {
+				strategy.copy(sourceFile, target);
+			}
+
+			// Set date of destination file to be same as source otherwise it would
+			// default to system date)
+			Files.setLastModifiedTime(target, sourceAttrs.lastModifiedTime());
+
+			return true;
+		} catch (AccessDeniedException e) {
+			logger.warn("Could not read source file: '" + sourceFile
+					+ "' or write destination file '" + destinationFile
+					+ "'. Check permissions or that it is not locked by another process.");
+			return false;
+		} catch (NoSuchFileException e) {
+			logger.warn("Could not access file " + e.getMessage());
+			return false;
+		} catch (IOException e) {
+			logger.warn("Could not backup file " + e.getMessage());
+			return false;
+		}
+	}
 
-		// if we can read and write ok then do file copy
-		if (canDo) {			
+	/**
+	 * Copies a large file in chunks through a temporary file, resuming from its
+	 * checkpoint if there is one for the same source size and time stamp. A
+	 * durable copy is left in the temporary file. A checksum is first updated
+	 * with the part of a resumed copy already in the temporary file.
+	 * 
+	 * @return true if the copy completed, false if it was stopped
+	 */
+	private static boolean copyResumable(Path sourceFile,
+			BasicFileAttributes sourceAttrs, Path destinationFile,
+			CopyMonitor monitor, CopyStrategy strategy, boolean durable,
+			Checksum checksum) throws IOException {
+		Path partial = getPartialFile(destinationFile);
+		Path checkpoint = destinationFile.resolveSibling(destinationFile
+				.getFileName() + CHECKPOINT_SUFFIX);
+		long size = sourceAttrs.size();
+		long lastModified = sourceAttrs.lastModifiedTime().toMillis();
+
+		long position = readCheckpoint(checkpoint, size, lastModified);
+		FileChannel in = FileChannel.open(sourceFile, StandardOpenOption.READ);
+		try {
+			FileChannel out = FileChannel.open(partial, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.CREATE);
 			try {
-				// copy file
-				FileChannel in = new FileInputStream(sourceFile).getChannel();
-				FileChannel out = new FileOutputStream(destinationFile).getChannel(); 
-
-				// magic number for Windows, 64Mb - 32Kb)
-        int maxCount = (64 * 1024 * 1024) - (32 * 1024);
-        
-        long size = in.size();
-        long position = 0;
-        while ( position < size ) {
-           position += in.transferTo( position, maxCount, out);
-        }        
-          
-        in.close(); 
-			 	out.close();
-
-				// Set date of destination file to be same as source otherwise it would
-				// default to system date)
-				destinationFile.setLastModified(sourceFile.lastModified());
-
-				return true;
-			} catch (FileNotFoundException e) {
-				logger.warn("Could not access file " + e.getMessage());
-				return false;
-			} catch (IOException e) {
-				logger.warn("Could not backup file " + e.getMessage());
-				return false;
+				// a temporary file shorter than its checkpoint can't be trusted
+				if (out.size() < position) position = 0;
+				if (position > 0) logger.detail("Resuming copy of " + sourceFile
+						+ " at offset " + position);
+				else out.truncate(0);
+				if ((position > 0) && (checksum != null)) update(checksum, out,
+						position);
+				out.position(position);
+
+				long checkpointed = position;
+				while (position < size) {
+					if (monitor != null) {
+						monitor.waitIfPaused();
+						if (monitor.isCancelled()) {
+							out.force(false);
+							writeCheckpoint(checkpoint, size, lastModified, position);
+							logger.warn("Copy of " + sourceFile + " stopped at offset "
+									+ position + ", it resumes from there next run");
+							return false;
+						}
+					}
+
+					position += strategy.transfer(in, out, position, Math.min(
+							CHUNK_SIZE, size - position));
+
+					// confirm the data so far is on disk before recording the offset
+					if (position - checkpointed >= CHECKPOINT_INTERVAL) {
+						out.force(false);
+						writeCheckpoint(checkpoint, size, lastModified, position);
+						checkpointed = position;
+					}
+				}
+
+				// drop anything beyond the end left by an earlier, larger, source
+				out.truncate(size);
+			} finally {
+				out.close();
 			}
-		} else {
-			return false;
+		} finally {
+			in.close();
+		}
+
+		if (!durable) replace(partial, destinationFile);
+		Files.deleteIfExists(checkpoint);
+		return true;
+	}
+
+	/**
+	 * Updates a checksum with the start of a file
+	 */
+	private static void update(Checksum checksum, FileChannel in, long count)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+		long position = 0;
+		while (position < count) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), count - position));
+			int n = in.read(buffer, position);
+			if (n < 0) throw new IOException("Temporary file shrank during copy");
+			checksum.update(buffer.array(), 0, n);
+			position += n;
+		}
+	}
+
+	/**
+	 * Moves a file over another, atomically if the file system can
+	 * 
+	 * @param source
+	 *          the file moved
+	 * @param target
+	 *          the file replaced
+	 * @throws IOException
+	 *           if the file can't be moved
+	 */
+	static void replace(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// some file systems can't replace atomically
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Returns the temporary file a file is copied to before it is moved into
+	 * place
+	 * 
+	 * @param destinationFile
+	 *          the file copied to
+	 * @return the temporary file beside it
+	 */
+	public static Path getPartialFile(Path destinationFile) {
+		return destinationFile.resolveSibling(destinationFile.getFileName()
+				+ PARTIAL_SUFFIX);
+	}
+
+	/**
+	 * Transfers a range of a file to the current position of another with
+	 * <code>FileChannel.transferTo</code>
+	 * 
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 *           if the source ends before the range does
+	 */
+	static long transfer(FileChannel in, FileChannel out, long position,
+			long count) throws IOException {
+		return CopyStrategy.TRANSFER.transfer(in, out, position, count);
+	}
+
+	/**
+	 * Reads the offset recorded in a checkpoint file
+	 * 
+	 * @return the offset, or 0 if there is no checkpoint or it is for a different
+	 *         source size or time stamp
+	 */
+	private static long readCheckpoint(Path checkpoint, long size,
+			long lastModified) {
+		if (!Files.exists(checkpoint)) return 0;
+		try {
+			String[] fields = new String(Files.readAllBytes(checkpoint), "UTF-8")
+					.trim().split("\t");
+			if ((fields.length == 3) && (Long.parseLong(fields[0]) == size)
+					&& (Long.parseLong(fields[1]) == lastModified)) {
+				return Long.parseLong(fields[2]);
+			}
+		} catch (IOException e) {
+			logger.warn("Could not read checkpoint " + checkpoint
+					+ ", exception thrown: " + e.getMessage());
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid checkpoint " + checkpoint);
 		}
+		return 0;
+	}
+
+	/**
+	 * Records the offset a copy has reached. A checkpoint only part written is
+	 * invalid when read so the copy then starts again.
+	 */
+	private static void writeCheckpoint(Path checkpoint, long size,
+			long lastModified, long position) throws IOException {
+		Files.write(checkpoint, (size + "\t" + lastModified + "\t" + position)
+				.getBytes("UTF-8"));
+	}
+
+	/**
+	 * Returns the name of the file a temporary or checkpoint file belongs to
+	 * 
+	 * @param name
+	 *          a file name
+	 * @return the name of the file being copied, or null if the name is not that
+	 *         of a temporary or checkpoint file
+	 */
+	public static String getPartialBaseName(String name) {
+		if (name.endsWith(PARTIAL_SUFFIX)) return name.substring(0, name.length()
+				- PARTIAL_SUFFIX.length());
+		if (name.endsWith(CHECKPOINT_SUFFIX)) return name.substring(0,
+				name.length() - CHECKPOINT_SUFFIX.length());
+		if (name.endsWith(DELTA_SUFFIX)) return name.substring(0, name.length()
+				- DELTA_SUFFIX.length());
+		if (name.endsWith(LINK_SUFFIX)) return name.substring(0, name.length()
+				- LINK_SUFFIX.length());
+		return null;
+	}
+
+	/**
+	 * Parses a size in bytes with an optional K, M or G suffix, for example
+	 * "512K" or "64M"
+	 * 
+	 * @param value
+	 *          the size
+	 * @return size in bytes
+	 * @throws NumberFormatException
+	 *           if the value isn't a valid size
+	 */
+	public static long parseSize(String value) throws NumberFormatException {
+		String s = value.trim().toUpperCase();
+		long multiplier = 1;
+		if (s.endsWith("K")) multiplier = 1024L;
+		else if (s.endsWith("M")) multiplier = 1024L * 1024;
+		else if (s.endsWith("G")) multiplier = 1024L * 1024 * 1024;
+		if (multiplier > 1) s = s.substring(0, s.length() - 1).trim();
+
+		long size = Long.parseLong(s);
+		if (size < 0) throw new NumberFormatException("Negative size '" + value
+				+ "'");
+		return size * multiplier;
 	}
 	
 	/**
@@ -108,9 +506,11 @@ public class BackupUtil
 		File contents[] = folder.listFiles();
 
 		// and delete
-		for (int i = 0; i < contents.length; i++) {
-			// if sub item is a folder then recurse
-			if (contents[i].isDirectory()) deleteFolder(contents[i]);
+		for (int i = 0; (contents != null) && (i < contents.length); i++) {
+			// if sub item is a folder then recurse, links to folders are deleted
+			// without following them
+			if ((contents[i].isDirectory())
+					&& (!Files.isSymbolicLink(contents[i].toPath()))) deleteFolder(contents[i]);
 			else contents[i].delete();
 		}
 
@@ -0,0 +1,446 @@
+/**
+ * BackupWatcher.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Passes the source to the rule for the checksum rule
+ * agulland 16 Oct 2026 Files deleted from the source are removed from an archive
+ * agulland 16 Oct 2026 Durable copies are committed once each batch of changes
+ *                      is backed up
+ * agulland 16 Oct 2026 A deleted folder is removed from the index with
+ *                      removeFolder
+ * agulland 16 Oct 2026 Only entries of the task folder are mirror deleted
+ * agulland 16 Oct 2026 Deleted entries are removed from the manifest
+ */
+package com.gulland.altair;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Keeps the destination of each task up to date as its source changes. The
+ * source folders are registered with a <code>WatchService</code> and each path
+ * reported is backed up once it has had no further events for the debounce
+ * window, so a burst of events while a file is written results in one copy.
+ * </p>
+ *
+ * <ul>
+ * <li>a file is backed up according to the task rule</li>
+ * <li>a new folder, or one moved into the source, is backed up in full and
+ * watched</li>
+ * <li>a deleted file or folder is deleted from the destination if the task has
+ * mirror delete set</li>
+ * </ul>
+ *
+ * <p>
+ * If events are lost because the watch queue overflowed the whole task is
+ * backed up again. The number of events per second and the latency from the
+ * first event on a path to its backup are logged every report interval.
+ * </p>
+ *
+ * <p>
+ * The watcher runs on the thread calling <code>run</code> until the backup is
+ * stopped. Its tasks must already have been backed up in full. The task state,
+ * such as the destination index, is saved at each report if it has changed.
+ * </p>
+ *
+ * @author agulland
+ */
+class BackupWatcher
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** default time in milliseconds a path must be quiet before it is backed up */
+	public static final long DEFAULT_DEBOUNCE = 1000;
+
+	/** time in milliseconds between reports of the watch statistics */
+	private static final long REPORT_INTERVAL = 60000;
+
+	/** the backup that owns this watcher, used for stop and pause */
+	private final Backup backup;
+
+	/** contexts of the tasks being watched */
+	private final List<TaskContext> contexts;
+
+	/** time in milliseconds a path must be quiet before it is backed up */
+	private final long debounce;
+
+	/** the watch service, created by run */
+	private WatchService watchService;
+
+	/** the folder registered with each key */
+	private final Map<WatchKey, Watched> watched = new HashMap<WatchKey, Watched>();
+
+	/** paths with events not yet backed up, in order of their first event */
+	private final Map<Path, Pending> pending = new LinkedHashMap<Path, Pending>();
+
+	/** tasks to be backed up in full after events were lost */
+	private final Set<TaskContext> rescans = new HashSet<TaskContext>();
+
+	/** statistics since the last report */
+	private long events;
+	private int applied;
+	private long totalLatency;
+	private long maxLatency;
+	private long reportStart;
+
+	/** set when a backup changes the destination, so the task state is saved */
+	private boolean changed;
+
+	/**
+	 * Creates a watcher for the given tasks
+	 *
+	 * @param backup
+	 *          the backup that owns the watcher
+	 * @param contexts
+	 *          contexts of the tasks to watch
+	 * @param debounce
+	 *          time in milliseconds a path must be quiet before it is backed up
+	 */
+	BackupWatcher(Backup backup, List<TaskContext> contexts, long debounce) {
+		this.backup = backup;
+		this.contexts = contexts;
+		this.debounce = debounce;
+	}
+
+	/**
+	 * Watches the task sources until the backup is stopped
+	 */
+	void run() {
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			logger.warn("Could not start watching, exception thrown: "
+					+ e.getMessage());
+			return;
+		}
+
+		try {
+			for (TaskContext context : contexts) {
+				if (Files.isDirectory(context.getSourceRoot())) {
+					register(context, context.getSourceRoot(), "");
+				} else {
+					logger.warn("Source of task '" + context.getTask().getID()
+							+ "' is not a folder, not watched.");
+				}
+			}
+			logger.info("Watching " + watched.size() + " folders, debounce "
+					+ debounce + "ms");
+
+			reportStart = System.currentTimeMillis();
+			while (!backup.isCancelled()) {
+				WatchKey key = watchService.poll(nextTimeout(), TimeUnit.MILLISECONDS);
+				while (key != null) {
+					queueEvents(key);
+					key = watchService.poll();
+				}
+
+				// check for being paused, events queue up in the meantime
+				backup.waitIfPaused();
+
+				processRescans();
+				processPending();
+
+				// changes are committed as they are backed up, not once a batch fills
+				for (TaskContext context : contexts) {
+					if (context.getGroupCommit() != null) context.getGroupCommit().flush();
+				}
+
+				if (System.currentTimeMillis() - reportStart >= REPORT_INTERVAL) {
+					report();
+
+					// save the task state now and then in case the process is killed
+					if (changed) {
+						for (TaskContext context : contexts) {
+							backup.saveContext(context);
+						}
+						changed = false;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Watching interrupted");
+		} catch (ClosedWatchServiceException e) {
+			logger.warn("Watch service closed");
+		} finally {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+			}
+		}
+		report();
+	}
+
+	/**
+	 * Returns the time to wait for events, until the next pending path is due or
+	 * the next report
+	 */
+	private long nextTimeout() {
+		long now = System.currentTimeMillis();
+		long due = reportStart + REPORT_INTERVAL;
+		if (!pending.isEmpty()) {
+			// the first pending path is not necessarily the next due, but waiting
+			// for it at most delays the others by one debounce window
+			due = Math.min(due, pending.values().iterator().next().lastEvent
+					+ debounce);
+		}
+
+		// wake at least once a second to check for stop
+		return Math.max(1, Math.min(due - now, 1000));
+	}
+
+	/**
+	 * Registers a folder, and its subfolders if the task recurses, with the
+	 * watch service. Links to folders are not followed.
+	 */
+	private void register(final TaskContext context, final Path folder,
+			final String relative) {
+		final boolean recurse = context.getTask().isRecurse();
+		try {
+			Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+				public FileVisitResult preVisitDirectory(Path dir,
+						BasicFileAttributes attrs) throws IOException {
+					// subfolders are only watched if the task recurses
+					if ((!recurse) && (!dir.equals(folder))) return FileVisitResult.SKIP_SUBTREE;
+
+					WatchKey key = dir.register(watchService,
+							StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_DELETE,
+							StandardWatchEventKinds.ENTRY_MODIFY);
+					String dirRelative = relative;
+					if (!dir.equals(folder)) {
+						for (Path name : folder.relativize(dir)) {
+							dirRelative = TaskContext.childPath(dirRelative, name.toString());
+						}
+					}
+					watched.put(key, new Watched(context, dir, dirRelative));
+					return FileVisitResult.CONTINUE;
+				}
+
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					logger.warn("Could not watch '" + file + "', exception thrown: "
+							+ e.getMessage());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			logger.warn("Could not watch '" + folder + "', exception thrown: "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Adds the events of a key to the pending paths
+	 */
+	private void queueEvents(WatchKey key) {
+		Watched folder = watched.get(key);
+		long now = System.currentTimeMillis();
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			events++;
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				if (folder != null) rescans.add(folder.context);
+				else rescans.addAll(contexts);
+				continue;
+			}
+			if (folder == null) continue;
+
+			Path name = (Path) event.context();
+			Path source = folder.folder.resolve(name);
+			Pending p = pending.get(source);
+			if (p == null) {
+				p = new Pending(folder.context, TaskContext.childPath(folder.relative,
+						name.toString()), now);
+				pending.put(source, p);
+			}
+			p.lastEvent = now;
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) p.created = true;
+		}
+
+		// a key that can't be reset belongs to a folder that has gone
+		if (!key.reset()) watched.remove(key);
+	}
+
+	/**
+	 * Backs up in full the tasks that lost events
+	 */
+	private void processRescans() {
+		for (TaskContext context : rescans) {
+			logger.warn("Watch events lost, backing up task '"
+					+ context.getTask().getID() + "' in full");
+
+			// the pending paths of the task are covered by the full backup
+			Iterator<Pending> it = pending.values().iterator();
+			while (it.hasNext()) {
+				if (it.next().context == context) it.remove();
+			}
+
+			register(context, context.getSourceRoot(), "");
+			BackupMetric metric = backup.backupFolder(context,
+					context.getSourceRoot(), context.getDestinationRoot(), "");
+			logger.info("Task '" + context.getTask().getID() + "' backed up. "
+					+ metric.toString());
+			changed = true;
+		}
+		rescans.clear();
+	}
+
+	/**
+	 * Backs up the pending paths that have been quiet for the debounce window
+	 */
+	private void processPending() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Path, Pending>> it = pending.entrySet().iterator();
+		while ((it.hasNext()) && (!backup.isCancelled())) {
+			Map.Entry<Path, Pending> e = it.next();
+			Pending p = e.getValue();
+			if (now - p.lastEvent < debounce) continue;
+			it.remove();
+
+			if (backupPath(e.getKey(), p)) {
+				long latency = System.currentTimeMillis() - p.firstEvent;
+				applied++;
+				totalLatency += latency;
+				maxLatency = Math.max(maxLatency, latency);
+				changed = true;
+			}
+		}
+	}
+
+	/**
+	 * Backs up a single path that has changed
+	 *
+	 * @return true if the destination was changed
+	 */
+	private boolean backupPath(Path source, Pending p) {
+		TaskContext context = p.context;
+		BackupTask task = context.getTask();
+		Path destination = context.getDestinationRoot().resolve(p.relative);
+
+		BasicFileAttributes attrs = Backup.readAttributes(source);
+		if (attrs == null) {
+			// source has gone, mirror delete of the task folder only, it never
+			// follows links on the destination
+			if (!Backup.isMirrored(context,
+					TaskContext.parentPath(p.relative))) return false;
+			boolean deleted = false;
+			if (context.getArchive() != null) {
+				deleted = (context.getArchive().remove(p.relative) > 0);
+			} else if (Files.isDirectory(destination, LinkOption.NOFOLLOW_LINKS)) {
+				BackupUtil.deleteFolder(destination.toFile());
+				if (context.getIndex() != null) context.getIndex().removeFolder(
+						p.relative);
+				if (context.getManifest() != null) context.getManifest().removeFolder(
+						p.relative);
+				deleted = true;
+			} else if (Files.exists(destination, LinkOption.NOFOLLOW_LINKS)) {
+				deleted = destination.toFile().delete();
+			}
+			if (context.getIndex() != null) context.getIndex().remove(p.relative);
+			if (context.getManifest() != null) context.getManifest().remove(
+					p.relative);
+			if (deleted) {
+				logger.detail("'" + p.relative + "' deleted from destination");
+				context.getProgress().addDeleted();
+			}
+			return deleted;
+		} else if (attrs.isDirectory()) {
+			// only a new folder needs backing up, changes within an existing folder
+			// are reported on the folder itself
+			if ((!p.created) || (!task.isRecurse())) return false;
+			register(context, source, p.relative);
+			backup.backupFolder(context, source, destination, p.relative);
+			return true;
+		} else if (attrs.isRegularFile()) {
+			if (!Backup.createDestinationFolder(context, destination.getParent())) {
+				return false;
+			}
+			if (!Backup.isCopyRequired(context, source, attrs, destination,
+					p.relative)) return false;
+			if (Backup.copyFile(context, source, attrs, destination, p.relative)) {
+				logger.detail("'" + p.relative + "' backed up");
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Logs the watch statistics since the last report and resets them
+	 */
+	private void report() {
+		long now = System.currentTimeMillis();
+		double seconds = Math.max(1, now - reportStart) / 1000.0;
+		long average = (applied > 0) ? totalLatency / applied : 0;
+		logger.info("Watch: " + events + " events ("
+				+ Math.round(events / seconds) + "/s), " + applied
+				+ " paths backed up, latency average " + average + "ms, max "
+				+ maxLatency + "ms");
+
+		events = 0;
+		applied = 0;
+		totalLatency = 0;
+		maxLatency = 0;
+		reportStart = now;
+	}
+
+	/**
+	 * A folder registered with the watch service
+	 */
+	private static class Watched
+	{
+		final TaskContext context;
+		final Path folder;
+		final String relative;
+
+		Watched(TaskContext context, Path folder, String relative) {
+			this.context = context;
+			this.folder = folder;
+			this.relative = relative;
+		}
+	}
+
+	/**
+	 * A path with events that has not been backed up yet
+	 */
+	private static class Pending
+	{
+		final TaskContext context;
+		final String relative;
+
+		/** time of the first and the latest event on the path */
+		final long firstEvent;
+		long lastEvent;
+
+		/** true if the path was created, or moved in, rather than modified */
+		boolean created;
+
+		Pending(TaskContext context, String relative, long firstEvent) {
+			this.context = context;
+			this.relative = relative;
+			this.firstEvent = firstEvent;
+		}
+	}
+}
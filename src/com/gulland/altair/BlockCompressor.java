@@ -0,0 +1,738 @@
+/**
+ * BlockCompressor.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Compresses the files of a task as they are written to the destination, and
+ * decompresses them when they are restored. A file is split into blocks of
+ * <code>BLOCK_SIZE</code> which are compressed with <code>Deflater</code> on a
+ * pool of threads, one per processor, while the file is read, and written to
+ * the destination in order.
+ * </p>
+ *
+ * <p>
+ * A compressed file keeps the name of its source and has this layout,
+ * </p>
+ *
+ * <pre>
+ * header   magic "ALTZ", version, block size
+ * blocks   each block compressed, or as is if it didn't compress
+ * index    source size, block count, stored length and flags of each block,
+ *          checksum algorithm and checksum of the source content
+ * trailer  offset of the index, magic "ALTZ"
+ * </pre>
+ *
+ * <p>
+ * The index gives the offset of every block, so any part of a file can be
+ * read by decompressing only the blocks holding it, and a restore
+ * decompresses the blocks in parallel just as they were compressed.
+ * </p>
+ *
+ * <p>
+ * Before a file is compressed a few samples of it are compressed. If they
+ * don't shrink by at least <code>MIN_SAVING</code> percent, as for media and
+ * archives, the file is copied as is. A restore tells the two apart by the
+ * header and trailer.
+ * </p>
+ *
+ * @author agulland
+ */
+public class BlockCompressor
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** marks the start and end of a compressed file */
+	private static final byte[] MAGIC = { 'A', 'L', 'T', 'Z' };
+
+	/** version of the compressed file format */
+	private static final int VERSION = 1;
+
+	/** length of the header and of the trailer */
+	private static final int HEADER_LENGTH = 9;
+	private static final int TRAILER_LENGTH = 12;
+
+	/** size of the blocks a file is compressed in */
+	public static final int BLOCK_SIZE = 1024 * 1024;
+
+	/** size of each sample compressed to decide whether a file compresses */
+	private static final int SAMPLE_SIZE = 64 * 1024;
+
+	/** percent a file's samples must shrink by for it to be compressed */
+	public static final int MIN_SAVING = 10;
+
+	/** threads compressing blocks, shared by every task */
+	private static ExecutorService pool;
+
+	/** number of threads in the pool */
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** compression level */
+	private final int level;
+
+	/** files compressed, their size and their size once compressed */
+	private final AtomicLong filesCompressed = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+
+	/** files that didn't compress and were copied as is */
+	private final AtomicLong filesStored = new AtomicLong();
+
+	/**
+	 * Creates a compressor using the default compression level
+	 */
+	public BlockCompressor() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Creates a compressor
+	 *
+	 * @param level
+	 *          the Deflater compression level, 1 (fastest) to 9 (smallest)
+	 */
+	public BlockCompressor(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * Returns the pool of threads compressing blocks, created on first use
+	 */
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "compress-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Copies a file to the destination compressed, or as is if it doesn't
+	 * compress. The compressed file is written to a temporary file which then
+	 * replaces the destination.
+	 *
+	 * @param source
+	 *          the source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destination
+	 *          the destination file
+	 * @param monitor
+	 *          checked between blocks, may be null
+	 * @return true if the file was copied, false if it failed or was stopped
+	 */
+	public boolean copyFile(Path source, BasicFileAttributes sourceAttrs,
+			Path destination, CopyMonitor monitor) {
+		try {
+			if (!isCompressible(source, sourceAttrs.size())) {
+				logger.trace("'" + source.getFileName()
+						+ "' doesn't compress, copied as is");
+				filesStored.incrementAndGet();
+				return BackupUtil.copyFile(source, sourceAttrs, destination, monitor);
+			}
+
+			logger.detail("Compressing file " + source.toAbsolutePath());
+			Path temp = destination.resolveSibling(destination.getFileName()
+					+ BackupUtil.PARTIAL_SUFFIX);
+			try {
+				long written = compress(source, temp, monitor);
+				if (written < 0) {
+					logger.warn("Copy of " + source + " stopped");
+					return false;
+				}
+				Files.setLastModifiedTime(temp, sourceAttrs.lastModifiedTime());
+				move(temp, destination);
+				filesCompressed.incrementAndGet();
+				bytesIn.addAndGet(sourceAttrs.size());
+				bytesOut.addAndGet(written);
+				return true;
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (AccessDeniedException e) {
+			logger.warn("Could not read source file: '" + source
+					+ "' or write destination file '" + destination
+					+ "'. Check permissions or that it is not locked by another process.");
+			return false;
+		} catch (NoSuchFileException e) {
+			logger.warn("Could not access file " + e.getMessage());
+			return false;
+		} catch (IOException e) {
+			logger.warn("Could not backup file " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Restores a file, decompressing it if it was compressed and copying it as
+	 * is if not
+	 *
+	 * @param source
+	 *          the file in the backup
+	 * @param sourceAttrs
+	 *          the attributes of the file in the backup
+	 * @param destination
+	 *          the file restored
+	 * @param monitor
+	 *          checked between blocks, may be null
+	 * @return true if the file was restored, false if it failed or was stopped
+	 */
+	public boolean restoreFile(Path source, BasicFileAttributes sourceAttrs,
+			Path destination, CopyMonitor monitor) {
+		try {
+			Index index = readIndex(source, sourceAttrs.size());
+			if (index == null) return BackupUtil.copyFile(source, sourceAttrs,
+					destination, monitor);
+
+			logger.detail("Decompressing file " + source.toAbsolutePath());
+			Path temp = destination.resolveSibling(destination.getFileName()
+					+ BackupUtil.PARTIAL_SUFFIX);
+			try {
+				if (!decompress(source, index, temp, monitor)) {
+					logger.warn("Restore of " + source + " stopped");
+					return false;
+				}
+				Files.setLastModifiedTime(temp, sourceAttrs.lastModifiedTime());
+				move(temp, destination);
+				return true;
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (AccessDeniedException e) {
+			logger.warn("Could not read backup file: '" + source
+					+ "' or write file '" + destination
+					+ "'. Check permissions or that it is not locked by another process.");
+			return false;
+		} catch (NoSuchFileException e) {
+			logger.warn("Could not access file " + e.getMessage());
+			return false;
+		} catch (IOException e) {
+			logger.warn("Could not restore file " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the size of the source a destination file was made from, which is
+	 * its own size unless it is compressed
+	 *
+	 * @param file
+	 *          the destination file
+	 * @param size
+	 *          the size of the destination file
+	 * @return the source size
+	 */
+	public static long getOriginalSize(Path file, long size) {
+		Index index = readIndex(file, size);
+		return (index != null) ? index.size : size;
+	}
+
+	/**
+	 * Returns the checksum of the source content recorded in a compressed file,
+	 * taken with the algorithm of <code>HashCache</code>
+	 *
+	 * @param file
+	 *          the destination file
+	 * @param size
+	 *          the size of the destination file
+	 * @return the checksum, or null if the file isn't compressed or the
+	 *         checksum was taken with another algorithm
+	 */
+	public static Long getChecksum(Path file, long size) {
+		Index index = readIndex(file, size);
+		if ((index == null) || (!index.algorithm.equals(HashCache.ALGORITHM))) return null;
+		return Long.valueOf(index.checksum);
+	}
+
+	/**
+	 * Returns true if the samples of a file shrink enough when compressed
+	 */
+	private boolean isCompressible(Path source, long size) throws IOException {
+		if (size == 0) return false;
+
+		// samples from the start, middle and end of the file
+		long[] offsets;
+		if (size <= SAMPLE_SIZE * 3) offsets = new long[] { 0 };
+		else offsets = new long[] { 0, size / 2, size - SAMPLE_SIZE };
+		int sampleSize = (int) Math.min(size, offsets.length == 1 ? SAMPLE_SIZE * 3
+				: SAMPLE_SIZE);
+
+		long sampled = 0;
+		long compressed = 0;
+		byte[] sample = new byte[sampleSize];
+		FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+		try {
+			for (int i = 0; i < offsets.length; i++) {
+				int n = readFully(in, offsets[i], sample, sampleSize);
+				byte[] out = deflate(sample, n, Deflater.BEST_SPEED);
+				sampled += n;
+				compressed += (out != null) ? out.length : n;
+			}
+		} finally {
+			in.close();
+		}
+		return compressed * 100 <= sampled * (100 - MIN_SAVING);
+	}
+
+	/**
+	 * Compresses a file, blocks being compressed on the pool at most two per
+	 * thread ahead of the block being written
+	 *
+	 * @return the size of the compressed file, or -1 if stopped
+	 */
+	private long compress(Path source, Path temp, CopyMonitor monitor)
+			throws IOException {
+		ExecutorService executor = getPool();
+		Deque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+		ByteArrayOutputStream lengths = new ByteArrayOutputStream();
+		DataOutputStream index = new DataOutputStream(lengths);
+		Checksum checksum = HashCache.newChecksum();
+
+		FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+		try {
+			FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+				header.put(MAGIC).put((byte) VERSION).putInt(BLOCK_SIZE).flip();
+				writeFully(out, header);
+
+				long size = 0;
+				int blocks = 0;
+				boolean eof = false;
+				while ((!eof) || (!pending.isEmpty())) {
+					// keep the pool busy reading ahead
+					while ((!eof) && (pending.size() < THREADS * 2)) {
+						final byte[] block = new byte[BLOCK_SIZE];
+						final int n = readFully(in, size, block, BLOCK_SIZE);
+						if (n == 0) {
+							eof = true;
+							break;
+						}
+						checksum.update(block, 0, n);
+						size += n;
+						blocks++;
+						if (n < BLOCK_SIZE) eof = true;
+						pending.add(executor.submit(new Callable<Block>() {
+							public Block call() {
+								byte[] compressed = deflate(block, n, level);
+								if (compressed != null) return new Block(compressed, false);
+								return new Block(Arrays.copyOf(block, n), true);
+							}
+						}));
+					}
+					if (pending.isEmpty()) break;
+
+					// write the oldest block, flagged raw if it didn't compress
+					Block block = get(pending.removeFirst());
+					index.writeInt(block.data.length);
+					index.writeByte(block.raw ? 1 : 0);
+					writeFully(out, ByteBuffer.wrap(block.data));
+
+					if (monitor != null) {
+						monitor.waitIfPaused();
+						if (monitor.isCancelled()) {
+							cancel(pending);
+							return -1;
+						}
+					}
+				}
+
+				// index and trailer
+				index.flush();
+				long indexPosition = out.position();
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream tail = new DataOutputStream(bytes);
+				tail.writeLong(size);
+				tail.writeInt(blocks);
+				tail.write(lengths.toByteArray());
+				tail.writeUTF(HashCache.ALGORITHM);
+				tail.writeLong(checksum.getValue());
+				tail.writeLong(indexPosition);
+				tail.write(MAGIC);
+				tail.flush();
+				writeFully(out, ByteBuffer.wrap(bytes.toByteArray()));
+				return out.position();
+			} finally {
+				out.close();
+			}
+		} finally {
+			cancel(pending);
+			in.close();
+		}
+	}
+
+	/**
+	 * Decompresses a file to a temporary file, blocks being decompressed on the
+	 * pool. The checksum of the content is checked against the index.
+	 *
+	 * @return true if done, false if stopped
+	 */
+	private boolean decompress(Path source, Index index, Path temp,
+			CopyMonitor monitor) throws IOException {
+		ExecutorService executor = getPool();
+		Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		Checksum checksum = HashCache.newChecksum();
+
+		final FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+		FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			int next = 0;
+			long offset = HEADER_LENGTH;
+			while ((next < index.blocks) || (!pending.isEmpty())) {
+				while ((next < index.blocks) && (pending.size() < THREADS * 2)) {
+					final long position = offset;
+					final int stored = index.lengths[next];
+					final boolean raw = index.raw[next];
+					final int length = (int) Math.min(index.blockSize, index.size
+							- (long) next * index.blockSize);
+					pending.add(executor.submit(new Callable<byte[]>() {
+						public byte[] call() throws IOException {
+							byte[] data = new byte[stored];
+							if (readFully(in, position, data, stored) != stored) {
+								throw new IOException("Compressed file is truncated");
+							}
+							return raw ? data : inflate(data, length);
+						}
+					}));
+					offset += stored;
+					next++;
+				}
+
+				byte[] data = get(pending.removeFirst());
+				checksum.update(data, 0, data.length);
+				writeFully(out, ByteBuffer.wrap(data));
+
+				if (monitor != null) {
+					monitor.waitIfPaused();
+					if (monitor.isCancelled()) {
+						cancel(pending);
+						return false;
+					}
+				}
+			}
+		} finally {
+			cancel(pending);
+			out.close();
+			in.close();
+		}
+
+		if ((index.algorithm.equals(HashCache.ALGORITHM))
+				&& (checksum.getValue() != index.checksum)) {
+			throw new IOException("Checksum of decompressed file doesn't match");
+		}
+		return true;
+	}
+
+	/**
+	 * Compresses data
+	 *
+	 * @return the compressed data, or null if it didn't shrink
+	 */
+	private static byte[] deflate(byte[] data, int length, int level) {
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			byte[] out = new byte[length];
+			int n = 0;
+			while ((!deflater.finished()) && (n < out.length)) {
+				n += deflater.deflate(out, n, out.length - n);
+			}
+			if (!deflater.finished()) return null;
+			return Arrays.copyOf(out, n);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompresses a block
+	 */
+	private static byte[] inflate(byte[] data, int length) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			byte[] out = new byte[length];
+			int n = 0;
+			while ((!inflater.finished()) && (n < length)) {
+				int read = inflater.inflate(out, n, length - n);
+				if ((read == 0) && (inflater.needsInput())) break;
+				n += read;
+			}
+			if ((n != length) || (!inflater.finished())) {
+				throw new IOException("Compressed block is corrupt");
+			}
+			return out;
+		} catch (DataFormatException e) {
+			throw new IOException("Compressed block is corrupt: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Reads the index of a file given its path
+	 *
+	 * @return the index, or null if the file isn't compressed or can't be read
+	 */
+	private static Index readIndex(Path file, long size) {
+		if (size < HEADER_LENGTH + TRAILER_LENGTH) return null;
+		try {
+			FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				return readIndex(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the index of an open file
+	 *
+	 * @return the index, or null if the file isn't compressed
+	 */
+	private static Index readIndex(FileChannel in) throws IOException {
+		long size = in.size();
+		if (size < HEADER_LENGTH + TRAILER_LENGTH) return null;
+
+		byte[] header = new byte[HEADER_LENGTH];
+		byte[] trailer = new byte[TRAILER_LENGTH];
+		if ((readFully(in, 0, header, HEADER_LENGTH) != HEADER_LENGTH)
+				|| (readFully(in, size - TRAILER_LENGTH, trailer, TRAILER_LENGTH) != TRAILER_LENGTH)) {
+			return null;
+		}
+		ByteBuffer h = ByteBuffer.wrap(header);
+		ByteBuffer t = ByteBuffer.wrap(trailer);
+		if ((!startsWithMagic(h)) || (h.get() != VERSION)) return null;
+		long indexPosition = t.getLong();
+		if ((!startsWithMagic(t)) || (indexPosition < HEADER_LENGTH)
+				|| (indexPosition > size - TRAILER_LENGTH)) return null;
+
+		byte[] bytes = new byte[(int) (size - TRAILER_LENGTH - indexPosition)];
+		readFully(in, indexPosition, bytes, bytes.length);
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			Index index = new Index();
+			index.blockSize = h.getInt();
+			index.size = data.readLong();
+			index.blocks = data.readInt();
+			index.lengths = new int[index.blocks];
+			index.raw = new boolean[index.blocks];
+			for (int i = 0; i < index.blocks; i++) {
+				index.lengths[i] = data.readInt();
+				index.raw[i] = (data.readByte() != 0);
+			}
+			index.algorithm = data.readUTF();
+			index.checksum = data.readLong();
+			return index;
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if a buffer starts with the magic, the buffer is left after it
+	 */
+	private static boolean startsWithMagic(ByteBuffer buffer) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buffer.get() != MAGIC[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads from a position until the array is full or the file ends
+	 *
+	 * @return the number of bytes read
+	 */
+	private static int readFully(FileChannel in, long position, byte[] data,
+			int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+		while (buffer.hasRemaining()) {
+			int n = in.read(buffer, position + buffer.position());
+			if (n < 0) break;
+		}
+		return buffer.position();
+	}
+
+	/**
+	 * Writes a buffer in full at the current position
+	 */
+	private static void writeFully(FileChannel out, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining())
+			out.write(buffer);
+	}
+
+	/**
+	 * Waits for a block to be compressed or decompressed
+	 */
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause().toString());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted");
+		}
+	}
+
+	/**
+	 * Cancels the blocks not yet written
+	 */
+	private static void cancel(Deque<? extends Future<?>> pending) {
+		for (Future<?> future : pending) {
+			future.cancel(false);
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Replaces the destination with the temporary file
+	 */
+	private static void move(Path temp, Path destination) throws IOException {
+		try {
+			Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// some file systems can't replace atomically
+			Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Returns the number of files compressed
+	 *
+	 * @return number of files
+	 */
+	public long getFilesCompressed() {
+		return filesCompressed.get();
+	}
+
+	/**
+	 * Returns the number of files that didn't compress and were copied as is
+	 *
+	 * @return number of files
+	 */
+	public long getFilesStored() {
+		return filesStored.get();
+	}
+
+	/**
+	 * Returns the total size of the files compressed
+	 *
+	 * @return size in bytes
+	 */
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	/**
+	 * Returns the total size of the files compressed once compressed
+	 *
+	 * @return size in bytes
+	 */
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	/**
+	 * Returns the statistics of the compressor for this run in a nicely
+	 * formatted string
+	 */
+	public String toString() {
+		long in = bytesIn.get();
+		long out = bytesOut.get();
+		String s = "Compression: " + filesCompressed.get() + " files compressed ("
+				+ in + " bytes to " + out + ")";
+		if (in > 0) s += ", " + (100 - out * 100 / in) + "% saved";
+		return s + ", " + filesStored.get() + " copied as is";
+	}
+
+	/**
+	 * A block as written to a compressed file
+	 */
+	private static class Block
+	{
+		/** the block compressed, or as is */
+		private final byte[] data;
+
+		/** true if the block didn't compress so is stored as is */
+		private final boolean raw;
+
+		Block(byte[] data, boolean raw) {
+			this.data = data;
+			this.raw = raw;
+		}
+	}
+
+	/**
+	 * The index of a compressed file
+	 */
+	private static class Index
+	{
+		/** size of the blocks and of the source content */
+		private int blockSize;
+		private long size;
+
+		/** number of blocks, the stored length of each and whether it is raw */
+		private int blocks;
+		private int[] lengths;
+		private boolean[] raw;
+
+		/** checksum of the source content and its algorithm */
+		private String algorithm;
+		private long checksum;
+	}
+}
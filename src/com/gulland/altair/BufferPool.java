@@ -0,0 +1,157 @@
+/**
+ * BufferPool.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A bounded pool of direct buffers of one size, shared by every copy thread.
+ * Buffers are allocated as they are first needed, up to the limit of the pool,
+ * and then reused, so copying files allocates no buffers and the direct memory
+ * held is fixed however many threads copy. A thread asking for a buffer when
+ * every buffer is in use waits for one to be released.
+ * </p>
+ *
+ * <p>
+ * There is a pool for each size class of file, so a small file isn't copied
+ * through a buffer sized for a large one.
+ * </p>
+ *
+ * @author agulland
+ */
+public class BufferPool
+{
+	/** pool of the buffers small files are copied through */
+	public static final BufferPool SMALL = new BufferPool(64 * 1024, 64);
+
+	/** pool of the buffers medium files are copied through */
+	public static final BufferPool MEDIUM = new BufferPool(1024 * 1024, 32);
+
+	/** pool of the buffers the chunks of large files are copied through */
+	public static final BufferPool LARGE = new BufferPool(4 * 1024 * 1024, 16);
+
+	/** size of the buffers */
+	private final int bufferSize;
+
+	/** most buffers the pool allocates */
+	private final int limit;
+
+	/** buffers not in use */
+	private final ArrayBlockingQueue<ByteBuffer> free;
+
+	/** buffers allocated */
+	private final AtomicInteger allocated = new AtomicInteger();
+
+	/** times a thread had to wait for a buffer */
+	private final AtomicInteger waits = new AtomicInteger();
+
+	/**
+	 * Creates a pool
+	 *
+	 * @param bufferSize
+	 *          size of the buffers
+	 * @param limit
+	 *          most buffers the pool allocates
+	 */
+	public BufferPool(int bufferSize, int limit) {
+		this.bufferSize = bufferSize;
+		this.limit = limit;
+		this.free = new ArrayBlockingQueue<ByteBuffer>(limit);
+	}
+
+	/**
+	 * Returns the pool of the buffers a range of a file is copied through
+	 *
+	 * @param count
+	 *          length of the range
+	 * @return the pool
+	 */
+	public static BufferPool forSize(long count) {
+		int sizeClass = CopyStrategy.Selection.getSizeClass(count);
+		if (sizeClass == CopyStrategy.Selection.SMALL) return SMALL;
+		if (sizeClass == CopyStrategy.Selection.MEDIUM) return MEDIUM;
+		return LARGE;
+	}
+
+	/**
+	 * Takes a buffer from the pool, waiting for one if they are all in use. The
+	 * buffer is cleared.
+	 *
+	 * @return the buffer
+	 * @throws InterruptedIOException
+	 *           if interrupted while waiting
+	 */
+	public ByteBuffer acquire() throws InterruptedIOException {
+		ByteBuffer buffer = free.poll();
+		if (buffer == null) {
+			if (allocated.incrementAndGet() <= limit) {
+				buffer = ByteBuffer.allocateDirect(bufferSize);
+			} else {
+				allocated.decrementAndGet();
+				waits.incrementAndGet();
+				try {
+					buffer = free.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for a buffer");
+				}
+			}
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool
+	 *
+	 * @param buffer
+	 *          a buffer taken from this pool
+	 */
+	public void release(ByteBuffer buffer) {
+		free.offer(buffer);
+	}
+
+	/**
+	 * Returns the size of the buffers
+	 *
+	 * @return size in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Returns the number of buffers allocated
+	 *
+	 * @return number of buffers
+	 */
+	public int getAllocated() {
+		return Math.min(allocated.get(), limit);
+	}
+
+	/**
+	 * Returns the number of times a thread waited for a buffer
+	 *
+	 * @return number of waits
+	 */
+	public int getWaits() {
+		return waits.get();
+	}
+
+	/**
+	 * Returns the pool in a nicely formatted string
+	 */
+	public String toString() {
+		return "Buffer pool of " + bufferSize + " bytes: " + getAllocated() + " of "
+				+ limit + " allocated, " + getWaits() + " waits";
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * CopyCalibrator.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * <p>
+ * Chooses the copy strategy of each size class for a task by timing every
+ * strategy on the task's own source and destination. For each size class a
+ * sample file is copied to a temporary file in the destination with each
+ * strategy, a few rounds each, and the strategy with the best rate wins.
+ * </p>
+ *
+ * <p>
+ * The sample of a size class is a file of that size found in the first
+ * <code>MAX_SCAN</code> files of the source, or if there is none a file of
+ * random content written to the destination. Each sample is copied once before
+ * timing, so every strategy reads it from the same cache and the times compare
+ * the cost of the copy itself. Large files are timed over their first
+ * <code>LARGE_SAMPLE</code> bytes copied in chunks, as they are backed up.
+ * </p>
+ *
+ * @author agulland
+ */
+public class CopyCalibrator
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** bytes of a large sample copied in each round */
+	private static final long LARGE_SAMPLE = 32L * 1024 * 1024;
+
+	/** size of the sample written for each size class if the source has none */
+	private static final long[] SAMPLE_SIZES = { 256 * 1024, 8 * 1024 * 1024,
+			LARGE_SAMPLE };
+
+	/** bytes copied in each round, small samples are copied several times */
+	private static final long ROUND_BYTES = 4L * 1024 * 1024;
+
+	/** rounds each strategy is timed for, the fastest is kept */
+	private static final int ROUNDS = 3;
+
+	/** most files of the source looked at for samples */
+	private static final int MAX_SCAN = 2000;
+
+	/**
+	 * Times every strategy for each size class
+	 *
+	 * @param source
+	 *          the task source
+	 * @param destination
+	 *          the task destination, temporary files are written to it
+	 * @return the fastest strategy of each size class
+	 */
+	public static CopyStrategy.Selection calibrate(Path source, Path destination) {
+		CopyStrategy.Selection selection = new CopyStrategy.Selection();
+		Path[] samples = findSamples(source);
+		Path target = destination.resolve("altair-calibrate"
+				+ BackupUtil.PARTIAL_SUFFIX);
+
+		for (int c = CopyStrategy.Selection.SMALL; c <= CopyStrategy.Selection.LARGE; c++) {
+			String className = CopyStrategy.Selection.getClassName(c);
+			Path sample = samples[c];
+			Path written = null;
+			try {
+				Files.createDirectories(destination);
+				if (sample == null) {
+					written = destination.resolve("altair-sample"
+							+ BackupUtil.PARTIAL_SUFFIX);
+					writeSample(written, SAMPLE_SIZES[c]);
+					sample = written;
+				}
+
+				long size = Files.size(sample);
+				long bytes = (c == CopyStrategy.Selection.LARGE) ? Math.min(size,
+						LARGE_SAMPLE) : size;
+				int copies = (int) Math.max(1, ROUND_BYTES / Math.max(1, bytes));
+
+				CopyStrategy[] strategies = CopyStrategy.getStrategies();
+				CopyStrategy best = null;
+				double bestRate = 0;
+				StringBuilder results = new StringBuilder();
+				for (int i = 0; i < strategies.length; i++) {
+					// once to bring the sample into the cache, then timed
+					copy(strategies[i], c, sample, target, bytes);
+					long fastest = Long.MAX_VALUE;
+					for (int round = 0; round < ROUNDS; round++) {
+						long start = System.nanoTime();
+						for (int n = 0; n < copies; n++) {
+							copy(strategies[i], c, sample, target, bytes);
+						}
+						fastest = Math.min(fastest, System.nanoTime() - start);
+					}
+
+					double rate = (bytes * copies) / (1024.0 * 1024)
+							/ (Math.max(1, fastest) / 1e9);
+					if (results.length() > 0) results.append(", ");
+					results.append(strategies[i]).append(' ').append((long) rate)
+							.append("MB/s");
+					if (rate > bestRate) {
+						best = strategies[i];
+						bestRate = rate;
+					}
+				}
+				selection.set(c, best);
+				logger.info("Calibrated " + className + " files on a " + bytes
+						+ " byte sample: " + results + ", using " + best);
+			} catch (IOException e) {
+				logger.warn("Could not calibrate copies of " + className
+						+ " files, exception thrown: " + e.getMessage());
+			} finally {
+				try {
+					Files.deleteIfExists(target);
+					if (written != null) Files.deleteIfExists(written);
+				} catch (IOException e) {
+					logger.warn("Could not delete calibration file, exception thrown: "
+							+ e.getMessage());
+				}
+			}
+		}
+		return selection;
+	}
+
+	/**
+	 * Copies a sample with a strategy, a large sample is copied in chunks
+	 */
+	private static void copy(CopyStrategy strategy, int sizeClass, Path sample,
+			Path target, long bytes) throws IOException {
+		if (sizeClass != CopyStrategy.Selection.LARGE) {
+			strategy.copy(sample, target);
+			return;
+		}
+
+		FileChannel in = FileChannel.open(sample, StandardOpenOption.READ);
+		try {
+			FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				long position = 0;
+				while (position < bytes) {
+					position += strategy.transfer(in, out, position, Math.min(
+							BackupUtil.CHUNK_SIZE, bytes - position));
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns a file of each size class from the first files of the source
+	 */
+	private static Path[] findSamples(Path source) {
+		final Path[] samples = new Path[3];
+		try {
+			Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+				private int scanned;
+
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if ((attrs.isRegularFile()) && (attrs.size() > 0)) {
+						int c = CopyStrategy.Selection.getSizeClass(attrs.size());
+						if (samples[c] == null) samples[c] = file;
+					}
+					boolean found = (samples[0] != null) && (samples[1] != null)
+							&& (samples[2] != null);
+					if ((found) || (++scanned >= MAX_SCAN)) return FileVisitResult.TERMINATE;
+					return FileVisitResult.CONTINUE;
+				}
+
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			logger.warn("Could not scan source for calibration, exception thrown: "
+					+ e.getMessage());
+		}
+		return samples;
+	}
+
+	/**
+	 * Writes a sample file of random content
+	 */
+	private static void writeSample(Path file, long size) throws IOException {
+		Random random = new Random(size);
+		byte[] data = new byte[(int) Math.min(size, 1024 * 1024)];
+		OutputStream out = Files.newOutputStream(file);
+		try {
+			long written = 0;
+			while (written < size) {
+				random.nextBytes(data);
+				int n = (int) Math.min(data.length, size - written);
+				out.write(data, 0, n);
+				written += n;
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
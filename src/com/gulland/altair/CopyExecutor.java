@@ -0,0 +1,184 @@
+/**
+ * CopyExecutor.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Passes the source to the rule for the checksum rule
+ * agulland 16 Oct 2026 Corrected which locks the copy path takes
+ */
+package com.gulland.altair;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Backs up files asynchronously so the thread walking the source folders
+ * doesn't wait on each file in turn. Each file, rule evaluation and copy, runs
+ * on its own thread and a semaphore caps the number in flight. When the cap is
+ * reached the walking thread blocks until a file completes.
+ * </p>
+ *
+ * <p>
+ * This helps most where each file operation waits on the destination, such as
+ * a network mount where every open, close and time stamp update is a round
+ * trip, so many small files can be in flight at once.
+ * </p>
+ *
+ * <p>
+ * On a Java runtime with virtual threads each file gets a virtual thread,
+ * otherwise a cached pool of platform threads is used. A copy that writes the
+ * run journal, appends to an archive, adds a durable copy, waits on a throttle
+ * or waits while paused takes a <code>ReentrantLock</code>, not a monitor, so
+ * it doesn't pin its virtual thread to the carrier thread. The monitors left
+ * on the copy path, such as the token buckets of a throttle, are only held for
+ * a few field updates.
+ * </p>
+ *
+ * @author agulland
+ */
+class CopyExecutor
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** the backup that owns this executor, used for stop */
+	private final Backup backup;
+
+	/** maximum number of files in flight */
+	private final int maxInFlight;
+
+	/** permits for the files in flight */
+	private final Semaphore inFlight;
+
+	/** the executor running the copies */
+	private final ExecutorService executor;
+
+	/** true if the executor uses virtual threads */
+	private final boolean virtual;
+
+	/** files copied since the last drain */
+	private final AtomicInteger filesCopied = new AtomicInteger();
+
+	/**
+	 * Creates an executor allowing the given number of files in flight
+	 *
+	 * @param backup
+	 *          the backup that owns the executor
+	 * @param maxInFlight
+	 *          maximum number of files in flight
+	 */
+	CopyExecutor(Backup backup, int maxInFlight) {
+		this.backup = backup;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+
+		ExecutorService service = newVirtualThreadExecutor();
+		this.virtual = (service != null);
+		if (service == null) {
+			service = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "copy-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		this.executor = service;
+	}
+
+	/**
+	 * Returns an executor that starts a virtual thread per task, or null if the
+	 * Java runtime doesn't have virtual threads. Looked up by reflection so the
+	 * code still runs on older runtimes.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a description of the executor for the log
+	 *
+	 * @return the description
+	 */
+	public String toString() {
+		return "Asynchronous copies on " + (virtual ? "virtual" : "platform")
+				+ " threads, at most " + maxInFlight + " in flight";
+	}
+
+	/**
+	 * Backs up a file asynchronously, blocking while the maximum number of files
+	 * are in flight
+	 *
+	 * @param context
+	 *          the context of the task
+	 * @param source
+	 *          the source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destination
+	 *          the destination file
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 */
+	void submit(final TaskContext context, final Path source,
+			final BasicFileAttributes sourceAttrs, final Path destination,
+			final String relative) {
+		inFlight.acquireUninterruptibly();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						if ((!backup.isCancelled())
+								&& (Backup.isCopyRequired(context, source, sourceAttrs,
+										destination, relative))
+								&& (Backup.copyFile(context, source, sourceAttrs, destination,
+										relative))) {
+							filesCopied.incrementAndGet();
+						}
+					} catch (RuntimeException e) {
+						logger.warn("Failed to backup '" + source + "', exception thrown: "
+								+ e.getMessage());
+					} finally {
+						inFlight.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for every file in flight to complete
+	 *
+	 * @return the number of files copied since the last drain
+	 */
+	int drain() {
+		inFlight.acquireUninterruptibly(maxInFlight);
+		inFlight.release(maxInFlight);
+		return filesCopied.getAndSet(0);
+	}
+
+	/**
+	 * Waits for every file in flight and stops the executor
+	 */
+	void shutdown() {
+		drain();
+		executor.shutdown();
+	}
+}
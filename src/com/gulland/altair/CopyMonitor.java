@@ -0,0 +1,31 @@
+/**
+ * CopyMonitor.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+
+package com.gulland.altair;
+
+/**
+ * This interface lets a long copy be paused or stopped part way through.
+ * <code>BackupUtil.copyFile</code> calls it between each chunk of a large file.
+ *
+ * @author agulland
+ */
+public interface CopyMonitor
+{
+	/**
+	 * Returns true if the copy should stop. A large file stopped part way is
+	 * resumed by the next copy.
+	 *
+	 * @return true to stop
+	 */
+	public boolean isCancelled();
+
+	/**
+	 * Blocks the calling thread while copying is paused
+	 */
+	public void waitIfPaused();
+}
@@ -0,0 +1,497 @@
+/**
+ * CopyStrategy.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 The direct strategy copies through pooled buffers and
+ *                      opens files without allocating option sets
+ * agulland 16 Oct 2026 A selection holds the size from which files are copied
+ *                      in parallel ranges
+ * agulland 16 Oct 2026 Added the checksummed strategy of verified copies
+ * agulland 17 Oct 2026 No file is copied in parallel ranges by default
+ */
+package com.gulland.altair;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.Checksum;
+
+/**
+ * <p>
+ * A way of copying the content of a file. Which is fastest depends on the
+ * platform, the file systems and the size of the file, so files are copied
+ * with the strategy chosen for their size class by a <code>Selection</code>.
+ * </p>
+ *
+ * <ul>
+ * <li>transfer - <code>FileChannel.transferTo</code>, which the kernel can
+ * copy without passing the data through the JVM</li>
+ * <li>files-copy - <code>Files.copy</code>, which some runtimes and file
+ * systems copy on the server or by sharing blocks. Ranges of a file are
+ * transferred.</li>
+ * <li>mapped - maps the source in windows and writes each to the
+ * destination</li>
+ * <li>direct - reads and writes through a direct buffer taken from the
+ * <code>BufferPool</code> of the size class, and opens files with option sets
+ * made once, so copying a file allocates nothing beyond what opening it
+ * does</li>
+ * </ul>
+ *
+ * <p>
+ * A copy that is verified or recorded in a manifest is instead made with a
+ * <code>checksummed</code> strategy, which reads and writes through a heap
+ * buffer and updates a checksum with the data on its way through.
+ * </p>
+ *
+ * <p>
+ * The strategies used by a task are chosen by <code>CopyCalibrator</code> and
+ * kept in the state folder. Until a task is calibrated every size class uses
+ * transfer.
+ * </p>
+ *
+ * @author agulland
+ */
+public abstract class CopyStrategy
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/**
+	 * Most bytes passed to a single transferTo. Windows fails transfers of 64M
+	 * or more, elsewhere the runtime splits large transfers itself.
+	 */
+	static final int MAX_TRANSFER = System.getProperty("os.name", "")
+			.startsWith("Windows") ? (64 * 1024 * 1024) - (32 * 1024)
+			: Integer.MAX_VALUE;
+
+	/** size of the windows the mapped strategy maps the source in */
+	private static final int MAP_SIZE = 16 * 1024 * 1024;
+
+	/** options files are opened with by the direct strategy */
+	private static final Set<OpenOption> READ = Collections
+			.unmodifiableSet(EnumSet.of(StandardOpenOption.READ));
+	private static final Set<OpenOption> WRITE = Collections
+			.unmodifiableSet(EnumSet.of(StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+
+	/** no file attributes, so opening a file doesn't allocate an empty array */
+	private static final FileAttribute<?>[] NO_ATTRIBUTES = new FileAttribute<?>[0];
+
+	/** size of the buffer of a checksummed copy */
+	private static final int CHECKSUM_BUFFER_SIZE = 256 * 1024;
+
+	/** buffer of each thread making checksummed copies */
+	private static final ThreadLocal<ByteBuffer> checksumBuffers = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+		}
+	};
+
+	/** copies with FileChannel.transferTo */
+	public static final CopyStrategy TRANSFER = new CopyStrategy("transfer") {
+		long transfer(FileChannel in, FileChannel out, long position, long count)
+				throws IOException {
+			long done = 0;
+			while (done < count) {
+				long n = in.transferTo(position + done, Math.min(MAX_TRANSFER, count
+						- done), out);
+				if (n <= 0) throw new IOException("Source file shrank during copy");
+				done += n;
+			}
+			return done;
+		}
+	};
+
+	/** copies whole files with Files.copy */
+	public static final CopyStrategy FILES_COPY = new CopyStrategy("files-copy") {
+		void copy(Path source, Path destination) throws IOException {
+			Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		long transfer(FileChannel in, FileChannel out, long position, long count)
+				throws IOException {
+			return TRANSFER.transfer(in, out, position, count);
+		}
+	};
+
+	/** copies through windows of the source mapped into memory */
+	public static final CopyStrategy MAPPED = new CopyStrategy("mapped") {
+		long transfer(FileChannel in, FileChannel out, long position, long count)
+				throws IOException {
+			// a mapping beyond the end of the file can't be read
+			if (in.size() < position + count) throw new IOException(
+					"Source file shrank during copy");
+
+			long done = 0;
+			while (done < count) {
+				MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY,
+						position + done, Math.min(MAP_SIZE, count - done));
+				while (window.hasRemaining()) {
+					out.write(window);
+				}
+				done += window.limit();
+			}
+			return done;
+		}
+	};
+
+	/** copies through a pooled direct buffer */
+	public static final CopyStrategy DIRECT = new CopyStrategy("direct") {
+		void copy(Path source, Path destination) throws IOException {
+			FileChannel in = FileChannel.open(source, READ, NO_ATTRIBUTES);
+			try {
+				FileChannel out = FileChannel.open(destination, WRITE, NO_ATTRIBUTES);
+				try {
+					transfer(in, out, 0, in.size());
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		long transfer(FileChannel in, FileChannel out, long position, long count)
+				throws IOException {
+			BufferPool pool = BufferPool.forSize(count);
+			ByteBuffer buffer = pool.acquire();
+			try {
+				long done = 0;
+				while (done < count) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), count - done));
+					int n = in.read(buffer, position + done);
+					if (n < 0) throw new IOException("Source file shrank during copy");
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					done += n;
+				}
+				return done;
+			} finally {
+				pool.release(buffer);
+			}
+		}
+	};
+
+	/** every strategy, in the order they are calibrated */
+	private static final CopyStrategy[] STRATEGIES = { TRANSFER, FILES_COPY,
+			MAPPED, DIRECT };
+
+	/** name of the strategy, as kept in the state folder */
+	private final String name;
+
+	/**
+	 * Creates a strategy
+	 */
+	private CopyStrategy(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Copies a whole file, replacing the destination. The time stamp is left to
+	 * the caller.
+	 *
+	 * @param source
+	 *          the source file
+	 * @param destination
+	 *          the destination file
+	 * @throws IOException
+	 *           if the file could not be copied
+	 */
+	void copy(Path source, Path destination) throws IOException {
+		FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+		try {
+			FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				transfer(in, out, 0, in.size());
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Transfers a range of a file to the current position of another
+	 *
+	 * @param in
+	 *          the source file
+	 * @param out
+	 *          the destination file
+	 * @param position
+	 *          offset of the range in the source
+	 * @param count
+	 *          length of the range
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 *           if the source ends before the range does
+	 */
+	abstract long transfer(FileChannel in, FileChannel out, long position,
+			long count) throws IOException;
+
+	/**
+	 * Returns a strategy that copies through a buffer, updating a checksum with
+	 * the data copied, so the copy can be checked without reading the source
+	 * again. It is made for a single file and is never calibrated.
+	 *
+	 * @param checksum
+	 *          the checksum updated
+	 * @return the strategy
+	 */
+	static CopyStrategy checksummed(final Checksum checksum) {
+		return new CopyStrategy("checksummed") {
+			long transfer(FileChannel in, FileChannel out, long position, long count)
+					throws IOException {
+				ByteBuffer buffer = checksumBuffers.get();
+				long done = 0;
+				while (done < count) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), count - done));
+					int n = in.read(buffer, position + done);
+					if (n < 0) throw new IOException("Source file shrank during copy");
+					checksum.update(buffer.array(), 0, n);
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					done += n;
+				}
+				return done;
+			}
+		};
+	}
+
+	/**
+	 * Returns the strategies that can be chosen
+	 *
+	 * @return the strategies
+	 */
+	static CopyStrategy[] getStrategies() {
+		return STRATEGIES.clone();
+	}
+
+	/**
+	 * Returns a strategy by name
+	 *
+	 * @param name
+	 *          name of the strategy
+	 * @return the strategy or null if there is none of that name
+	 */
+	public static CopyStrategy forName(String name) {
+		for (int i = 0; i < STRATEGIES.length; i++) {
+			if (STRATEGIES[i].name.equals(name)) return STRATEGIES[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the name of the strategy
+	 */
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * The strategy chosen for each size class of file. Small files are under
+	 * <code>SMALL_SIZE</code>, large files are of
+	 * <code>BackupUtil.RESUMABLE_SIZE</code> or more and are copied in chunks,
+	 * the others are medium. Files of the parallel size or more are copied in
+	 * ranges at once by <code>ParallelCopier</code> whatever the strategy.
+	 */
+	public static class Selection
+	{
+		/** files under this size are small */
+		public static final long SMALL_SIZE = 1024 * 1024;
+
+		/** the size classes */
+		public static final int SMALL = 0;
+		public static final int MEDIUM = 1;
+		public static final int LARGE = 2;
+
+		/** names of the size classes, as kept in the state folder */
+		private static final String[] CLASS_NAMES = { "small", "medium", "large" };
+
+		/** version of the selection file format */
+		private static final int VERSION = 1;
+
+		/** character set of the selection file */
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
+		/** the strategy of each size class */
+		private final CopyStrategy[] strategies = { TRANSFER, TRANSFER, TRANSFER };
+
+		/** files of this size or more are copied in parallel ranges, 0 for none */
+		private long parallelSize = 0;
+
+		/**
+		 * Returns the size class of a file
+		 *
+		 * @param size
+		 *          size of the file
+		 * @return SMALL, MEDIUM or LARGE
+		 */
+		public static int getSizeClass(long size) {
+			if (size < SMALL_SIZE) return SMALL;
+			if (size < BackupUtil.RESUMABLE_SIZE) return MEDIUM;
+			return LARGE;
+		}
+
+		/**
+		 * Returns the name of a size class
+		 *
+		 * @param sizeClass
+		 *          SMALL, MEDIUM or LARGE
+		 * @return the name
+		 */
+		public static String getClassName(int sizeClass) {
+			return CLASS_NAMES[sizeClass];
+		}
+
+		/**
+		 * Returns the strategy for a file
+		 *
+		 * @param size
+		 *          size of the file
+		 * @return the strategy
+		 */
+		public CopyStrategy get(long size) {
+			return strategies[getSizeClass(size)];
+		}
+
+		/**
+		 * Sets the strategy of a size class
+		 *
+		 * @param sizeClass
+		 *          SMALL, MEDIUM or LARGE
+		 * @param strategy
+		 *          the strategy
+		 */
+		public void set(int sizeClass, CopyStrategy strategy) {
+			strategies[sizeClass] = strategy;
+		}
+
+		/**
+		 * Returns the size from which files are copied in parallel ranges
+		 *
+		 * @return size in bytes, 0 if no file is
+		 */
+		public long getParallelSize() {
+			return parallelSize;
+		}
+
+		/**
+		 * Sets the size from which files are copied in parallel ranges. It suits
+		 * devices one stream can't keep busy, such as NVMe drives and RAID sets,
+		 * rather than hard disks.
+		 *
+		 * @param parallelSize
+		 *          size in bytes, 0 to copy every file as one stream
+		 */
+		public void setParallelSize(long parallelSize) {
+			if (parallelSize >= 0) this.parallelSize = parallelSize;
+		}
+
+		/**
+		 * Loads the selection from a file. If the file does not exist or can't
+		 * be read the default selection is returned.
+		 *
+		 * @param file
+		 *          the selection file
+		 * @return the selection
+		 */
+		public static Selection load(File file) {
+			Selection selection = new Selection();
+			if (!file.exists()) return selection;
+			try {
+				BufferedReader br = Files.newBufferedReader(file.toPath(), UTF8);
+				try {
+					String line;
+					while ((line = br.readLine()) != null) {
+						int equals = line.indexOf('=');
+						if (equals < 0) continue;
+						String key = line.substring(0, equals);
+						String value = line.substring(equals + 1);
+						if (key.equals("version")) {
+							if (Integer.parseInt(value) != VERSION) throw new IOException(
+									"Unsupported selection version " + value);
+						}
+						for (int i = 0; i < CLASS_NAMES.length; i++) {
+							CopyStrategy strategy = forName(value);
+							if ((key.equals(CLASS_NAMES[i])) && (strategy != null)) {
+								selection.strategies[i] = strategy;
+							}
+						}
+					}
+				} finally {
+					br.close();
+				}
+				logger.detail("Loaded copy strategies " + selection);
+			} catch (IOException e) {
+				logger.warn("Could not read copy strategies '" + file
+						+ "', exception thrown: " + e.getMessage());
+				return new Selection();
+			} catch (NumberFormatException e) {
+				logger.warn("Invalid copy strategies '" + file + "'");
+				return new Selection();
+			}
+			return selection;
+		}
+
+		/**
+		 * Saves the selection
+		 *
+		 * @param file
+		 *          the selection file
+		 * @throws IOException
+		 *           if the selection could not be written
+		 */
+		public void save(File file) throws IOException {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (!parent.exists()) parent.mkdirs();
+
+			BufferedWriter bw = Files.newBufferedWriter(file.toPath(), UTF8);
+			try {
+				bw.write("version=" + VERSION);
+				bw.newLine();
+				for (int i = 0; i < CLASS_NAMES.length; i++) {
+					bw.write(CLASS_NAMES[i] + "=" + strategies[i]);
+					bw.newLine();
+				}
+			} finally {
+				bw.close();
+			}
+		}
+
+		/**
+		 * Returns the selection in a nicely formatted string
+		 */
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < CLASS_NAMES.length; i++) {
+				if (i > 0) sb.append(", ");
+				sb.append(CLASS_NAMES[i]).append(' ').append(strategies[i]);
+			}
+			return sb.toString();
+		}
+	}
+}
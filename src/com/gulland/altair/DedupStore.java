@@ -0,0 +1,419 @@
+/**
+ * DedupStore.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A content addressed store of file contents kept in the
+ * <code>.altair-objects</code> folder of a task destination. Each distinct
+ * content is stored once, as a file named by its SHA-256 hash, and every
+ * destination file with that content is a hard link to it. Files with the same
+ * content, in the same task or copied between folders of a source, are then
+ * only written to the destination once.
+ * </p>
+ *
+ * <p>
+ * A file is hashed before it is copied, so a file whose content is already
+ * stored is linked without being written at all. A new content is hashed again
+ * as it is written to the store, and stored under the hash of what was
+ * actually written, so a source changing during the copy can't be stored under
+ * the wrong hash.
+ * </p>
+ *
+ * <p>
+ * The links share the time stamp of the stored content, which is that of the
+ * first file stored with it. Tasks using the store keep a destination index so
+ * rules are evaluated against the time stamps of their own source files.
+ * Content no destination file links to any longer is deleted by
+ * <code>collect</code> once a run is complete.
+ * </p>
+ *
+ * <p>
+ * If the destination file system can't make hard links files are copied as
+ * usual.
+ * </p>
+ *
+ * @author agulland
+ */
+public class DedupStore
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** name of the store folder in the task destination */
+	public static final String FOLDER_NAME = ".altair-objects";
+
+	/** suffix of a content being written to the store */
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/** size of the buffer files are read through when hashed */
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	/** hex digits of a hash */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/** the store folder */
+	private final Path root;
+
+	/** false once the file system has been found not to support hard links */
+	private volatile boolean linksSupported = true;
+
+	/** contents written to the store and their total size */
+	private final AtomicLong filesStored = new AtomicLong();
+	private final AtomicLong bytesStored = new AtomicLong();
+
+	/** files linked to a content already stored and their total size */
+	private final AtomicLong filesLinked = new AtomicLong();
+	private final AtomicLong bytesLinked = new AtomicLong();
+
+	/** buffer of each thread reading files */
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(BUFFER_SIZE);
+		}
+	};
+
+	/**
+	 * Creates the store of a task destination
+	 *
+	 * @param destinationRoot
+	 *          the task destination folder
+	 */
+	public DedupStore(Path destinationRoot) {
+		this.root = destinationRoot.resolve(FOLDER_NAME);
+	}
+
+	/**
+	 * Backs up a file through the store. The file is hashed and, if its content
+	 * isn't already stored, written to the store. The destination is then
+	 * replaced with a hard link to the stored content.
+	 *
+	 * @param source
+	 *          the source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destination
+	 *          the destination file
+	 * @param monitor
+	 *          checked between chunks of the file, may be null
+	 * @return true if the file was backed up, false if it failed or was stopped
+	 */
+	public boolean copyFile(Path source, BasicFileAttributes sourceAttrs,
+			Path destination, CopyMonitor monitor) {
+		if (!linksSupported) return BackupUtil.copyFile(source, sourceAttrs,
+				destination, monitor);
+
+		logger.detail("Copying file " + source.toAbsolutePath()
+				+ " to dedup store");
+		try {
+			Path object = getObject(hash(source));
+			if (Files.exists(object)) {
+				filesLinked.incrementAndGet();
+				bytesLinked.addAndGet(sourceAttrs.size());
+			} else {
+				object = store(source, sourceAttrs, monitor);
+				if (object == null) return false;
+			}
+
+			try {
+				link(object, destination);
+			} catch (UnsupportedOperationException e) {
+				logger.warn("Destination can't hold hard links, files are copied"
+						+ " rather than deduplicated");
+				linksSupported = false;
+				return BackupUtil.copyFile(source, sourceAttrs, destination, monitor);
+			} catch (FileSystemException e) {
+				// for example the content has as many links as the file system allows
+				logger.detail("Could not link " + destination + ", exception thrown: "
+						+ e.getMessage());
+				return BackupUtil.copyFile(source, sourceAttrs, destination, monitor);
+			}
+			return true;
+		} catch (AccessDeniedException e) {
+			logger.warn("Could not read source file: '" + source
+					+ "' or write destination file '" + destination
+					+ "'. Check permissions or that it is not locked by another process.");
+			return false;
+		} catch (NoSuchFileException e) {
+			logger.warn("Could not access file " + e.getMessage());
+			return false;
+		} catch (IOException e) {
+			logger.warn("Could not backup file " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the content of a file to the store, hashing it as it is written
+	 *
+	 * @return the stored content, or null if the copy was stopped
+	 */
+	private Path store(Path source, BasicFileAttributes sourceAttrs,
+			CopyMonitor monitor) throws IOException {
+		Files.createDirectories(root);
+		Path temp = Files.createTempFile(root, "object", TEMP_SUFFIX);
+		try {
+			MessageDigest digest = newDigest();
+			ByteBuffer buffer = buffers.get();
+			FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+			try {
+				FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE);
+				try {
+					long sinceCheck = 0;
+					while (true) {
+						buffer.clear();
+						int n = in.read(buffer);
+						if (n < 0) break;
+						digest.update(buffer.array(), 0, n);
+						buffer.flip();
+						while (buffer.hasRemaining())
+							out.write(buffer);
+
+						// a large file can be stopped part way, it isn't resumed
+						sinceCheck += n;
+						if ((monitor != null) && (sinceCheck >= BackupUtil.CHUNK_SIZE)) {
+							sinceCheck = 0;
+							monitor.waitIfPaused();
+							if (monitor.isCancelled()) {
+								logger.warn("Copy of " + source + " stopped");
+								return null;
+							}
+						}
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			Files.setLastModifiedTime(temp, sourceAttrs.lastModifiedTime());
+
+			// another thread may have stored the same content in the meantime
+			Path object = getObject(toHex(digest.digest()));
+			if (Files.exists(object)) {
+				filesLinked.incrementAndGet();
+				bytesLinked.addAndGet(Files.size(object));
+				return object;
+			}
+			Files.createDirectories(object.getParent());
+			try {
+				Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// some file systems can't move atomically
+				Files.move(temp, object);
+			}
+			filesStored.incrementAndGet();
+			bytesStored.addAndGet(Files.size(object));
+			return object;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Replaces a destination file with a hard link to a stored content. The link
+	 * is made next to the destination then moved over it, so the destination is
+	 * never missing.
+	 */
+	private static void link(Path object, Path destination) throws IOException {
+		// moving a link over another link to the same file does nothing
+		if ((Files.exists(destination)) && (Files.isSameFile(object, destination))) {
+			return;
+		}
+
+		Path link = destination.resolveSibling(destination.getFileName()
+				+ BackupUtil.LINK_SUFFIX);
+		Files.deleteIfExists(link);
+		Files.createLink(link, object);
+		try {
+			Files.move(link, destination, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// some file systems can't replace atomically
+			Files.move(link, destination, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Deletes the stored contents no destination file links to, and any content
+	 * left part written. Only possible where the file system counts the links
+	 * to a file, as on Unix.
+	 *
+	 * @return the number of contents deleted
+	 */
+	public int collect() {
+		if (!Files.isDirectory(root)) return 0;
+		int deleted = 0;
+		try {
+			DirectoryStream<Path> folders = Files.newDirectoryStream(root);
+			try {
+				for (Path folder : folders) {
+					if (!Files.isDirectory(folder)) {
+						// a content left part written by a run that died
+						if (folder.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+							Files.deleteIfExists(folder);
+						}
+						continue;
+					}
+					DirectoryStream<Path> objects = Files.newDirectoryStream(folder);
+					try {
+						for (Path object : objects) {
+							int links = ((Integer) Files.getAttribute(object, "unix:nlink"))
+									.intValue();
+							if ((links <= 1) && (Files.deleteIfExists(object))) deleted++;
+						}
+					} finally {
+						objects.close();
+					}
+				}
+			} finally {
+				folders.close();
+			}
+		} catch (UnsupportedOperationException e) {
+			logger.detail("Links can't be counted, unused stored contents kept");
+		} catch (IllegalArgumentException e) {
+			logger.detail("Links can't be counted, unused stored contents kept");
+		} catch (IOException e) {
+			logger.warn("Could not clean dedup store '" + root
+					+ "', exception thrown: " + e.getMessage());
+		}
+		if (deleted > 0) logger.detail(deleted
+				+ " unused contents deleted from dedup store");
+		return deleted;
+	}
+
+	/**
+	 * Returns the path of a stored content, contents are spread over 256
+	 * folders by the first byte of their hash
+	 */
+	private Path getObject(String hash) {
+		return root.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+
+	/**
+	 * Returns the folder of the store
+	 *
+	 * @return the store folder
+	 */
+	public File getFolder() {
+		return root.toFile();
+	}
+
+	/**
+	 * Returns the number of contents written to the store in this run
+	 *
+	 * @return number of files
+	 */
+	public long getFilesStored() {
+		return filesStored.get();
+	}
+
+	/**
+	 * Returns the total size of the contents written to the store in this run
+	 *
+	 * @return size in bytes
+	 */
+	public long getBytesStored() {
+		return bytesStored.get();
+	}
+
+	/**
+	 * Returns the number of files linked to a content already stored in this run
+	 *
+	 * @return number of files
+	 */
+	public long getFilesLinked() {
+		return filesLinked.get();
+	}
+
+	/**
+	 * Returns the total size of the files linked to a content already stored,
+	 * the bytes not written to the destination
+	 *
+	 * @return size in bytes
+	 */
+	public long getBytesLinked() {
+		return bytesLinked.get();
+	}
+
+	/**
+	 * Computes the SHA-256 hash of a file's content
+	 *
+	 * @param path
+	 *          the file
+	 * @return the hash as a hex string
+	 * @throws IOException
+	 *           if the file could not be read
+	 */
+	public static String hash(Path path) throws IOException {
+		MessageDigest digest = newDigest();
+		ByteBuffer buffer = buffers.get();
+		FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			while (true) {
+				buffer.clear();
+				int n = in.read(buffer);
+				if (n < 0) break;
+				digest.update(buffer.array(), 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Returns a new SHA-256 digest, which every Java runtime has
+	 */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available");
+		}
+	}
+
+	/**
+	 * Returns bytes as a hex string
+	 */
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns the statistics of the store for this run in a nicely formatted
+	 * string
+	 */
+	public String toString() {
+		return "Dedup store: " + getFilesStored() + " stored ("
+				+ getBytesStored() + " bytes), " + getFilesLinked()
+				+ " linked to stored content (" + getBytesLinked() + " bytes saved)";
+	}
+}
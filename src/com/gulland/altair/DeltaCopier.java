@@ -0,0 +1,527 @@
+/**
+ * DeltaCopier.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Updates an existing destination file to match its source by writing only the
+ * regions that differ, in the manner of rsync. It is used for tasks with a
+ * <code>delta-size</code> for files of that size or more, such as database
+ * dumps and virtual machine disks where a small part of a large file changes
+ * between runs.
+ * </p>
+ *
+ * <p>
+ * The destination is split into blocks and a weak rolling checksum and an MD5
+ * digest is computed for each block. The source is then read with a window the
+ * size of a block, rolled a byte at a time, and wherever the weak checksum and
+ * then the digest of the window match a block of the destination that block is
+ * reused. The rest of the source is literal data.
+ * </p>
+ *
+ * <p>
+ * If every block reused is at the same offset in the source, as when data is
+ * changed in place, only the literal regions are written, into the destination
+ * itself. Otherwise data has moved, by an insert or a delete, and the new file
+ * is put together in a temporary file from the destination blocks and the
+ * literal data, which then replaces the destination.
+ * </p>
+ *
+ * <p>
+ * Both files are read in full so a delta copy only pays where writing the
+ * destination costs more than reading it. A delta copy stopped part way
+ * through leaves a destination updated in place with an old time stamp, so it
+ * is copied again next run.
+ * </p>
+ *
+ * @author agulland
+ */
+public class DeltaCopier
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** smallest and largest size of a block */
+	public static final int MIN_BLOCK_SIZE = 16 * 1024;
+	public static final int MAX_BLOCK_SIZE = 1024 * 1024;
+
+	/** size of the buffer the files are read through */
+	private static final int BUFFER_SIZE = 8 * 1024 * 1024;
+
+	/** length of an MD5 digest */
+	private static final int DIGEST_LENGTH = 16;
+
+	/** the destination file being updated and its size */
+	private final Path destination;
+	private final long destinationSize;
+
+	/** size of the destination blocks */
+	private final int blockSize;
+
+	/** number of whole destination blocks, a shorter last block isn't reused */
+	private int blocks;
+
+	/** weak checksum and digest of each destination block */
+	private int[] weak;
+	private byte[] digests;
+
+	/**
+	 * first block with each 16 bit tag of its weak checksum, and the next block
+	 * with the same tag, or -1
+	 */
+	private final int[] tagHead = new int[1 << 16];
+	private int[] tagNext;
+
+	/** checked for pause and stop, may be null */
+	private final CopyMonitor monitor;
+
+	/** digest of the source window */
+	private final MessageDigest md5;
+
+	/**
+	 * Creates a copier for the given destination
+	 */
+	private DeltaCopier(Path destination, long destinationSize,
+			CopyMonitor monitor) throws IOException {
+		this.destination = destination;
+		this.destinationSize = destinationSize;
+		this.blockSize = getBlockSize(destinationSize);
+		this.monitor = monitor;
+		try {
+			this.md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("MD5 not available");
+		}
+	}
+
+	/**
+	 * Copies a file from a specified source to an existing destination writing
+	 * only the regions that differ. If the destination doesn't exist, or is
+	 * empty, the file is copied with <code>BackupUtil.copyFile</code>.
+	 *
+	 * @param sourceFile
+	 *          fully qualified path to a source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destinationFile
+	 *          fully qualified path to a destination file
+	 * @param monitor
+	 *          checked between blocks for pause and stop, may be null
+	 * @return true if file was copied, false if it failed or was stopped
+	 */
+	public static boolean copyFile(Path sourceFile,
+			BasicFileAttributes sourceAttrs, Path destinationFile,
+			CopyMonitor monitor) {
+		BasicFileAttributes destAttrs = Backup.readAttributes(destinationFile);
+		if ((destAttrs == null) || (!destAttrs.isRegularFile())
+				|| (destAttrs.size() == 0)) {
+			return BackupUtil.copyFile(sourceFile, sourceAttrs, destinationFile,
+					monitor);
+		}
+
+		logger.detail("Delta copying file " + sourceFile.toAbsolutePath());
+		try {
+			DeltaCopier copier = new DeltaCopier(destinationFile, destAttrs.size(),
+					monitor);
+			long written = copier.copy(sourceFile, sourceAttrs.size());
+			if (written < 0) {
+				logger.warn("Delta copy of " + sourceFile + " stopped");
+				return false;
+			}
+			Files.setLastModifiedTime(destinationFile, sourceAttrs.lastModifiedTime());
+			logger.detail("Delta copy of " + sourceFile + ", " + written + " of "
+					+ sourceAttrs.size() + " bytes changed");
+			return true;
+		} catch (AccessDeniedException e) {
+			logger.warn("Could not read source file: '" + sourceFile
+					+ "' or write destination file '" + destinationFile
+					+ "'. Check permissions or that it is not locked by another process.");
+			return false;
+		} catch (NoSuchFileException e) {
+			logger.warn("Could not access file " + e.getMessage());
+			return false;
+		} catch (IOException e) {
+			logger.warn("Could not backup file " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the block size for a destination, about the square root of its
+	 * size so the number of blocks and their size grow together
+	 *
+	 * @param size
+	 *          size of the destination in bytes
+	 * @return block size in bytes, a multiple of 4Kb
+	 */
+	static int getBlockSize(long size) {
+		long blockSize = ((long) Math.sqrt(size) + 4095) & ~4095L;
+		return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+	}
+
+	/**
+	 * Updates the destination to match the source
+	 *
+	 * @return the number of bytes of the source written, or -1 if stopped
+	 */
+	private long copy(Path sourceFile, long sourceSize) throws IOException {
+		FileChannel in = FileChannel.open(sourceFile, StandardOpenOption.READ);
+		try {
+			FileChannel dest = FileChannel.open(destination, StandardOpenOption.READ);
+			List<Region> regions;
+			try {
+				if (!readSignatures(dest)) return -1;
+				regions = match(in, sourceSize);
+				if (regions == null) return -1;
+			} finally {
+				dest.close();
+			}
+
+			// in place if nothing has moved, otherwise the data reused would be
+			// overwritten before it was read
+			boolean aligned = true;
+			for (Region region : regions) {
+				if ((region.isReused()) && (region.from != region.offset)) {
+					aligned = false;
+					break;
+				}
+			}
+			return aligned ? writeInPlace(in, regions, sourceSize) : writeTemporary(
+					in, regions);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the destination and computes the checksums of its blocks
+	 *
+	 * @return false if stopped
+	 */
+	private boolean readSignatures(FileChannel dest) throws IOException {
+		blocks = (int) (destinationSize / blockSize);
+		weak = new int[blocks];
+		digests = new byte[blocks * DIGEST_LENGTH];
+		tagNext = new int[blocks];
+		Arrays.fill(tagHead, -1);
+
+		int perRead = Math.max(1, BUFFER_SIZE / blockSize);
+		ByteBuffer buffer = ByteBuffer.allocate(perRead * blockSize);
+		byte[] buf = buffer.array();
+		int block = 0;
+		while (block < blocks) {
+			if (isStopped()) return false;
+
+			// read as many whole blocks as fit in the buffer
+			int count = Math.min(perRead, blocks - block);
+			buffer.clear();
+			buffer.limit(count * blockSize);
+			long position = (long) block * blockSize;
+			while (buffer.hasRemaining()) {
+				int n = dest.read(buffer, position + buffer.position());
+				if (n < 0) throw new IOException("Destination file shrank during copy");
+			}
+
+			for (int i = 0; i < count; i++, block++) {
+				int offset = i * blockSize;
+				weak[block] = checksum(buf, offset, blockSize);
+				md5.update(buf, offset, blockSize);
+				try {
+					md5.digest(digests, block * DIGEST_LENGTH, DIGEST_LENGTH);
+				} catch (DigestException e) {
+					throw new IOException("Could not compute block digest");
+				}
+
+				// chain blocks by tag in reverse so the head is the lowest block
+				int tag = tag(weak[block]);
+				tagNext[block] = tagHead[tag];
+				tagHead[tag] = block;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the source with a rolling window and finds the destination blocks
+	 * that can be reused
+	 *
+	 * @return the regions of the source in order, or null if stopped
+	 */
+	private List<Region> match(FileChannel in, long sourceSize)
+			throws IOException {
+		List<Region> regions = new ArrayList<Region>();
+		byte[] buf = new byte[Math.max(BUFFER_SIZE, blockSize * 4)];
+		long bufStart = 0; // source offset of buf[0]
+		int len = 0; // bytes held in buf
+		int p = 0; // start of the window in buf
+		long literalFrom = 0; // source offset of the literal data not yet added
+		boolean eof = (sourceSize == 0);
+		boolean rolled = false;
+		int a = 0;
+		int b = 0;
+
+		while (true) {
+			// keep more than a window in the buffer until the end of the source
+			if ((len - p <= blockSize) && (!eof)) {
+				if (isStopped()) return null;
+				System.arraycopy(buf, p, buf, 0, len - p);
+				bufStart += p;
+				len -= p;
+				p = 0;
+				ByteBuffer buffer = ByteBuffer.wrap(buf, len, buf.length - len);
+				while ((buffer.hasRemaining()) && (!eof)) {
+					if (in.read(buffer, bufStart + buffer.position()) < 0) eof = true;
+				}
+				len = buffer.position();
+			}
+			if (len - p < blockSize) break;
+
+			if (!rolled) {
+				int checksum = checksum(buf, p, blockSize);
+				a = checksum & 0xffff;
+				b = checksum >>> 16;
+				rolled = true;
+			}
+
+			long offset = bufStart + p;
+			int block = find(a | (b << 16), buf, p, offset);
+			if (block >= 0) {
+				if (offset > literalFrom) add(regions, new Region(literalFrom, offset
+						- literalFrom, -1));
+				add(regions, new Region(offset, blockSize, (long) block * blockSize));
+				p += blockSize;
+				literalFrom = offset + blockSize;
+				rolled = false;
+			} else if (p + blockSize < len) {
+				// roll the window on a byte
+				int out = buf[p] & 0xff;
+				int next = buf[p + blockSize] & 0xff;
+				a = (a - out + next) & 0xffff;
+				b = (b - blockSize * out + a) & 0xffff;
+				p++;
+			} else {
+				p++;
+				rolled = false;
+			}
+		}
+
+		long end = bufStart + len;
+		if (end > literalFrom) add(regions, new Region(literalFrom, end
+				- literalFrom, -1));
+		return regions;
+	}
+
+	/**
+	 * Returns the destination block matching the window at the given position,
+	 * preferring the block at the same offset so data that hasn't moved can be
+	 * left in place
+	 *
+	 * @return the block or -1 if none match
+	 */
+	private int find(int checksum, byte[] buf, int p, long offset) {
+		int tag = tag(checksum);
+		if (tagHead[tag] < 0) return -1;
+
+		byte[] digest = null;
+		if ((offset % blockSize == 0) && (offset / blockSize < blocks)) {
+			int aligned = (int) (offset / blockSize);
+			if (weak[aligned] == checksum) {
+				digest = digest(buf, p);
+				if (isDigest(aligned, digest)) return aligned;
+			}
+		}
+
+		for (int block = tagHead[tag]; block >= 0; block = tagNext[block]) {
+			if (weak[block] != checksum) continue;
+			if (digest == null) digest = digest(buf, p);
+			if (isDigest(block, digest)) return block;
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes the literal regions into the destination, all reused blocks being
+	 * where they already are
+	 *
+	 * @return the number of bytes written, or -1 if stopped
+	 */
+	private long writeInPlace(FileChannel in, List<Region> regions,
+			long sourceSize) throws IOException {
+		long written = 0;
+		FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE);
+		try {
+			for (Region region : regions) {
+				if (region.isReused()) continue;
+				if (isStopped()) return -1;
+				out.position(region.from);
+				written += BackupUtil.transfer(in, out, region.from, region.length);
+			}
+			if (out.size() > sourceSize) out.truncate(sourceSize);
+		} finally {
+			out.close();
+		}
+		return written;
+	}
+
+	/**
+	 * Puts the new file together in a temporary file from the reused blocks and
+	 * the literal regions, and replaces the destination with it
+	 *
+	 * @return the number of bytes of the source written, or -1 if stopped
+	 */
+	private long writeTemporary(FileChannel in, List<Region> regions)
+			throws IOException {
+		Path temp = destination.resolveSibling(destination.getFileName()
+				+ BackupUtil.DELTA_SUFFIX);
+		long written = 0;
+		boolean complete = false;
+		try {
+			FileChannel dest = FileChannel.open(destination, StandardOpenOption.READ);
+			try {
+				FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				try {
+					for (Region region : regions) {
+						if (isStopped()) return -1;
+						if (region.isReused()) {
+							BackupUtil.transfer(dest, out, region.offset, region.length);
+						} else {
+							written += BackupUtil.transfer(in, out, region.from,
+									region.length);
+						}
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				dest.close();
+			}
+
+			try {
+				Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// some file systems can't replace atomically
+				Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+			}
+			complete = true;
+		} finally {
+			if (!complete) Files.deleteIfExists(temp);
+		}
+		return written;
+	}
+
+	/**
+	 * Adds a region, merging it with the previous region if they follow on
+	 */
+	private static void add(List<Region> regions, Region region) {
+		if (!regions.isEmpty()) {
+			Region last = regions.get(regions.size() - 1);
+			boolean follows = (last.from + last.length == region.from)
+					&& (last.isReused() == region.isReused());
+			if ((follows) && (region.isReused())) follows = (last.offset
+					+ last.length == region.offset);
+			if (follows) {
+				last.length += region.length;
+				return;
+			}
+		}
+		regions.add(region);
+	}
+
+	/**
+	 * Returns the weak checksum of a block of data
+	 */
+	static int checksum(byte[] buf, int offset, int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; i++) {
+			a += buf[offset + i] & 0xff;
+			b += (length - i) * (buf[offset + i] & 0xff);
+		}
+		return (a & 0xffff) | ((b & 0xffff) << 16);
+	}
+
+	/**
+	 * Returns the 16 bit tag of a weak checksum
+	 */
+	private static int tag(int checksum) {
+		return ((checksum >>> 16) ^ checksum) & 0xffff;
+	}
+
+	/**
+	 * Returns the digest of the window at the given position
+	 */
+	private byte[] digest(byte[] buf, int p) {
+		md5.update(buf, p, blockSize);
+		return md5.digest();
+	}
+
+	/**
+	 * Returns true if a destination block has the given digest
+	 */
+	private boolean isDigest(int block, byte[] digest) {
+		int base = block * DIGEST_LENGTH;
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			if (digests[base + i] != digest[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits while paused and returns true if the copy should stop
+	 */
+	private boolean isStopped() {
+		if (monitor == null) return false;
+		monitor.waitIfPaused();
+		return monitor.isCancelled();
+	}
+
+	/**
+	 * A region of the source, either literal data or a run of destination blocks
+	 * that are reused
+	 */
+	private static class Region
+	{
+		/** offset of the region in the source */
+		private final long from;
+
+		/** length of the region */
+		private long length;
+
+		/** offset of the blocks reused in the destination, -1 for literal data */
+		private final long offset;
+
+		Region(long from, long length, long offset) {
+			this.from = from;
+			this.length = length;
+			this.offset = offset;
+		}
+
+		boolean isReused() {
+			return offset >= 0;
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/**
+ * DestinationIndex.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Removing a file no longer scans for a folder, folders are
+ *                      removed with removeFolder. Dropped the unused hash
+ */
+package com.gulland.altair;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * A persistent record of the files a task has written to its destination. For
+ * each file the index holds the path relative to the destination folder, the
+ * size and time stamp of the destination file.
+ * </p>
+ *
+ * <p>
+ * The index is loaded when a task starts and saved when it ends, so on an
+ * incremental run the rules can be evaluated against the index rather than by
+ * reading every destination file. Files missing from the index are read from
+ * the destination as before and then added.
+ * </p>
+ *
+ * <p>
+ * As the index only knows what this utility wrote, changes made directly to
+ * the destination are not seen. To catch these the index is ignored and
+ * rebuilt from the destination every <code>verifyInterval</code> runs, or when
+ * a verify is forced.
+ * </p>
+ *
+ * <p>
+ * The index is saved by writing a temporary file and renaming it over the
+ * previous index so an interrupted save leaves the previous index in place.
+ * </p>
+ *
+ * @author agulland
+ */
+public class DestinationIndex
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** version of the index file format */
+	private static final int VERSION = 2;
+
+	/** character set of the index file */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** the index file */
+	private final File file;
+
+	/** the index entries keyed by relative path */
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/** number of runs since the index was last rebuilt from the destination */
+	private int runs;
+
+	/** true if the index is being rebuilt from the destination in this run */
+	private boolean verifying;
+
+	/**
+	 * Creates an empty index that is saved to the given file
+	 *
+	 * @param file
+	 *          the index file
+	 */
+	private DestinationIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the index from a file. If the file does not exist or can't be read an
+	 * empty index is returned and the run verifies the whole destination.
+	 *
+	 * @param file
+	 *          the index file
+	 * @param verifyInterval
+	 *          number of runs between verifying the destination, 0 to never
+	 *          verify unless forced
+	 * @param forceVerify
+	 *          if true the index is ignored and rebuilt in this run
+	 * @return the index
+	 */
+	public static DestinationIndex load(File file, int verifyInterval,
+			boolean forceVerify) {
+		DestinationIndex index = new DestinationIndex(file);
+
+		if (file.exists()) {
+			try {
+				index.read();
+			} catch (IOException e) {
+				logger.warn("Could not read destination index '" + file
+						+ "', exception thrown: " + e.getMessage());
+				index.entries.clear();
+				index.verifying = true;
+			}
+		} else {
+			index.verifying = true;
+		}
+
+		if ((forceVerify) || ((verifyInterval > 0) && (index.runs >= verifyInterval))) {
+			index.verifying = true;
+		}
+
+		// when verifying the index is rebuilt from scratch
+		if (index.verifying) {
+			index.entries.clear();
+			logger.info("Verifying destination, destination index will be rebuilt");
+		} else {
+			logger.info("Loaded destination index with " + index.entries.size()
+					+ " entries");
+		}
+		return index;
+	}
+
+	/**
+	 * Returns true if the index is being rebuilt from the destination in this
+	 * run. While verifying <code>get</code> always returns null.
+	 *
+	 * @return true if verifying
+	 */
+	public boolean isVerifying() {
+		return this.verifying;
+	}
+
+	/**
+	 * Returns the entry for a destination file
+	 *
+	 * @param relative
+	 *          path of the file relative to the destination folder
+	 * @return the entry or null if the file is not in the index
+	 */
+	public Entry get(String relative) {
+		return entries.get(relative);
+	}
+
+	/**
+	 * Records the state of a destination file
+	 *
+	 * @param relative
+	 *          path of the file relative to the destination folder
+	 * @param size
+	 *          size of the destination file
+	 * @param lastModified
+	 *          time stamp of the destination file in milliseconds
+	 */
+	public void put(String relative, long size, long lastModified) {
+		// names that can't be written to the index file are never recorded
+		if ((relative.indexOf('\t') >= 0) || (relative.indexOf('\n') >= 0)
+				|| (relative.indexOf('\r') >= 0)) return;
+
+		entries.put(relative, new Entry(size, lastModified));
+	}
+
+	/**
+	 * Removes a file from the index. Called before every copy so it is a single
+	 * lookup, a deleted folder is removed with <code>removeFolder</code>.
+	 *
+	 * @param relative
+	 *          path of the file relative to the destination folder
+	 */
+	public void remove(String relative) {
+		entries.remove(relative);
+	}
+
+	/**
+	 * Removes everything below a folder that has been deleted from the index.
+	 * Every entry is looked at, so it is only called when a folder is deleted.
+	 *
+	 * @param relative
+	 *          path of the folder relative to the destination folder
+	 */
+	public void removeFolder(String relative) {
+		String prefix = relative + "/";
+		Iterator<String> keys = entries.keySet().iterator();
+		while (keys.hasNext()) {
+			if (keys.next().startsWith(prefix)) keys.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of entries in the index
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Saves the index. The index is written to a temporary file that then
+	 * replaces the index file.
+	 *
+	 * @throws IOException
+	 *           if the index could not be written
+	 */
+	public void save() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists()) parent.mkdirs();
+
+		Path temp = new File(parent, file.getName() + ".tmp").toPath();
+		BufferedWriter bw = Files.newBufferedWriter(temp, UTF8);
+		try {
+			bw.write("version=" + VERSION);
+			bw.newLine();
+			bw.write("runs=" + (verifying ? 0 : runs + 1));
+			bw.newLine();
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				Entry entry = e.getValue();
+				bw.write(entry.size + "\t" + entry.lastModified + "\t" + e.getKey());
+				bw.newLine();
+			}
+		} finally {
+			bw.close();
+		}
+
+		try {
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// some file systems can't replace atomically
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads the index file
+	 */
+	private void read() throws IOException {
+		BufferedReader br = Files.newBufferedReader(file.toPath(), UTF8);
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("version=")) {
+					int version = Integer.parseInt(line.substring(8));
+					if (version != VERSION) throw new IOException(
+							"Unsupported index version " + version);
+				} else if (line.startsWith("runs=")) {
+					this.runs = Integer.parseInt(line.substring(5));
+				} else if (line.length() > 0) {
+					String[] fields = line.split("\t", 3);
+					if (fields.length != 3) throw new IOException("Invalid index line '"
+							+ line + "'");
+					entries.put(fields[2], new Entry(Long.parseLong(fields[0]), Long
+							.parseLong(fields[1])));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid index file: " + e.getMessage());
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * The recorded state of a single destination file
+	 */
+	public static class Entry
+	{
+		/** size of the destination file */
+		private final long size;
+
+		/** time stamp of the destination file in milliseconds */
+		private final long lastModified;
+
+		Entry(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Returns the size of the destination file
+		 *
+		 * @return size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the time stamp of the destination file
+		 *
+		 * @return time stamp in milliseconds
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * DeviceScheduler.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Limits the number of files copied at once from or to each storage device.
+ * Paths are grouped by their <code>FileStore</code> and each store has a
+ * limit, set for the store of a given path or taken from the default, so a
+ * hard disk can be limited to one or two streams while an SSD takes many.
+ * </p>
+ *
+ * <p>
+ * A copy holds a permit on both its source and its destination device. The
+ * permits are always taken in the same order, by device number, so two copies
+ * between the same pair of devices in opposite directions can't deadlock.
+ * </p>
+ *
+ * <p>
+ * The device of a task is that of its source or destination folder, a file
+ * system mounted below the task folder is counted against the task folder's
+ * device.
+ * </p>
+ *
+ * @author agulland
+ */
+public class DeviceScheduler
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** limit for stores with no limit of their own */
+	private final int defaultLimit;
+
+	/** limits set for particular stores */
+	private final Map<FileStore, Integer> limits = new HashMap<FileStore, Integer>();
+
+	/** devices found so far keyed by store */
+	private final Map<FileStore, Device> devices = new ConcurrentHashMap<FileStore, Device>();
+
+	/** number given to the next device found, sets the order permits are taken */
+	private final AtomicInteger nextNumber = new AtomicInteger();
+
+	/**
+	 * Creates a scheduler
+	 *
+	 * @param defaultLimit
+	 *          number of copies at once for devices with no limit of their own, 0
+	 *          for no limit
+	 */
+	public DeviceScheduler(int defaultLimit) {
+		this.defaultLimit = (defaultLimit > 0) ? defaultLimit : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Sets the limit of the device holding the given path. Must be called before
+	 * the backup is started.
+	 *
+	 * @param path
+	 *          any path on the device
+	 * @param limit
+	 *          number of copies at once
+	 */
+	public void setLimit(String path, int limit) {
+		FileStore store = getFileStore(Paths.get(path));
+		if (store != null) limits.put(store, (limit > 0) ? limit : Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the device holding a path. The path need not exist, the device of
+	 * its nearest existing parent is returned.
+	 *
+	 * @param path
+	 *          the path
+	 * @return the device or null if it could not be determined
+	 */
+	public Device getDevice(Path path) {
+		FileStore store = getFileStore(path);
+		if (store == null) return null;
+
+		synchronized (devices) {
+			Device device = devices.get(store);
+			if (device == null) {
+				Integer limit = limits.get(store);
+				device = new Device(store.name(), nextNumber.getAndIncrement(),
+						(limit != null) ? limit.intValue() : defaultLimit);
+				devices.put(store, device);
+			}
+			return device;
+		}
+	}
+
+	/**
+	 * Returns the store holding a path or its nearest existing parent
+	 */
+	private static FileStore getFileStore(Path path) {
+		Path p = path.toAbsolutePath();
+		while ((p != null) && (!Files.exists(p))) {
+			p = p.getParent();
+		}
+		if (p == null) return null;
+
+		try {
+			return Files.getFileStore(p);
+		} catch (IOException e) {
+			logger.warn("Could not find device of '" + path + "', exception thrown: "
+					+ e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Takes a permit on a source and a destination device, blocking until both
+	 * are available. Either device may be null.
+	 *
+	 * @param source
+	 *          the source device
+	 * @param destination
+	 *          the destination device
+	 */
+	public static void acquire(Device source, Device destination) {
+		if ((source != null) && (destination != null)
+				&& (source.number > destination.number)) {
+			destination.permits.acquireUninterruptibly();
+			source.permits.acquireUninterruptibly();
+		} else {
+			if (source != null) source.permits.acquireUninterruptibly();
+			if ((destination != null) && (destination != source)) destination.permits
+					.acquireUninterruptibly();
+		}
+	}
+
+	/**
+	 * Returns the permits taken by <code>acquire</code>
+	 *
+	 * @param source
+	 *          the source device
+	 * @param destination
+	 *          the destination device
+	 */
+	public static void release(Device source, Device destination) {
+		if (source != null) source.permits.release();
+		if ((destination != null) && (destination != source)) destination.permits
+				.release();
+	}
+
+	/**
+	 * A storage device and the permits of the copies it allows at once
+	 */
+	public static class Device
+	{
+		/** name of the store */
+		private final String name;
+
+		/** number setting the order permits are taken in */
+		private final int number;
+
+		/** number of copies allowed at once */
+		private final int limit;
+
+		/** permits of the copies allowed at once */
+		private final Semaphore permits;
+
+		Device(String name, int number, int limit) {
+			this.name = name;
+			this.number = number;
+			this.limit = limit;
+			this.permits = new Semaphore(limit);
+		}
+
+		/**
+		 * Returns the device name and limit for the log
+		 */
+		public String toString() {
+			return "'" + name + "' ("
+					+ ((limit == Integer.MAX_VALUE) ? "no limit" : "limit " + limit) + ")";
+		}
+	}
+}
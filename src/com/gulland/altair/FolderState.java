@@ -0,0 +1,340 @@
+/**
+ * FolderState.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Added the default number of runs between full scans
+ */
+package com.gulland.altair;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Records the time stamp, number of files and subfolders of each source folder
+ * of a task so an incremental scan can skip listing folders that have not
+ * changed since the previous run. The subfolders of an unchanged folder are
+ * still visited as a change below a folder doesn't change the folder's own time
+ * stamp.
+ * </p>
+ *
+ * <p>
+ * A folder's time stamp only changes when entries are added, removed or
+ * renamed. A file written in place without being renamed is therefore not seen
+ * by an incremental scan, which is why a full scan is forced every
+ * <code>fullScanInterval</code> runs.
+ * </p>
+ *
+ * <p>
+ * A folder is only recorded once it has been processed without a failure, and
+ * a folder modified within the last few seconds of the scan is not recorded as
+ * a further change in the same clock tick would not move its time stamp.
+ * </p>
+ *
+ * @author agulland
+ */
+public class FolderState
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/**
+	 * default number of runs between full scans. Files written in place are
+	 * backed up at the latest this many runs after they change
+	 */
+	public static final int DEFAULT_FULL_SCAN_INTERVAL = 10;
+
+	/** version of the state file format */
+	private static final int VERSION = 1;
+
+	/** character set of the state file */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * folders modified this close to the start of the scan are not recorded, it
+	 * covers file systems with a 2 second time stamp resolution
+	 */
+	private static final long UNSTABLE_WINDOW = 3000;
+
+	/** the state file */
+	private final File file;
+
+	/** folders recorded by the previous run keyed by relative path */
+	private final Map<String, Entry> previous = new ConcurrentHashMap<String, Entry>();
+
+	/** folders recorded by this run keyed by relative path */
+	private final Map<String, Entry> current = new ConcurrentHashMap<String, Entry>();
+
+	/** folders in which a file failed to backup in this run */
+	private final Set<String> failed = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** time the scan started */
+	private final long scanStart = System.currentTimeMillis();
+
+	/** number of runs since the last full scan */
+	private int runs;
+
+	/** true if every folder is listed in this run */
+	private boolean fullScan;
+
+	/**
+	 * Creates an empty state that is saved to the given file
+	 *
+	 * @param file
+	 *          the state file
+	 */
+	private FolderState(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the folder state from a file. If the file does not exist or can't be
+	 * read the run is a full scan.
+	 *
+	 * @param file
+	 *          the state file
+	 * @param fullScanInterval
+	 *          number of runs between full scans, 0 to only do a full scan when
+	 *          forced
+	 * @param forceFullScan
+	 *          if true every folder is listed in this run
+	 * @return the folder state
+	 */
+	public static FolderState load(File file, int fullScanInterval,
+			boolean forceFullScan) {
+		FolderState state = new FolderState(file);
+
+		if (file.exists()) {
+			try {
+				state.read();
+			} catch (IOException e) {
+				logger.warn("Could not read folder state '" + file
+						+ "', exception thrown: " + e.getMessage());
+				state.fullScan = true;
+			}
+		} else {
+			state.fullScan = true;
+		}
+
+		if ((forceFullScan)
+				|| ((fullScanInterval > 0) && (state.runs >= fullScanInterval))) {
+			state.fullScan = true;
+		}
+
+		if (state.fullScan) {
+			state.previous.clear();
+			logger.info("Incremental scan, full scan of source in this run");
+		} else {
+			logger.info("Incremental scan, loaded state of " + state.previous.size()
+					+ " folders");
+		}
+		return state;
+	}
+
+	/**
+	 * Returns true if every folder is listed in this run
+	 *
+	 * @return true for a full scan
+	 */
+	public boolean isFullScan() {
+		return this.fullScan;
+	}
+
+	/**
+	 * Returns the state recorded by the previous run for a folder if the folder
+	 * has not changed since. The state is carried over to this run.
+	 *
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 * @param attrs
+	 *          the current attributes of the folder
+	 * @return the previous state or null if the folder has changed or is not
+	 *         known
+	 */
+	public Entry getUnchanged(String relative, BasicFileAttributes attrs) {
+		Entry entry = previous.get(relative);
+		if ((entry != null)
+				&& (entry.lastModified == attrs.lastModifiedTime().toMillis())) {
+			current.put(relative, entry);
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Records the state of a folder that has been fully processed
+	 *
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 * @param attrs
+	 *          the attributes of the folder read before it was listed
+	 * @param files
+	 *          number of files in the folder
+	 * @param subfolders
+	 *          names of the subfolders that were processed
+	 */
+	public void record(String relative, BasicFileAttributes attrs, int files,
+			List<String> subfolders) {
+		long lastModified = attrs.lastModifiedTime().toMillis();
+		if (lastModified > scanStart - UNSTABLE_WINDOW) return;
+		if (failed.contains(relative)) return;
+
+		// names that can't be written to the state file are never recorded
+		if (!isRecordable(relative)) return;
+		for (String name : subfolders) {
+			if (!isRecordable(name)) return;
+		}
+
+		current.put(relative, new Entry(lastModified, files, subfolders
+				.toArray(new String[subfolders.size()])));
+	}
+
+	/**
+	 * Marks a folder as having a file that failed to backup so the folder is
+	 * listed again next run
+	 *
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 */
+	public void invalidate(String relative) {
+		failed.add(relative);
+		current.remove(relative);
+	}
+
+	/**
+	 * Returns true if a name can be written to the state file
+	 */
+	private static boolean isRecordable(String name) {
+		return (name.indexOf('\t') < 0) && (name.indexOf('\n') < 0)
+				&& (name.indexOf('\r') < 0);
+	}
+
+	/**
+	 * Saves the state of the folders recorded in this run. The state is written
+	 * to a temporary file that then replaces the state file.
+	 *
+	 * @throws IOException
+	 *           if the state could not be written
+	 */
+	public void save() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists()) parent.mkdirs();
+
+		Path temp = new File(parent, file.getName() + ".tmp").toPath();
+		BufferedWriter bw = Files.newBufferedWriter(temp, UTF8);
+		try {
+			bw.write("version=" + VERSION);
+			bw.newLine();
+			bw.write("runs=" + (fullScan ? 0 : runs + 1));
+			bw.newLine();
+			for (Map.Entry<String, Entry> e : current.entrySet()) {
+				if (failed.contains(e.getKey())) continue;
+				Entry entry = e.getValue();
+				StringBuffer sb = new StringBuffer();
+				sb.append(entry.lastModified).append('\t').append(entry.files)
+						.append('\t').append(e.getKey()).append('\t');
+				for (int i = 0; i < entry.subfolders.length; i++) {
+					if (i > 0) sb.append('/');
+					sb.append(entry.subfolders[i]);
+				}
+				bw.write(sb.toString());
+				bw.newLine();
+			}
+		} finally {
+			bw.close();
+		}
+
+		try {
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// some file systems can't replace atomically
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads the state file
+	 */
+	private void read() throws IOException {
+		BufferedReader br = Files.newBufferedReader(file.toPath(), UTF8);
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("version=")) {
+					int version = Integer.parseInt(line.substring(8));
+					if (version != VERSION) throw new IOException(
+							"Unsupported folder state version " + version);
+				} else if (line.startsWith("runs=")) {
+					this.runs = Integer.parseInt(line.substring(5));
+				} else if (line.length() > 0) {
+					String[] fields = line.split("\t", -1);
+					if (fields.length != 4) throw new IOException(
+							"Invalid folder state line '" + line + "'");
+					String[] subfolders = (fields[3].length() == 0) ? new String[0]
+							: fields[3].split("/");
+					previous.put(fields[2], new Entry(Long.parseLong(fields[0]), Integer
+							.parseInt(fields[1]), subfolders));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid folder state file: " + e.getMessage());
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * The recorded state of a single source folder
+	 */
+	public static class Entry
+	{
+		/** time stamp of the folder in milliseconds */
+		private final long lastModified;
+
+		/** number of files in the folder */
+		private final int files;
+
+		/** names of the subfolders */
+		private final String[] subfolders;
+
+		Entry(long lastModified, int files, String[] subfolders) {
+			this.lastModified = lastModified;
+			this.files = files;
+			this.subfolders = subfolders;
+		}
+
+		/**
+		 * Returns the number of files in the folder
+		 *
+		 * @return number of files
+		 */
+		public int getFiles() {
+			return files;
+		}
+
+		/**
+		 * Returns the names of the subfolders of the folder
+		 *
+		 * @return subfolder names
+		 */
+		public String[] getSubfolders() {
+			return subfolders;
+		}
+	}
+}
@@ -0,0 +1,342 @@
+/**
+ * GroupCommit.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Files are recorded in the index, manifest and hash cache
+ *                      once committed
+ */
+package com.gulland.altair;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Makes the files a durable task writes durable in batches. A durable copy is
+ * written to a temporary file beside its destination, given the time stamp of
+ * its source and added here. Once a batch is full its temporary files are
+ * synced to disk, moved over their destinations and the folders they are in
+ * synced, so the destination name only ever refers to a whole file. A crash
+ * leaves either the previous file or the new one, never a torn file with the
+ * time stamp of its source that the 'changed' rule would take as up to date.
+ * </p>
+ *
+ * <p>
+ * The files of a batch are synced together by a few threads, so the file
+ * system can commit them together rather than one at a time, and each folder
+ * is synced once per batch however many files were moved into it. Files are
+ * only recorded in the run journal, destination index, manifest and hash cache
+ * once committed, so a resumed or later run copies any file that wasn't.
+ * </p>
+ *
+ * <p>
+ * The files still pending must be committed with <code>flush</code> before the
+ * task state is saved.
+ * </p>
+ *
+ * @author agulland
+ */
+public class GroupCommit
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** most files in a batch */
+	public static final int BATCH_FILES = 256;
+
+	/** most bytes in a batch */
+	public static final long BATCH_BYTES = 64L * 1024 * 1024;
+
+	/** threads syncing the files of a batch */
+	private static final int SYNC_THREADS = 8;
+
+	/** journal the files are recorded in once committed, may be null */
+	private final RunJournal journal;
+
+	/** index the files are recorded in once committed, may be null */
+	private final DestinationIndex index;
+
+	/** manifest the checksums are recorded in once committed, may be null */
+	private final Manifest manifest;
+
+	/** hash cache the files are recorded in once committed, may be null */
+	private final HashCache hashCache;
+
+	/** syncs the files of a batch, its threads end when idle */
+	private final ThreadPoolExecutor syncer;
+
+	/** guards the files waiting, never held while committing */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** files waiting to be committed */
+	private List<Entry> pending = new ArrayList<Entry>();
+
+	/** bytes waiting to be committed */
+	private long pendingBytes;
+
+	/** false once a folder couldn't be synced, as on Windows */
+	private volatile boolean syncFolders = true;
+
+	/** files and bytes committed, batches, folders synced and time syncing */
+	private final AtomicLong filesCommitted = new AtomicLong();
+	private final AtomicLong bytesCommitted = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong foldersSynced = new AtomicLong();
+	private final AtomicLong syncNanos = new AtomicLong();
+
+	/**
+	 * A file waiting to be committed
+	 */
+	private static class Entry
+	{
+		final Path partial;
+		final Path destination;
+		final String relative;
+		final BasicFileAttributes attrs;
+		final Long checksum;
+
+		Entry(Path partial, Path destination, String relative,
+				BasicFileAttributes attrs, Long checksum) {
+			this.partial = partial;
+			this.destination = destination;
+			this.relative = relative;
+			this.attrs = attrs;
+			this.checksum = checksum;
+		}
+	}
+
+	/**
+	 * Creates an empty group commit
+	 *
+	 * @param journal
+	 *          the journal files are recorded in once committed, may be null
+	 * @param index
+	 *          the index files are recorded in once committed, may be null
+	 * @param manifest
+	 *          the manifest checksums are recorded in once committed, may be null
+	 * @param hashCache
+	 *          the hash cache files are recorded in once committed, may be null
+	 */
+	public GroupCommit(RunJournal journal, DestinationIndex index,
+			Manifest manifest, HashCache hashCache) {
+		this.journal = journal;
+		this.index = index;
+		this.manifest = manifest;
+		this.hashCache = hashCache;
+		this.syncer = new ThreadPoolExecutor(SYNC_THREADS, SYNC_THREADS, 5,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "altair-sync");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		this.syncer.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Adds a file written to its temporary file, committing the batch if it is
+	 * full
+	 *
+	 * @param partial
+	 *          the temporary file, with the time stamp of the source
+	 * @param destination
+	 *          the file it replaces
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @param attrs
+	 *          the attributes of the source file
+	 * @param checksum
+	 *          checksum of the copy recorded in the manifest, null if not
+	 *          checksummed
+	 */
+	public void add(Path partial, Path destination, String relative,
+			BasicFileAttributes attrs, Long checksum) {
+		List<Entry> batch = null;
+		lock.lock();
+		try {
+			pending.add(new Entry(partial, destination, relative, attrs, checksum));
+			pendingBytes += attrs.size();
+			if ((pending.size() >= BATCH_FILES) || (pendingBytes >= BATCH_BYTES)) {
+				batch = take();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (batch != null) commit(batch);
+	}
+
+	/**
+	 * Commits the files waiting, whether or not the batch is full
+	 */
+	public void flush() {
+		List<Entry> batch;
+		lock.lock();
+		try {
+			batch = take();
+		} finally {
+			lock.unlock();
+		}
+		if (!batch.isEmpty()) commit(batch);
+	}
+
+	/**
+	 * Takes the files waiting to be committed
+	 */
+	private List<Entry> take() {
+		List<Entry> batch = pending;
+		pending = new ArrayList<Entry>();
+		pendingBytes = 0;
+		return batch;
+	}
+
+	/**
+	 * Syncs the temporary files of a batch, moves them over their destinations
+	 * and syncs the folders they are in
+	 */
+	private void commit(List<Entry> batch) {
+		long start = System.nanoTime();
+
+		// the files are synced together, a file that can't be is still moved into
+		// place as it would have been without a durable write
+		List<Future<Boolean>> synced = new ArrayList<Future<Boolean>>(batch.size());
+		for (final Entry entry : batch) {
+			synced.add(syncer.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					return Boolean.valueOf(sync(entry.partial, false));
+				}
+			}));
+		}
+
+		Set<Path> folders = new LinkedHashSet<Path>();
+		List<Entry> committed = new ArrayList<Entry>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			Entry entry = batch.get(i);
+			boolean durable = waitFor(synced.get(i));
+			try {
+				BackupUtil.replace(entry.partial, entry.destination);
+				folders.add(entry.destination.getParent());
+				if (durable) committed.add(entry);
+			} catch (IOException e) {
+				logger.warn("Could not move " + entry.partial + " into place,"
+						+ " exception thrown: " + e.getMessage());
+			}
+		}
+
+		// the moves are only durable once their folders are synced
+		if (syncFolders) {
+			for (Path folder : folders) {
+				if (!sync(folder, true)) break;
+				foldersSynced.incrementAndGet();
+			}
+		}
+
+		for (Entry entry : committed) {
+			long size = entry.attrs.size();
+			long lastModified = entry.attrs.lastModifiedTime().toMillis();
+			if (index != null) index.put(entry.relative, size, lastModified);
+			if ((manifest != null) && (entry.checksum != null)) manifest.put(
+					entry.relative, size, lastModified, entry.checksum.longValue());
+			if (hashCache != null) hashCache.copied(entry.relative, size,
+					lastModified);
+			if (journal != null) journal.file(entry.relative, entry.attrs);
+			filesCommitted.incrementAndGet();
+			bytesCommitted.addAndGet(entry.attrs.size());
+		}
+		batches.incrementAndGet();
+		syncNanos.addAndGet(System.nanoTime() - start);
+	}
+
+	/**
+	 * Syncs a file or folder to disk
+	 *
+	 * @return true if synced
+	 */
+	private boolean sync(Path path, boolean folder) {
+		try {
+			FileChannel channel = FileChannel.open(path, folder
+					? StandardOpenOption.READ : StandardOpenOption.WRITE);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+			return true;
+		} catch (IOException e) {
+			if (folder) {
+				// folders can't be opened on some platforms, file moves are then as
+				// durable as the file system makes them
+				syncFolders = false;
+				logger.detail("Folders can't be synced, exception thrown: "
+						+ e.getMessage());
+			} else {
+				logger.warn("Could not sync " + path + ", exception thrown: "
+						+ e.getMessage());
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Waits for a file to be synced
+	 */
+	private static boolean waitFor(Future<Boolean> synced) {
+		try {
+			return synced.get().booleanValue();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the number of files committed
+	 *
+	 * @return number of files
+	 */
+	public long getFilesCommitted() {
+		return filesCommitted.get();
+	}
+
+	/**
+	 * Returns the number of batches committed
+	 *
+	 * @return number of batches
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * Returns the statistics of the commits in a nicely formatted string
+	 */
+	public String toString() {
+		long millis = syncNanos.get() / 1000000;
+		long rate = bytesCommitted.get() / 1024 * 1000 / 1024 / Math.max(1, millis);
+		return "Durable writes: " + filesCommitted.get() + " files, "
+				+ bytesCommitted.get() + " bytes committed in " + batches.get()
+				+ " batches, " + foldersSynced.get() + " folders synced, "
+				+ millis + "ms syncing (" + rate + "MB/s)";
+	}
+}
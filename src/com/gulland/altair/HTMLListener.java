@@ -6,6 +6,8 @@
  * agulland 24 Aug 2004 Class created
  * agulland 08 Feb 2010 Updated to include endLog method.
  *                      Removed reading log level and folder from options file 
+ * agulland 16 Oct 2026 Writes are serialised with a lock rather than a monitor
+ *                      so a virtual thread logging a copy isn't pinned
  *                     
  * 
  */
@@ -14,6 +16,7 @@ package com.gulland.altair;
 import java.io.*;
 import java.util.*;
 import java.text.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A listener for generating HTML format log files
@@ -29,6 +32,9 @@ public class HTMLListener implements LogListener
 	/** used to ensure we only write out first failure message */
 	private boolean writeLogErrorFlag = false;
 
+	/** serialises writes from several threads */
+	private final ReentrantLock lock = new ReentrantLock();
+
 	/**
 	 * Initialise HTML logger. Initialise with the path to a log folder
 	 * 
@@ -102,24 +108,29 @@ public class HTMLListener implements LogListener
 	}
 
 	/**
-	 * write to HTML log file
+	 * write to HTML log file. Locked as messages can be posted by several worker
+	 * threads at once
 	 */
 	public void writeLog(String msg) {
 		// output to log file
-		if (bw != null) {
-			try {
-				bw.write("<p>" + msg + "</p>");
-				bw.flush();
-				bw.newLine();
-			} catch (IOException e) {
-				// only write first occurrence of error so as not to swamp output
-				if (!writeLogErrorFlag) {
-					System.out.println("Error writing to log file: " + e.getMessage());
-					writeLogErrorFlag = true;
+		lock.lock();
+		try {
+			if (bw != null) {
+				try {
+					bw.write("<p>" + msg + "</p>");
+					bw.flush();
+					bw.newLine();
+				} catch (IOException e) {
+					// only write first occurrence of error so as not to swamp output
+					if (!writeLogErrorFlag) {
+						System.out.println("Error writing to log file: " + e.getMessage());
+						writeLogErrorFlag = true;
+					}
 				}
 			}
+		} finally {
+			lock.unlock();
 		}
-
 	}
 
 	@Override
@@ -127,14 +138,19 @@ public class HTMLListener implements LogListener
 	 * write out completing html to log file
 	 */
 	public void endLog(String msg) {
-		if (bw != null) {
-			try {
-				bw.write("<p>" + msg + "</p>");
-				bw.write("</body></html>");
-				bw.flush();
-				bw.close();
-			} catch (IOException e) {
+		lock.lock();
+		try {
+			if (bw != null) {
+				try {
+					bw.write("<p>" + msg + "</p>");
+					bw.write("</body></html>");
+					bw.flush();
+					bw.close();
+				} catch (IOException e) {
+				}
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -0,0 +1,361 @@
+/**
+ * HashCache.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * <p>
+ * Caches the content hash of the source and destination files of a task using
+ * the 'checksum' rule, so a file is only read to hash it when it is new or its
+ * size or time stamp has changed. Each hash is keyed by the path of the file
+ * relative to the task folder, its size and its time stamp.
+ * </p>
+ *
+ * <p>
+ * A source hash is also keyed by the change time of the file where the file
+ * system has one, as on Unix. Writing a file updates its change time even if
+ * its time stamp is then put back, so such a change is still found. A
+ * destination is only written by the backup so its time stamp is enough.
+ * </p>
+ *
+ * <p>
+ * Files are hashed with CRC32C, which modern processors compute in hardware
+ * faster than a disk can be read, falling back to CRC32 on a Java runtime
+ * without it. The cache records the algorithm and is discarded if it changes.
+ * </p>
+ *
+ * <p>
+ * After a run that met every file only the entries of those files are saved,
+ * so files that have been deleted drop out of the cache. After an incremental
+ * run, or one that was stopped, the entries not met are kept as well.
+ * </p>
+ *
+ * @author agulland
+ */
+public class HashCache
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** version of the cache file format */
+	private static final int VERSION = 1;
+
+	/** character set of the cache file */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** size of the buffer files are read through when hashed */
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	/** name of the hash algorithm of this runtime */
+	public static final String ALGORITHM = newChecksum().getClass()
+			.getSimpleName();
+
+	/** the cache file */
+	private final File file;
+
+	/** hashes loaded from the cache file keyed by side and relative path */
+	private final Map<String, Entry> previous = new ConcurrentHashMap<String, Entry>();
+
+	/** hashes used or computed in this run keyed by side and relative path */
+	private final Map<String, Entry> current = new ConcurrentHashMap<String, Entry>();
+
+	/** buffer of each thread hashing files */
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(BUFFER_SIZE);
+		}
+	};
+
+	/**
+	 * Creates an empty cache that is saved to the given file
+	 *
+	 * @param file
+	 *          the cache file or null if the cache isn't saved
+	 */
+	private HashCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the hash cache from a file. If the file does not exist or can't be
+	 * read the cache starts empty.
+	 *
+	 * @param file
+	 *          the cache file, or null for a cache that only lasts the run
+	 * @return the hash cache
+	 */
+	public static HashCache load(File file) {
+		HashCache cache = new HashCache(file);
+		if ((file != null) && (file.exists())) {
+			try {
+				cache.read();
+				logger.info("Hash cache loaded with " + cache.previous.size()
+						+ " entries");
+			} catch (IOException e) {
+				logger.warn("Could not read hash cache '" + file
+						+ "', exception thrown: " + e.getMessage());
+				cache.previous.clear();
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the hash of a file, from the cache if the file has the size, time
+	 * stamp and change time it had when hashed, otherwise by reading it
+	 *
+	 * @param destination
+	 *          true for a destination file, false for a source file
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @param path
+	 *          the file
+	 * @param size
+	 *          current size of the file
+	 * @param lastModified
+	 *          current time stamp of the file in milliseconds
+	 * @param changeTime
+	 *          current change time of the file in milliseconds, 0 if not used
+	 * @return the hash
+	 * @throws IOException
+	 *           if the file could not be read
+	 */
+	public long getHash(boolean destination, String relative, Path path,
+			long size, long lastModified, long changeTime) throws IOException {
+		String key = key(destination, relative);
+		Entry entry = current.get(key);
+		if (entry == null) entry = previous.get(key);
+		if ((entry != null) && (entry.size == size)
+				&& (entry.lastModified == lastModified)
+				&& (entry.changeTime == changeTime)) {
+			current.put(key, entry);
+			return entry.hash;
+		}
+
+		long hash = hash(path);
+		current.put(key, new Entry(size, lastModified, changeTime, hash));
+		return hash;
+	}
+
+	/**
+	 * Records that a source file has been copied to the destination. If the
+	 * source hash is known it is now also the hash of the destination, which
+	 * was given the size and time stamp of the source.
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @param size
+	 *          size of the source file
+	 * @param lastModified
+	 *          time stamp of the source file in milliseconds
+	 */
+	public void copied(String relative, long size, long lastModified) {
+		String destKey = key(true, relative);
+		current.remove(destKey);
+		previous.remove(destKey);
+
+		Entry entry = current.get(key(false, relative));
+		if ((entry != null) && (entry.size == size)
+				&& (entry.lastModified == lastModified)) {
+			current.put(destKey, new Entry(size, lastModified, 0, entry.hash));
+		}
+	}
+
+	/**
+	 * Returns the change time of a file, the time its content or attributes
+	 * were last changed, where the file system has one
+	 *
+	 * @param path
+	 *          the file
+	 * @return change time in milliseconds, or 0 if not available
+	 */
+	public static long getChangeTime(Path path) {
+		try {
+			FileTime ctime = (FileTime) Files.getAttribute(path, "unix:ctime");
+			return ctime.toMillis();
+		} catch (UnsupportedOperationException e) {
+			return 0;
+		} catch (IllegalArgumentException e) {
+			return 0;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the number of hashes used or computed in this run
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return current.size();
+	}
+
+	/**
+	 * Returns the key of a file, source and destination files are kept apart
+	 */
+	private static String key(boolean destination, String relative) {
+		return (destination ? "D" : "S") + relative;
+	}
+
+	/**
+	 * Computes the hash of a file's content
+	 *
+	 * @param path
+	 *          the file
+	 * @return the hash
+	 * @throws IOException
+	 *           if the file could not be read
+	 */
+	public static long hash(Path path) throws IOException {
+		Checksum checksum = newChecksum();
+		ByteBuffer buffer = buffers.get();
+		FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			while (true) {
+				buffer.clear();
+				int n = in.read(buffer);
+				if (n < 0) break;
+				checksum.update(buffer.array(), 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return checksum.getValue();
+	}
+
+	/**
+	 * Returns a new CRC32C checksum, or CRC32 if the runtime doesn't have CRC32C
+	 */
+	static Checksum newChecksum() {
+		try {
+			return (Checksum) Class.forName("java.util.zip.CRC32C")
+					.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			return new CRC32();
+		}
+	}
+
+	/**
+	 * Saves the hashes used or computed in this run. The cache is written to a
+	 * temporary file that then replaces the cache file.
+	 *
+	 * @param prune
+	 *          true if every file was met in this run, the hashes of files that
+	 *          weren't are then dropped
+	 * @throws IOException
+	 *           if the cache could not be written
+	 */
+	public void save(boolean prune) throws IOException {
+		if (file == null) return;
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists()) parent.mkdirs();
+
+		Path temp = new File(parent, file.getName() + ".tmp").toPath();
+		BufferedWriter bw = Files.newBufferedWriter(temp, UTF8);
+		try {
+			bw.write("version=" + VERSION);
+			bw.newLine();
+			bw.write("algorithm=" + ALGORITHM);
+			bw.newLine();
+			Map<String, Entry> entries = current;
+			if (!prune) {
+				entries = new HashMap<String, Entry>(previous);
+				entries.putAll(current);
+			}
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				String key = e.getKey();
+				if ((key.indexOf('\n') >= 0) || (key.indexOf('\r') >= 0)) continue;
+				Entry entry = e.getValue();
+				bw.write(entry.size + "\t" + entry.lastModified + "\t"
+						+ entry.changeTime + "\t" + Long.toHexString(entry.hash) + "\t"
+						+ key);
+				bw.newLine();
+			}
+		} finally {
+			bw.close();
+		}
+
+		try {
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// some file systems can't replace atomically
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads the cache file
+	 */
+	private void read() throws IOException {
+		BufferedReader br = Files.newBufferedReader(file.toPath(), UTF8);
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("version=")) {
+					int version = Integer.parseInt(line.substring(8));
+					if (version != VERSION) throw new IOException(
+							"Unsupported hash cache version " + version);
+				} else if (line.startsWith("algorithm=")) {
+					String algorithm = line.substring(10);
+					if (!algorithm.equals(ALGORITHM)) throw new IOException(
+							"Hash cache computed with " + algorithm);
+				} else if (line.length() > 0) {
+					// the path is last and may hold tabs
+					String[] fields = line.split("\t", 5);
+					if (fields.length != 5) throw new IOException(
+							"Invalid hash cache line '" + line + "'");
+					previous.put(fields[4], new Entry(Long.parseLong(fields[0]), Long
+							.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(
+							fields[3], 16)));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid hash cache file: " + e.getMessage());
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * The hash of a file and the size, time stamp and change time it had when
+	 * hashed
+	 */
+	private static class Entry
+	{
+		private final long size;
+		private final long lastModified;
+		private final long changeTime;
+		private final long hash;
+
+		Entry(long size, long lastModified, long changeTime, long hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.changeTime = changeTime;
+			this.hash = hash;
+		}
+	}
+}
@@ -5,6 +5,23 @@
  * -------- ----------  --------------------------------------------------------
  * agulland 12 Aug 2004 Class created 
  * agulland 08 Feb 2010 Updated to use log folder defined in script file
+ * agulland 16 Oct 2026 Passes engine and threads from script file to Backup
+ * agulland 16 Oct 2026 Added --verify option and state folder for destination
+ *                      indexes
+ * agulland 16 Oct 2026 Passes full scan interval to Backup, --verify also
+ *                      forces a full scan of incremental tasks
+ * agulland 16 Oct 2026 Added --watch option
+ * agulland 16 Oct 2026 Passes async copies from script file to Backup
+ * agulland 16 Oct 2026 Creates the device scheduler from the script device
+ *                      limits
+ * agulland 16 Oct 2026 Passes concurrent tasks from script file to Backup
+ * agulland 16 Oct 2026 Waits on the job returned by Backup.submit rather than
+ *                      spinning on isRunning, total time taken from its report
+ * agulland 16 Oct 2026 Added --resume option
+ * agulland 16 Oct 2026 Added --calibrate option
+ * agulland 16 Oct 2026 Sets the parallel size of the script
+ * agulland 16 Oct 2026 Sets the throttle of the script
+ * agulland 16 Oct 2026 Added --audit option
  * 
  * TODO ? check if log folder is null or empty and disable logging if so ?
  */
@@ -15,6 +32,7 @@ package com.gulland.altair;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.ExecutionException;
 
 /**
  * <p>
@@ -28,6 +46,24 @@ import java.io.*;
  * <code>java BackupUtility c:/backup/mybackupscript.xml</code>
  * 
  * <p>
+ * Options may be given before or after the script file,
+ * </p>
+ * 
+ * <ul>
+ * <li>--verify - ignore destination indexes and rebuild them by reading the
+ * destination, and make a full scan of incremental tasks</li>
+ * <li>--watch - once the tasks are backed up keep running and back up changes
+ * to the task sources as they happen</li>
+ * <li>--resume - continue a run that died or was stopped, skipping the files
+ * and folders its run journal records as backed up</li>
+ * <li>--calibrate - time each way of copying files on the source and
+ * destination of every task before backing it up, and keep the fastest for
+ * each size of file in the state folder for later runs</li>
+ * <li>--audit - check the destination of every task against the checksums of
+ * its manifest instead of backing it up, the source isn't read</li>
+ * </ul>
+ * 
+ * <p>
  * For details on the structure of the backup script file, please refer to the
  * documentation.
  * </p>
@@ -67,8 +103,28 @@ public class Main
 			System.exit(0);
 		}
 
-		// get script file from args
-		String scriptFileArg = args[0];
+		// get script file and options from args
+		String scriptFileArg = null;
+		boolean forceVerify = false;
+		boolean watch = false;
+		boolean resume = false;
+		boolean calibrate = false;
+		boolean audit = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--verify")) forceVerify = true;
+			else if (args[i].equals("--watch")) watch = true;
+			else if (args[i].equals("--resume")) resume = true;
+			else if (args[i].equals("--calibrate")) calibrate = true;
+			else if (args[i].equals("--audit")) audit = true;
+			else if (args[i].startsWith("--")) System.out.println("Unknown option '"
+					+ args[i] + "' ignored.");
+			else scriptFileArg = args[i];
+		}
+		if (scriptFileArg == null) {
+			System.out.println("Missing argument. To execute this package you need "
+					+ "to provide the path and filename of a backup script file.");
+			System.exit(0);
+		}
 
 		// parse backup script file
 		File scriptFile = new File(scriptFileArg);
@@ -97,16 +153,49 @@ public class Main
 				logger.info("Number of tasks: " + tasks.length);
 
 				// execute backup
-				long lStartTime = System.currentTimeMillis();
 				Backup myBackup = new Backup(tasks);
-				myBackup.start(false);
-
-				while (myBackup.isRunning()) {
-					// wait till finish
+				myBackup.setEngine(sp.getScriptEngine());
+				myBackup.setThreads(sp.getScriptThreads());
+				myBackup.setAsyncCopies(sp.getScriptAsyncCopies());
+				myBackup.setConcurrentTasks(sp.getScriptConcurrentTasks());
+				if (sp.getScriptParallelSize() >= 0) myBackup.setParallelSize(sp
+						.getScriptParallelSize());
+				if (sp.getScriptBytesPerSecond() >= 0) myBackup.getThrottle()
+						.setBytesPerSecond(sp.getScriptBytesPerSecond());
+				if (sp.getScriptFilesPerSecond() >= 0) myBackup.getThrottle()
+						.setFilesPerSecond(sp.getScriptFilesPerSecond());
+				if (sp.getScriptMaxOpen() >= 0) myBackup.getThrottle().setMaxOpen(sp
+						.getScriptMaxOpen());
+				if (sp.isScriptDeviceScheduled()) {
+					DeviceScheduler scheduler = new DeviceScheduler(sp
+							.getScriptDefaultDeviceLimit());
+					for (Map.Entry<String, Integer> e : sp.getScriptDeviceLimits()
+							.entrySet()) {
+						scheduler.setLimit(e.getKey(), e.getValue().intValue());
+					}
+					myBackup.setDeviceScheduler(scheduler);
+				}
+				myBackup.setStateFolder(new File(sp.getScriptStateFolder()));
+				myBackup.setVerifyInterval(sp.getScriptVerifyInterval());
+				myBackup.setFullScanInterval(sp.getScriptFullScanInterval());
+				myBackup.setForceVerify(forceVerify);
+				myBackup.setResume(resume);
+				myBackup.setCalibrate(calibrate);
+				myBackup.setAudit(audit);
+				myBackup.setWatch(watch);
+				myBackup.setWatchDebounce(sp.getScriptWatchDebounce());
+				BackupJob job = myBackup.submit(false);
+
+				// wait till finish
+				BackupReport report;
+				try {
+					report = job.get();
+				} catch (ExecutionException e) {
+					logger.endLog("Backup job failed: " + e.getCause());
+					return;
 				}
 
-				// TODO we should get this info from BackupMetric
-				long iDuration = (System.currentTimeMillis() - lStartTime) / 1000;
+				long iDuration = report.getElapsed() / 1000;
 				long hrs = iDuration / 3600;
 				long mins = (iDuration % 3600) / 60;
 				long secs = iDuration % 60;
@@ -0,0 +1,482 @@
+/**
+ * Manifest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Checksum;
+
+/**
+ * <p>
+ * Holds the checksum of each file a task has copied, computed as the data
+ * passed through the copy so the source is read only once. The manifest is
+ * kept in the <code>.altair-manifest</code> file of the task destination,
+ * keyed by the path of each file relative to the task folder with its size and
+ * time stamp, so the destination can later be audited on its own, without the
+ * source.
+ * </p>
+ *
+ * <p>
+ * A copy can also be verified as soon as it is written by reading it back and
+ * comparing its checksum with that of the data copied. Where the runtime and
+ * file system allow the file is read bypassing the page cache, so what is
+ * compared is what reached the disk rather than what is still in memory.
+ * Otherwise it is read through the cache, which still finds a copy the file
+ * system got wrong.
+ * </p>
+ *
+ * <p>
+ * Checksums are CRC32C, or CRC32 on a Java runtime without it, as for the
+ * hash cache. The manifest records the algorithm and is discarded if it
+ * changes.
+ * </p>
+ *
+ * @author agulland
+ */
+public class Manifest
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** name of the manifest file in the task destination */
+	public static final String FILE_NAME = ".altair-manifest";
+
+	/** version of the manifest file format */
+	private static final int VERSION = 1;
+
+	/** character set of the manifest file */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** size of the buffer files are read back through */
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	/** alignment of reads bypassing the page cache, a multiple of any sector */
+	private static final int ALIGNMENT = 4096;
+
+	/** option to open a file bypassing the page cache, null if there is none */
+	private static final OpenOption DIRECT = directOption();
+
+	/** false once a file couldn't be read bypassing the cache */
+	private static volatile boolean direct = (DIRECT != null);
+
+	/** buffers of each thread reading files back */
+	private static final ThreadLocal<ByteBuffer> alignedBuffers = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return alignedBuffer();
+		}
+	};
+	private static final ThreadLocal<byte[]> arrays = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	/** the manifest file or null if the manifest isn't kept */
+	private final Path file;
+
+	/** checksum of each file keyed by relative path */
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/** true once an entry has been added or removed */
+	private volatile boolean changed;
+
+	/** files and bytes read back, files that didn't match and time reading */
+	private final AtomicLong filesVerified = new AtomicLong();
+	private final AtomicLong bytesVerified = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong verifyNanos = new AtomicLong();
+
+	/**
+	 * Creates an empty manifest that is saved to the given file
+	 *
+	 * @param file
+	 *          the manifest file or null if the manifest isn't saved
+	 */
+	private Manifest(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the manifest from a file. If the file does not exist or can't be
+	 * read the manifest starts empty.
+	 *
+	 * @param file
+	 *          the manifest file, or null for a manifest only used to verify
+	 *          copies
+	 * @return the manifest
+	 */
+	public static Manifest load(Path file) {
+		Manifest manifest = new Manifest(file);
+		if ((file != null) && (Files.exists(file))) {
+			try {
+				manifest.read();
+				logger.detail("Manifest loaded with " + manifest.entries.size()
+						+ " entries");
+			} catch (IOException e) {
+				logger.warn("Could not read manifest '" + file
+						+ "', exception thrown: " + e.getMessage());
+				manifest.entries.clear();
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Returns a new checksum of the manifest algorithm
+	 *
+	 * @return the checksum
+	 */
+	public static Checksum newChecksum() {
+		return HashCache.newChecksum();
+	}
+
+	/**
+	 * Records the checksum of a file copied
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @param size
+	 *          size of the file
+	 * @param lastModified
+	 *          time stamp of the file in milliseconds
+	 * @param hash
+	 *          checksum of the content copied
+	 */
+	public void put(String relative, long size, long lastModified, long hash) {
+		entries.put(relative, new Entry(size, lastModified, hash));
+		changed = true;
+	}
+
+	/**
+	 * Forgets a file, as it is being replaced or has been deleted
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 */
+	public void remove(String relative) {
+		if (entries.remove(relative) != null) changed = true;
+	}
+
+	/**
+	 * Forgets every file below a folder that has been deleted
+	 *
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 */
+	public void removeFolder(String relative) {
+		String prefix = relative + "/";
+		for (Iterator<String> i = entries.keySet().iterator(); i.hasNext();) {
+			if (i.next().startsWith(prefix)) {
+				i.remove();
+				changed = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of files in the manifest
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Reads a copy back and compares its checksum with that of the data copied
+	 *
+	 * @param copy
+	 *          the file written
+	 * @param size
+	 *          size of the source
+	 * @param hash
+	 *          checksum of the data copied
+	 * @return true if the copy matches
+	 */
+	public boolean verify(Path copy, long size, long hash) {
+		long start = System.nanoTime();
+		try {
+			if (checksum(copy) == hash) return true;
+			logger.warn("Verify of " + copy + " failed, it doesn't match the data"
+					+ " copied");
+		} catch (IOException e) {
+			logger.warn("Could not verify " + copy + ", exception thrown: "
+					+ e.getMessage());
+		} finally {
+			filesVerified.incrementAndGet();
+			bytesVerified.addAndGet(size);
+			verifyNanos.addAndGet(System.nanoTime() - start);
+		}
+		failures.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Checks every file of the manifest in a destination folder, reading only
+	 * the destination. A file is reported if it is missing, or its size or
+	 * content doesn't match the manifest. A file whose time stamp doesn't match
+	 * either has been changed since it was backed up, otherwise it is corrupt.
+	 *
+	 * @param root
+	 *          the destination folder of the task
+	 * @param monitor
+	 *          checked between files, may be null
+	 * @return the number of files reported
+	 */
+	public int audit(Path root, CopyMonitor monitor) {
+		List<String> names = new ArrayList<String>(entries.keySet());
+		Collections.sort(names);
+		long start = System.nanoTime();
+		int checked = 0;
+		int reported = 0;
+		long bytes = 0;
+		for (String relative : names) {
+			if (monitor != null) {
+				monitor.waitIfPaused();
+				if (monitor.isCancelled()) break;
+			}
+			Entry entry = entries.get(relative);
+			Path path = root.resolve(relative);
+			checked++;
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(path,
+						BasicFileAttributes.class);
+				boolean touched = (attrs.lastModifiedTime().toMillis()
+						!= entry.lastModified);
+				if (attrs.size() != entry.size) {
+					logger.warn("Audit: '" + relative + "' size is " + attrs.size()
+							+ ", backed up with " + entry.size);
+					reported++;
+				} else if (checksum(path) != entry.hash) {
+					logger.warn("Audit: '" + relative + "' "
+							+ (touched ? "changed since backed up" : "is corrupt")
+							+ ", its checksum doesn't match the manifest");
+					reported++;
+				}
+				bytes += attrs.size();
+			} catch (NoSuchFileException e) {
+				logger.warn("Audit: '" + relative + "' is missing");
+				reported++;
+			} catch (IOException e) {
+				logger.warn("Audit: could not read '" + relative
+						+ "', exception thrown: " + e.getMessage());
+				reported++;
+			}
+		}
+		logger.info("Audit: " + checked + " files, " + bytes + " bytes checked in "
+				+ (System.nanoTime() - start) / 1000000 + "ms, " + reported
+				+ " reported");
+		return reported;
+	}
+
+	/**
+	 * Computes the checksum of a file, bypassing the page cache where possible
+	 *
+	 * @param path
+	 *          the file
+	 * @return the checksum
+	 * @throws IOException
+	 *           if the file could not be read
+	 */
+	static long checksum(Path path) throws IOException {
+		if (direct) {
+			try {
+				return checksumDirect(path);
+			} catch (NoSuchFileException e) {
+				throw e;
+			} catch (IOException e) {
+				// file systems such as tmpfs can't be read this way
+				direct = false;
+				logger.detail("Files can't be read bypassing the cache, exception"
+						+ " thrown: " + e.getMessage());
+			}
+		}
+		return HashCache.hash(path);
+	}
+
+	/**
+	 * Computes the checksum of a file read bypassing the page cache. Every read
+	 * is of a whole aligned buffer at an aligned offset, the last returns what
+	 * is left.
+	 */
+	private static long checksumDirect(Path path) throws IOException {
+		ByteBuffer buffer = alignedBuffers.get();
+		if (buffer == null) throw new IOException("No aligned buffer");
+		byte[] array = arrays.get();
+		Checksum checksum = newChecksum();
+		FileChannel in = FileChannel.open(path, StandardOpenOption.READ, DIRECT);
+		try {
+			long position = 0;
+			while (true) {
+				buffer.clear();
+				int n = in.read(buffer, position);
+				if (n <= 0) break;
+				buffer.flip();
+				buffer.get(array, 0, n);
+				checksum.update(array, 0, n);
+				position += n;
+				if (n < buffer.capacity()) break;
+			}
+		} finally {
+			in.close();
+		}
+		return checksum.getValue();
+	}
+
+	/**
+	 * Returns the option to open a file bypassing the page cache, only found on
+	 * some runtimes
+	 */
+	private static OpenOption directOption() {
+		try {
+			return (OpenOption) Class.forName("com.sun.nio.file.ExtendedOpenOption")
+					.getField("DIRECT").get(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a direct buffer at an aligned address, or null if the runtime
+	 * can't align one
+	 */
+	private static ByteBuffer alignedBuffer() {
+		try {
+			return (ByteBuffer) ByteBuffer.class.getMethod("alignedSlice", int.class)
+					.invoke(ByteBuffer.allocateDirect(BUFFER_SIZE + ALIGNMENT),
+							Integer.valueOf(ALIGNMENT));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the manifest if it has changed. The manifest is written to a
+	 * temporary file that then replaces the manifest file.
+	 *
+	 * @throws IOException
+	 *           if the manifest could not be written
+	 */
+	public void save() throws IOException {
+		if ((file == null) || (!changed)) return;
+		changed = false;
+
+		Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+		BufferedWriter bw = Files.newBufferedWriter(temp, UTF8);
+		try {
+			bw.write("version=" + VERSION);
+			bw.newLine();
+			bw.write("algorithm=" + HashCache.ALGORITHM);
+			bw.newLine();
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				String relative = e.getKey();
+				if ((relative.indexOf('\n') >= 0) || (relative.indexOf('\r') >= 0)) continue;
+				Entry entry = e.getValue();
+				bw.write(entry.size + "\t" + entry.lastModified + "\t"
+						+ Long.toHexString(entry.hash) + "\t" + relative);
+				bw.newLine();
+			}
+		} finally {
+			bw.close();
+		}
+		BackupUtil.replace(temp, file);
+	}
+
+	/**
+	 * Reads the manifest file
+	 */
+	private void read() throws IOException {
+		BufferedReader br = Files.newBufferedReader(file, UTF8);
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("version=")) {
+					int version = Integer.parseInt(line.substring(8));
+					if (version != VERSION) throw new IOException(
+							"Unsupported manifest version " + version);
+				} else if (line.startsWith("algorithm=")) {
+					String algorithm = line.substring(10);
+					if (!algorithm.equals(HashCache.ALGORITHM)) throw new IOException(
+							"Manifest computed with " + algorithm);
+				} else if (line.length() > 0) {
+					// the path is last and may hold tabs
+					String[] fields = line.split("\t", 4);
+					if (fields.length != 4) throw new IOException(
+							"Invalid manifest line '" + line + "'");
+					entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long
+							.parseLong(fields[1]), Long.parseLong(fields[2], 16)));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid manifest file: " + e.getMessage());
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * Returns the number of copies read back
+	 *
+	 * @return number of files
+	 */
+	public long getFilesVerified() {
+		return filesVerified.get();
+	}
+
+	/**
+	 * Returns the number of copies that didn't match the data copied
+	 *
+	 * @return number of files
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Returns the statistics of the copies verified in a nicely formatted string
+	 */
+	public String toString() {
+		return "Verify: " + filesVerified.get() + " files, " + bytesVerified.get()
+				+ " bytes read back "
+				+ (direct ? "bypassing the cache" : "through the cache") + " in "
+				+ verifyNanos.get() / 1000000 + "ms, " + failures.get() + " failed";
+	}
+
+	/**
+	 * The checksum of a file and the size and time stamp it was copied with
+	 */
+	private static class Entry
+	{
+		private final long size;
+		private final long lastModified;
+		private final long hash;
+
+		Entry(long size, long lastModified, long hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/**
+ * ParallelCopier.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 17 Oct 2026 Removed the default parallel size, a checkpoint of ranges
+ *                      that don't match those of the copy is discarded
+ */
+package com.gulland.altair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Copies a very large file as several ranges at once, so a single file can use
+ * the bandwidth of a device that one stream can't fill, such as an NVMe drive
+ * or a RAID set. The temporary file is extended to the size of the source
+ * first, then each range is read and written at its own offsets, through a
+ * pooled direct buffer, by a thread of a pool shared by every copy.
+ * </p>
+ *
+ * <p>
+ * The offset each range has reached is recorded in the checkpoint of the file
+ * now and then, once the data before it is on disk, so a copy stopped part way
+ * through resumes each range where it left off. The temporary file is only
+ * moved over the destination once every range is complete.
+ * </p>
+ *
+ * <p>
+ * Files are only copied in ranges from the parallel size set for the run. The
+ * ranges of a file share the one copy its device limit allows, so the size
+ * should only be set for a device that takes several streams.
+ * </p>
+ *
+ * @author agulland
+ */
+public class ParallelCopier
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** number of ranges a file is copied in */
+	public static final int RANGES = 4;
+
+	/** most ranges copied at once, by every copy */
+	private static final int THREADS = 8;
+
+	/** milliseconds between checks of the ranges for a checkpoint */
+	private static final long CHECK_INTERVAL = 1000;
+
+	/** copies the ranges, its threads end when idle */
+	private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+			THREADS, THREADS, 5, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "altair-range");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	static {
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Copies a file in parallel ranges to its temporary file, resuming from its
+	 * checkpoint if there is one for the same source size and time stamp, and
+	 * moves it over the destination unless the copy is durable
+	 *
+	 * @param sourceFile
+	 *          the source file
+	 * @param sourceAttrs
+	 *          the attributes of the source file
+	 * @param destinationFile
+	 *          the destination file
+	 * @param monitor
+	 *          checked between chunks of each range, may be null
+	 * @param durable
+	 *          true to leave the copy in its temporary file
+	 * @return true if the copy completed, false if it was stopped
+	 * @throws IOException
+	 *           if a range can't be copied
+	 */
+	static boolean copy(Path sourceFile, BasicFileAttributes sourceAttrs,
+			Path destinationFile, final CopyMonitor monitor, boolean durable)
+			throws IOException {
+		Path partial = BackupUtil.getPartialFile(destinationFile);
+		Path checkpoint = destinationFile.resolveSibling(destinationFile
+				.getFileName() + BackupUtil.CHECKPOINT_SUFFIX);
+		final long size = sourceAttrs.size();
+		long lastModified = sourceAttrs.lastModifiedTime().toMillis();
+
+		// each range is a whole number of chunks, the last takes what is left
+		long length = (size + RANGES - 1) / RANGES;
+		length = (length + BackupUtil.CHUNK_SIZE - 1) / BackupUtil.CHUNK_SIZE
+				* BackupUtil.CHUNK_SIZE;
+		final long[] starts = new long[RANGES];
+		final long[] ends = new long[RANGES];
+		for (int r = 0; r < RANGES; r++) {
+			starts[r] = Math.min(size, r * length);
+			ends[r] = Math.min(size, (r + 1) * length);
+		}
+
+		// a checkpoint of ranges of another length would leave holes between them
+		long[] resumed = readCheckpoint(checkpoint, size, lastModified);
+		for (int r = 0; (resumed != null) && (r < RANGES); r++) {
+			if ((resumed[r] < starts[r]) || (resumed[r] > ends[r])) resumed = null;
+		}
+		final FileChannel in = FileChannel.open(sourceFile, StandardOpenOption.READ);
+		try {
+			final FileChannel out = FileChannel.open(partial,
+					StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+			try {
+				// a temporary file not the size of the source can't be trusted
+				if ((resumed != null) && (out.size() != size)) resumed = null;
+				final AtomicLongArray positions = new AtomicLongArray(RANGES);
+				for (int r = 0; r < RANGES; r++) {
+					positions.set(r, (resumed != null) ? resumed[r] : starts[r]);
+				}
+				if (resumed != null) {
+					logger.detail("Resuming copy of " + sourceFile + " in " + RANGES
+							+ " ranges");
+				} else {
+					// extend the file to its full size so the ranges are written in place
+					out.truncate(0);
+					if (size > 0) out.write(ByteBuffer.allocate(1), size - 1);
+				}
+
+				// a range stops at the first failure of any other
+				final AtomicBoolean failed = new AtomicBoolean();
+				List<Future<Object>> ranges = new ArrayList<Future<Object>>(RANGES);
+				for (int r = 0; r < RANGES; r++) {
+					final int range = r;
+					ranges.add(pool.submit(new Callable<Object>() {
+						public Object call() throws IOException {
+							try {
+								copyRange(in, out, positions, range, ends[range], monitor,
+										failed);
+							} catch (IOException e) {
+								failed.set(true);
+								throw e;
+							}
+							return null;
+						}
+					}));
+				}
+
+				// record the offsets reached, once the data before them is on disk.
+				// Every range is waited for before the files are closed
+				IOException error = null;
+				long checkpointed = total(positions, starts);
+				for (int r = 0; r < RANGES; r++) {
+					while (true) {
+						try {
+							if (waitFor(ranges.get(r), CHECK_INTERVAL)) break;
+						} catch (IOException e) {
+							if (error == null) error = e;
+							break;
+						}
+
+						long done = total(positions, starts);
+						if ((error != null)
+								|| (done - checkpointed < BackupUtil.CHECKPOINT_INTERVAL)) continue;
+						try {
+							long[] reached = snapshot(positions);
+							out.force(false);
+							writeCheckpoint(checkpoint, size, lastModified, reached);
+							checkpointed = done;
+						} catch (IOException e) {
+							error = e;
+							failed.set(true);
+						}
+					}
+				}
+				if (error != null) throw error;
+
+				// a range stopped short of its end was stopped by the monitor
+				if (total(positions, starts) < size) {
+					out.force(false);
+					writeCheckpoint(checkpoint, size, lastModified, snapshot(positions));
+					logger.warn("Copy of " + sourceFile + " stopped, "
+							+ total(positions, starts) + " of " + size
+							+ " bytes copied, it resumes from there next run");
+					return false;
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+
+		if (!durable) BackupUtil.replace(partial, destinationFile);
+		Files.deleteIfExists(checkpoint);
+		return true;
+	}
+
+	/**
+	 * Copies a range of a file with positional reads and writes, recording the
+	 * offset reached after each chunk
+	 */
+	private static void copyRange(FileChannel in, FileChannel out,
+			AtomicLongArray positions, int range, long end, CopyMonitor monitor,
+			AtomicBoolean failed) throws IOException {
+		ByteBuffer buffer = BufferPool.LARGE.acquire();
+		try {
+			long position = positions.get(range);
+			while ((position < end) && (!failed.get())) {
+				if (monitor != null) {
+					monitor.waitIfPaused();
+					if (monitor.isCancelled()) return;
+				}
+
+				long chunkEnd = Math.min(end, position + BackupUtil.CHUNK_SIZE);
+				while (position < chunkEnd) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), chunkEnd - position));
+					int n = in.read(buffer, position);
+					if (n < 0) throw new IOException("Source file shrank during copy");
+					buffer.flip();
+					long offset = position;
+					while (buffer.hasRemaining()) {
+						offset += out.write(buffer, offset);
+					}
+					position += n;
+				}
+				positions.set(range, position);
+			}
+		} finally {
+			BufferPool.LARGE.release(buffer);
+		}
+	}
+
+	/**
+	 * Waits for a range to complete
+	 *
+	 * @return true if complete, false if still copying after the timeout
+	 */
+	private static boolean waitFor(Future<Object> range, long timeout)
+			throws IOException {
+		try {
+			range.get(timeout, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a range to copy");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the bytes copied by every range
+	 */
+	private static long total(AtomicLongArray positions, long[] starts) {
+		long total = 0;
+		for (int r = 0; r < starts.length; r++) {
+			total += positions.get(r) - starts[r];
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the offsets the ranges have reached
+	 */
+	private static long[] snapshot(AtomicLongArray positions) {
+		long[] reached = new long[positions.length()];
+		for (int r = 0; r < reached.length; r++) {
+			reached[r] = positions.get(r);
+		}
+		return reached;
+	}
+
+	/**
+	 * Reads the offset of each range recorded in a checkpoint file
+	 *
+	 * @return the offsets, or null if there is no checkpoint or it is for a
+	 *         different source size or time stamp or number of ranges
+	 */
+	private static long[] readCheckpoint(Path checkpoint, long size,
+			long lastModified) {
+		if (!Files.exists(checkpoint)) return null;
+		try {
+			String[] fields = new String(Files.readAllBytes(checkpoint), "UTF-8")
+					.trim().split("\t");
+			if ((fields.length == RANGES + 3) && (Long.parseLong(fields[0]) == size)
+					&& (Long.parseLong(fields[1]) == lastModified)
+					&& (Integer.parseInt(fields[2]) == RANGES)) {
+				long[] positions = new long[RANGES];
+				for (int r = 0; r < RANGES; r++) {
+					positions[r] = Long.parseLong(fields[r + 3]);
+				}
+				return positions;
+			}
+		} catch (IOException e) {
+			logger.warn("Could not read checkpoint " + checkpoint
+					+ ", exception thrown: " + e.getMessage());
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid checkpoint " + checkpoint);
+		}
+		return null;
+	}
+
+	/**
+	 * Records the offset each range has reached. The number of ranges is
+	 * recorded too, so a checkpoint of a copy made in one piece is never taken
+	 * for one of ranges.
+	 */
+	private static void writeCheckpoint(Path checkpoint, long size,
+			long lastModified, long[] positions) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append(size).append('\t').append(lastModified).append('\t').append(
+				positions.length);
+		for (int r = 0; r < positions.length; r++) {
+			sb.append('\t').append(positions[r]);
+		}
+		Files.write(checkpoint, sb.toString().getBytes("UTF-8"));
+	}
+}
@@ -0,0 +1,400 @@
+/**
+ * RunJournal.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * An append only journal of the files and folders of a task that have been
+ * backed up in the current run. If the run dies part way through, or is
+ * stopped, the journal is left in the state folder and a run started with
+ * <code>--resume</code> skips the work it records rather than starting the
+ * task again. Once a task completes its journal is deleted.
+ * </p>
+ *
+ * <p>
+ * A file is recorded once it has been copied or found to be up to date, along
+ * with its size and time stamp so a file changed since is backed up again. A
+ * folder is recorded once every file in it and below it has been recorded, so
+ * a resumed run doesn't need to list it at all. Folders are only recorded when
+ * files are copied in line, with asynchronous copies or the pipeline engine a
+ * folder may be listed before its files are copied so only files are recorded.
+ * </p>
+ *
+ * <p>
+ * Records are written to the end of the journal and synced to disk in batches,
+ * every <code>SYNC_RECORDS</code> records or <code>SYNC_INTERVAL</code>
+ * milliseconds whichever comes first. Records of the last batch before a crash
+ * may be lost, or the last one only part written, in which case the work is
+ * simply done again.
+ * </p>
+ *
+ * @author agulland
+ */
+public class RunJournal
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** version of the journal file format */
+	private static final int VERSION = 1;
+
+	/** character set of the journal file */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * ends every record, a record cut short by a crash doesn't end with it. The
+	 * tab can't be part of a path recorded.
+	 */
+	private static final String END = "\t.";
+
+	/** number of records written between syncs */
+	public static final int SYNC_RECORDS = 1000;
+
+	/** maximum time in milliseconds between syncs */
+	public static final long SYNC_INTERVAL = 2000;
+
+	/** the journal file */
+	private final File file;
+
+	/** files recorded, by this run or the runs resumed, keyed by relative path */
+	private final Map<String, FileEntry> files = new ConcurrentHashMap<String, FileEntry>();
+
+	/**
+	 * folders recorded, by this run or the runs resumed, keyed by relative path,
+	 * with the number of files found in and below them
+	 */
+	private final Map<String, Integer> folders = new ConcurrentHashMap<String, Integer>();
+
+	/** folders in which a file failed to backup in this run */
+	private final Set<String> failed = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** serialises writes from several threads */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** journal output, null once closed or if it couldn't be written */
+	private FileOutputStream out;
+	private BufferedWriter bw;
+
+	/** records written since the last sync and the time of the last sync */
+	private int unsynced;
+	private long lastSync;
+
+	/**
+	 * Creates a journal written to the given file
+	 *
+	 * @param file
+	 *          the journal file
+	 */
+	private RunJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the journal of a task. When resuming the records of the journal left
+	 * by the previous run are loaded and the journal is appended to, otherwise
+	 * any journal left is discarded.
+	 *
+	 * @param file
+	 *          the journal file
+	 * @param resume
+	 *          if true skip the work recorded by the previous run
+	 * @return the journal
+	 */
+	public static RunJournal open(File file, boolean resume) {
+		RunJournal journal = new RunJournal(file);
+
+		boolean append = false;
+		if ((resume) && (file.exists())) {
+			try {
+				journal.read();
+				append = true;
+				logger.info("Resuming from run journal, " + journal.files.size()
+						+ " files and " + journal.folders.size()
+						+ " folders already backed up");
+			} catch (IOException e) {
+				logger.warn("Could not read run journal '" + file
+						+ "', exception thrown: " + e.getMessage());
+				journal.files.clear();
+				journal.folders.clear();
+			}
+		} else if (resume) {
+			logger.info("No run journal to resume, task backed up in full");
+		}
+
+		try {
+			journal.openWriter(append);
+		} catch (IOException e) {
+			logger.warn("Could not write run journal '" + file
+					+ "', exception thrown: " + e.getMessage());
+		}
+		return journal;
+	}
+
+	/**
+	 * Returns true if a file has been recorded and hasn't changed since
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @param attrs
+	 *          the current attributes of the file
+	 * @return true if the file is already backed up
+	 */
+	public boolean isDone(String relative, BasicFileAttributes attrs) {
+		FileEntry entry = files.get(relative);
+		return (entry != null) && (entry.size == attrs.size())
+				&& (entry.lastModified == attrs.lastModifiedTime().toMillis());
+	}
+
+	/**
+	 * Returns the number of files found in and below a recorded folder
+	 *
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 * @return number of files or -1 if the folder has not been recorded
+	 */
+	public int getFolderFiles(String relative) {
+		Integer count = folders.get(relative);
+		return (count != null) ? count.intValue() : -1;
+	}
+
+	/**
+	 * Records a file that has been copied or found to be up to date
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @param attrs
+	 *          the attributes of the source file
+	 */
+	public void file(String relative, BasicFileAttributes attrs) {
+		if (!isRecordable(relative)) return;
+		long lastModified = attrs.lastModifiedTime().toMillis();
+		files.put(relative, new FileEntry(attrs.size(), lastModified));
+		write("F\t" + attrs.size() + "\t" + lastModified + "\t" + relative + END);
+	}
+
+	/**
+	 * Records a folder whose files and subfolders have all been backed up. The
+	 * folder isn't recorded if a file in it failed to backup or a subfolder
+	 * wasn't recorded.
+	 *
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 * @param subfolders
+	 *          names of the subfolders of the folder
+	 * @param filesFound
+	 *          number of files found in and below the folder
+	 * @return true if the folder was recorded
+	 */
+	public boolean folder(String relative, Iterable<String> subfolders,
+			int filesFound) {
+		if ((!isRecordable(relative)) || (failed.contains(relative))) return false;
+		for (String name : subfolders) {
+			String child = TaskContext.childPath(relative, name);
+			if (!folders.containsKey(child)) return false;
+		}
+		folders.put(relative, Integer.valueOf(filesFound));
+		write("D\t" + filesFound + "\t" + relative + END);
+		return true;
+	}
+
+	/**
+	 * Marks a folder as having a file that failed to backup so the folder isn't
+	 * recorded
+	 *
+	 * @param relative
+	 *          path of the folder relative to the task folder
+	 */
+	public void invalidate(String relative) {
+		failed.add(relative);
+	}
+
+	/**
+	 * Returns true if a path can be written to the journal
+	 */
+	private static boolean isRecordable(String name) {
+		return (name.indexOf('\t') < 0) && (name.indexOf('\n') < 0)
+				&& (name.indexOf('\r') < 0);
+	}
+
+	/**
+	 * Appends a record to the journal, syncing the batch written so far if it is
+	 * full or old enough
+	 */
+	private void write(String record) {
+		lock.lock();
+		try {
+			if (bw == null) return;
+			bw.write(record);
+			bw.newLine();
+			unsynced++;
+			if ((unsynced >= SYNC_RECORDS)
+					|| (System.currentTimeMillis() - lastSync >= SYNC_INTERVAL)) {
+				sync();
+			}
+		} catch (IOException e) {
+			logger.warn("Could not write run journal '" + file
+					+ "', exception thrown: " + e.getMessage());
+			closeQuietly();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the records buffered to disk
+	 */
+	private void sync() throws IOException {
+		bw.flush();
+		out.getFD().sync();
+		unsynced = 0;
+		lastSync = System.currentTimeMillis();
+	}
+
+	/**
+	 * Syncs and closes the journal, leaving it for a resumed run. Called when a
+	 * task is stopped before it completes.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			if (bw == null) return;
+			try {
+				sync();
+			} catch (IOException e) {
+				logger.warn("Could not write run journal '" + file
+						+ "', exception thrown: " + e.getMessage());
+			}
+			closeQuietly();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes and deletes the journal once the task has completed
+	 */
+	public void complete() {
+		lock.lock();
+		try {
+			closeQuietly();
+			if ((file.exists()) && (!file.delete())) {
+				logger.warn("Could not delete run journal '" + file + "'");
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the journal output ignoring any failure
+	 */
+	private void closeQuietly() {
+		if (bw == null) return;
+		try {
+			bw.close();
+		} catch (IOException e) {
+		}
+		bw = null;
+		out = null;
+	}
+
+	/**
+	 * Opens the journal output, writing the version header to a new journal
+	 */
+	private void openWriter(boolean append) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists()) parent.mkdirs();
+
+		out = new FileOutputStream(file, append);
+		bw = new BufferedWriter(new OutputStreamWriter(out, UTF8));
+		if (!append) {
+			bw.write("version=" + VERSION);
+			bw.newLine();
+		} else {
+			// start on a new line in case the last record was only part written
+			bw.newLine();
+		}
+		sync();
+	}
+
+	/**
+	 * Reads the journal file. A line that doesn't end with the end marker, or
+	 * can't be parsed, is the last record written before a crash and is ignored.
+	 */
+	private void read() throws IOException {
+		BufferedReader br = Files.newBufferedReader(file.toPath(), UTF8);
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("version=")) {
+					int version;
+					try {
+						version = Integer.parseInt(line.substring(8));
+					} catch (NumberFormatException e) {
+						throw new IOException("Invalid run journal version '" + line + "'");
+					}
+					if (version != VERSION) throw new IOException(
+							"Unsupported run journal version " + version);
+					continue;
+				}
+
+				if (line.length() == 0) continue;
+				String[] fields = line.split("\t", -1);
+				try {
+					if ((fields.length == 5) && (fields[0].equals("F"))
+							&& (line.endsWith(END))) {
+						files.put(fields[3], new FileEntry(Long.parseLong(fields[1]), Long
+								.parseLong(fields[2])));
+					} else if ((fields.length == 4) && (fields[0].equals("D"))
+							&& (line.endsWith(END))) {
+						folders.put(fields[2], Integer.valueOf(fields[1]));
+					} else {
+						logger.detail("Ignored run journal record '" + line + "'");
+					}
+				} catch (NumberFormatException e) {
+					logger.detail("Ignored run journal record '" + line + "'");
+				}
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * The size and time stamp of a recorded file
+	 */
+	private static class FileEntry
+	{
+		/** size of the file in bytes */
+		private final long size;
+
+		/** time stamp of the file in milliseconds */
+		private final long lastModified;
+
+		FileEntry(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+}
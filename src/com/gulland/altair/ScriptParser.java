@@ -7,10 +7,33 @@
  * agulland 08 Feb 2010 Updated to now read log level and log folder from script
  *                      file. 
  *                      This Class solely determines the default log folder   
+ * agulland 16 Oct 2026 Reads engine and threads elements from script file
+ * agulland 16 Oct 2026 Reads state-folder and verify-interval elements and the
+ *                      task index attribute
+ * agulland 16 Oct 2026 Reads full-scan-interval element and the task
+ *                      incremental attribute
+ * agulland 16 Oct 2026 Reads watch-debounce element
+ * agulland 16 Oct 2026 Reads async-copies element
+ * agulland 16 Oct 2026 Reads device-limit elements
+ * agulland 16 Oct 2026 Reads concurrent-tasks element
+ * agulland 16 Oct 2026 Reads the task delta-size attribute
+ * agulland 16 Oct 2026 Reads the checksum rule
+ * agulland 16 Oct 2026 Reads the task dedup attribute
+ * agulland 16 Oct 2026 Reads the task snapshots attribute
+ * agulland 16 Oct 2026 Reads the task compress attribute
+ * agulland 16 Oct 2026 Reads the task archive attribute
+ * agulland 16 Oct 2026 Reads the task durable attribute
+ * agulland 16 Oct 2026 Reads parallel-size element
+ * agulland 16 Oct 2026 Reads bytes-per-second, files-per-second and max-open
+ *                      elements and task attributes
+ * agulland 16 Oct 2026 Reads the task manifest and verify-copy attributes
+ * agulland 16 Oct 2026 full-scan-interval defaults to 10 runs
  */
 
 package com.gulland.altair;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Vector;
 import javax.xml.parsers.*;
 import org.w3c.dom.*;
@@ -31,6 +54,48 @@ public class ScriptParser
 	/** log folder read from script file */
 	private String sScriptLogFolder;
 
+	/** traversal engine read from script file */
+	private int iScriptEngine = Backup.SEQUENTIAL;
+
+	/** number of worker threads read from script file, 0 if not defined */
+	private int iScriptThreads = 0;
+
+	/** state folder read from script file */
+	private String sScriptStateFolder = DEFAULT_STATE_FOLDER;
+
+	/** runs between verifying destination indexes read from script file */
+	private int iScriptVerifyInterval = 0;
+
+	/** runs between full scans of incremental tasks read from script file */
+	private int iScriptFullScanInterval = FolderState.DEFAULT_FULL_SCAN_INTERVAL;
+
+	/** watch debounce in milliseconds read from script file, -1 if not defined */
+	private long lScriptWatchDebounce = -1;
+
+	/** files backed up asynchronously read from script file, 0 if not defined */
+	private int iScriptAsyncCopies = 0;
+
+	/** number of tasks run at once read from script file, 0 if not defined */
+	private int iScriptConcurrentTasks = 0;
+
+	/** size from which files are copied in parallel ranges, -1 if not defined */
+	private long lScriptParallelSize = -1;
+
+	/** bytes per second copied by the whole run, -1 if not defined */
+	private long lScriptBytesPerSecond = -1;
+
+	/** files per second examined by the whole run, -1 if not defined */
+	private long lScriptFilesPerSecond = -1;
+
+	/** files open for copying at once by the whole run, -1 if not defined */
+	private int iScriptMaxOpen = -1;
+
+	/** copies at once on devices with no limit of their own, 0 if not defined */
+	private int iScriptDefaultDeviceLimit = 0;
+
+	/** copies at once on the device of each path read from script file */
+	private Map<String, Integer> scriptDeviceLimits = new LinkedHashMap<String, Integer>();
+
 	/** internal object that holds the script tasks */
 	private Vector<BackupTask> tasks = new Vector<BackupTask>();
 
@@ -38,6 +103,10 @@ public class ScriptParser
 	private static String DEFAULT_LOG_FOLDER = System.getProperty("user.dir")
 			+ File.separator + "logs";
 
+	/** default state folder is 'state' below folder from which this app is launched */
+	private static String DEFAULT_STATE_FOLDER = System.getProperty("user.dir")
+			+ File.separator + "state";
+
 	/**
 	 * Returns the value of the log level as defined by the script file
 	 * 
@@ -52,6 +121,154 @@ public class ScriptParser
 		return sScriptLogFolder;
 	}
 
+	/**
+	 * Returns the traversal engine as defined by the script file
+	 * 
+	 * @return one of the engine constants defined in Backup
+	 */
+	public int getScriptEngine() {
+		return iScriptEngine;
+	}
+
+	/**
+	 * Returns the number of worker threads as defined by the script file
+	 * 
+	 * @return number of threads or 0 if not defined in script file
+	 */
+	public int getScriptThreads() {
+		return iScriptThreads;
+	}
+
+	/**
+	 * Returns the folder where task state such as destination indexes is kept.
+	 * The folder is created when state is first saved.
+	 * 
+	 * @return the state folder
+	 */
+	public String getScriptStateFolder() {
+		return sScriptStateFolder;
+	}
+
+	/**
+	 * Returns the number of runs between verifying destination indexes as
+	 * defined by the script file
+	 * 
+	 * @return number of runs or 0 if not defined in script file
+	 */
+	public int getScriptVerifyInterval() {
+		return iScriptVerifyInterval;
+	}
+
+	/**
+	 * Returns the number of runs between full scans of incremental tasks as
+	 * defined by the script file
+	 * 
+	 * @return number of runs or 0 if not defined in script file
+	 */
+	public int getScriptFullScanInterval() {
+		return iScriptFullScanInterval;
+	}
+
+	/**
+	 * Returns the time in milliseconds a watched path must have no further
+	 * changes before it is backed up, as defined by the script file
+	 * 
+	 * @return time in milliseconds or -1 if not defined in script file
+	 */
+	public long getScriptWatchDebounce() {
+		return lScriptWatchDebounce;
+	}
+
+	/**
+	 * Returns the maximum number of files backed up asynchronously at once as
+	 * defined by the script file
+	 * 
+	 * @return number of files or 0 if not defined in script file
+	 */
+	public int getScriptAsyncCopies() {
+		return iScriptAsyncCopies;
+	}
+
+	/**
+	 * Returns the maximum number of tasks run at once as defined by the script
+	 * file
+	 * 
+	 * @return number of tasks or 0 if not defined in script file
+	 */
+	public int getScriptConcurrentTasks() {
+		return iScriptConcurrentTasks;
+	}
+
+	/**
+	 * Returns the size from which files are copied in parallel ranges as defined
+	 * by the script file
+	 * 
+	 * @return size in bytes or -1 if not defined in script file
+	 */
+	public long getScriptParallelSize() {
+		return lScriptParallelSize;
+	}
+
+	/**
+	 * Returns the bytes per second copied by the whole run as defined by the
+	 * script file
+	 * 
+	 * @return bytes per second or -1 if not defined in script file
+	 */
+	public long getScriptBytesPerSecond() {
+		return lScriptBytesPerSecond;
+	}
+
+	/**
+	 * Returns the files per second examined by the whole run as defined by the
+	 * script file
+	 * 
+	 * @return files per second or -1 if not defined in script file
+	 */
+	public long getScriptFilesPerSecond() {
+		return lScriptFilesPerSecond;
+	}
+
+	/**
+	 * Returns the files open for copying at once by the whole run as defined by
+	 * the script file
+	 * 
+	 * @return number of files or -1 if not defined in script file
+	 */
+	public int getScriptMaxOpen() {
+		return iScriptMaxOpen;
+	}
+
+	/**
+	 * Returns the number of copies at once on devices with no limit of their own
+	 * as defined by the device-limit element without a path
+	 * 
+	 * @return number of copies or 0 if not defined in script file
+	 */
+	public int getScriptDefaultDeviceLimit() {
+		return iScriptDefaultDeviceLimit;
+	}
+
+	/**
+	 * Returns the number of copies at once on a device as defined by the
+	 * device-limit elements with a path, keyed by path
+	 * 
+	 * @return the device limits, empty if none defined in script file
+	 */
+	public Map<String, Integer> getScriptDeviceLimits() {
+		return scriptDeviceLimits;
+	}
+
+	/**
+	 * Returns true if the script file defines any device limit, in which case
+	 * copies are scheduled by device
+	 * 
+	 * @return true if copies are scheduled by device
+	 */
+	public boolean isScriptDeviceScheduled() {
+		return (iScriptDefaultDeviceLimit > 0) || (!scriptDeviceLimits.isEmpty());
+	}
+
 	/**
 	 * Returns the default log folder. It will also attempt to create the folder
 	 * if it does not exist
@@ -153,6 +370,141 @@ public class ScriptParser
 					}
 				}
 
+				// get traversal engine
+				val = getElementValue(doc, "engine");
+				if (val != null) {
+					int iEngine = Backup.getEngineValue(val.trim());
+					if (iEngine >= 0) this.iScriptEngine = iEngine;
+					else System.out.println("Unkown engine '" + val
+							+ "' defined in script file. Using default engine.");
+				}
+
+				// get number of worker threads
+				val = getElementValue(doc, "threads");
+				if (val != null) {
+					try {
+						this.iScriptThreads = Integer.parseInt(val.trim());
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid threads value '" + val
+								+ "' defined in script file.");
+					}
+				}
+
+				// get state folder
+				val = getElementValue(doc, "state-folder");
+				if (val != null) this.sScriptStateFolder = val.trim();
+
+				// get number of runs between verifying destination indexes
+				val = getElementValue(doc, "verify-interval");
+				if (val != null) {
+					try {
+						this.iScriptVerifyInterval = Integer.parseInt(val.trim());
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid verify-interval value '" + val
+								+ "' defined in script file.");
+					}
+				}
+
+				// get number of runs between full scans of incremental tasks
+				val = getElementValue(doc, "full-scan-interval");
+				if (val != null) {
+					try {
+						this.iScriptFullScanInterval = Integer.parseInt(val.trim());
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid full-scan-interval value '" + val
+								+ "' defined in script file.");
+					}
+				}
+
+				// get watch debounce
+				val = getElementValue(doc, "watch-debounce");
+				if (val != null) {
+					try {
+						this.lScriptWatchDebounce = Long.parseLong(val.trim());
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid watch-debounce value '" + val
+								+ "' defined in script file.");
+					}
+				}
+
+				// get number of files backed up asynchronously
+				val = getElementValue(doc, "async-copies");
+				if (val != null) {
+					try {
+						this.iScriptAsyncCopies = Integer.parseInt(val.trim());
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid async-copies value '" + val
+								+ "' defined in script file.");
+					}
+				}
+
+				// get number of tasks run at once
+				val = getElementValue(doc, "concurrent-tasks");
+				if (val != null) {
+					try {
+						this.iScriptConcurrentTasks = Integer.parseInt(val.trim());
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid concurrent-tasks value '" + val
+								+ "' defined in script file.");
+					}
+				}
+
+				// get size from which files are copied in parallel ranges
+				val = getElementValue(doc, "parallel-size");
+				if (val != null) {
+					try {
+						this.lScriptParallelSize = BackupUtil.parseSize(val);
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid parallel-size value '" + val
+								+ "' defined in script file.");
+					}
+				}
+
+				// get throttle of the whole run
+				val = getElementValue(doc, "bytes-per-second");
+				if (val != null) {
+					try {
+						this.lScriptBytesPerSecond = BackupUtil.parseSize(val);
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid bytes-per-second value '" + val
+								+ "' defined in script file.");
+					}
+				}
+				val = getElementValue(doc, "files-per-second");
+				if (val != null) {
+					try {
+						this.lScriptFilesPerSecond = Long.parseLong(val.trim());
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid files-per-second value '" + val
+								+ "' defined in script file.");
+					}
+				}
+				val = getElementValue(doc, "max-open");
+				if (val != null) {
+					try {
+						this.iScriptMaxOpen = Integer.parseInt(val.trim());
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid max-open value '" + val
+								+ "' defined in script file.");
+					}
+				}
+
+				// get limits of copies at once per device
+				NodeList limitNodes = doc.getElementsByTagName("device-limit");
+				for (int i = 0; i < limitNodes.getLength(); i++) {
+					Element limitNode = (Element) limitNodes.item(i);
+					String path = limitNode.getAttribute("path");
+					val = limitNode.getTextContent();
+					try {
+						int limit = Integer.parseInt(val.trim());
+						if (path.length() == 0) this.iScriptDefaultDeviceLimit = limit;
+						else this.scriptDeviceLimits.put(path, Integer.valueOf(limit));
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid device-limit value '" + val
+								+ "' defined in script file.");
+					}
+				}
+
 				NodeList taskNodes = doc.getElementsByTagName("task");
 
 				// iterate over nodes
@@ -171,6 +523,24 @@ public class ScriptParser
 		}
 	}
 
+	/**
+	 * Returns the text value of the first element with the given tag name
+	 * 
+	 * @param doc
+	 *          the parsed script file
+	 * @param tagName
+	 *          the element tag name
+	 * @return the text value or null if the element is missing or empty
+	 */
+	private static String getElementValue(Document doc, String tagName) {
+		NodeList nl = doc.getElementsByTagName(tagName);
+		if (nl.getLength() > 0) {
+			Node nVal = nl.item(0).getFirstChild();
+			if (nVal != null) return nVal.getNodeValue();
+		}
+		return null;
+	}
+
 	/**
 	 * Adds a BackupTask object to the collection
 	 * 
@@ -213,6 +583,54 @@ public class ScriptParser
 			else if (attrName.equals("recurse")) task.setRecurse(bVal);
 			else if (attrName.equals("active")) task.setActive(bVal);
 			else if (attrName.equals("mirror-delete")) task.setMirrorDelete(bVal);
+			else if (attrName.equals("index")) task.setIndex(bVal);
+			else if (attrName.equals("incremental")) task.setIncremental(bVal);
+			else if (attrName.equals("dedup")) task.setDedup(bVal);
+			else if (attrName.equals("compress")) task.setCompress(bVal);
+			else if (attrName.equals("archive")) task.setArchive(bVal);
+			else if (attrName.equals("durable")) task.setDurable(bVal);
+			else if (attrName.equals("manifest")) task.setManifest(bVal);
+			else if (attrName.equals("verify-copy")) task.setVerifyCopy(bVal);
+			else if (attrName.equals("snapshots")) {
+				try {
+					task.setSnapshots(Integer.parseInt(attrValue));
+				} catch (NumberFormatException e) {
+					System.out.println("Invalid snapshots value '" + attrValue
+							+ "' defined in task.");
+				}
+			}
+			else if (attrName.equals("delta-size")) {
+				try {
+					task.setDeltaSize(BackupUtil.parseSize(attrValue));
+				} catch (NumberFormatException e) {
+					System.out.println("Invalid delta-size value '" + attrValue
+							+ "' defined in task.");
+				}
+			}
+			else if (attrName.equals("bytes-per-second")) {
+				try {
+					task.setBytesPerSecond(BackupUtil.parseSize(attrValue));
+				} catch (NumberFormatException e) {
+					System.out.println("Invalid bytes-per-second value '" + attrValue
+							+ "' defined in task.");
+				}
+			}
+			else if (attrName.equals("files-per-second")) {
+				try {
+					task.setFilesPerSecond(Long.parseLong(attrValue));
+				} catch (NumberFormatException e) {
+					System.out.println("Invalid files-per-second value '" + attrValue
+							+ "' defined in task.");
+				}
+			}
+			else if (attrName.equals("max-open")) {
+				try {
+					task.setMaxOpen(Integer.parseInt(attrValue));
+				} catch (NumberFormatException e) {
+					System.out.println("Invalid max-open value '" + attrValue
+							+ "' defined in task.");
+				}
+			}
 			else System.out.println("Unkown task attribute '" + attrName
 					+ "' defined in task.");
 		}
@@ -247,6 +665,7 @@ public class ScriptParser
 					else if (value.equals("changed")) intRule = BackupTask.CHANGED;
 					else if (value.equals("exists changed")) intRule = BackupTask.EXISTS_CHANGED;
 					else if (value.equals("new")) intRule = BackupTask.NEW;
+					else if (value.equals("checksum")) intRule = BackupTask.CHECKSUM;
 					else {
 						// unknown rule, by default set to changed and flag task as not
 						// active
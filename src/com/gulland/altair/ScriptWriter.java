@@ -7,11 +7,30 @@
  * agulland 08 Feb 2010 Updated class to now write out log level and log folder
  *                      to script file.
  *                      Replaced any valid logging with system.out.println     
+ * agulland 16 Oct 2026 Writes engine and threads elements to script file
+ * agulland 16 Oct 2026 Writes state-folder, verify-interval and task index
+ * agulland 16 Oct 2026 Writes full-scan-interval and task incremental
+ * agulland 16 Oct 2026 Writes watch-debounce
+ * agulland 16 Oct 2026 Writes async-copies
+ * agulland 16 Oct 2026 Writes device-limit elements
+ * agulland 16 Oct 2026 Writes concurrent-tasks
+ * agulland 16 Oct 2026 Writes task delta-size
+ * agulland 16 Oct 2026 Writes task dedup
+ * agulland 16 Oct 2026 Writes task snapshots
+ * agulland 16 Oct 2026 Writes task compress
+ * agulland 16 Oct 2026 Writes task archive
+ * agulland 16 Oct 2026 Writes task durable
+ * agulland 16 Oct 2026 Writes parallel-size
+ * agulland 16 Oct 2026 Writes bytes-per-second, files-per-second and max-open
+ * agulland 16 Oct 2026 Writes task manifest and verify-copy
+ * agulland 16 Oct 2026 Writes a full-scan-interval of 0
  */
 
 package com.gulland.altair;
 
 import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * <p>
@@ -46,6 +65,48 @@ public class ScriptWriter
 	/** log folder */
 	private String scriptLogFolder;
 
+	/** traversal engine. initialise to -1 so we only write valid values to script file */
+	private int scriptEngine = -1;
+
+	/** number of worker threads. 0 means not defined */
+	private int scriptThreads = 0;
+
+	/** state folder */
+	private String scriptStateFolder;
+
+	/** runs between verifying destination indexes. 0 means not defined */
+	private int scriptVerifyInterval = 0;
+
+	/** runs between full scans of incremental tasks. -1 means not defined */
+	private int scriptFullScanInterval = -1;
+
+	/** watch debounce in milliseconds. -1 means not defined */
+	private long scriptWatchDebounce = -1;
+
+	/** files backed up asynchronously. 0 means not defined */
+	private int scriptAsyncCopies = 0;
+
+	/** number of tasks run at once. 0 means not defined */
+	private int scriptConcurrentTasks = 0;
+
+	/** size from which files are copied in parallel ranges. -1 means not defined */
+	private long scriptParallelSize = -1;
+
+	/** bytes per second copied by the whole run. -1 means not defined */
+	private long scriptBytesPerSecond = -1;
+
+	/** files per second examined by the whole run. -1 means not defined */
+	private long scriptFilesPerSecond = -1;
+
+	/** files open for copying at once by the whole run. -1 means not defined */
+	private int scriptMaxOpen = -1;
+
+	/** copies at once on devices with no limit of their own. 0 means not defined */
+	private int scriptDefaultDeviceLimit = 0;
+
+	/** copies at once on the device of each path */
+	private Map<String, Integer> scriptDeviceLimits = new LinkedHashMap<String, Integer>();
+
 	/**
 	 * Sets the script log level that will be written to script file. Log level is
 	 * an optional attribute and if not set the backup engine will use the default
@@ -74,6 +135,161 @@ public class ScriptWriter
 		this.scriptLogFolder = scriptLogFolder;
 	}
 
+	/**
+	 * Sets the traversal engine that will be written to script file. The engine
+	 * is optional and if not set the backup engine uses Backup.SEQUENTIAL.
+	 * 
+	 * @param scriptEngine
+	 *          (int) one of the engine constants defined in Backup
+	 */
+	public void setScriptEngine(int scriptEngine) {
+		this.scriptEngine = scriptEngine;
+	}
+
+	/**
+	 * Sets the number of worker threads that will be written to script file. The
+	 * value is optional and only used by the parallel engines.
+	 * 
+	 * @param scriptThreads
+	 *          (int) number of worker threads
+	 */
+	public void setScriptThreads(int scriptThreads) {
+		this.scriptThreads = scriptThreads;
+	}
+
+	/**
+	 * Sets the state folder that will be written to script file. If not set the
+	 * backup engine will use the default state folder.
+	 * 
+	 * @param scriptStateFolder
+	 *          (String) the state folder
+	 */
+	public void setScriptStateFolder(String scriptStateFolder) {
+		this.scriptStateFolder = scriptStateFolder;
+	}
+
+	/**
+	 * Sets the number of runs between verifying destination indexes that will be
+	 * written to script file.
+	 * 
+	 * @param scriptVerifyInterval
+	 *          (int) number of runs
+	 */
+	public void setScriptVerifyInterval(int scriptVerifyInterval) {
+		this.scriptVerifyInterval = scriptVerifyInterval;
+	}
+
+	/**
+	 * Sets the number of runs between full scans of incremental tasks that will
+	 * be written to script file.
+	 * 
+	 * @param scriptFullScanInterval
+	 *          (int) number of runs, 0 for a full scan only when forced
+	 */
+	public void setScriptFullScanInterval(int scriptFullScanInterval) {
+		this.scriptFullScanInterval = scriptFullScanInterval;
+	}
+
+	/**
+	 * Sets the watch debounce that will be written to script file.
+	 * 
+	 * @param scriptWatchDebounce
+	 *          (long) time in milliseconds
+	 */
+	public void setScriptWatchDebounce(long scriptWatchDebounce) {
+		this.scriptWatchDebounce = scriptWatchDebounce;
+	}
+
+	/**
+	 * Sets the maximum number of files backed up asynchronously that will be
+	 * written to script file.
+	 * 
+	 * @param scriptAsyncCopies
+	 *          (int) number of files
+	 */
+	public void setScriptAsyncCopies(int scriptAsyncCopies) {
+		this.scriptAsyncCopies = scriptAsyncCopies;
+	}
+
+	/**
+	 * Sets the maximum number of tasks run at once that will be written to script
+	 * file.
+	 * 
+	 * @param scriptConcurrentTasks
+	 *          (int) number of tasks
+	 */
+	public void setScriptConcurrentTasks(int scriptConcurrentTasks) {
+		this.scriptConcurrentTasks = scriptConcurrentTasks;
+	}
+
+	/**
+	 * Sets the size from which files are copied in parallel ranges that will be
+	 * written to script file.
+	 * 
+	 * @param scriptParallelSize
+	 *          (long) size in bytes
+	 */
+	public void setScriptParallelSize(long scriptParallelSize) {
+		this.scriptParallelSize = scriptParallelSize;
+	}
+
+	/**
+	 * Sets the bytes per second copied by the whole run that will be written to
+	 * script file.
+	 * 
+	 * @param scriptBytesPerSecond
+	 *          (long) bytes per second
+	 */
+	public void setScriptBytesPerSecond(long scriptBytesPerSecond) {
+		this.scriptBytesPerSecond = scriptBytesPerSecond;
+	}
+
+	/**
+	 * Sets the files per second examined by the whole run that will be written
+	 * to script file.
+	 * 
+	 * @param scriptFilesPerSecond
+	 *          (long) files per second
+	 */
+	public void setScriptFilesPerSecond(long scriptFilesPerSecond) {
+		this.scriptFilesPerSecond = scriptFilesPerSecond;
+	}
+
+	/**
+	 * Sets the files open for copying at once by the whole run that will be
+	 * written to script file.
+	 * 
+	 * @param scriptMaxOpen
+	 *          (int) number of files
+	 */
+	public void setScriptMaxOpen(int scriptMaxOpen) {
+		this.scriptMaxOpen = scriptMaxOpen;
+	}
+
+	/**
+	 * Sets the number of copies at once on devices with no limit of their own
+	 * that will be written to script file.
+	 * 
+	 * @param scriptDefaultDeviceLimit
+	 *          (int) number of copies
+	 */
+	public void setScriptDefaultDeviceLimit(int scriptDefaultDeviceLimit) {
+		this.scriptDefaultDeviceLimit = scriptDefaultDeviceLimit;
+	}
+
+	/**
+	 * Adds the number of copies at once on the device of a path that will be
+	 * written to script file.
+	 * 
+	 * @param path
+	 *          (String) any path on the device
+	 * @param limit
+	 *          (int) number of copies
+	 */
+	public void addScriptDeviceLimit(String path, int limit) {
+		this.scriptDeviceLimits.put(path, Integer.valueOf(limit));
+	}
+
 	/**
 	 * Creates a new instance of ScriptWriter
 	 **/
@@ -113,6 +329,78 @@ public class ScriptWriter
 				bw.write("<log-folder>" + scriptLogFolder + "</log-folder>");
 			}
 
+			// write engine if one defined
+			if (scriptEngine >= 0) {
+				bw.write("<engine>" + Backup.getEngineName(scriptEngine) + "</engine>");
+			}
+
+			// write number of threads if defined
+			if (scriptThreads > 0) {
+				bw.write("<threads>" + scriptThreads + "</threads>");
+			}
+
+			// write state folder if one defined
+			if (scriptStateFolder != null) {
+				bw.write("<state-folder>" + scriptStateFolder + "</state-folder>");
+			}
+
+			// write verify interval if defined
+			if (scriptVerifyInterval > 0) {
+				bw.write("<verify-interval>" + scriptVerifyInterval
+						+ "</verify-interval>");
+			}
+
+			// write full scan interval if defined
+			if (scriptFullScanInterval >= 0) {
+				bw.write("<full-scan-interval>" + scriptFullScanInterval
+						+ "</full-scan-interval>");
+			}
+
+			// write watch debounce if defined
+			if (scriptWatchDebounce >= 0) {
+				bw.write("<watch-debounce>" + scriptWatchDebounce
+						+ "</watch-debounce>");
+			}
+
+			// write async copies if defined
+			if (scriptAsyncCopies > 0) {
+				bw.write("<async-copies>" + scriptAsyncCopies + "</async-copies>");
+			}
+
+			// write concurrent tasks if defined
+			if (scriptConcurrentTasks > 0) {
+				bw.write("<concurrent-tasks>" + scriptConcurrentTasks
+						+ "</concurrent-tasks>");
+			}
+
+			// write parallel size if defined
+			if (scriptParallelSize >= 0) {
+				bw.write("<parallel-size>" + scriptParallelSize + "</parallel-size>");
+			}
+
+			// write throttle of the whole run if defined
+			if (scriptBytesPerSecond >= 0) {
+				bw.write("<bytes-per-second>" + scriptBytesPerSecond
+						+ "</bytes-per-second>");
+			}
+			if (scriptFilesPerSecond >= 0) {
+				bw.write("<files-per-second>" + scriptFilesPerSecond
+						+ "</files-per-second>");
+			}
+			if (scriptMaxOpen >= 0) {
+				bw.write("<max-open>" + scriptMaxOpen + "</max-open>");
+			}
+
+			// write device limits if defined
+			if (scriptDefaultDeviceLimit > 0) {
+				bw.write("<device-limit>" + scriptDefaultDeviceLimit
+						+ "</device-limit>");
+			}
+			for (Map.Entry<String, Integer> e : scriptDeviceLimits.entrySet()) {
+				bw.write("<device-limit path=\"" + e.getKey() + "\">" + e.getValue()
+						+ "</device-limit>");
+			}
+
 			// write tags for each task
 			for (int i = 0; i < this.tasks.length; i++) {
 				String sXML = this.taskToXML(this.tasks[i]);
@@ -150,6 +438,37 @@ public class ScriptWriter
 		if (task.isActive()) sb.append("active=\"on\" ");
 		else sb.append("active=\"off\" ");
 
+		if (task.isIndex()) sb.append("index=\"on\" ");
+
+		if (task.isIncremental()) sb.append("incremental=\"on\" ");
+
+		if (task.isDedup()) sb.append("dedup=\"on\" ");
+
+		if (task.isCompress()) sb.append("compress=\"on\" ");
+
+		if (task.isArchive()) sb.append("archive=\"on\" ");
+
+		if (task.isDurable()) sb.append("durable=\"on\" ");
+
+		if (task.isManifest()) sb.append("manifest=\"on\" ");
+
+		if (task.isVerifyCopy()) sb.append("verify-copy=\"on\" ");
+
+		if (task.getSnapshots() > 0) sb.append("snapshots=\""
+				+ task.getSnapshots() + "\" ");
+
+		if (task.getDeltaSize() > 0) sb.append("delta-size=\""
+				+ task.getDeltaSize() + "\" ");
+
+		if (task.getBytesPerSecond() > 0) sb.append("bytes-per-second=\""
+				+ task.getBytesPerSecond() + "\" ");
+
+		if (task.getFilesPerSecond() > 0) sb.append("files-per-second=\""
+				+ task.getFilesPerSecond() + "\" ");
+
+		if (task.getMaxOpen() > 0) sb.append("max-open=\""
+				+ task.getMaxOpen() + "\" ");
+
 		sb.append(">");
 		sb.append(sNewLine);
 
@@ -0,0 +1,278 @@
+/**
+ * Snapshot.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * A dated snapshot of a task source, written to its own folder below the task
+ * destination. Each run of a task with snapshots makes a new snapshot, named
+ * by the time it started, for example <code>2026-10-16_220500</code>.
+ * </p>
+ *
+ * <p>
+ * The task rule is evaluated against the previous snapshot. A file the rule
+ * finds unchanged is hard linked to the file of the previous snapshot rather
+ * than copied, as rsync does with <code>--link-dest</code>, so a snapshot only
+ * costs the files that changed.
+ * </p>
+ *
+ * <p>
+ * A snapshot is written to a folder with the <code>.altair-partial</code>
+ * suffix, which is renamed once the task completes. A run that dies or is
+ * stopped leaves the partial snapshot, and the next run carries on with it.
+ * Once complete, the oldest snapshots beyond the number the task keeps are
+ * deleted.
+ * </p>
+ *
+ * @author agulland
+ */
+public class Snapshot
+{
+	/** define logging object */
+	private static final BackupLogger logger = BackupLogger.getLogger();
+
+	/** format of snapshot names, names sort in the order they were made */
+	private static final String NAME_FORMAT = "yyyy-MM-dd_HHmmss";
+
+	/** names of complete snapshots, a number is added if a name is taken */
+	private static final Pattern NAME_PATTERN = Pattern
+			.compile("\\d{4}-\\d{2}-\\d{2}_\\d{6}(-\\d+)?");
+
+	/** the task destination, holding the snapshots */
+	private final Path folder;
+
+	/** the latest complete snapshot or null if there is none */
+	private final Path previous;
+
+	/** name of this snapshot */
+	private final String name;
+
+	/** the folder this snapshot is written to until complete */
+	private final Path partial;
+
+	/** false once the file system has been found not to support hard links */
+	private volatile boolean linksSupported = true;
+
+	/** files linked to the previous snapshot and their total size */
+	private final AtomicLong filesLinked = new AtomicLong();
+	private final AtomicLong bytesLinked = new AtomicLong();
+
+	/**
+	 * Creates a snapshot
+	 */
+	private Snapshot(Path folder, Path previous, String name) {
+		this.folder = folder;
+		this.previous = previous;
+		this.name = name;
+		this.partial = folder.resolve(name + BackupUtil.PARTIAL_SUFFIX);
+	}
+
+	/**
+	 * Starts a snapshot of a task, or carries on with the partial snapshot left
+	 * by a run that didn't complete
+	 *
+	 * @param folder
+	 *          the task destination
+	 * @return the snapshot
+	 */
+	public static Snapshot open(Path folder) {
+		List<String> complete = list(folder);
+		Path previous = null;
+		if (!complete.isEmpty()) previous = folder.resolve(complete.get(complete
+				.size() - 1));
+
+		String name = null;
+		File[] contents = folder.toFile().listFiles();
+		for (int i = 0; (contents != null) && (i < contents.length); i++) {
+			String base = BackupUtil.getPartialBaseName(contents[i].getName());
+			if ((base != null) && (contents[i].isDirectory())
+					&& (NAME_PATTERN.matcher(base).matches())) {
+				name = base;
+				logger.info("Continuing snapshot '" + name + "'");
+				break;
+			}
+		}
+
+		if (name == null) {
+			String stamp = new SimpleDateFormat(NAME_FORMAT).format(new Date());
+			name = stamp;
+			for (int n = 2; complete.contains(name); n++) {
+				name = stamp + "-" + n;
+			}
+		}
+		return new Snapshot(folder, previous, name);
+	}
+
+	/**
+	 * Returns the latest complete snapshot of a task
+	 *
+	 * @param folder
+	 *          the task destination
+	 * @return the snapshot folder or null if there is none
+	 */
+	public static Path getLatest(Path folder) {
+		List<String> complete = list(folder);
+		if (complete.isEmpty()) return null;
+		return folder.resolve(complete.get(complete.size() - 1));
+	}
+
+	/**
+	 * Returns the names of the complete snapshots in a folder, oldest first
+	 */
+	private static List<String> list(Path folder) {
+		List<String> names = new ArrayList<String>();
+		File[] contents = folder.toFile().listFiles();
+		for (int i = 0; (contents != null) && (i < contents.length); i++) {
+			if ((contents[i].isDirectory())
+					&& (NAME_PATTERN.matcher(contents[i].getName()).matches())) {
+				names.add(contents[i].getName());
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * Returns the folder the snapshot is written to
+	 *
+	 * @return the folder
+	 */
+	public Path getFolder() {
+		return partial;
+	}
+
+	/**
+	 * Returns the name of the snapshot
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns a file of the previous snapshot
+	 *
+	 * @param relative
+	 *          path of the file relative to the task folder
+	 * @return the file or null if there is no previous snapshot
+	 */
+	public Path getPrevious(String relative) {
+		if (previous == null) return null;
+		return previous.resolve(relative);
+	}
+
+	/**
+	 * Links a file of the snapshot to the same file of the previous snapshot
+	 *
+	 * @param previousFile
+	 *          the file of the previous snapshot
+	 * @param destination
+	 *          the file of this snapshot
+	 * @param sourceAttrs
+	 *          attributes of the source file
+	 * @return true if linked, false if the file has to be copied instead
+	 */
+	public boolean link(Path previousFile, Path destination,
+			BasicFileAttributes sourceAttrs) {
+		if (!linksSupported) return false;
+		try {
+			// a run carried on may have linked the file already
+			if (Files.exists(destination, LinkOption.NOFOLLOW_LINKS)) {
+				if (Files.isSameFile(previousFile, destination)) return true;
+				Files.delete(destination);
+			}
+			Files.createLink(destination, previousFile);
+			logger.trace("Linked " + destination + " to previous snapshot");
+			filesLinked.incrementAndGet();
+			bytesLinked.addAndGet(sourceAttrs.size());
+			return true;
+		} catch (UnsupportedOperationException e) {
+			logger.warn("Destination can't hold hard links, unchanged files are"
+					+ " copied to each snapshot");
+			linksSupported = false;
+			return false;
+		} catch (IOException e) {
+			// for example the file has as many links as the file system allows
+			logger.detail("Could not link " + destination + ", exception thrown: "
+					+ e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Renames the snapshot folder to the snapshot name then deletes the oldest
+	 * snapshots beyond the number to keep
+	 *
+	 * @param keep
+	 *          number of snapshots to keep, including this one
+	 */
+	public void complete(int keep) {
+		Path target = folder.resolve(name);
+		try {
+			Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.warn("Could not complete snapshot '" + name
+					+ "', exception thrown: " + e.getMessage());
+			return;
+		}
+		logger.info(toString());
+
+		List<String> complete = list(folder);
+		for (int i = 0; i < complete.size() - keep; i++) {
+			logger.info("Deleting snapshot '" + complete.get(i) + "'");
+			BackupUtil.deleteFolder(folder.resolve(complete.get(i)).toFile());
+		}
+	}
+
+	/**
+	 * Returns the number of files linked to the previous snapshot
+	 *
+	 * @return number of files
+	 */
+	public long getFilesLinked() {
+		return filesLinked.get();
+	}
+
+	/**
+	 * Returns the total size of the files linked to the previous snapshot, the
+	 * bytes not copied
+	 *
+	 * @return size in bytes
+	 */
+	public long getBytesLinked() {
+		return bytesLinked.get();
+	}
+
+	/**
+	 * Returns the snapshot in a nicely formatted string
+	 */
+	public String toString() {
+		String s = "Snapshot '" + name + "'";
+		if (previous != null) s += ", " + getFilesLinked()
+				+ " files linked to snapshot '" + previous.getFileName() + "' ("
+				+ getBytesLinked() + " bytes not copied)";
+		return s;
+	}
+}
@@ -0,0 +1,553 @@
+/**
+ * TaskContext.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Holds the copy executor and devices of the task
+ * agulland 16 Oct 2026 Holds the metric of the task once complete
+ * agulland 16 Oct 2026 Holds the progress of the run the task belongs to
+ * agulland 16 Oct 2026 Holds the monitor checked during large file copies
+ * agulland 16 Oct 2026 Holds the run journal of the task
+ * agulland 16 Oct 2026 Holds the hash cache of the checksum rule
+ * agulland 16 Oct 2026 Holds the dedup store of the destination
+ * agulland 16 Oct 2026 Holds the snapshot written or restored
+ * agulland 16 Oct 2026 Holds the compressor of the task
+ * agulland 16 Oct 2026 Holds the archive of the task
+ * agulland 16 Oct 2026 Holds the copy strategies of the task
+ * agulland 16 Oct 2026 Holds the group commit of durable copies
+ * agulland 16 Oct 2026 Holds the throttle of the task
+ * agulland 16 Oct 2026 Holds the manifest of the task
+ */
+package com.gulland.altair;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Holds the state of a single task while it is being processed. A context is
+ * created by <code>Backup</code> at the start of each task and shared by every
+ * folder of the task, whichever thread processes it.
+ *
+ * @author agulland
+ */
+class TaskContext
+{
+	/** the task as defined in the script file */
+	private final BackupTask task;
+
+	/** restore mode flag */
+	private final boolean isRestore;
+
+	/** folder files are read from, the task destination when restoring */
+	private Path sourceRoot;
+
+	/** folder files are written to, the task source when restoring */
+	private Path destinationRoot;
+
+	/** snapshot written by the task, null if the task doesn't keep snapshots */
+	private Snapshot snapshot;
+
+	/** index of the destination or null if the task doesn't use one */
+	private DestinationIndex index;
+
+	/** state of the source folders or null if the task doesn't scan incrementally */
+	private FolderState folderState;
+
+	/** hashes of the files or null if the task doesn't use the checksum rule */
+	private HashCache hashCache;
+
+	/** store of the destination contents or null if the task doesn't dedup */
+	private DedupStore dedupStore;
+
+	/** compresses the files written, null if the task doesn't compress */
+	private BlockCompressor compressor;
+
+	/** archive holding the files of the task, null if the task isn't archived */
+	private ArchiveStore archive;
+
+	/** copy strategy of each size of file, null for the defaults */
+	private CopyStrategy.Selection copyStrategies;
+
+	/** commits durable copies, null if the task doesn't write durably */
+	private GroupCommit groupCommit;
+
+	/** limits the rate the task copies at, null for no limits */
+	private Throttle throttle;
+
+	/** checksums of the files copied, null if copies aren't checksummed */
+	private Manifest manifest;
+
+	/** journal of the work done in this run or null if the task doesn't keep one */
+	private RunJournal journal;
+
+	/** executor for asynchronous copies or null if files are copied in line */
+	private CopyExecutor copyExecutor;
+
+	/** devices of the source and destination, null if not scheduled */
+	private DeviceScheduler.Device sourceDevice;
+	private DeviceScheduler.Device destinationDevice;
+
+	/** progress of the run, shared by the tasks of the run */
+	private BackupProgress progress = new BackupProgress();
+
+	/** checked for pause and stop during large file copies, may be null */
+	private CopyMonitor monitor;
+
+	/** metric of the task and time it took, set once complete */
+	private BackupMetric metric;
+	private long elapsed;
+
+	/**
+	 * Creates a new context for the given task
+	 *
+	 * @param task
+	 *          the task being processed
+	 * @param isRestore
+	 *          if true then the task executes in restore mode
+	 */
+	TaskContext(BackupTask task, boolean isRestore) {
+		this.task = task;
+		this.isRestore = isRestore;
+		if (isRestore) {
+			this.sourceRoot = Paths.get(task.getDestination());
+			this.destinationRoot = Paths.get(task.getSource());
+		} else {
+			this.sourceRoot = Paths.get(task.getSource());
+			this.destinationRoot = Paths.get(task.getDestination());
+		}
+	}
+
+	/**
+	 * Returns the task being processed
+	 *
+	 * @return the task
+	 */
+	BackupTask getTask() {
+		return task;
+	}
+
+	/**
+	 * Returns the rule of the task
+	 *
+	 * @return the rule
+	 */
+	int getRule() {
+		return task.getRule();
+	}
+
+	/**
+	 * Returns true if the task executes in restore mode
+	 *
+	 * @return restore mode flag
+	 */
+	boolean isRestore() {
+		return isRestore;
+	}
+
+	/**
+	 * Returns the folder files are read from, accounting for restore mode
+	 *
+	 * @return the source folder
+	 */
+	Path getSourceRoot() {
+		return sourceRoot;
+	}
+
+	/**
+	 * Returns the folder files are written to, accounting for restore mode
+	 *
+	 * @return the destination folder
+	 */
+	Path getDestinationRoot() {
+		return destinationRoot;
+	}
+
+	/**
+	 * Returns the snapshot written by the task
+	 *
+	 * @return the snapshot or null if the task doesn't keep snapshots or is
+	 *         restoring
+	 */
+	Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Sets the snapshot written by the task, files are then written to the
+	 * snapshot folder
+	 *
+	 * @param snapshot
+	 *          the snapshot
+	 */
+	void setSnapshot(Snapshot snapshot) {
+		this.snapshot = snapshot;
+		this.destinationRoot = snapshot.getFolder();
+	}
+
+	/**
+	 * Sets the folder files are restored from, the snapshot to restore
+	 *
+	 * @param sourceRoot
+	 *          the snapshot folder
+	 */
+	void setRestoreRoot(Path sourceRoot) {
+		this.sourceRoot = sourceRoot;
+	}
+
+	/**
+	 * Returns the destination index
+	 *
+	 * @return the index or null if the task doesn't use one
+	 */
+	DestinationIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Sets the destination index
+	 *
+	 * @param index
+	 *          the index
+	 */
+	void setIndex(DestinationIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Returns the state of the source folders used by an incremental scan
+	 *
+	 * @return the folder state or null if the task doesn't scan incrementally
+	 */
+	FolderState getFolderState() {
+		return folderState;
+	}
+
+	/**
+	 * Sets the state of the source folders used by an incremental scan
+	 *
+	 * @param folderState
+	 *          the folder state
+	 */
+	void setFolderState(FolderState folderState) {
+		this.folderState = folderState;
+	}
+
+	/**
+	 * Returns the cache of file hashes used by the checksum rule
+	 *
+	 * @return the cache or null if the task doesn't use the checksum rule
+	 */
+	HashCache getHashCache() {
+		return hashCache;
+	}
+
+	/**
+	 * Sets the cache of file hashes used by the checksum rule
+	 *
+	 * @param hashCache
+	 *          the cache
+	 */
+	void setHashCache(HashCache hashCache) {
+		this.hashCache = hashCache;
+	}
+
+	/**
+	 * Returns the store the destination files are linked to
+	 *
+	 * @return the store or null if the task doesn't dedup
+	 */
+	DedupStore getDedupStore() {
+		return dedupStore;
+	}
+
+	/**
+	 * Sets the store the destination files are linked to
+	 *
+	 * @param dedupStore
+	 *          the store
+	 */
+	void setDedupStore(DedupStore dedupStore) {
+		this.dedupStore = dedupStore;
+	}
+
+	/**
+	 * Returns the compressor of the files backed up and restored
+	 *
+	 * @return the compressor or null if the task doesn't compress
+	 */
+	BlockCompressor getCompressor() {
+		return compressor;
+	}
+
+	/**
+	 * Sets the compressor of the files backed up and restored
+	 *
+	 * @param compressor
+	 *          the compressor
+	 */
+	void setCompressor(BlockCompressor compressor) {
+		this.compressor = compressor;
+	}
+
+	/**
+	 * Returns the archive holding the files of the task
+	 *
+	 * @return the archive or null if the task isn't archived
+	 */
+	ArchiveStore getArchive() {
+		return archive;
+	}
+
+	/**
+	 * Sets the archive holding the files of the task
+	 *
+	 * @param archive
+	 *          the archive
+	 */
+	void setArchive(ArchiveStore archive) {
+		this.archive = archive;
+	}
+
+	/**
+	 * Returns the copy strategy of each size of file
+	 *
+	 * @return the strategies or null for the defaults
+	 */
+	CopyStrategy.Selection getCopyStrategies() {
+		return copyStrategies;
+	}
+
+	/**
+	 * Sets the copy strategy of each size of file
+	 *
+	 * @param copyStrategies
+	 *          the strategies
+	 */
+	void setCopyStrategies(CopyStrategy.Selection copyStrategies) {
+		this.copyStrategies = copyStrategies;
+	}
+
+	/**
+	 * Returns the group commit of the durable copies of the task
+	 *
+	 * @return the group commit or null if the task doesn't write durably
+	 */
+	GroupCommit getGroupCommit() {
+		return groupCommit;
+	}
+
+	/**
+	 * Sets the group commit of the durable copies of the task
+	 *
+	 * @param groupCommit
+	 *          the group commit
+	 */
+	void setGroupCommit(GroupCommit groupCommit) {
+		this.groupCommit = groupCommit;
+	}
+
+	/**
+	 * Returns the throttle of the task
+	 *
+	 * @return the throttle or null if the task isn't throttled
+	 */
+	Throttle getThrottle() {
+		return throttle;
+	}
+
+	/**
+	 * Sets the throttle of the task
+	 *
+	 * @param throttle
+	 *          the throttle
+	 */
+	void setThrottle(Throttle throttle) {
+		this.throttle = throttle;
+	}
+
+	/**
+	 * Returns the manifest of the checksums of the files copied by the task
+	 *
+	 * @return the manifest or null if copies aren't checksummed
+	 */
+	Manifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Sets the manifest of the checksums of the files copied by the task
+	 *
+	 * @param manifest
+	 *          the manifest
+	 */
+	void setManifest(Manifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Returns the journal of the work done on the task in this run
+	 *
+	 * @return the journal or null if the task doesn't keep one
+	 */
+	RunJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Sets the journal of the work done on the task in this run
+	 *
+	 * @param journal
+	 *          the journal
+	 */
+	void setJournal(RunJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Returns the executor for asynchronous copies
+	 *
+	 * @return the executor or null if files are copied in line
+	 */
+	CopyExecutor getCopyExecutor() {
+		return copyExecutor;
+	}
+
+	/**
+	 * Sets the executor for asynchronous copies
+	 *
+	 * @param copyExecutor
+	 *          the executor
+	 */
+	void setCopyExecutor(CopyExecutor copyExecutor) {
+		this.copyExecutor = copyExecutor;
+	}
+
+	/**
+	 * Returns the device files are read from
+	 *
+	 * @return the device or null if copies are not scheduled by device
+	 */
+	DeviceScheduler.Device getSourceDevice() {
+		return sourceDevice;
+	}
+
+	/**
+	 * Returns the device files are written to
+	 *
+	 * @return the device or null if copies are not scheduled by device
+	 */
+	DeviceScheduler.Device getDestinationDevice() {
+		return destinationDevice;
+	}
+
+	/**
+	 * Sets the devices files are read from and written to
+	 *
+	 * @param sourceDevice
+	 *          the source device
+	 * @param destinationDevice
+	 *          the destination device
+	 */
+	void setDevices(DeviceScheduler.Device sourceDevice,
+			DeviceScheduler.Device destinationDevice) {
+		this.sourceDevice = sourceDevice;
+		this.destinationDevice = destinationDevice;
+	}
+
+	/**
+	 * Returns the progress of the run the task belongs to
+	 *
+	 * @return the live progress
+	 */
+	BackupProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Sets the progress of the run the task belongs to
+	 *
+	 * @param progress
+	 *          the live progress
+	 */
+	void setProgress(BackupProgress progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * Returns the monitor checked for pause and stop during large file copies
+	 *
+	 * @return the monitor or null if copies can't be stopped part way
+	 */
+	CopyMonitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * Sets the monitor checked for pause and stop during large file copies
+	 *
+	 * @param monitor
+	 *          the monitor
+	 */
+	void setMonitor(CopyMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Returns the metric of the task
+	 *
+	 * @return the metric or null if the task is not complete
+	 */
+	BackupMetric getMetric() {
+		return metric;
+	}
+
+	/**
+	 * Returns the time the task took
+	 *
+	 * @return time in milliseconds
+	 */
+	long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * Sets the metric of the task once complete
+	 *
+	 * @param metric
+	 *          the metric
+	 * @param elapsed
+	 *          time the task took in milliseconds
+	 */
+	void setMetric(BackupMetric metric, long elapsed) {
+		this.metric = metric;
+		this.elapsed = elapsed;
+	}
+
+	/**
+	 * Returns the relative path of the folder containing an entry
+	 *
+	 * @param relative
+	 *          relative path of the entry
+	 * @return relative path of its folder, empty for the task folder
+	 */
+	static String parentPath(String relative) {
+		int i = relative.lastIndexOf('/');
+		if (i < 0) return "";
+		else return relative.substring(0, i);
+	}
+
+	/**
+	 * Returns the relative path of an entry in a folder
+	 *
+	 * @param relative
+	 *          relative path of the folder, empty for the task folder
+	 * @param name
+	 *          name of the entry
+	 * @return the relative path of the entry, using '/' as separator
+	 */
+	static String childPath(String relative, String name) {
+		if (relative.length() == 0) return name;
+		else return relative + "/" + name;
+	}
+}
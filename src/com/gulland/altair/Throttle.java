@@ -0,0 +1,370 @@
+/**
+ * Throttle.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Limits the rate a backup reads and writes at, so it can run beside
+ * production work without starving it of I/O. There are three limits, each
+ * off when 0,
+ * </p>
+ *
+ * <ul>
+ * <li>bytes per second copied, counted chunk by chunk as large files are
+ * copied</li>
+ * <li>files per second examined by the scan, each a stat and perhaps a copy</li>
+ * <li>files open for copying at once</li>
+ * </ul>
+ *
+ * <p>
+ * The rates are token buckets holding up to a second of tokens. A thread takes
+ * the tokens it needs, running into debt if there aren't enough, and waits
+ * until the debt is repaid, so the rate holds however many threads share the
+ * throttle. The limits can be changed at any time, a thread already waiting
+ * waits at the new rate.
+ * </p>
+ *
+ * <p>
+ * A backup has a throttle for the whole run and each task one of its own,
+ * whose parent is that of the run. Both apply to every file of the task.
+ * </p>
+ *
+ * @author agulland
+ */
+public class Throttle
+{
+	/** longest a thread sleeps before looking at the rate again */
+	private static final long MAX_SLEEP = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/** the throttle of the run for a task throttle, otherwise null */
+	private final Throttle parent;
+
+	/** bytes copied and files examined */
+	private final Bucket bytes = new Bucket();
+	private final Bucket files = new Bucket();
+
+	/** most files open at once, 0 for no limit */
+	private int maxOpen;
+
+	/** files open now */
+	private int open;
+
+	/**
+	 * lock of the files open, a lock rather than a monitor so a virtual thread
+	 * waiting to open a file isn't pinned
+	 */
+	private final ReentrantLock openLock = new ReentrantLock();
+
+	/** signalled when a file is closed or the limit changes */
+	private final Condition openChanged = openLock.newCondition();
+
+	/** time spent waiting on this throttle */
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	/**
+	 * Creates a throttle with no limits
+	 *
+	 * @param parent
+	 *          the throttle also applied, may be null
+	 */
+	public Throttle(Throttle parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Returns the bytes per second copied
+	 *
+	 * @return bytes per second, 0 for no limit
+	 */
+	public long getBytesPerSecond() {
+		return bytes.rate;
+	}
+
+	/**
+	 * Sets the bytes per second copied
+	 *
+	 * @param bytesPerSecond
+	 *          bytes per second, 0 for no limit
+	 */
+	public void setBytesPerSecond(long bytesPerSecond) {
+		bytes.setRate(bytesPerSecond);
+	}
+
+	/**
+	 * Returns the files per second examined
+	 *
+	 * @return files per second, 0 for no limit
+	 */
+	public long getFilesPerSecond() {
+		return files.rate;
+	}
+
+	/**
+	 * Sets the files per second examined
+	 *
+	 * @param filesPerSecond
+	 *          files per second, 0 for no limit
+	 */
+	public void setFilesPerSecond(long filesPerSecond) {
+		files.setRate(filesPerSecond);
+	}
+
+	/**
+	 * Returns the most files open for copying at once
+	 *
+	 * @return number of files, 0 for no limit
+	 */
+	public int getMaxOpen() {
+		openLock.lock();
+		try {
+			return maxOpen;
+		} finally {
+			openLock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the most files open for copying at once. Lowering the limit doesn't
+	 * close files already open, it takes effect as they are closed.
+	 *
+	 * @param maxOpen
+	 *          number of files, 0 for no limit
+	 */
+	public void setMaxOpen(int maxOpen) {
+		openLock.lock();
+		try {
+			this.maxOpen = Math.max(0, maxOpen);
+			openChanged.signalAll();
+		} finally {
+			openLock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until a number of bytes may be copied
+	 *
+	 * @param count
+	 *          number of bytes
+	 * @param monitor
+	 *          stops the wait once cancelled, may be null
+	 */
+	public void acquireBytes(long count, CopyMonitor monitor) {
+		pay(bytes, count, monitor);
+		if (parent != null) parent.acquireBytes(count, monitor);
+	}
+
+	/**
+	 * Waits until another file may be examined
+	 *
+	 * @param monitor
+	 *          stops the wait once cancelled, may be null
+	 */
+	public void acquireFile(CopyMonitor monitor) {
+		pay(files, 1, monitor);
+		if (parent != null) parent.acquireFile(monitor);
+	}
+
+	/**
+	 * Waits until another file may be opened for copying. Every call must be
+	 * followed by a call to <code>close</code>.
+	 */
+	public void open() {
+		openLock.lock();
+		try {
+			if ((maxOpen > 0) && (open >= maxOpen)) {
+				long start = System.nanoTime();
+				while ((maxOpen > 0) && (open >= maxOpen)) {
+					try {
+						openChanged.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+				waitNanos.addAndGet(System.nanoTime() - start);
+			}
+			open++;
+		} finally {
+			openLock.unlock();
+		}
+		if (parent != null) parent.open();
+	}
+
+	/**
+	 * Returns the permit taken by <code>open</code>
+	 */
+	public void close() {
+		if (parent != null) parent.close();
+		openLock.lock();
+		try {
+			open--;
+			openChanged.signal();
+		} finally {
+			openLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns true if any limit is set
+	 *
+	 * @return true if limited
+	 */
+	public boolean isLimited() {
+		return (bytes.rate > 0) || (files.rate > 0) || (getMaxOpen() > 0);
+	}
+
+	/**
+	 * Returns a monitor that charges a copy of a file to this throttle chunk by
+	 * chunk, as the copy checks the monitor between chunks. Whatever hasn't
+	 * been charged once the copy is over is charged by <code>finish</code>.
+	 *
+	 * @param monitor
+	 *          the monitor of the copy, may be null
+	 * @param size
+	 *          size of the file
+	 * @return the monitor to copy the file with
+	 */
+	public Meter meter(CopyMonitor monitor, long size) {
+		return new Meter(monitor, size);
+	}
+
+	/**
+	 * Takes tokens from a bucket and waits until any debt is repaid
+	 */
+	private void pay(Bucket bucket, long count, CopyMonitor monitor) {
+		if (bucket.rate <= 0) return;
+		long wait = bucket.take(count);
+		if (wait <= 0) return;
+
+		long start = System.nanoTime();
+		try {
+			while ((wait > 0) && ((monitor == null) || (!monitor.isCancelled()))) {
+				TimeUnit.NANOSECONDS.sleep(Math.min(wait, MAX_SLEEP));
+				wait = bucket.take(0);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		waitNanos.addAndGet(System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns the limits and the time waited in a nicely formatted string
+	 */
+	public String toString() {
+		int maxOpen = getMaxOpen();
+		return "Throttle: "
+				+ ((bytes.rate > 0) ? bytes.rate + " bytes/s" : "no byte limit") + ", "
+				+ ((files.rate > 0) ? files.rate + " files/s" : "no file limit") + ", "
+				+ ((maxOpen > 0) ? maxOpen + " open" : "no open limit") + ", waited "
+				+ TimeUnit.NANOSECONDS.toMillis(waitNanos.get()) + "ms";
+	}
+
+	/**
+	 * A token bucket holding up to a second of tokens
+	 */
+	private static class Bucket
+	{
+		/** tokens added per second, 0 for no limit */
+		volatile long rate;
+
+		/** tokens held, negative when in debt */
+		private double tokens;
+
+		/** time tokens were last added */
+		private long last = System.nanoTime();
+
+		/**
+		 * Changes the rate, the tokens held are kept up to the new limit
+		 */
+		synchronized void setRate(long rate) {
+			refill();
+			this.rate = Math.max(0, rate);
+			if (tokens > this.rate) tokens = this.rate;
+		}
+
+		/**
+		 * Takes tokens
+		 *
+		 * @return nanoseconds until the debt is repaid, 0 if not in debt
+		 */
+		synchronized long take(long count) {
+			refill();
+			long r = rate;
+			if (r <= 0) {
+				tokens = 0;
+				return 0;
+			}
+			tokens -= count;
+			return (tokens >= 0) ? 0 : (long) Math.ceil(-tokens * 1e9 / r);
+		}
+
+		/**
+		 * Adds the tokens due since the last call
+		 */
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(rate, tokens + (now - last) * (rate / 1e9));
+			last = now;
+		}
+	}
+
+	/**
+	 * Charges a copy to the throttle as it checks its monitor
+	 */
+	public class Meter implements CopyMonitor
+	{
+		/** the monitor of the copy, may be null */
+		private final CopyMonitor monitor;
+
+		/** bytes not charged yet */
+		private final AtomicLong remaining;
+
+		Meter(CopyMonitor monitor, long size) {
+			this.monitor = monitor;
+			this.remaining = new AtomicLong(size);
+		}
+
+		public boolean isCancelled() {
+			return (monitor != null) && (monitor.isCancelled());
+		}
+
+		/**
+		 * Waits if paused then for the next chunk to be allowed
+		 */
+		public void waitIfPaused() {
+			if (monitor != null) monitor.waitIfPaused();
+			charge(BackupUtil.CHUNK_SIZE);
+		}
+
+		/**
+		 * Charges the bytes not charged yet
+		 */
+		public void finish() {
+			charge(Long.MAX_VALUE);
+		}
+
+		/**
+		 * Charges up to a number of bytes
+		 */
+		private void charge(long count) {
+			long n;
+			while (true) {
+				long left = remaining.get();
+				n = Math.min(count, left);
+				if (remaining.compareAndSet(left, left - n)) break;
+			}
+			if (n > 0) acquireBytes(n, monitor);
+		}
+	}
+}
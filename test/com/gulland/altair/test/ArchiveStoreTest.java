@@ -0,0 +1,68 @@
+/**
+ * ArchiveStoreTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.run;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Test;
+import com.gulland.altair.ArchiveStore;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupTask;
+
+
+public class ArchiveStoreTest
+{
+  @Test
+  public void testBackupAndRestore() throws Exception {
+    BackupFixture fixture = new BackupFixture("archive-store");
+    for (int i = 0; i < 50; i++) {
+      fixture.write("sub/file" + i + ".txt", "content " + i);
+    }
+    fixture.write("gone.txt", "gone");
+
+    BackupTask task = fixture.task(BackupTask.CHANGED);
+    task.setMirrorDelete(true);
+    task.setArchive(true);
+    BackupMetric metric = run(task, false);
+
+    assertEquals("Files archived", 51, metric.getFilesCopied());
+    String[] names = fixture.destination.list();
+    Arrays.sort(names);
+    assertArrayEquals("Only the archive written", new String[] {
+        "archive-00001.dat", ArchiveStore.INDEX_NAME }, names);
+
+    // only the changed file is appended, the deleted file is removed
+    File changed = fixture.write("sub/file7.txt", "changed");
+    changed.setLastModified(changed.lastModified() + 2000);
+    new File(fixture.source, "gone.txt").delete();
+    metric = run(task, false);
+    assertEquals("Changed file archived", 1, metric.getFilesCopied());
+    assertEquals("Deleted file removed", 1, metric.getFilesDeleted());
+
+    BackupTask restore = fixture.restoreTask("restored");
+    restore.setArchive(true);
+    metric = run(restore, true);
+    File restored = new File(restore.getSource());
+    assertEquals("Files restored", 50, metric.getFilesCopied());
+    assertEquals("Changed file restored", "changed", new String(Files
+        .readAllBytes(new File(restored, "sub/file7.txt").toPath())));
+    assertEquals("File restored", "content 3", new String(Files
+        .readAllBytes(new File(restored, "sub/file3.txt").toPath())));
+    assertEquals("Time stamp restored", changed.lastModified(), new File(
+        restored, "sub/file7.txt").lastModified());
+    assertFalse("Removed file not restored", new File(restored, "gone.txt")
+        .exists());
+
+    fixture.delete();
+  }
+}
@@ -0,0 +1,237 @@
+/**
+ * BackupFixture.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Added backups keeping their state in the fixture
+ * agulland 16 Oct 2026 Runs wait for the job of the backup and return its
+ *                      report
+ * agulland 16 Oct 2026 Added restore tasks and runs of a single task
+ */
+package com.gulland.altair.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupReport;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.BackupUtil;
+
+
+/**
+ * A temporary folder holding the source and destination folders of a task,
+ * shared by the tests that run backups
+ */
+public class BackupFixture
+{
+  /** The temporary folder, deleted by delete() */
+  public final File root;
+
+  /** The source folder of the task */
+  public final File source;
+
+  /** The destination folder of the task, created by the backup */
+  public final File destination;
+
+  /**
+   * Creates a temporary folder with an empty source folder
+   *
+   * @param prefix
+   *          prefix of the temporary folder name
+   */
+  public BackupFixture(String prefix) throws IOException {
+    root = Files.createTempDirectory(prefix).toFile();
+    source = new File(root, "source");
+    destination = new File(root, "destination");
+    source.mkdirs();
+  }
+
+  /**
+   * Writes a file in the source folder, creating its folders
+   *
+   * @param relative
+   *          path of the file relative to the source folder
+   * @param data
+   *          content of the file
+   * @return the file written
+   */
+  public File write(String relative, byte[] data) throws IOException {
+    File file = new File(source, relative);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), data);
+    return file;
+  }
+
+  /**
+   * Writes a text file in the source folder, creating its folders
+   *
+   * @param relative
+   *          path of the file relative to the source folder
+   * @param text
+   *          content of the file
+   * @return the file written
+   */
+  public File write(String relative, String text) throws IOException {
+    return write(relative, text.getBytes());
+  }
+
+  /**
+   * Reads a text file of the destination folder
+   *
+   * @param relative
+   *          path of the file relative to the destination folder
+   * @return content of the file
+   */
+  public String read(String relative) throws IOException {
+    return new String(Files.readAllBytes(new File(destination, relative)
+        .toPath()));
+  }
+
+  /**
+   * Returns an active task that recurses the source folder
+   *
+   * @param rule
+   *          the rule of the task
+   * @return the task
+   */
+  public BackupTask task(int rule) {
+    return task(rule, destination);
+  }
+
+  /**
+   * Returns an active task that recurses the source folder to another
+   * destination
+   *
+   * @param rule
+   *          the rule of the task
+   * @param destination
+   *          the destination folder
+   * @return the task
+   */
+  public BackupTask task(int rule, File destination) {
+    BackupTask task = new BackupTask(source.getPath(), destination.getPath(),
+        rule);
+    task.setRecurse(true);
+    task.setActive(true);
+    return task;
+  }
+
+  /**
+   * Returns an active task that restores the destination folder in full to a
+   * new folder
+   *
+   * @param name
+   *          name of the folder restored to
+   * @return the task
+   */
+  public BackupTask restoreTask(String name) {
+    File restored = new File(root, name);
+    restored.mkdirs();
+    BackupTask task = new BackupTask(restored.getPath(), destination
+        .getPath(), BackupTask.ALL);
+    task.setRecurse(true);
+    task.setActive(true);
+    return task;
+  }
+
+  /**
+   * Returns a backup of a single task that keeps the task state in the
+   * 'state' folder of the fixture
+   *
+   * @param task
+   *          the task
+   * @return the backup
+   */
+  public Backup newBackup(BackupTask task) {
+    Backup backup = new Backup(new BackupTask[] { task });
+    backup.setStateFolder(new File(root, "state"));
+    return backup;
+  }
+
+  /**
+   * Deletes the temporary folder
+   */
+  public void delete() {
+    BackupUtil.deleteFolder(root);
+  }
+
+  /**
+   * Runs a backup and waits for it to complete
+   *
+   * @param backup
+   *          the backup
+   * @param restore
+   *          true to run in restore mode
+   * @return the report of the backup
+   */
+  public static BackupReport run(Backup backup, boolean restore)
+      throws Exception {
+    return backup.submit(restore).get();
+  }
+
+  /**
+   * Runs a single task and waits for it
+   *
+   * @param task
+   *          the task
+   * @param restore
+   *          true to run in restore mode
+   * @return the metric of the task
+   */
+  public static BackupMetric run(BackupTask task, boolean restore)
+      throws Exception {
+    return run(new Backup(new BackupTask[] { task }), restore).getMetric(task);
+  }
+
+  /**
+   * Lists the files below a folder with their size, time stamp and content
+   * checksum, so two trees can be compared with equals
+   *
+   * @param folder
+   *          the folder
+   * @return description of each file keyed by its path relative to the folder
+   */
+  public static Map<String, String> listTree(File folder) throws IOException {
+    Map<String, String> tree = new TreeMap<String, String>();
+    listTree(folder, "", tree);
+    return tree;
+  }
+
+  private static void listTree(File folder, String relative,
+      Map<String, String> tree) throws IOException {
+    for (File file : folder.listFiles()) {
+      String path = relative + file.getName();
+      if (file.isDirectory()) {
+        tree.put(path + "/", "");
+        listTree(file, path + "/", tree);
+      } else {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(file.toPath()));
+        tree.put(path, file.length() + " " + file.lastModified() + " "
+            + crc.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns reproducible random bytes
+   *
+   * @param size
+   *          number of bytes
+   * @param seed
+   *          seed of the random generator
+   * @return the bytes
+   */
+  public static byte[] randomBytes(int size, long seed) {
+    byte[] data = new byte[size];
+    new Random(seed).nextBytes(data);
+    return data;
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * BackupJobTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import org.junit.Test;
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupJob;
+import com.gulland.altair.BackupReport;
+import com.gulland.altair.BackupTask;
+
+
+public class BackupJobTest
+{
+  @Test
+  public void testReport() throws Exception {
+    BackupFixture fixture = new BackupFixture("backup-job");
+    fixture.write("a.txt", new byte[100]);
+    fixture.write("sub/b.txt", new byte[200]);
+
+    BackupTask task = fixture.task(BackupTask.CHANGED);
+    BackupJob job = new Backup(new BackupTask[] { task }).submit(false);
+    BackupReport report = job.get();
+
+    assertTrue("Job done", job.isDone());
+    assertFalse("Report not cancelled", report.isCancelled());
+    assertEquals("Files found", 2, report.getMetric(task).getFilesFound());
+    assertEquals("Files copied", 2, report.getTotal().getFilesCopied());
+    assertEquals("Bytes copied", 300, report.getProgress().getBytesCopied());
+    assertEquals("Progress snapshot", 2, job.getProgress().getFilesScanned());
+    assertEquals("Target file copied", 200, new File(fixture.destination,
+        "sub/b.txt").length());
+
+    fixture.delete();
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ * BackupTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Added test of the pipeline engine
+ * agulland 16 Oct 2026 Added test of overlapping concurrent tasks
+ * agulland 16 Oct 2026 Compares the metrics of the engines
+ * agulland 16 Oct 2026 Added test of mirror delete
+ * agulland 16 Oct 2026 Added test of incremental scans
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.listTree;
+import static com.gulland.altair.test.BackupFixture.randomBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Test;
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupReport;
+import com.gulland.altair.BackupTask;
+
+
+public class BackupTest
+{
+  private static final int[] ENGINES = { Backup.SEQUENTIAL, Backup.FORK_JOIN,
+      Backup.PIPELINE };
+
+  @Test
+  public void testForkJoin() throws Exception {
+    assertSameAsSequential(Backup.FORK_JOIN);
+  }
+
+  @Test
+  public void testPipeline() throws Exception {
+    assertSameAsSequential(Backup.PIPELINE);
+  }
+
+  @Test
+  public void testOverlappingTasks() throws Exception {
+    BackupFixture fixture = new BackupFixture("overlap");
+    for (int i = 0; i < 20; i++) {
+      fixture.write("sub/" + i + ".dat", randomBytes(4 * 1024 * 1024, i));
+    }
+
+    // the second task reads what the first writes, run at once it would find
+    // the first still copying
+    File middle = new File(fixture.root, "middle");
+    File last = new File(fixture.root, "last");
+    BackupTask first = fixture.task(BackupTask.CHANGED, middle);
+    BackupTask second = new BackupTask(middle.getPath(), last.getPath(),
+        BackupTask.CHANGED);
+    second.setRecurse(true);
+    second.setActive(true);
+    File other = new File(fixture.root, "other");
+    BackupTask otherTask = fixture.task(BackupTask.CHANGED, other);
+    Backup backup = new Backup(new BackupTask[] { first, second, otherTask });
+    backup.setConcurrentTasks(3);
+    BackupReport report = BackupFixture.run(backup, false);
+
+    assertEquals("Second task run after the first", 20, report.getMetric(
+        second).getFilesCopied());
+    assertEquals("Whole tree copied through", listTree(fixture.source),
+        listTree(last));
+    assertEquals("Task without overlap run", 20, report.getMetric(otherTask)
+        .getFilesCopied());
+
+    fixture.delete();
+  }
+
+  @Test
+  public void testMirrorDelete() throws Exception {
+    for (int engine : ENGINES) {
+      BackupFixture fixture = new BackupFixture("mirror-delete");
+      fixture.write("a.txt", "source");
+      fixture.write("sub/b.txt", "b");
+      fixture.write("flat/c.txt", "c");
+
+      // the destination of an earlier backup
+      writeDestination(fixture, "a.txt", "kept by rule");
+      writeDestination(fixture, "orphan.txt", "orphan");
+      writeDestination(fixture, "orphan/x.txt", "orphan");
+      writeDestination(fixture, "sub/stale.txt", "stale");
+      writeDestination(fixture, "flat/stale.txt", "stale");
+
+      BackupTask task = fixture.task(BackupTask.NEW);
+      task.setMirrorDelete(true);
+      BackupMetric metric = run(task, engine);
+
+      assertEquals("Orphans deleted", 2, metric.getFilesDeleted());
+      assertFalse("Orphan file deleted", new File(fixture.destination,
+          "orphan.txt").exists());
+      assertFalse("Orphan folder deleted", new File(fixture.destination,
+          "orphan").exists());
+      assertEquals("File skipped by the rule kept", "kept by rule", fixture
+          .read("a.txt"));
+      assertEquals("Subfolders not mirrored", "stale", fixture
+          .read("sub/stale.txt"));
+      assertEquals("New file copied", "b", fixture.read("sub/b.txt"));
+
+      // a folder that isn't recursed is kept with its contents
+      task.setRecurse(false);
+      metric = run(task, engine);
+      assertEquals("Nothing deleted", 0, metric.getFilesDeleted());
+      assertEquals("Folder not recursed kept", "stale", fixture
+          .read("flat/stale.txt"));
+
+      fixture.delete();
+    }
+  }
+
+  @Test
+  public void testIncremental() throws Exception {
+    for (int engine : ENGINES) {
+      BackupFixture fixture = new BackupFixture("incremental");
+      File edited = fixture.write("sub/a.txt", "first");
+      fixture.write("sub/b.txt", "b");
+      setOld(fixture.source);
+      setOld(new File(fixture.source, "sub"));
+
+      BackupTask task = fixture.task(BackupTask.CHANGED);
+      task.setIncremental(true);
+      Backup backup = newBackup(fixture, task, engine);
+      backup.setFullScanInterval(2);
+      assertEquals("Full scan of the first run", 2, backup.submit(false).get()
+          .getMetric(task).getFilesCopied());
+
+      // a file written in place doesn't change the time stamp of its folder
+      Files.write(edited.toPath(), "second".getBytes());
+      edited.setLastModified(edited.lastModified() + 2000);
+      for (int run = 1; run <= 2; run++) {
+        BackupMetric metric = backup.submit(false).get().getMetric(task);
+        assertEquals("Unchanged folder not listed", 0, metric.getFilesCopied());
+        assertEquals("Edited file not seen", "first", fixture
+            .read("sub/a.txt"));
+      }
+
+      // until the full scan made every two runs
+      BackupMetric metric = backup.submit(false).get().getMetric(task);
+      assertEquals("Edited file copied", 1, metric.getFilesCopied());
+      assertEquals("Edited file backed up", "second", fixture
+          .read("sub/a.txt"));
+
+      fixture.delete();
+    }
+  }
+
+  /**
+   * Backs up a tree with the sequential engine and another engine and checks
+   * both write the same destination and metric
+   */
+  private static void assertSameAsSequential(int engine) throws Exception {
+    BackupFixture fixture = new BackupFixture("engine");
+    int seed = 0;
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 3; j++) {
+        for (int k = 0; k < 5; k++) {
+          fixture.write("d" + i + "/e" + j + "/" + k + ".dat", randomBytes(
+              (seed * 7919) % 50000, seed));
+          seed++;
+        }
+      }
+      fixture.write("d" + i + "/top.txt", "top " + i);
+    }
+    new File(fixture.source, "empty").mkdirs();
+    fixture.write("root.txt", "root");
+
+    File sequential = new File(fixture.root, "sequential");
+    File other = new File(fixture.root, "other");
+    BackupTask sequentialTask = fixture.task(BackupTask.CHANGED, sequential);
+    BackupTask otherTask = fixture.task(BackupTask.CHANGED, other);
+    BackupMetric expected = run(sequentialTask, Backup.SEQUENTIAL);
+    BackupMetric metric = run(otherTask, engine);
+
+    assertEquals("Source copied", listTree(fixture.source), listTree(
+        sequential));
+    assertEquals("Files found", expected.getFilesFound(), metric
+        .getFilesFound());
+    assertEquals("Files copied", expected.getFilesCopied(), metric
+        .getFilesCopied());
+    assertEquals("Same destination", listTree(sequential), listTree(other));
+
+    // and the same files once one is changed
+    File changed = fixture.write("d2/e1/3.dat", "changed");
+    changed.setLastModified(changed.lastModified() + 2000);
+    assertEquals("Changed file copied", 1, run(sequentialTask,
+        Backup.SEQUENTIAL).getFilesCopied());
+    assertEquals("Changed file copied", 1, run(otherTask, engine)
+        .getFilesCopied());
+    assertEquals("Same destination", listTree(sequential), listTree(other));
+
+    fixture.delete();
+  }
+
+  private static void setOld(File folder) {
+    folder.setLastModified(System.currentTimeMillis() - 60000);
+  }
+
+  private static void writeDestination(BackupFixture fixture,
+      String relative, String text) throws Exception {
+    File file = new File(fixture.destination, relative);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), text.getBytes());
+  }
+
+  private static Backup newBackup(BackupFixture fixture, BackupTask task,
+      int engine) {
+    Backup backup = fixture.newBackup(task);
+    backup.setEngine(engine);
+    return backup;
+  }
+
+  /**
+   * Runs a single task with an engine and waits for it
+   */
+  private static BackupMetric run(BackupTask task, int engine)
+      throws Exception {
+    Backup backup = new Backup(new BackupTask[] { task });
+    backup.setEngine(engine);
+    return BackupFixture.run(backup, false).getMetric(task);
+  }
+}
@@ -4,13 +4,28 @@
  * Who      When        What
  * -------- ----------  --------------------------------------------------------
  * Alastair 22 Oct 2011 Class created
+ * agulland 16 Oct 2026 Added test of a large file copy stopped and resumed
+ * agulland 16 Oct 2026 Added test of the copy strategies
+ * agulland 16 Oct 2026 Added test of a copy in parallel ranges stopped and
+ *                      resumed
+ * agulland 17 Oct 2026 Added test of a checkpoint of ranges of another length
  */
 package com.gulland.altair.test;
 
+import static com.gulland.altair.test.BackupFixture.randomBytes;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 import com.gulland.altair.BackupUtil;
+import com.gulland.altair.CopyMonitor;
+import com.gulland.altair.CopyStrategy;
 
 
 public class BackupUtilTest
@@ -35,6 +50,39 @@ public class BackupUtilTest
     
   }
 
+  @Test
+  public void testResumeLargeFile() throws Exception {
+    Path root = Files.createTempDirectory("backup-util");
+    Path source = root.resolve("large.dat");
+    Path destination = root.resolve("copy.dat");
+    byte[] data = randomBytes((int) BackupUtil.RESUMABLE_SIZE + 1000, 1);
+    Files.write(source, data);
+    BasicFileAttributes attrs = Files.readAttributes(source,
+        BasicFileAttributes.class);
+
+    // stop after the first two chunks
+    assertFalse("Copy stopped", BackupUtil.copyFile(source, attrs,
+        destination, new ChunkCounter(2)));
+    assertFalse("Destination not written", Files.exists(destination));
+    Path partial = root.resolve("copy.dat" + BackupUtil.PARTIAL_SUFFIX);
+    assertEquals("Partial copy kept", 2L * BackupUtil.CHUNK_SIZE, Files
+        .size(partial));
+
+    // the resumed copy only copies the chunks after the checkpoint
+    ChunkCounter resumed = new ChunkCounter(Integer.MAX_VALUE);
+    assertTrue("Copy resumed", BackupUtil.copyFile(source, attrs, destination,
+        resumed));
+    long rest = data.length - 2L * BackupUtil.CHUNK_SIZE;
+    assertEquals("Resumed at the checkpoint", (rest + BackupUtil.CHUNK_SIZE - 1)
+        / BackupUtil.CHUNK_SIZE, resumed.chunks.get());
+    assertArrayEquals("Target file copied", data, Files.readAllBytes(
+        destination));
+    assertFalse("Checkpoint removed", Files.exists(root.resolve("copy.dat"
+        + BackupUtil.CHECKPOINT_SUFFIX)));
+
+    BackupUtil.deleteFolder(root.toFile());
+  }
+
   /*
   @Test
   public void testCopyVeryLargeFile() {
@@ -65,6 +113,130 @@ public class BackupUtilTest
     fail("Not yet implemented");
   }
   */
+
+  @Test
+  public void testCopyStrategies() throws Exception {
+    Path root = Files.createTempDirectory("backup-util");
+    String[] names = { "transfer", "files-copy", "mapped", "direct" };
+    long[] sizes = { 1000, 3 * 1024 * 1024 + 17 };
+    for (int i = 0; i < names.length; i++) {
+      CopyStrategy.Selection strategies = new CopyStrategy.Selection();
+      for (int c = CopyStrategy.Selection.SMALL; c <= CopyStrategy.Selection.LARGE; c++) {
+        strategies.set(c, CopyStrategy.forName(names[i]));
+      }
+      for (int j = 0; j < sizes.length; j++) {
+        byte[] data = randomBytes((int) sizes[j], j);
+        Path source = root.resolve("source" + j + ".dat");
+        Path destination = root.resolve(names[i] + j + ".dat");
+        Files.write(source, data);
+        assertTrue("Copied with " + names[i], BackupUtil.copyFile(source, Files
+            .readAttributes(source, BasicFileAttributes.class), destination, null,
+            strategies));
+        assertArrayEquals("Copied with " + names[i], data, Files
+            .readAllBytes(destination));
+      }
+    }
+
+    // the selection is kept between runs
+    CopyStrategy.Selection strategies = new CopyStrategy.Selection();
+    strategies.set(CopyStrategy.Selection.MEDIUM, CopyStrategy.DIRECT);
+    File file = root.resolve("strategies.idx").toFile();
+    strategies.save(file);
+    assertEquals("Selection loaded", strategies.toString(),
+        CopyStrategy.Selection.load(file).toString());
+
+    BackupUtil.deleteFolder(root.toFile());
+  }
+
+  @Test
+  public void testParallelCopy() throws Exception {
+    Path root = Files.createTempDirectory("backup-util");
+    byte[] data = randomBytes(5 * BackupUtil.CHUNK_SIZE + 123, 3);
+    Path source = root.resolve("source.dat");
+    Path destination = root.resolve("copy.dat");
+    Files.write(source, data);
+    BasicFileAttributes attrs = Files.readAttributes(source,
+        BasicFileAttributes.class);
+    CopyStrategy.Selection strategies = new CopyStrategy.Selection();
+    strategies.setParallelSize(BackupUtil.CHUNK_SIZE);
+
+    // the ranges copy six chunks between them, stop after three
+    assertFalse("Copy stopped", BackupUtil.copyFile(source, attrs,
+        destination, new ChunkCounter(3), strategies));
+    assertFalse("Destination not written", Files.exists(destination));
+    assertTrue("Checkpoint kept", Files.exists(root.resolve("copy.dat"
+        + BackupUtil.CHECKPOINT_SUFFIX)));
+
+    // each range resumes from its own offset, so only the rest is copied
+    ChunkCounter resumed = new ChunkCounter(Integer.MAX_VALUE);
+    assertTrue("Copy resumed", BackupUtil.copyFile(source, attrs, destination,
+        resumed, strategies));
+    assertEquals("Ranges resumed at their offsets", 3, resumed.chunks.get());
+    assertArrayEquals("Target file copied", data, Files.readAllBytes(
+        destination));
+    assertEquals("Time stamp copied", attrs.lastModifiedTime(), Files
+        .getLastModifiedTime(destination));
+    assertFalse("Checkpoint removed", Files.exists(root.resolve("copy.dat"
+        + BackupUtil.CHECKPOINT_SUFFIX)));
+
+    BackupUtil.deleteFolder(root.toFile());
+  }
+
+  @Test
+  public void testParallelCheckpointMismatch() throws Exception {
+    Path root = Files.createTempDirectory("backup-util");
+    byte[] data = randomBytes(5 * BackupUtil.CHUNK_SIZE + 123, 4);
+    Path source = root.resolve("source.dat");
+    Path destination = root.resolve("copy.dat");
+    Files.write(source, data);
+    BasicFileAttributes attrs = Files.readAttributes(source,
+        BasicFileAttributes.class);
+    CopyStrategy.Selection strategies = new CopyStrategy.Selection();
+    strategies.setParallelSize(BackupUtil.CHUNK_SIZE);
+
+    // a checkpoint of a copy in ranges of three chunks, the first range of
+    // this copy only has two so it would be taken as complete
+    long chunk = BackupUtil.CHUNK_SIZE;
+    Files.write(BackupUtil.getPartialFile(destination), new byte[data.length]);
+    Files.write(root.resolve("copy.dat" + BackupUtil.CHECKPOINT_SUFFIX),
+        (data.length + "\t" + attrs.lastModifiedTime().toMillis() + "\t4\t"
+            + 3 * chunk + "\t" + 3 * chunk + "\t" + 5 * chunk + "\t"
+            + data.length).getBytes("UTF-8"));
+
+    ChunkCounter counter = new ChunkCounter(Integer.MAX_VALUE);
+    assertTrue("Copy completed", BackupUtil.copyFile(source, attrs,
+        destination, counter, strategies));
+    assertEquals("Checkpoint discarded", 6, counter.chunks.get());
+    assertArrayEquals("Target file copied", data, Files.readAllBytes(
+        destination));
+
+    BackupUtil.deleteFolder(root.toFile());
+  }
+
+  /**
+   * Counts the chunks a copy checks its monitor for, stopping the copy after a
+   * number of them. The ranges of a parallel copy check it at once
+   */
+  private static class ChunkCounter implements CopyMonitor
+  {
+    private final int stopAfter;
+    final AtomicInteger chunks = new AtomicInteger();
+
+    ChunkCounter(int stopAfter) {
+      this.stopAfter = stopAfter;
+    }
+
+    public boolean isCancelled() {
+      while (true) {
+        int copied = chunks.get();
+        if (copied >= stopAfter) return true;
+        if (chunks.compareAndSet(copied, copied + 1)) return false;
+      }
+    }
+
+    public void waitIfPaused() {
+    }
+  }
 }
 
 
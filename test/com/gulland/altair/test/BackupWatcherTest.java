@@ -0,0 +1,106 @@
+/**
+ * BackupWatcherTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Watches through the job of the backup
+ * agulland 17 Oct 2026 Checks the manifest follows the changes watched
+ */
+package com.gulland.altair.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupJob;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.Manifest;
+
+
+public class BackupWatcherTest
+{
+  private static final long TIMEOUT = 10000;
+
+  @Test
+  public void testWatch() throws Exception {
+    BackupFixture fixture = new BackupFixture("watch");
+    File edited = fixture.write("a.txt", "a");
+    fixture.write("gone.txt", "gone");
+
+    BackupTask task = fixture.task(BackupTask.CHANGED);
+    task.setMirrorDelete(true);
+    task.setManifest(true);
+    Backup backup = new Backup(new BackupTask[] { task });
+    backup.setWatch(true);
+    backup.setWatchDebounce(100);
+    BackupJob job = backup.submit(false);
+    try {
+      assertTrue("Backed up in full", waitFor(fixture, "a.txt", "a"));
+
+      // written again until seen, as the source may not be watched yet
+      long end = System.currentTimeMillis() + TIMEOUT;
+      boolean created = false;
+      while ((!created) && (System.currentTimeMillis() < end)) {
+        fixture.write("new.txt", "new");
+        created = waitFor(fixture, "new.txt", "new", 1000);
+      }
+      assertTrue("New file backed up", created);
+
+      fixture.write("a.txt", "edited");
+      edited.setLastModified(edited.lastModified() + 2000);
+      assertTrue("Edited file backed up", waitFor(fixture, "a.txt", "edited"));
+
+      fixture.write("sub/b.txt", "b");
+      assertTrue("New folder backed up", waitFor(fixture, "sub/b.txt", "b"));
+
+      assertTrue("Source deleted", new File(fixture.source, "gone.txt")
+          .delete());
+      File gone = new File(fixture.destination, "gone.txt");
+      end = System.currentTimeMillis() + TIMEOUT;
+      while ((gone.exists()) && (System.currentTimeMillis() < end)) {
+        Thread.sleep(50);
+      }
+      assertFalse("Deleted file mirror deleted", gone.exists());
+      assertFalse("Still watching", job.isDone());
+    } finally {
+      job.cancel(true);
+    }
+    job.get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    // the manifest saved once stopped follows the changes watched
+    Manifest manifest = Manifest.load(fixture.destination.toPath().resolve(
+        Manifest.FILE_NAME));
+    assertEquals("Files in the manifest", 3, manifest.size());
+    assertEquals("Manifest matches the destination", 0, manifest.audit(
+        fixture.destination.toPath(), null));
+
+    fixture.delete();
+  }
+
+  private static boolean waitFor(BackupFixture fixture, String relative,
+      String text) throws Exception {
+    return waitFor(fixture, relative, text, TIMEOUT);
+  }
+
+  /**
+   * Waits for a destination file to have the given content
+   */
+  private static boolean waitFor(BackupFixture fixture, String relative,
+      String text, long timeout) throws Exception {
+    File file = new File(fixture.destination, relative);
+    long end = System.currentTimeMillis() + timeout;
+    while (System.currentTimeMillis() < end) {
+      if ((file.exists())
+          && (text.equals(new String(Files.readAllBytes(file.toPath()))))) {
+        return true;
+      }
+      Thread.sleep(50);
+    }
+    return false;
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * BlockCompressorTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.randomBytes;
+import static com.gulland.altair.test.BackupFixture.run;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Test;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.BlockCompressor;
+
+
+public class BlockCompressorTest
+{
+  @Test
+  public void testBackupAndRestore() throws Exception {
+    BackupFixture fixture = new BackupFixture("block-compressor");
+
+    // text spanning several blocks compresses, random bytes don't
+    byte[] text = new byte[BlockCompressor.BLOCK_SIZE * 3 + 1234];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = (byte) ('a' + (i % 17) + ((i / 4096) % 3));
+    }
+    byte[] random = randomBytes(200000, 1);
+    fixture.write("text.txt", text);
+    fixture.write("random.dat", random);
+
+    BackupTask task = fixture.task(BackupTask.CHECKSUM);
+    task.setCompress(true);
+    BackupMetric metric = run(task, false);
+
+    assertEquals("Files copied", 2, metric.getFilesCopied());
+    File compressed = new File(fixture.destination, "text.txt");
+    assertTrue("File compressed", compressed.length() < text.length / 2);
+    assertEquals("Original size", text.length, BlockCompressor
+        .getOriginalSize(compressed.toPath(), compressed.length()));
+    assertArrayEquals("Incompressible file copied as is", random, Files
+        .readAllBytes(new File(fixture.destination, "random.dat").toPath()));
+
+    // the checksum rule compares with the content recorded in the file
+    metric = run(task, false);
+    assertEquals("Unchanged files not copied", 0, metric.getFilesCopied());
+
+    BackupTask restore = fixture.restoreTask("restored");
+    restore.setCompress(true);
+    run(restore, true);
+    File restored = new File(restore.getSource());
+    assertTrue("File decompressed", Arrays.equals(text, Files
+        .readAllBytes(new File(restored, "text.txt").toPath())));
+    assertArrayEquals("File restored", random, Files.readAllBytes(new File(
+        restored, "random.dat").toPath()));
+
+    fixture.delete();
+  }
+}
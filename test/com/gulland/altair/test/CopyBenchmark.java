@@ -0,0 +1,188 @@
+/**
+ * CopyBenchmark.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gulland.altair.BackupLogger;
+import com.gulland.altair.BackupUtil;
+import com.gulland.altair.BufferPool;
+import com.gulland.altair.CopyStrategy;
+
+/**
+ * <p>
+ * Measures the memory allocated copying many small files. A folder of files is
+ * created in the temporary folder and copied with <code>BackupUtil.copyFile</code>
+ * by a number of threads, with each strategy chosen for every size class in
+ * turn. For each strategy the bytes allocated per file copied, the collections
+ * run and the throughput are printed.
+ * </p>
+ *
+ * <p>
+ * Usage: <code>java com.gulland.altair.test.CopyBenchmark [threads] [files] [file size] [rounds]</code>
+ * </p>
+ *
+ * <p>
+ * Bytes allocated are counted by the JVM for each copy thread, so they include
+ * the file names, attributes and channels of every copy as well as its
+ * buffers. The first round of each strategy isn't counted, so buffers of the
+ * pool allocated on first use aren't either.
+ * </p>
+ */
+public class CopyBenchmark
+{
+	public static void main(String[] args) throws Exception {
+		int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+		int files = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		int size = (args.length > 2) ? Integer.parseInt(args[2]) : 16 * 1024;
+		int rounds = (args.length > 3) ? Integer.parseInt(args[3]) : 5;
+
+		BackupLogger.getLogger().setLogLevel(BackupLogger.WARN);
+
+		File root = Files.createTempDirectory("copy-bench").toFile();
+		File source = new File(root, "source");
+		File destination = new File(root, "destination");
+		createFiles(source, files, size);
+		destination.mkdirs();
+
+		System.out.println("Files: " + files + " of " + size + " bytes, "
+				+ threads + " threads, best of " + rounds + " rounds");
+		String[] names = { "transfer", "direct" };
+		for (int s = 0; s < names.length; s++) {
+			CopyStrategy strategy = CopyStrategy.forName(names[s]);
+			CopyStrategy.Selection selection = new CopyStrategy.Selection();
+			for (int c = CopyStrategy.Selection.SMALL; c <= CopyStrategy.Selection.LARGE; c++) {
+				selection.set(c, strategy);
+			}
+
+			copy(source, destination, selection, threads);
+			long best = Long.MAX_VALUE;
+			long allocated = 0;
+			long collections = 0;
+			for (int i = 0; i < rounds; i++) {
+				long gcBefore = collections();
+				long start = System.nanoTime();
+				allocated += copy(source, destination, selection, threads);
+				best = Math.min(best, System.nanoTime() - start);
+				collections += collections() - gcBefore;
+			}
+
+			long copies = (long) files * rounds;
+			System.out.println(pad(names[s]) + rate((long) files * size, best)
+					+ ", " + allocated / copies + " bytes allocated per file, "
+					+ collections + " collections");
+		}
+		System.out.println(BufferPool.SMALL);
+
+		BackupUtil.deleteFolder(root);
+	}
+
+	/**
+	 * Copies every file of the source folder with a number of threads, each
+	 * copying every n'th file
+	 *
+	 * @return bytes allocated by the threads
+	 */
+	private static long copy(File source, final File destination,
+			final CopyStrategy.Selection selection, int threads) throws Exception {
+		final File[] contents = source.listFiles();
+		final AtomicLong allocated = new AtomicLong();
+		final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int first = t;
+			final int step = threads;
+			workers[t] = new Thread() {
+				public void run() {
+					long id = Thread.currentThread().getId();
+					long before = bean.getThreadAllocatedBytes(id);
+					try {
+						for (int i = first; i < contents.length; i += step) {
+							Path file = contents[i].toPath();
+							BasicFileAttributes attrs = Files.readAttributes(file,
+									BasicFileAttributes.class);
+							BackupUtil.copyFile(file, attrs, destination.toPath().resolve(
+									file.getFileName()), null, selection);
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+					allocated.addAndGet(bean.getThreadAllocatedBytes(id) - before);
+				}
+			};
+			workers[t].start();
+		}
+		for (int t = 0; t < threads; t++) {
+			workers[t].join();
+		}
+		return allocated.get();
+	}
+
+	/**
+	 * Returns the number of collections run so far
+	 */
+	private static long collections() {
+		long count = 0;
+		List<GarbageCollectorMXBean> beans = ManagementFactory
+				.getGarbageCollectorMXBeans();
+		for (int i = 0; i < beans.size(); i++) {
+			count += Math.max(0, beans.get(i).getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * Creates a folder of files of random content
+	 */
+	private static void createFiles(File folder, int files, int size)
+			throws IOException {
+		byte[] data = new byte[size];
+		Random random = new Random(1);
+		folder.mkdirs();
+		for (int i = 0; i < files; i++) {
+			random.nextBytes(data);
+			FileOutputStream out = new FileOutputStream(new File(folder, "file" + i
+					+ ".dat"));
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Pads a strategy name to line up the results
+	 */
+	private static String pad(String name) {
+		StringBuilder sb = new StringBuilder(name).append(':');
+		while (sb.length() < 12) {
+			sb.append(' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a throughput as a string
+	 */
+	private static String rate(long bytes, long nanos) {
+		return nanos / 1000000 + "ms, " + (bytes * 1000 / Math.max(1, nanos))
+				+ " Mb/s";
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * CopyCalibratorTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.listTree;
+import static com.gulland.altair.test.BackupFixture.randomBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Test;
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.BackupUtil;
+import com.gulland.altair.CopyCalibrator;
+import com.gulland.altair.CopyStrategy;
+
+
+public class CopyCalibratorTest
+{
+  /** a size of each size class */
+  private static final long[] SIZES = { 1000,
+      CopyStrategy.Selection.SMALL_SIZE + 17, BackupUtil.RESUMABLE_SIZE };
+
+  @Test
+  public void testCalibrate() throws Exception {
+    BackupFixture fixture = new BackupFixture("calibrate");
+    byte[] data = randomBytes((int) SIZES[1], 1);
+    fixture.write("medium.dat", data);
+
+    // the small and large samples are written as the source has none
+    CopyStrategy.Selection strategies = CopyCalibrator.calibrate(fixture.source
+        .toPath(), fixture.destination.toPath());
+    for (int c = CopyStrategy.Selection.SMALL; c <= CopyStrategy.Selection.LARGE; c++) {
+      assertCalibrated(strategies, c);
+    }
+    assertEquals("Calibration files deleted", 0, fixture.destination
+        .listFiles().length);
+    assertArrayEquals("Sample left as it was", data, Files.readAllBytes(
+        new File(fixture.source, "medium.dat").toPath()));
+
+    fixture.delete();
+  }
+
+  @Test
+  public void testCalibratedBackup() throws Exception {
+    BackupFixture fixture = new BackupFixture("calibrate");
+    for (int c = CopyStrategy.Selection.SMALL; c <= CopyStrategy.Selection.LARGE; c++) {
+      fixture.write(CopyStrategy.Selection.getClassName(c) + ".dat",
+          randomBytes((int) SIZES[c], c));
+    }
+
+    BackupTask task = fixture.task(BackupTask.CHANGED);
+    Backup backup = fixture.newBackup(task);
+    backup.setCalibrate(true);
+    assertEquals("Files copied", 3, backup.submit(false).get().getMetric(task)
+        .getFilesCopied());
+    assertEquals("Copied with the strategies chosen", listTree(fixture.source),
+        listTree(fixture.destination));
+
+    // the strategies chosen are kept for the runs that follow
+    File file = new File(fixture.root, "state/strategies-" + task.getStateKey()
+        + ".idx");
+    assertTrue("Strategies saved", file.exists());
+    CopyStrategy.Selection strategies = CopyStrategy.Selection.load(file);
+    for (int c = CopyStrategy.Selection.SMALL; c <= CopyStrategy.Selection.LARGE; c++) {
+      assertCalibrated(strategies, c);
+    }
+
+    File edited = fixture.write("medium.dat", randomBytes((int) SIZES[1], 5));
+    edited.setLastModified(edited.lastModified() + 2000);
+    long saved = file.lastModified();
+    assertEquals("Edited file copied", 1, fixture.newBackup(task).submit(false)
+        .get().getMetric(task).getFilesCopied());
+    assertEquals("Copied with the strategies kept", listTree(fixture.source),
+        listTree(fixture.destination));
+    assertEquals("Not calibrated again", saved, file.lastModified());
+
+    fixture.delete();
+  }
+
+  /**
+   * Checks a size class has one of the strategies that are calibrated
+   */
+  private static void assertCalibrated(CopyStrategy.Selection strategies,
+      int sizeClass) {
+    CopyStrategy strategy = strategies.get(SIZES[sizeClass]);
+    assertSame("Strategy of " + CopyStrategy.Selection.getClassName(sizeClass)
+        + " files", CopyStrategy.forName(strategy.toString()), strategy);
+  }
+}
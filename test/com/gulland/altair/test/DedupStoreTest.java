@@ -0,0 +1,60 @@
+/**
+ * DedupStoreTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.randomBytes;
+import static com.gulland.altair.test.BackupFixture.run;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Test;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.DedupStore;
+
+
+public class DedupStoreTest
+{
+  @Test
+  public void testBackupAndRestore() throws Exception {
+    BackupFixture fixture = new BackupFixture("dedup-store");
+    byte[] data = randomBytes(100000, 1);
+    fixture.write("a.dat", data);
+    fixture.write("sub/copy.dat", data);
+    fixture.write("b.dat", randomBytes(5000, 2));
+
+    BackupTask task = fixture.task(BackupTask.CHANGED);
+    task.setMirrorDelete(true);
+    task.setDedup(true);
+    BackupMetric metric = run(task, false);
+
+    assertEquals("Files copied", 3, metric.getFilesCopied());
+    assertEquals("Files deduplicated", 1, metric.getFilesLinked());
+    assertEquals("Bytes saved", 100000, metric.getBytesSaved());
+    assertEquals("Bytes stored", 105000, metric.getBytesStored());
+    File destination = fixture.destination;
+    assertTrue("Same content linked", Files.isSameFile(new File(destination,
+        "a.dat").toPath(), new File(destination, "sub/copy.dat").toPath()));
+    assertArrayEquals("Target file copied", data, Files.readAllBytes(new File(
+        destination, "sub/copy.dat").toPath()));
+
+    // the store isn't restored
+    BackupTask restore = fixture.restoreTask("restored");
+    run(restore, true);
+    File restored = new File(restore.getSource());
+    assertArrayEquals("File restored", data, Files.readAllBytes(new File(
+        restored, "sub/copy.dat").toPath()));
+    assertFalse("Store not restored", new File(restored,
+        DedupStore.FOLDER_NAME).exists());
+
+    fixture.delete();
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * DeltaCopierTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.randomBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import org.junit.Test;
+import com.gulland.altair.BackupUtil;
+import com.gulland.altair.DeltaCopier;
+
+
+public class DeltaCopierTest
+{
+  private static final int SIZE = 4 * 1024 * 1024;
+
+  @Test
+  public void testChangedInPlace() throws Exception {
+    byte[] old = randomBytes(SIZE, 1);
+    byte[] data = old.clone();
+    System.arraycopy(randomBytes(1000, 2), 0, data, 100000, 1000);
+    System.arraycopy(randomBytes(5000, 3), 0, data, SIZE - 5000, 5000);
+    assertDeltaCopy(old, data);
+  }
+
+  @Test
+  public void testInserted() throws Exception {
+    byte[] old = randomBytes(SIZE, 1);
+    byte[] data = new byte[SIZE + 777];
+    System.arraycopy(old, 0, data, 0, 200000);
+    System.arraycopy(randomBytes(777, 2), 0, data, 200000, 777);
+    System.arraycopy(old, 200000, data, 200777, SIZE - 200000);
+    assertDeltaCopy(old, data);
+  }
+
+  @Test
+  public void testTruncated() throws Exception {
+    byte[] old = randomBytes(SIZE, 1);
+    byte[] data = new byte[SIZE / 2 + 123];
+    System.arraycopy(old, 0, data, 0, data.length);
+    assertDeltaCopy(old, data);
+  }
+
+  private static void assertDeltaCopy(byte[] old, byte[] data)
+      throws Exception {
+    Path root = Files.createTempDirectory("delta-copier");
+    Path source = root.resolve("source.dat");
+    Path destination = root.resolve("destination.dat");
+    Files.write(destination, old);
+    Files.write(source, data);
+    BasicFileAttributes attrs = Files.readAttributes(source,
+        BasicFileAttributes.class);
+
+    assertTrue("Delta copied", DeltaCopier.copyFile(source, attrs,
+        destination, null));
+    assertArrayEquals("Target file copied", data, Files
+        .readAllBytes(destination));
+    assertEquals("Time stamp copied", attrs.lastModifiedTime(), Files
+        .getLastModifiedTime(destination));
+    assertEquals("No temporary file left", 2, root.toFile().list().length);
+
+    BackupUtil.deleteFolder(root.toFile());
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * DestinationIndexTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Checks the files copied by each run
+ * agulland 17 Oct 2026 Checks a folder mirror deleted is removed from the index
+ */
+package com.gulland.altair.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import org.junit.Test;
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupTask;
+
+
+public class DestinationIndexTest
+{
+  @Test
+  public void testIndexedTask() throws Exception {
+    BackupFixture fixture = new BackupFixture("destination-index");
+    File edited = fixture.write("sub/a.txt", "first");
+    fixture.write("sub/b.txt", "b");
+    fixture.write("c.txt", "c");
+
+    BackupTask task = fixture.task(BackupTask.CHANGED);
+    task.setIndex(true);
+    task.setMirrorDelete(true);
+    assertEquals("All copied", 3, run(fixture, task, false).getFilesCopied());
+
+    // the rule is applied to the index, the destination isn't read so a file
+    // deleted behind its back isn't noticed
+    File destination = new File(fixture.destination, "c.txt");
+    assertTrue("Destination deleted", destination.delete());
+    assertEquals("Unchanged tree skipped", 0, run(fixture, task, false)
+        .getFilesCopied());
+
+    // a file changed in the source is
+    fixture.write("sub/a.txt", "second");
+    edited.setLastModified(edited.lastModified() + 2000);
+    assertEquals("Edited file copied", 1, run(fixture, task, false)
+        .getFilesCopied());
+    assertEquals("Edited file backed up", "second", fixture.read("sub/a.txt"));
+    assertFalse("Index not verified", destination.exists());
+
+    // until the index is rebuilt by reading the destination
+    assertEquals("Deleted file copied", 1, run(fixture, task, true)
+        .getFilesCopied());
+    assertTrue("Deleted file backed up", destination.exists());
+
+    // a folder mirror deleted is removed from the index with everything below
+    // it, so its files are copied again once it is back
+    File sub = new File(fixture.source, "sub");
+    File moved = new File(fixture.root, "sub");
+    assertTrue("Source folder moved", sub.renameTo(moved));
+    BackupMetric metric = run(fixture, task, false);
+    assertEquals("Folder deleted", 1, metric.getFilesDeleted());
+    assertTrue("Source folder restored", moved.renameTo(sub));
+    assertEquals("Folder copied again", 2, run(fixture, task, false)
+        .getFilesCopied());
+    assertEquals("Folder backed up", "b", fixture.read("sub/b.txt"));
+
+    fixture.delete();
+  }
+
+  private static BackupMetric run(BackupFixture fixture, BackupTask task,
+      boolean forceVerify) throws Exception {
+    Backup backup = fixture.newBackup(task);
+    backup.setForceVerify(forceVerify);
+    return BackupFixture.run(backup, false).getMetric(task);
+  }
+}
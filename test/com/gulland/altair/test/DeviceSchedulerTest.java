@@ -0,0 +1,86 @@
+/**
+ * DeviceSchedulerTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Checks the files copied by each task
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.listTree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupReport;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.DeviceScheduler;
+
+
+public class DeviceSchedulerTest
+{
+  @Test
+  public void testLimit() throws Exception {
+    BackupFixture fixture = new BackupFixture("device-scheduler");
+    DeviceScheduler scheduler = new DeviceScheduler(4);
+    scheduler.setLimit(fixture.root.getPath(), 1);
+    final DeviceScheduler.Device device = scheduler.getDevice(fixture.root
+        .toPath());
+    assertSame("Device of a path not created yet", device, scheduler
+        .getDevice(fixture.destination.toPath().resolve("a/b.txt")));
+
+    // a copy within the device takes its single permit once
+    DeviceScheduler.acquire(device, device);
+    final AtomicBoolean acquired = new AtomicBoolean();
+    Thread t = new Thread() {
+      public void run() {
+        DeviceScheduler.acquire(device, device);
+        acquired.set(true);
+        DeviceScheduler.release(device, device);
+      }
+    };
+    t.start();
+    Thread.sleep(200);
+    assertFalse("Held by the limit of the device", acquired.get());
+
+    DeviceScheduler.release(device, device);
+    t.join(2000);
+    assertTrue("Acquired once released", acquired.get());
+
+    fixture.delete();
+  }
+
+  @Test
+  public void testScheduledTasks() throws Exception {
+    BackupFixture fixture = new BackupFixture("device-scheduler");
+    for (int i = 0; i < 20; i++) {
+      fixture.write("sub/" + i + ".txt", "file " + i);
+    }
+
+    // both tasks run at once, their copies take turns on the device
+    File first = new File(fixture.root, "first");
+    File second = new File(fixture.root, "second");
+    BackupTask firstTask = fixture.task(BackupTask.CHANGED, first);
+    BackupTask secondTask = fixture.task(BackupTask.CHANGED, second);
+    DeviceScheduler scheduler = new DeviceScheduler(1);
+    Backup backup = new Backup(new BackupTask[] { firstTask, secondTask });
+    backup.setDeviceScheduler(scheduler);
+    BackupReport report = BackupFixture.run(backup, false);
+
+    assertEquals("First task copied", 20, report.getMetric(firstTask)
+        .getFilesCopied());
+    assertEquals("Second task copied", 20, report.getMetric(secondTask)
+        .getFilesCopied());
+    assertEquals("First destination", listTree(fixture.source),
+        listTree(first));
+    assertEquals("Second destination", listTree(fixture.source),
+        listTree(second));
+
+    fixture.delete();
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * DurableBenchmark.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupLogger;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.BackupUtil;
+
+/**
+ * <p>
+ * Measures the cost of durable writes. A tree of files is created in the
+ * temporary folder and backed up in full to an empty destination
+ * </p>
+ *
+ * <ul>
+ * <li>by a task without the durable flag, so nothing is synced</li>
+ * <li>by a task with the durable flag, so files are synced in batches</li>
+ * <li>by copying each file to a temporary file, syncing it, moving it into
+ * place and syncing its folder one file at a time, to show what the batches
+ * save</li>
+ * </ul>
+ *
+ * <p>
+ * Usage: <code>java com.gulland.altair.test.DurableBenchmark [files] [file size] [rounds]</code>
+ * </p>
+ *
+ * <p>
+ * Run it against the disk of interest by setting <code>java.io.tmpdir</code>,
+ * a temporary folder in memory syncs at no cost.
+ * </p>
+ */
+public class DurableBenchmark
+{
+	public static void main(String[] args) throws Exception {
+		int files = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int size = (args.length > 1) ? Integer.parseInt(args[1]) : 16 * 1024;
+		int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+
+		BackupLogger.getLogger().setLogLevel(BackupLogger.WARN);
+
+		File root = Files.createTempDirectory("durable-bench").toFile();
+		File source = new File(root, "source");
+		File destination = new File(root, "destination");
+		createTree(source, files, size);
+
+		long bestPlain = Long.MAX_VALUE;
+		long bestDurable = Long.MAX_VALUE;
+		long bestEach = Long.MAX_VALUE;
+		for (int i = 0; i < rounds; i++) {
+			BackupUtil.deleteFolder(destination);
+			long start = System.nanoTime();
+			run(source, destination, false);
+			bestPlain = Math.min(bestPlain, System.nanoTime() - start);
+
+			BackupUtil.deleteFolder(destination);
+			start = System.nanoTime();
+			run(source, destination, true);
+			bestDurable = Math.min(bestDurable, System.nanoTime() - start);
+
+			BackupUtil.deleteFolder(destination);
+			start = System.nanoTime();
+			copyEach(source, destination);
+			bestEach = Math.min(bestEach, System.nanoTime() - start);
+		}
+
+		long bytes = (long) files * size;
+		System.out.println("Files: " + files + " of " + size + " bytes, best of "
+				+ rounds + " rounds, in " + root.getParent());
+		System.out.println("Not durable:          " + rate(files, bytes, bestPlain));
+		System.out.println("Durable, batched:     " + rate(files, bytes, bestDurable));
+		System.out.println("Durable, each file:   " + rate(files, bytes, bestEach));
+
+		BackupUtil.deleteFolder(root);
+	}
+
+	/**
+	 * Runs the backup engine over the tree and waits for it to finish
+	 */
+	private static void run(File source, File destination, boolean durable)
+			throws Exception {
+		BackupTask task = new BackupTask(source.getPath(), destination.getPath(),
+				BackupTask.ALL);
+		task.setRecurse(true);
+		task.setActive(true);
+		task.setDurable(durable);
+		new Backup(new BackupTask[] { task }).submit(false).get();
+	}
+
+	/**
+	 * Copies the tree syncing every file and its folder as it is copied
+	 */
+	private static void copyEach(File source, File destination)
+			throws IOException {
+		destination.mkdirs();
+		File[] contents = source.listFiles();
+		for (int i = 0; i < contents.length; i++) {
+			File target = new File(destination, contents[i].getName());
+			if (contents[i].isDirectory()) {
+				copyEach(contents[i], target);
+				continue;
+			}
+
+			Path partial = BackupUtil.getPartialFile(target.toPath());
+			Files.copy(contents[i].toPath(), partial,
+					StandardCopyOption.REPLACE_EXISTING);
+			sync(partial, StandardOpenOption.WRITE);
+			Files.move(partial, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			sync(destination.toPath(), StandardOpenOption.READ);
+		}
+	}
+
+	/**
+	 * Syncs a file or folder to disk
+	 */
+	private static void sync(Path path, StandardOpenOption option)
+			throws IOException {
+		FileChannel channel = FileChannel.open(path, option);
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Creates a tree of files of random content, 100 files per folder
+	 */
+	private static void createTree(File root, int files, int size)
+			throws IOException {
+		byte[] data = new byte[size];
+		Random random = new Random(1);
+		for (int i = 0; i < files; i++) {
+			File folder = new File(root, "folder" + (i / 100));
+			if (i % 100 == 0) folder.mkdirs();
+			random.nextBytes(data);
+			FileOutputStream out = new FileOutputStream(new File(folder, "file" + i
+					+ ".dat"));
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns a throughput as a string
+	 */
+	private static String rate(int files, long bytes, long nanos) {
+		return nanos / 1000000 + "ms, " + (bytes * 1000 / Math.max(1, nanos))
+				+ " Mb/s, " + (files * 1000000000L / Math.max(1, nanos))
+				+ " files/s";
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * GroupCommitTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Checks the manifest is only written once committed
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.run;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import org.junit.Test;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.BackupUtil;
+import com.gulland.altair.GroupCommit;
+import com.gulland.altair.Manifest;
+
+
+public class GroupCommitTest
+{
+  @Test
+  public void testCommit() throws Exception {
+    File root = Files.createTempDirectory("commit").toFile();
+    Path source = root.toPath().resolve("a.txt");
+    Path destination = root.toPath().resolve("b.txt");
+    Files.write(source, "new".getBytes());
+    Files.write(destination, "old".getBytes());
+    Files.setLastModifiedTime(source, FileTime.fromMillis(1000000000000L));
+    BasicFileAttributes attrs = Files.readAttributes(source,
+        BasicFileAttributes.class);
+
+    // the copy waits in its temporary file until committed
+    assertTrue("Copied", BackupUtil.copyFile(source, attrs, destination, null,
+        null, true));
+    Path partial = BackupUtil.getPartialFile(destination);
+    assertEquals("Destination untouched", "old", new String(Files
+        .readAllBytes(destination)));
+
+    Manifest manifest = Manifest.load(null);
+    GroupCommit commit = new GroupCommit(null, null, manifest, null);
+    commit.add(partial, destination, "b.txt", attrs, Long.valueOf(1234));
+    assertEquals("Batch not full", 0, commit.getBatches());
+    assertEquals("Not recorded until committed", 0, manifest.size());
+    commit.flush();
+    assertEquals("Committed", 1, commit.getFilesCommitted());
+    assertEquals("Recorded once committed", 1, manifest.size());
+    assertFalse("Temporary file moved", Files.exists(partial));
+    assertEquals("Destination replaced", "new", new String(Files
+        .readAllBytes(destination)));
+    assertEquals("Time stamp kept", attrs.lastModifiedTime(), Files
+        .getLastModifiedTime(destination));
+
+    BackupUtil.deleteFolder(root);
+  }
+
+  @Test
+  public void testDurableTask() throws Exception {
+    BackupFixture fixture = new BackupFixture("commit");
+    int files = GroupCommit.BATCH_FILES + 10;
+    for (int i = 0; i < files; i++) {
+      fixture.write("sub/" + i + ".txt", "file " + i);
+    }
+
+    BackupTask task = fixture.task(BackupTask.CHANGED);
+    task.setDurable(true);
+    task.setManifest(true);
+    BackupMetric metric = run(task, false);
+
+    assertEquals("All copied", files, metric.getFilesCopied());
+    File[] copied = new File(fixture.destination, "sub").listFiles();
+    assertEquals("No temporary files left", files, copied.length);
+    for (int i = 0; i < files; i++) {
+      File file = new File(fixture.destination, "sub/" + i + ".txt");
+      assertEquals("Content", "file " + i, fixture.read("sub/" + i + ".txt"));
+      assertEquals("Time stamp", new File(fixture.source, "sub/" + i + ".txt")
+          .lastModified(), file.lastModified());
+    }
+    assertEquals("Committed files in the manifest", files, Manifest.load(
+        fixture.destination.toPath().resolve(Manifest.FILE_NAME)).size());
+
+    fixture.delete();
+  }
+}
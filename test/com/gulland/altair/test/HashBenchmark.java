@@ -0,0 +1,173 @@
+/**
+ * HashBenchmark.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupLogger;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.BackupUtil;
+import com.gulland.altair.HashCache;
+
+/**
+ * <p>
+ * Measures the cost of the 'checksum' rule. A tree of files is created in the
+ * temporary folder and backed up once, then
+ * </p>
+ *
+ * <ul>
+ * <li>the files are read without hashing and read and hashed with
+ * <code>HashCache.hash</code>, to show hashing keeps up with reading</li>
+ * <li>the unchanged tree is backed up with the 'changed' rule, with the
+ * 'checksum' rule and an empty hash cache, so every file is read on both
+ * sides, and with the 'checksum' rule and the cache of the previous run, so
+ * no file is read</li>
+ * </ul>
+ *
+ * <p>
+ * Usage: <code>java com.gulland.altair.test.HashBenchmark [files] [file size] [rounds]</code>
+ * </p>
+ *
+ * <p>
+ * The files are read from the page cache after the first round, which is the
+ * worst case for hashing against reading. Drop the caches between rounds to
+ * measure against the disk.
+ * </p>
+ */
+public class HashBenchmark
+{
+	public static void main(String[] args) throws Exception {
+		int files = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int size = (args.length > 1) ? Integer.parseInt(args[1]) : 128 * 1024;
+		int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+		BackupLogger.getLogger().setLogLevel(BackupLogger.WARN);
+
+		File root = Files.createTempDirectory("hash-bench").toFile();
+		File source = new File(root, "source");
+		File destination = new File(root, "destination");
+		File state = new File(root, "state");
+		createTree(source, files, size);
+		run(source, destination, null, BackupTask.ALL);
+
+		long bestRead = Long.MAX_VALUE;
+		long bestHash = Long.MAX_VALUE;
+		long bestChanged = Long.MAX_VALUE;
+		long bestCold = Long.MAX_VALUE;
+		long bestWarm = Long.MAX_VALUE;
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			readTree(source, false);
+			bestRead = Math.min(bestRead, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			readTree(source, true);
+			bestHash = Math.min(bestHash, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			run(source, destination, null, BackupTask.CHANGED);
+			bestChanged = Math.min(bestChanged, System.nanoTime() - start);
+
+			BackupUtil.deleteFolder(state);
+			start = System.nanoTime();
+			run(source, destination, state, BackupTask.CHECKSUM);
+			bestCold = Math.min(bestCold, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			run(source, destination, state, BackupTask.CHECKSUM);
+			bestWarm = Math.min(bestWarm, System.nanoTime() - start);
+		}
+
+		long bytes = (long) files * size;
+		System.out.println("Files: " + files + " of " + size + " bytes, best of "
+				+ rounds + " rounds, " + HashCache.ALGORITHM);
+		System.out.println("Read:                 " + rate(bytes, bestRead));
+		System.out.println("Read and hash:        " + rate(bytes, bestHash));
+		System.out.println("Rule changed:         " + bestChanged / 1000000 + "ms");
+		System.out.println("Rule checksum, cold:  " + bestCold / 1000000 + "ms");
+		System.out.println("Rule checksum, warm:  " + bestWarm / 1000000 + "ms");
+
+		BackupUtil.deleteFolder(root);
+	}
+
+	/**
+	 * Runs the backup engine over the tree and waits for it to finish
+	 */
+	private static void run(File source, File destination, File state, int rule)
+			throws Exception {
+		BackupTask task = new BackupTask(source.getPath(), destination.getPath(),
+				rule);
+		task.setRecurse(true);
+		task.setActive(true);
+		Backup backup = new Backup(new BackupTask[] { task });
+		backup.setStateFolder(state);
+		backup.submit(false).get();
+	}
+
+	/**
+	 * Reads every file of the tree, hashing it or not
+	 */
+	private static void readTree(File folder, boolean hash) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+		File[] contents = folder.listFiles();
+		for (int i = 0; i < contents.length; i++) {
+			if (contents[i].isDirectory()) {
+				readTree(contents[i], hash);
+			} else if (hash) {
+				HashCache.hash(contents[i].toPath());
+			} else {
+				FileChannel in = FileChannel.open(contents[i].toPath(),
+						StandardOpenOption.READ);
+				try {
+					while (in.read(buffer) >= 0) {
+						buffer.clear();
+					}
+				} finally {
+					in.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a tree of files of random content, 100 files per folder
+	 */
+	private static void createTree(File root, int files, int size)
+			throws IOException {
+		byte[] data = new byte[size];
+		Random random = new Random(1);
+		for (int i = 0; i < files; i++) {
+			File folder = new File(root, "folder" + (i / 100));
+			if (i % 100 == 0) folder.mkdirs();
+			random.nextBytes(data);
+			FileOutputStream out = new FileOutputStream(new File(folder, "file" + i
+					+ ".dat"));
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns a throughput as a string
+	 */
+	private static String rate(long bytes, long nanos) {
+		return nanos / 1000000 + "ms, " + (bytes * 1000 / Math.max(1, nanos))
+				+ " Mb/s";
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * ManifestTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.randomBytes;
+import static com.gulland.altair.test.BackupFixture.run;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.Checksum;
+import org.junit.Test;
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.BackupUtil;
+import com.gulland.altair.CopyMonitor;
+import com.gulland.altair.HashCache;
+import com.gulland.altair.Manifest;
+
+
+public class ManifestTest
+{
+  @Test
+  public void testResumedChecksum() throws Exception {
+    Path root = Files.createTempDirectory("manifest");
+    Path source = root.resolve("large.dat");
+    Path destination = root.resolve("copy.dat");
+    byte[] data = randomBytes((int) BackupUtil.RESUMABLE_SIZE + 1000, 1);
+    Files.write(source, data);
+    BasicFileAttributes attrs = Files.readAttributes(source,
+        BasicFileAttributes.class);
+
+    // stop after the first two chunks, the resumed copy reads them back
+    CopyMonitor monitor = new CopyMonitor() {
+      private int checks = 0;
+
+      public boolean isCancelled() {
+        return ++checks > 2;
+      }
+
+      public void waitIfPaused() {
+      }
+    };
+    assertFalse("Copy stopped", BackupUtil.copyFile(source, attrs,
+        destination, monitor, null, false, Manifest.newChecksum()));
+    Checksum checksum = Manifest.newChecksum();
+    assertTrue("Copy resumed", BackupUtil.copyFile(source, attrs, destination,
+        null, null, false, checksum));
+    assertEquals("Checksum of the whole file", HashCache.hash(source), checksum
+        .getValue());
+
+    BackupUtil.deleteFolder(root.toFile());
+  }
+
+  @Test
+  public void testAudit() throws Exception {
+    BackupFixture fixture = new BackupFixture("manifest");
+    File destination = fixture.destination;
+    for (int i = 0; i < 10; i++) {
+      fixture.write("sub/" + i + ".txt", "file " + i);
+    }
+
+    BackupTask task = fixture.task(BackupTask.CHANGED);
+    task.setMirrorDelete(true);
+    task.setManifest(true);
+    task.setVerifyCopy(true);
+    assertEquals("All copied", 10, run(task, false).getFilesCopied());
+
+    // a second run keeps the manifest from mirror delete
+    Path file = destination.toPath().resolve(Manifest.FILE_NAME);
+    run(task, false);
+    assertTrue("Manifest kept", Files.exists(file));
+    Manifest manifest = Manifest.load(file);
+    assertEquals("Every file recorded", 10, manifest.size());
+    assertEquals("Nothing reported", 0, manifest.audit(destination.toPath(),
+        null));
+
+    // a byte changed in place and a file deleted
+    File damaged = new File(destination, "sub/3.txt");
+    long lastModified = damaged.lastModified();
+    RandomAccessFile raf = new RandomAccessFile(damaged, "rw");
+    try {
+      raf.write('F');
+    } finally {
+      raf.close();
+    }
+    damaged.setLastModified(lastModified);
+    new File(destination, "sub/7.txt").delete();
+    assertEquals("Corrupt and missing files reported", 2, manifest.audit(
+        destination.toPath(), null));
+
+    // audit mode reads the destination alone
+    BackupUtil.deleteFolder(fixture.source);
+    Backup audit = new Backup(new BackupTask[] { task });
+    audit.setAudit(true);
+    assertEquals("Files audited", 10, audit.submit(false).get().getMetric(task)
+        .getFilesFound());
+
+    fixture.delete();
+  }
+}
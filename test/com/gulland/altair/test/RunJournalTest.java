@@ -0,0 +1,107 @@
+/**
+ * RunJournalTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import org.junit.Test;
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.RunJournal;
+
+
+public class RunJournalTest
+{
+  @Test
+  public void testResumeSkipsJournaled() throws Exception {
+    BackupFixture fixture = new BackupFixture("run-journal");
+    File a = fixture.write("a.txt", "a");
+    File b = fixture.write("sub/b.txt", "b");
+    fixture.write("sub/c.txt", "c");
+    fixture.write("d.txt", "d");
+    BackupTask task = fixture.task(BackupTask.ALL);
+
+    // the journal of a run stopped once two files were backed up
+    File file = new File(fixture.root, "state/journal-" + task.getStateKey()
+        + ".log");
+    RunJournal journal = RunJournal.open(file, false);
+    journal.file("a.txt", attributes(a));
+    journal.file("sub/b.txt", attributes(b));
+    journal.close();
+
+    // a journaled file changed since is backed up again
+    b.setLastModified(b.lastModified() + 2000);
+    Backup backup = fixture.newBackup(task);
+    backup.setResume(true);
+    BackupMetric metric = backup.submit(false).get().getMetric(task);
+
+    assertEquals("Files found", 4, metric.getFilesFound());
+    assertEquals("Journaled file skipped", 3, metric.getFilesCopied());
+    assertFalse("Journaled file not copied", new File(fixture.destination,
+        "a.txt").exists());
+    assertEquals("Changed file copied", "b", fixture.read("sub/b.txt"));
+    assertFalse("Journal deleted once complete", file.exists());
+
+    fixture.delete();
+  }
+
+  @Test
+  public void testStopAndResume() throws Exception {
+    BackupFixture fixture = new BackupFixture("run-journal");
+    int files = 40;
+    for (int i = 0; i < files; i++) {
+      fixture.write(i + ".txt", "file " + i);
+    }
+
+    // stopped part way through
+    BackupTask task = fixture.task(BackupTask.ALL);
+    Backup stopped = new StoppedBackup(task, 15);
+    stopped.setStateFolder(new File(fixture.root, "state"));
+    assertEquals("Stopped part way", 15, stopped.submit(false).get()
+        .getMetric(task).getFilesCopied());
+
+    // the rule copies every file but those of the stopped run are skipped
+    Backup backup = fixture.newBackup(task);
+    backup.setResume(true);
+    BackupMetric metric = backup.submit(false).get().getMetric(task);
+    assertEquals("Only the rest copied", files - 15, metric.getFilesCopied());
+    for (int i = 0; i < files; i++) {
+      assertEquals("Backed up", "file " + i, fixture.read(i + ".txt"));
+    }
+
+    fixture.delete();
+  }
+
+  private static BasicFileAttributes attributes(File file) throws Exception {
+    return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+  }
+
+  /**
+   * A backup that stops itself once a number of files have been processed, as
+   * the sequential engine checks for pause after each entry of a folder
+   */
+  private static class StoppedBackup extends Backup
+  {
+    private final int stopAfter;
+    private int files = 0;
+
+    StoppedBackup(BackupTask task, int stopAfter) {
+      super(new BackupTask[] { task });
+      this.stopAfter = stopAfter;
+    }
+
+    public void waitIfPaused() {
+      if (++files == stopAfter) stop();
+      super.waitIfPaused();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * SnapshotTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.run;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.Snapshot;
+
+
+public class SnapshotTest
+{
+  @Test
+  public void testLinkUnchanged() throws Exception {
+    BackupFixture fixture = new BackupFixture("snapshot");
+    fixture.write("a.txt", "unchanged");
+    fixture.write("sub/b.txt", "first");
+
+    BackupTask task = fixture.task(BackupTask.CHANGED);
+    task.setSnapshots(2);
+    run(task, false);
+    Path first = Snapshot.getLatest(fixture.destination.toPath());
+
+    fixture.write("sub/b.txt", "second");
+    BackupMetric metric = run(task, false);
+    Path second = Snapshot.getLatest(fixture.destination.toPath());
+
+    assertFalse("New snapshot", first.equals(second));
+    assertEquals("Changed file copied", 1, metric.getFilesCopied());
+    assertTrue("Unchanged file linked", Files.isSameFile(first
+        .resolve("a.txt"), second.resolve("a.txt")));
+    assertEquals("Previous snapshot kept", "first", new String(Files
+        .readAllBytes(first.resolve("sub/b.txt"))));
+    assertEquals("Changed file in snapshot", "second", new String(Files
+        .readAllBytes(second.resolve("sub/b.txt"))));
+
+    // only the two latest snapshots are kept
+    run(task, false);
+    assertFalse("Oldest snapshot deleted", Files.exists(first));
+    assertEquals("Snapshots kept", 2, fixture.destination.list().length);
+
+    fixture.delete();
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * ThrottleTest.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ */
+package com.gulland.altair.test;
+
+import static com.gulland.altair.test.BackupFixture.run;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import com.gulland.altair.BackupMetric;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.Throttle;
+
+
+public class ThrottleTest
+{
+  @Test
+  public void testBytesPerSecond() {
+    Throttle throttle = new Throttle(null);
+    throttle.setBytesPerSecond(1000000);
+    long start = System.nanoTime();
+    throttle.acquireBytes(250000, null);
+    long millis = (System.nanoTime() - start) / 1000000;
+    assertTrue("Waited for the bytes, " + millis + "ms", millis >= 200);
+  }
+
+  @Test
+  public void testRateChanged() throws Exception {
+    final Throttle throttle = new Throttle(null);
+    throttle.setBytesPerSecond(100);
+    Thread t = new Thread() {
+      public void run() {
+        throttle.acquireBytes(10000, null);
+      }
+    };
+    t.start();
+    Thread.sleep(200);
+    assertTrue("Waiting at the slow rate", t.isAlive());
+
+    // lifting the limit releases a thread already waiting
+    throttle.setBytesPerSecond(0);
+    t.join(2000);
+    assertFalse("Released", t.isAlive());
+  }
+
+  @Test
+  public void testMaxOpen() throws Exception {
+    Throttle parent = new Throttle(null);
+    final Throttle throttle = new Throttle(parent);
+    parent.setMaxOpen(1);
+    throttle.open();
+
+    final AtomicBoolean opened = new AtomicBoolean();
+    Thread t = new Thread() {
+      public void run() {
+        throttle.open();
+        opened.set(true);
+        throttle.close();
+      }
+    };
+    t.start();
+    Thread.sleep(200);
+    assertFalse("Held by the limit of the parent", opened.get());
+
+    throttle.close();
+    t.join(2000);
+    assertTrue("Opened once closed", opened.get());
+  }
+
+  @Test
+  public void testThrottledTask() throws Exception {
+    BackupFixture fixture = new BackupFixture("throttle");
+    byte[] data = new byte[50000];
+    for (int i = 0; i < 4; i++) {
+      fixture.write(i + ".dat", data);
+    }
+
+    BackupTask task = fixture.task(BackupTask.ALL);
+    task.setBytesPerSecond(400000);
+    task.setMaxOpen(1);
+    long start = System.nanoTime();
+    BackupMetric metric = run(task, false);
+    long millis = (System.nanoTime() - start) / 1000000;
+
+    assertEquals("All copied", 4, metric.getFilesCopied());
+    assertTrue("Kept to the rate, " + millis + "ms", millis >= 350);
+
+    fixture.delete();
+  }
+}
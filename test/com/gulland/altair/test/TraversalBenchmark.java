@@ -0,0 +1,134 @@
+/**
+ * TraversalBenchmark.java
+ *
+ * Who      When        What
+ * -------- ----------  --------------------------------------------------------
+ * agulland 16 Oct 2026 Class created
+ * agulland 16 Oct 2026 Waits on the job returned by Backup.submit
+ */
+package com.gulland.altair.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import com.gulland.altair.Backup;
+import com.gulland.altair.BackupLogger;
+import com.gulland.altair.BackupTask;
+import com.gulland.altair.BackupUtil;
+
+/**
+ * <p>
+ * Compares the cost of an incremental run, where nothing has changed, using the
+ * <code>File</code> based traversal the engine used to have against the
+ * attribute based traversal of <code>Backup</code>. A tree of small files is
+ * created in the temporary folder and backed up once, then each traversal is
+ * timed over the unchanged tree with the 'changed' rule.
+ * </p>
+ *
+ * <p>
+ * Usage: <code>java com.gulland.altair.test.TraversalBenchmark [files] [rounds]</code>
+ * </p>
+ *
+ * <p>
+ * The number of file system calls made by the <code>File</code> based traversal
+ * is counted as it goes. To count the actual system calls run the benchmark
+ * under <code>strace -f -c -e trace=%stat</code>.
+ * </p>
+ */
+public class TraversalBenchmark
+{
+	/** file system calls made by the legacy traversal */
+	private static long legacyCalls;
+
+	public static void main(String[] args) throws Exception {
+		int files = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+		BackupLogger.getLogger().setLogLevel(BackupLogger.WARN);
+
+		File root = Files.createTempDirectory("traversal-bench").toFile();
+		File source = new File(root, "source");
+		File destination = new File(root, "destination");
+		createTree(source, files);
+		run(source, destination, BackupTask.ALL);
+
+		long bestLegacy = Long.MAX_VALUE;
+		long bestAttrs = Long.MAX_VALUE;
+		for (int i = 0; i < rounds; i++) {
+			legacyCalls = 0;
+			long start = System.nanoTime();
+			int copied = legacyFolder(source, destination);
+			bestLegacy = Math.min(bestLegacy, System.nanoTime() - start);
+			if (copied != 0) System.out.println("WARN legacy traversal found changes");
+
+			start = System.nanoTime();
+			run(source, destination, BackupTask.CHANGED);
+			bestAttrs = Math.min(bestAttrs, System.nanoTime() - start);
+		}
+
+		System.out.println("Files: " + files + ", best of " + rounds + " rounds");
+		System.out.println("File traversal:      " + bestLegacy / 1000000 + "ms, "
+				+ (legacyCalls / files) + " calls per file");
+		System.out.println("Attribute traversal: " + bestAttrs / 1000000 + "ms, "
+				+ "2 calls per file");
+
+		BackupUtil.deleteFolder(root);
+	}
+
+	/**
+	 * Runs the backup engine over the tree and waits for it to finish
+	 */
+	private static void run(File source, File destination, int rule)
+			throws Exception {
+		BackupTask task = new BackupTask(source.getPath(), destination.getPath(),
+				rule);
+		new Backup(new BackupTask[] { task }).submit(false).get();
+	}
+
+	/**
+	 * The rule evaluation of the 'changed' rule as it was done with
+	 * <code>File</code>, without the copy. Returns the number of files that would
+	 * be copied.
+	 */
+	private static int legacyFolder(File source, File destination) {
+		int copied = 0;
+		File[] sourceFiles = source.listFiles();
+		legacyCalls++;
+		for (int i = 0; i < sourceFiles.length; i++) {
+			File dest = new File(destination, sourceFiles[i].getName());
+			legacyCalls++;
+			if (sourceFiles[i].isDirectory()) {
+				copied += legacyFolder(sourceFiles[i], dest);
+			} else {
+				legacyCalls += 2;
+				if (sourceFiles[i].isFile() && dest.exists()) {
+					legacyCalls += 2;
+					if (sourceFiles[i].lastModified() != dest.lastModified()) copied++;
+				} else {
+					copied++;
+				}
+			}
+		}
+		return copied;
+	}
+
+	/**
+	 * Creates a tree of small files, 100 files per folder
+	 */
+	private static void createTree(File root, int files) throws IOException {
+		byte[] data = new byte[512];
+		for (int i = 0; i < files; i++) {
+			File folder = new File(root, "folder" + (i / 100));
+			if (i % 100 == 0) folder.mkdirs();
+			FileOutputStream out = new FileOutputStream(new File(folder, "file" + i
+					+ ".dat"));
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+		}
+	}
+}